@@ -0,0 +1,65 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.AWTUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * Synthetic benchmark inputs at the standard output resolutions.
+ */
+final class BenchmarkImages {
+
+    /**
+     * Resolution names accepted by the benchmarks' {@code resolution} parameter
+     */
+    static final String RESOLUTIONS = "720p,1080p,4k,8k";
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * @return {width, height} of a resolution name: 720p, 1080p, 4k or 8k
+     */
+    static int[] dimensions(String resolution) {
+        return switch (resolution.toLowerCase(Locale.ROOT)) {
+            case "720p" -> new int[]{1280, 720};
+            case "1080p" -> new int[]{1920, 1080};
+            case "4k" -> new int[]{3840, 2160};
+            case "8k" -> new int[]{7680, 4320};
+            default -> throw new IllegalArgumentException("Unknown resolution: " + resolution);
+        };
+    }
+
+    /**
+     * A photo-like test image: smooth gradients plus per-pixel noise, so the encoder has real
+     * residual to code and the result does not compress to nothing.
+     */
+    static BufferedImage image(int width, int height, int seed) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        int noise = seed * 0x9E3779B9;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                noise = noise * 1103515245 + 12345;
+                int n = (noise >>> 28) - 8;
+                int r = clamp(((x * 255 / width + seed * 40) & 0xFF) + n);
+                int g = clamp(((y * 255 / height + seed * 80) & 0xFF) + n);
+                int b = clamp((((x + y) * 127 / (width + height) + seed * 20) & 0xFF) + n);
+                row[x] = (r << 16) | (g << 8) | b;
+            }
+            img.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return img;
+    }
+
+    static Picture picture(int width, int height, int seed) {
+        return AWTUtil.fromBufferedImage(image(width, height, seed), ColorSpace.YUV420J);
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(255, v));
+    }
+}
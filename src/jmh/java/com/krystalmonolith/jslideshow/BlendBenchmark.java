@@ -0,0 +1,57 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV dissolve and fade blending of one frame ({@link YuvBlender}, the former {@code blendImages}).
+ * The kernel (SIMD or scalar) is printed at setup; forks add the Vector API module.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class BlendBenchmark {
+
+    @Param({"720p", "1080p", "4k", "8k"})
+    public String resolution;
+
+    private Picture from;
+    private Picture to;
+    private Picture dst;
+
+    @Setup
+    public void setUp() {
+        int[] size = BenchmarkImages.dimensions(resolution);
+        from = BenchmarkImages.picture(size[0], size[1], 1);
+        to = BenchmarkImages.picture(size[0], size[1], 5);
+        dst = YuvBlender.createLike(from);
+        System.out.println("Blend kernel: " + YuvBlender.kernelName());
+    }
+
+    @Benchmark
+    public Picture dissolve() {
+        YuvBlender.dissolve(from, to, YuvBlender.ONE / 3, dst);
+        return dst;
+    }
+
+    @Benchmark
+    public Picture fadeToBlack() {
+        YuvBlender.fadeToBlack(from, YuvBlender.ONE / 3, dst);
+        return dst;
+    }
+}
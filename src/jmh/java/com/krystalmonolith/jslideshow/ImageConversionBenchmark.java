@@ -0,0 +1,85 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.AWTUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-image preparation stages: JPEG decode, letterboxing (the former {@code centerOnBlack}) and
+ * RGB to YUV420 conversion with {@link AWTUtil#fromBufferedImage}, against {@link YuvConverter},
+ * which letterboxes while converting straight from the raster.
+ * <p>
+ * The letterbox source is 3:2 and 1.5x the output height, so every run both resizes and pads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class ImageConversionBenchmark {
+
+    @Param({"720p", "1080p", "4k", "8k"})
+    public String resolution;
+
+    private int width;
+    private int height;
+    private BufferedImage frame;
+    private BufferedImage photo;
+    private byte[] jpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        int[] size = BenchmarkImages.dimensions(resolution);
+        width = size[0];
+        height = size[1];
+        frame = BenchmarkImages.image(width, height, 2);
+        int photoHeight = height * 3 / 2;
+        photo = BenchmarkImages.image(photoHeight * 3 / 2, photoHeight, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(frame, "jpg", bytes);
+        jpeg = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return ImageScaler.decode(jpeg, "benchmark.jpg", width, height);
+    }
+
+    @Benchmark
+    public BufferedImage letterbox() {
+        return ImageScaler.letterbox(photo, width, height);
+    }
+
+    @Benchmark
+    public Picture fromBufferedImage() {
+        return AWTUtil.fromBufferedImage(frame, ColorSpace.YUV420J);
+    }
+
+    @Benchmark
+    public Picture yuvConverter() {
+        return YuvConverter.centered(frame, width, height);
+    }
+
+    @Benchmark
+    public Picture letterboxToYuv() {
+        return YuvConverter.letterbox(photo, width, height);
+    }
+}
@@ -0,0 +1,105 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.containers.mp4.MP4Packet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@code muxerLoop} throughput per frame: pre-encoded dissolve segments are queued in full
+ * channels, so only the muxer and the output's file writes are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class MuxBenchmark {
+
+    static final int SEGMENTS = 8;
+    static final int FRAMES = EncoderContext.KEY_INTERVAL;
+    static final int FRAME_RATE = 30;
+
+    @Param({"720p", "1080p", "4k", "8k"})
+    public String resolution;
+
+    @Param({"MP4", "FMP4", "HLS"})
+    public OutputFormat format;
+
+    private int width;
+    private int height;
+    private List<MP4Packet> packets;
+    private Path dir;
+    private BlockingQueue<SegmentChannel> queue;
+
+    @Setup
+    public void setUp() throws Exception {
+        int[] size = BenchmarkImages.dimensions(resolution);
+        width = size[0];
+        height = size[1];
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1, FRAMES);
+        packets = new ArrayList<>(FRAMES);
+        JCodecParallelEncoder.encodeTransitionSegment(EncoderContext.current(), spec, Transition.DISSOLVE,
+                BenchmarkImages.picture(width, height, 1), BenchmarkImages.picture(width, height, 5),
+                FRAME_RATE, packets::add);
+        dir = Files.createTempDirectory("jslideshow-mux");
+    }
+
+    @Setup(Level.Invocation)
+    public void fillChannels() throws InterruptedException {
+        queue = new LinkedBlockingQueue<>();
+        for (int s = 0; s < SEGMENTS; s++) {
+            SegmentChannel channel = new SegmentChannel(s, FRAMES + 1);
+            for (MP4Packet packet : packets) {
+                channel.accept(packet);
+            }
+            channel.close();
+            queue.put(channel);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS * FRAMES)
+    public void muxerLoop() throws Exception {
+        File output = dir.resolve(format == OutputFormat.HLS ? "out.m3u8" : "out.mp4").toFile();
+        try (VideoOutput out = VideoOutput.open(format, output, width, height, FRAME_RATE,
+                (double) FRAMES / FRAME_RATE);
+             SegmentScheduler scheduler = new SegmentScheduler(1, SEGMENTS)) {
+            JCodecParallelEncoder.muxerLoop(queue, SEGMENTS, (long) SEGMENTS * FRAMES, out, scheduler,
+                    RunStats.NONE, JCodecParallelEncoder.NO_PROGRESS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding one segment of each type into a sink that discards packets, reported per frame.
+ * Covers the {@code encodeFrames} loop (dissolve and fade: blend + encode per frame) and the
+ * hold fast path (one IDR plus skip frames).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Djava.awt.headless=true"})
+@State(Scope.Thread)
+public class SegmentEncodeBenchmark {
+
+    /**
+     * Frames per benchmarked segment: one key interval
+     */
+    static final int FRAMES = EncoderContext.KEY_INTERVAL;
+
+    @Param({"720p", "1080p", "4k", "8k"})
+    public String resolution;
+
+    @Param({"HOLD", "DISSOLVE", "FADE_IN"})
+    public JCodecParallelEncoder.SegmentType type;
+
+    private EncoderContext ctx;
+    private JCodecParallelEncoder.SegmentSpec spec;
+    private Picture a;
+    private Picture b;
+
+    @Setup
+    public void setUp() {
+        int[] size = BenchmarkImages.dimensions(resolution);
+        a = BenchmarkImages.picture(size[0], size[1], 1);
+        b = BenchmarkImages.picture(size[0], size[1], 5);
+        ctx = EncoderContext.current();
+        int imageB = type == JCodecParallelEncoder.SegmentType.DISSOLVE ? 1 : -1;
+        spec = new JCodecParallelEncoder.SegmentSpec(0, type, 0, imageB, FRAMES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void encodeSegment(Blackhole bh) throws InterruptedException {
+        switch (type) {
+            case HOLD -> JCodecParallelEncoder.encodeHoldSegment(ctx, spec, a, 30, bh::consume);
+            case DISSOLVE -> JCodecParallelEncoder.encodeTransitionSegment(ctx, spec, Transition.DISSOLVE, a, b, 30,
+                    bh::consume);
+            case FADE_IN, FADE_OUT -> JCodecParallelEncoder.encodeTransitionSegment(ctx, spec, Transition.DISSOLVE, a,
+                    30, bh::consume);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.krystalmonolith.jslideshow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the segment plan for large albums, with and without GOP splitting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SegmentPlanBenchmark {
+
+    @Param({"100", "10000"})
+    public int images;
+
+    @Param({"0", "30"})
+    public int maxGopFrames;
+
+    @Benchmark
+    public List<JCodecParallelEncoder.SegmentSpec> buildSegmentSpecs() {
+        return JCodecParallelEncoder.buildSegmentSpecs(images, 90, 22, maxGopFrames);
+    }
+}
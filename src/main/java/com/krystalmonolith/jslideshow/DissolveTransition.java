@@ -0,0 +1,47 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+/**
+ * {@link Transition#DISSOLVE}: mixes the planes of the two images with {@link YuvBlender}, or
+ * scales one image's planes towards black when the other side is black.
+ */
+final class DissolveTransition implements Transition {
+
+    @Override
+    public String name() {
+        return "dissolve";
+    }
+
+    @Override
+    public Picture render(Picture from, Picture to, int frame, int frames, Picture dest) {
+        int weight = YuvBlender.weight(frame, frames);
+        if (from == null) {
+            int towardBlack = YuvBlender.ONE - weight;
+            if (towardBlack == 0) {
+                return to;
+            }
+            YuvBlender.fadeToBlack(to, towardBlack, dest);
+        } else if (to == null) {
+            if (weight == 0) {
+                return from;
+            }
+            YuvBlender.fadeToBlack(from, weight, dest);
+        } else {
+            if (weight == YuvBlender.ONE) {
+                return to;
+            }
+            YuvBlender.dissolve(from, to, weight, dest);
+        }
+        return dest;
+    }
+
+    /**
+     * Frames repeat only in transitions longer than {@link YuvBlender#ONE} frames, where
+     * neighbouring frames can round to the same weight.
+     */
+    @Override
+    public boolean isStatic(int frame, int frames) {
+        return frame > 0 && YuvBlender.weight(frame, frames) == YuvBlender.weight(frame - 1, frames);
+    }
+}
@@ -0,0 +1,207 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.codecs.h264.H264Encoder;
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-worker encoding state reused across frames and segments: one H.264 encoder and its rate
+ * control, one output buffer, one blend destination picture, the pictures an off-heap
+ * {@link FrameStore} copies a segment's images into, and a decoder for measuring quality.
+ * <p>
+ * Every segment starts with an IDR frame, which resets the encoder's SPS/PPS and reference
+ * state, so a single encoder can serve any number of segments in sequence. Instances are not
+ * thread safe; each worker thread gets its own through {@link #current()}.
+ */
+final class EncoderContext {
+
+    /**
+     * Frames between IDR frames inside a segment (JCodec's default key interval).
+     */
+    static final int KEY_INTERVAL = 25;
+
+    /**
+     * Motion search range of preview P-frames, in pixels
+     */
+    static final int PREVIEW_SEARCH_RANGE = 4;
+
+    private static final ThreadLocal<EncoderContext> CONTEXT = ThreadLocal.withInitial(EncoderContext::new);
+
+    private final SegmentRateControl rateControl = new SegmentRateControl();
+    private final H264Encoder encoder = new H264Encoder(rateControl);
+    private final int searchRange;
+    private H264Decoder decoder;
+    private byte[][] decodeBuffer;
+    private ByteBuffer decodeInput;
+    private double[] lastPsnr;
+    private ByteBuffer outputBuffer;
+    private Picture blendTarget;
+    private final Picture[] storedImages = new Picture[2];
+    private RunStats stats = RunStats.NONE;
+    private int frameStep = 1;
+
+    private EncoderContext() {
+        encoder.setKeyInterval(KEY_INTERVAL);
+        searchRange = encoder.getMotionSearchRange();
+    }
+
+    /**
+     * @return the context owned by the calling worker thread
+     */
+    static EncoderContext current() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * Counters of the run this worker is currently encoding for.
+     */
+    RunStats stats() {
+        return stats;
+    }
+
+    void setStats(RunStats stats) {
+        this.stats = stats;
+    }
+
+    H264Encoder encoder() {
+        return encoder;
+    }
+
+    /**
+     * Rate control the next segment's frames at {@code mode}.
+     *
+     * @param mode      rate mode, or null for JCodec's default
+     * @param frameRate frames per second
+     */
+    void startSegment(RateMode mode, int frameRate) {
+        startSegment(mode, frameRate, 1);
+    }
+
+    /**
+     * Rate control the next segment's frames at {@code mode}, encoding only every
+     * {@code frameStep}-th frame. With a step above 1 the segment is a preview: each encoded frame
+     * is shown for {@code frameStep} frames and P-frames search a range of only
+     * {@link #PREVIEW_SEARCH_RANGE} pixels for motion.
+     *
+     * @param mode      rate mode, or null for JCodec's default
+     * @param frameRate frames per second
+     * @param frameStep frames each encoded frame stands for, 1 to encode every frame
+     */
+    void startSegment(RateMode mode, int frameRate, int frameStep) {
+        rateControl.startSegment(mode, Math.max(1, frameRate / frameStep));
+        encoder.setMotionSearchRange(frameStep > 1 ? PREVIEW_SEARCH_RANGE : searchRange);
+        this.frameStep = frameStep;
+    }
+
+    /**
+     * Frames each encoded frame of the current segment stands for.
+     */
+    int frameStep() {
+        return frameStep;
+    }
+
+    /**
+     * When the run measures quality, decode a frame just encoded from {@code source} and count its
+     * size and PSNR. Frames must be passed in encoding order from the start of the segment, since
+     * P-frames decode against the frames before them.
+     */
+    void measure(JCodecParallelEncoder.SegmentType type, Picture source, ByteBuffer encoded) {
+        QualityStats quality = stats.quality();
+        if (quality == null) {
+            return;
+        }
+        int size = encoded.remaining();
+        if (decoder == null) {
+            decoder = new H264Decoder();
+        }
+        int width = (source.getWidth() + 15) & ~15;
+        int height = (source.getHeight() + 15) & ~15;
+        if (decodeBuffer == null || decodeBuffer[0].length < width * height) {
+            decodeBuffer = Picture.create(width, height, ColorSpace.YUV420).getData();
+        }
+        // the decoder unescapes its input in place, so it gets a copy of the packet
+        if (decodeInput == null || decodeInput.capacity() < size) {
+            decodeInput = ByteBuffer.allocate(Math.max(size, 64 * 1024));
+        }
+        decodeInput.clear();
+        decodeInput.put(encoded.duplicate()).flip();
+        Picture decoded = decoder.decodeFrame(decodeInput, decodeBuffer);
+        lastPsnr = QualityStats.psnr(source, decoded);
+        quality.frame(type, size, lastPsnr[0], lastPsnr[1]);
+    }
+
+    /**
+     * Count a frame that repeats the last measured picture exactly (an all-skip P-frame).
+     */
+    void measureRepeat(JCodecParallelEncoder.SegmentType type, int bytes) {
+        QualityStats quality = stats.quality();
+        if (quality != null && lastPsnr != null) {
+            quality.frame(type, bytes, lastPsnr[0], lastPsnr[1]);
+        }
+    }
+
+    /**
+     * Return the cleared output buffer, growing it once if {@code pic} needs more room.
+     */
+    ByteBuffer outputBuffer(Picture pic) {
+        int size = pic.getWidth() * pic.getHeight() * 3;
+        if (outputBuffer == null || outputBuffer.capacity() < size) {
+            outputBuffer = ByteBuffer.allocate(size);
+        }
+        outputBuffer.clear();
+        return outputBuffer;
+    }
+
+    /**
+     * Return the reusable blend destination picture with the same geometry as {@code like}.
+     */
+    Picture blendTarget(Picture like) {
+        if (blendTarget == null || blendTarget.getWidth() != like.getWidth()
+                || blendTarget.getHeight() != like.getHeight()) {
+            blendTarget = YuvBlender.createLike(like);
+        }
+        return blendTarget;
+    }
+
+    /**
+     * Return reusable picture {@code slot} (0 or 1) with the given geometry, for an image copied out
+     * of an off-heap store.
+     */
+    Picture storedImage(int slot, int width, int height) {
+        Picture picture = storedImages[slot];
+        if (picture == null || picture.getWidth() != width || picture.getHeight() != height) {
+            picture = Picture.create(width, height, ColorSpace.YUV420J);
+            storedImages[slot] = picture;
+        }
+        return picture;
+    }
+
+    /**
+     * Encode one frame of a segment: an IDR every {@link #KEY_INTERVAL} frames, otherwise a P-frame.
+     * The returned buffer is a view into the shared output buffer and is only valid until the next call.
+     * <p>
+     * P-frames go through {@code doEncodeFrame} with their frame number since the IDR frame:
+     * JCodec's {@code encodePFrame} flags them as IDR, which makes it log a warning to stdout and
+     * write SPS/PPS into every frame.
+     *
+     * @param pic        YUV420J frame
+     * @param localFrame encoded frame index within the segment
+     * @return encoded Annex B data
+     */
+    ByteBuffer encode(Picture pic, int localFrame) {
+        ByteBuffer out = outputBuffer(pic);
+        long start = stats.start();
+        ByteBuffer encoded = isKeyFrame(localFrame) ? encoder.encodeIDRFrame(pic, out)
+                : encoder.doEncodeFrame(pic, out, false, localFrame % KEY_INTERVAL, SliceType.P);
+        stats.stop(RunStats.Stage.ENCODE, start);
+        return encoded;
+    }
+
+    static boolean isKeyFrame(int localFrame) {
+        return localFrame % KEY_INTERVAL == 0;
+    }
+}
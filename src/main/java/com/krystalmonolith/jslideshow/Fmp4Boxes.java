@@ -0,0 +1,217 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.common.model.Size;
+import org.jcodec.containers.mp4.boxes.VideoSampleEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Builds the boxes of a fragmented MP4 (ISO BMFF) stream with a single H.264 video track:
+ * an initialization segment ({@code ftyp} + {@code moov} with {@code mvex}) and movie fragments
+ * ({@code moof} + {@code mdat}). Samples use a timescale of one tick per frame.
+ * <p>
+ * The avc1 sample entry and its avcC come from JCodec; everything else is written here, since
+ * JCodec's own muxer only produces non-fragmented files.
+ */
+final class Fmp4Boxes {
+
+    static final int TRACK_ID = 1;
+
+    /**
+     * trun sample flags: sample_depends_on = 2 (independent)
+     */
+    private static final int SYNC_SAMPLE_FLAGS = 0x0200_0000;
+
+    /**
+     * trun sample flags: sample_depends_on = 1, sample_is_non_sync_sample = 1
+     */
+    private static final int NON_SYNC_SAMPLE_FLAGS = 0x0101_0000;
+
+    private static final int[] UNITY_MATRIX = {0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000};
+
+    private Fmp4Boxes() {
+    }
+
+    /**
+     * Initialization segment for a track of the given size and frame rate.
+     *
+     * @param spsList SPS NAL units (without start codes)
+     * @param ppsList PPS NAL units (without start codes)
+     */
+    static ByteBuffer initSegment(int width, int height, int frameRate,
+                                  List<ByteBuffer> spsList, List<ByteBuffer> ppsList) {
+        VideoSampleEntry avc1 = VideoSampleEntry.videoSampleEntry("avc1", new Size(width, height), "jslideshow");
+        avc1.add(H264Utils.createAvcCFromPS(spsList, ppsList, 4));
+        ByteBuffer sampleEntry = ByteBuffer.allocate(avc1.estimateSize() + 256);
+        avc1.write(sampleEntry);
+        sampleEntry.flip();
+
+        BoxWriter w = new BoxWriter(1024 + sampleEntry.remaining());
+        w.start("ftyp").fourcc("iso6").putInt(0).fourcc("iso6").fourcc("iso5").fourcc("mp41").fourcc("avc1").end();
+
+        w.start("moov");
+        w.startFull("mvhd", 0, 0).putInt(0).putInt(0).putInt(frameRate).putInt(0)
+                .putInt(0x10000).putShort(0x100).putShort(0).putInt(0).putInt(0)
+                .putInts(UNITY_MATRIX).putInts(new int[6]).putInt(TRACK_ID + 1).end();
+
+        w.start("trak");
+        w.startFull("tkhd", 0, 3).putInt(0).putInt(0).putInt(TRACK_ID).putInt(0).putInt(0)
+                .putInt(0).putInt(0).putShort(0).putShort(0).putShort(0).putShort(0)
+                .putInts(UNITY_MATRIX).putInt(width << 16).putInt(height << 16).end();
+        w.start("mdia");
+        w.startFull("mdhd", 0, 0).putInt(0).putInt(0).putInt(frameRate).putInt(0)
+                .putShort(0x55C4 /* "und" */).putShort(0).end();
+        w.startFull("hdlr", 0, 0).putInt(0).fourcc("vide").putInt(0).putInt(0).putInt(0)
+                .putString("VideoHandler").end();
+        w.start("minf");
+        w.startFull("vmhd", 0, 1).putShort(0).putShort(0).putShort(0).putShort(0).end();
+        w.start("dinf");
+        w.startFull("dref", 0, 0).putInt(1);
+        w.startFull("url ", 0, 1).end();
+        w.end(); // dref
+        w.end(); // dinf
+        w.start("stbl");
+        w.startFull("stsd", 0, 0).putInt(1).put(sampleEntry).end();
+        w.startFull("stts", 0, 0).putInt(0).end();
+        w.startFull("stsc", 0, 0).putInt(0).end();
+        w.startFull("stsz", 0, 0).putInt(0).putInt(0).end();
+        w.startFull("stco", 0, 0).putInt(0).end();
+        w.end(); // stbl
+        w.end(); // minf
+        w.end(); // mdia
+        w.end(); // trak
+
+        w.start("mvex");
+        w.startFull("trex", 0, 0).putInt(TRACK_ID).putInt(1).putInt(1).putInt(0).putInt(0).end();
+        w.end(); // mvex
+        w.end(); // moov
+        return w.finish();
+    }
+
+    /**
+     * One movie fragment holding consecutive samples.
+     *
+     * @param sequenceNumber     fragment sequence number, starting at 1
+     * @param baseMediaDecodeTime decode time of the first sample, in frames
+     * @param samples            length-prefixed (AVCC) sample data
+     * @param keyFrames          whether each sample is a sync sample
+     * @param durations          each sample's duration in frames
+     */
+    static ByteBuffer fragment(int sequenceNumber, long baseMediaDecodeTime,
+                               List<ByteBuffer> samples, List<Boolean> keyFrames, List<Integer> durations) {
+        // the default duration of one frame covers every sample unless some are longer (a preview)
+        boolean sampleDurations = durations.stream().anyMatch(d -> d != 1);
+        int payload = samples.stream().mapToInt(ByteBuffer::remaining).sum();
+        BoxWriter w = new BoxWriter(256 + 12 * samples.size() + payload);
+
+        w.start("moof");
+        w.startFull("mfhd", 0, 0).putInt(sequenceNumber).end();
+        w.start("traf");
+        // default-base-is-moof | default-sample-duration-present
+        w.startFull("tfhd", 0, 0x020008).putInt(TRACK_ID).putInt(1).end();
+        w.startFull("tfdt", 1, 0).putLong(baseMediaDecodeTime).end();
+        // data-offset | sample-size | sample-flags, and sample-duration when needed
+        w.startFull("trun", 0, sampleDurations ? 0x000701 : 0x000601).putInt(samples.size());
+        int dataOffsetAt = w.position();
+        w.putInt(0);
+        for (int i = 0; i < samples.size(); i++) {
+            if (sampleDurations) {
+                w.putInt(durations.get(i));
+            }
+            w.putInt(samples.get(i).remaining())
+                    .putInt(keyFrames.get(i) ? SYNC_SAMPLE_FLAGS : NON_SYNC_SAMPLE_FLAGS);
+        }
+        w.end(); // trun
+        w.end(); // traf
+        w.end(); // moof
+        w.patchInt(dataOffsetAt, w.position() + 8);
+
+        w.start("mdat");
+        for (ByteBuffer sample : samples) {
+            w.put(sample.duplicate());
+        }
+        w.end();
+        return w.finish();
+    }
+
+    /**
+     * Minimal big-endian box writer with nested size back-patching.
+     */
+    private static final class BoxWriter {
+        private final ByteBuffer buf;
+        private final int[] starts = new int[16];
+        private int depth;
+
+        BoxWriter(int capacity) {
+            buf = ByteBuffer.allocate(capacity);
+        }
+
+        BoxWriter start(String type) {
+            starts[depth++] = buf.position();
+            buf.putInt(0);
+            return fourcc(type);
+        }
+
+        BoxWriter startFull(String type, int version, int flags) {
+            return start(type).putInt((version << 24) | flags);
+        }
+
+        BoxWriter end() {
+            int start = starts[--depth];
+            buf.putInt(start, buf.position() - start);
+            return this;
+        }
+
+        BoxWriter fourcc(String fourcc) {
+            buf.put(fourcc.getBytes(StandardCharsets.US_ASCII));
+            return this;
+        }
+
+        BoxWriter putInt(int v) {
+            buf.putInt(v);
+            return this;
+        }
+
+        BoxWriter putInts(int[] values) {
+            for (int v : values) {
+                buf.putInt(v);
+            }
+            return this;
+        }
+
+        BoxWriter putShort(int v) {
+            buf.putShort((short) v);
+            return this;
+        }
+
+        BoxWriter putLong(long v) {
+            buf.putLong(v);
+            return this;
+        }
+
+        BoxWriter putString(String s) {
+            buf.put(s.getBytes(StandardCharsets.UTF_8)).put((byte) 0);
+            return this;
+        }
+
+        BoxWriter put(ByteBuffer data) {
+            buf.put(data);
+            return this;
+        }
+
+        int position() {
+            return buf.position();
+        }
+
+        void patchInt(int at, int v) {
+            buf.putInt(at, v);
+        }
+
+        ByteBuffer finish() {
+            return buf.flip();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.containers.mp4.MP4Packet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fragmented MP4 output: an initialization segment followed by one movie fragment per key
+ * interval, each written as soon as its frames arrive. A segment always ends its last fragment,
+ * so every segment starts a new fragment with its IDR frame. The file is playable (and can be
+ * served progressively) while it is still being written, and since it is written strictly
+ * front to back it can go to any {@link WritableByteChannel}, such as a network response.
+ * <p>
+ * SPS/PPS are taken from the first frame for the init segment and stripped from all samples;
+ * every worker's encoder is configured identically, so they are the same for all segments.
+ */
+class FragmentedMp4Output implements VideoOutput {
+
+    /**
+     * Maximum frames per fragment, bounding what is buffered before it is written
+     */
+    static final int FRAGMENT_FRAMES = EncoderContext.KEY_INTERVAL;
+
+    protected final int frameRate;
+    private final int width;
+    private final int height;
+    private final WritableByteChannel out;
+    private final boolean closeOut;
+
+    private final List<ByteBuffer> spsList = new ArrayList<>();
+    private final List<ByteBuffer> ppsList = new ArrayList<>();
+    private boolean initWritten;
+
+    private final List<ByteBuffer> samples = new ArrayList<>(FRAGMENT_FRAMES);
+    private final List<Boolean> keyFrames = new ArrayList<>(FRAGMENT_FRAMES);
+    private final List<Integer> durations = new ArrayList<>(FRAGMENT_FRAMES);
+    private int sequenceNumber = 1;
+    private long framesWritten;
+
+    FragmentedMp4Output(File output, int width, int height, int frameRate) throws IOException {
+        this(width, height, frameRate, FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), true);
+    }
+
+    /**
+     * Write to a caller's channel, which is left open.
+     */
+    FragmentedMp4Output(WritableByteChannel out, int width, int height, int frameRate) {
+        this(width, height, frameRate, out, false);
+    }
+
+    /**
+     * @param out      single output, or null if the subclass routes all writes elsewhere
+     * @param closeOut close {@code out} when this output is closed
+     */
+    protected FragmentedMp4Output(int width, int height, int frameRate, WritableByteChannel out, boolean closeOut) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.out = out;
+        this.closeOut = closeOut;
+    }
+
+    @Override
+    public void beginSegment(int segmentIndex) throws IOException {
+    }
+
+    @Override
+    public void writeFrame(MP4Packet packet) throws IOException {
+        ByteBuffer data = packet.getData().duplicate();
+        if (!initWritten) {
+            H264Utils.wipePSinplace(data, spsList, ppsList);
+            if (spsList.isEmpty() || ppsList.isEmpty()) {
+                throw new IOException("First frame carries no SPS/PPS; cannot write the fMP4 init segment");
+            }
+            writeInitSegment(Fmp4Boxes.initSegment(width, height, frameRate, spsList, ppsList));
+            initWritten = true;
+        } else {
+            H264Utils.wipePSinplace(data, null, null);
+        }
+        samples.add(H264Utils.encodeMOVPacket(data));
+        keyFrames.add(packet.isKeyFrame());
+        durations.add((int) packet.getDuration());
+        if (samples.size() >= FRAGMENT_FRAMES) {
+            flushFragment();
+        }
+    }
+
+    @Override
+    public void endSegment() throws IOException {
+        flushFragment();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        flushFragment();
+        if (out instanceof FileChannel file) {
+            file.force(false);
+        }
+    }
+
+    @Override
+    public long framesWritten() {
+        return framesWritten;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeOut && out != null) {
+            out.close();
+        }
+    }
+
+    private void flushFragment() throws IOException {
+        if (samples.isEmpty()) {
+            return;
+        }
+        int frames = durations.stream().mapToInt(Integer::intValue).sum();
+        writeFragment(Fmp4Boxes.fragment(sequenceNumber++, framesWritten, samples, keyFrames, durations), frames);
+        framesWritten += frames;
+        samples.clear();
+        keyFrames.clear();
+        durations.clear();
+    }
+
+    protected void writeInitSegment(ByteBuffer init) throws IOException {
+        writeFully(out, init);
+    }
+
+    /**
+     * @param frames frames of the timeline the fragment covers
+     */
+    protected void writeFragment(ByteBuffer fragment, int frames) throws IOException {
+        writeFully(out, fragment);
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ImageStore} keeping YUV planes off the Java heap in {@link MemorySegment}s.
+ * <p>
+ * Each stored image gets its own shared {@link Arena}: native memory while the store's RAM limit
+ * allows, otherwise a memory-mapped temp file in the spill directory (unlinked as soon as it is
+ * mapped, so nothing is left behind even if the process dies). {@link #release} closes the arena,
+ * which frees the memory or unmaps the file at once rather than whenever a GC gets to it. Encoder
+ * threads copy an image's planes into pictures owned by their {@link EncoderContext} at the start
+ * of each segment, so the heap holds two pictures per worker instead of every loaded image, and
+ * large inputs are bounded by disk space rather than by {@code -Xmx}.
+ */
+final class FrameStore implements ImageStore {
+
+    private record Entry(Arena arena, MemorySegment planes, int width, int height, int[] planeSizes, boolean spilled) {
+    }
+
+    private final long ramLimit;
+    private final Path spillDirectory;
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    private long ramBytes;
+    private long peakRamBytes;
+    private long spilledBytes;
+    private int spilledImages;
+
+    /**
+     * @param ramLimit       native memory used before images spill to disk
+     * @param spillDirectory directory for memory-mapped spill files
+     */
+    FrameStore(long ramLimit, Path spillDirectory) {
+        if (ramLimit < 0) throw new IllegalArgumentException("ramLimit must be >= 0");
+        this.ramLimit = ramLimit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public boolean contains(int index) {
+        return entries.containsKey(index);
+    }
+
+    @Override
+    public void put(int index, Picture picture) {
+        int[] planeSizes = new int[3];
+        long size = 0;
+        for (int p = 0; p < planeSizes.length; p++) {
+            planeSizes[p] = picture.getPlaneData(p).length;
+            size += planeSizes[p];
+        }
+        boolean spill;
+        synchronized (this) {
+            spill = ramBytes + size > ramLimit;
+            if (!spill) {
+                ramBytes += size;
+                peakRamBytes = Math.max(peakRamBytes, ramBytes);
+            }
+        }
+
+        Arena arena = Arena.ofShared();
+        MemorySegment planes;
+        try {
+            planes = spill ? map(arena, size) : arena.allocate(size);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            synchronized (this) {
+                if (!spill) {
+                    ramBytes -= size;
+                }
+            }
+            throw e instanceof IOException io
+                    ? new UncheckedIOException("Cannot spill image " + index + " to " + spillDirectory, io)
+                    : (RuntimeException) e;
+        }
+        long offset = 0;
+        for (int p = 0; p < planeSizes.length; p++) {
+            MemorySegment.copy(picture.getPlaneData(p), 0, planes, ValueLayout.JAVA_BYTE, offset, planeSizes[p]);
+            offset += planeSizes[p];
+        }
+        if (spill) {
+            synchronized (this) {
+                spilledBytes += size;
+                spilledImages++;
+            }
+        }
+        Entry previous = entries.put(index,
+                new Entry(arena, planes, picture.getWidth(), picture.getHeight(), planeSizes, spill));
+        if (previous != null) {
+            free(previous);
+        }
+    }
+
+    private MemorySegment map(Arena arena, long size) throws IOException {
+        Path file = Files.createTempFile(spillDirectory, "jslideshow-frame-", ".yuv");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+        }
+    }
+
+    @Override
+    public Map<Integer, Picture> pictures(JCodecParallelEncoder.SegmentSpec spec) {
+        EncoderContext ctx = EncoderContext.current();
+        Map<Integer, Picture> pictures = new HashMap<>(4);
+        pictures.put(spec.imageIndexA(), copyOut(spec.imageIndexA(), ctx, 0));
+        if (spec.imageIndexB() >= 0) {
+            pictures.put(spec.imageIndexB(), copyOut(spec.imageIndexB(), ctx, 1));
+        }
+        return pictures;
+    }
+
+    private Picture copyOut(int index, EncoderContext ctx, int slot) {
+        Entry entry = entries.get(index);
+        if (entry == null) {
+            throw new IllegalStateException("image " + index + " is not loaded");
+        }
+        Picture picture = ctx.storedImage(slot, entry.width(), entry.height());
+        long offset = 0;
+        for (int p = 0; p < entry.planeSizes().length; p++) {
+            MemorySegment.copy(entry.planes(), ValueLayout.JAVA_BYTE, offset, picture.getPlaneData(p), 0,
+                    entry.planeSizes()[p]);
+            offset += entry.planeSizes()[p];
+        }
+        return picture;
+    }
+
+    @Override
+    public void release(int index) {
+        Entry entry = entries.remove(index);
+        if (entry != null) {
+            free(entry);
+        }
+    }
+
+    private void free(Entry entry) {
+        entry.arena().close();
+        if (!entry.spilled()) {
+            synchronized (this) {
+                ramBytes -= entry.planes().byteSize();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Integer index : entries.keySet()) {
+            release(index);
+        }
+    }
+
+    /**
+     * Native memory in use by images that did not spill.
+     */
+    synchronized long ramBytes() {
+        return ramBytes;
+    }
+
+    synchronized long peakRamBytes() {
+        return peakRamBytes;
+    }
+
+    synchronized long spilledBytes() {
+        return spilledBytes;
+    }
+
+    synchronized int spilledImages() {
+        return spilledImages;
+    }
+}
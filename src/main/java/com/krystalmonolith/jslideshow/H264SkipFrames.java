@@ -0,0 +1,109 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.io.model.NALUnit;
+import org.jcodec.codecs.h264.io.model.NALUnitType;
+import org.jcodec.codecs.h264.io.model.PictureParameterSet;
+import org.jcodec.codecs.h264.io.model.SeqParameterSet;
+import org.jcodec.codecs.h264.io.model.SliceHeader;
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.codecs.h264.io.write.CAVLCWriter;
+import org.jcodec.codecs.h264.io.write.SliceHeaderWriter;
+import org.jcodec.common.io.BitWriter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Builds all-skip H.264 P-frames: every macroblock is P_Skip, so the decoder
+ * repeats the previous reference picture exactly without any residual.
+ * <p>
+ * The slice header carries frame_num and pic_order_cnt_lsb, which cycle with a short
+ * period for the SPS that {@link org.jcodec.codecs.h264.H264Encoder} writes. Packets are
+ * therefore built once per position in that cycle and then handed out again.
+ */
+class H264SkipFrames {
+
+    /**
+     * nal_ref_idc of every skip frame, in both the NAL header and the slice header: each one is a
+     * reference picture for the next, as in JCodec's own P slices
+     */
+    private static final int NAL_REF_IDC = 3;
+
+    private final SeqParameterSet sps;
+    private final PictureParameterSet pps;
+    private final int maxFrameNum;
+    private final int maxPocLsb;
+    private final ByteBuffer[] cycle;
+
+    /**
+     * @param sps the sequence parameter set of the preceding IDR frame
+     * @param pps the picture parameter set of the preceding IDR frame
+     */
+    H264SkipFrames(SeqParameterSet sps, PictureParameterSet pps) {
+        this.sps = sps;
+        this.pps = pps;
+        this.maxFrameNum = 1 << (sps.log2MaxFrameNumMinus4 + 4);
+        this.maxPocLsb = 1 << (sps.log2MaxPicOrderCntLsbMinus4 + 4);
+        // POC advances by 2 per frame, so the header repeats after lcm(maxFrameNum, maxPocLsb / 2) frames
+        int pocPeriod = Math.max(1, maxPocLsb >> 1);
+        this.cycle = new ByteBuffer[lcm(maxFrameNum, pocPeriod)];
+    }
+
+    /**
+     * Return the Annex B packet for the frame at the given distance from the IDR frame.
+     * The returned buffer is a read-only view and may be shared between packets.
+     *
+     * @param framesSinceIdr frame index relative to the IDR frame (must be &gt; 0)
+     * @return all-skip P-frame
+     */
+    ByteBuffer frame(int framesSinceIdr) {
+        int slot = framesSinceIdr % cycle.length;
+        ByteBuffer packet = cycle[slot];
+        if (packet == null) {
+            packet = build(framesSinceIdr % maxFrameNum, (framesSinceIdr << 1) % maxPocLsb);
+            cycle[slot] = packet;
+        }
+        return packet.asReadOnlyBuffer();
+    }
+
+    private ByteBuffer build(int frameNum, int pocLsb) {
+        SliceHeader sh = new SliceHeader();
+        sh.sliceType = SliceType.P;
+        sh.sps = sps;
+        sh.pps = pps;
+        sh.frameNum = frameNum;
+        sh.picOrderCntLsb = pocLsb;
+
+        ByteBuffer raw = ByteBuffer.allocate(64);
+        BitWriter bits = new BitWriter(raw);
+        SliceHeaderWriter.write(sh, false, NAL_REF_IDC, bits);
+        int mbCount = (sps.picWidthInMbsMinus1 + 1) * (sps.picHeightInMapUnitsMinus1 + 1);
+        CAVLCWriter.writeUE(bits, mbCount);  // mb_skip_run covering the whole picture
+        bits.write1Bit(1);                   // rbsp_stop_one_bit
+        bits.flush();
+        raw = bits.getBuffer();
+        raw.flip();
+
+        ByteBuffer out = ByteBuffer.allocate(raw.remaining() * 2 + 5);
+        out.putInt(1);
+        new NALUnit(NALUnitType.NON_IDR_SLICE, NAL_REF_IDC).write(out);
+        H264Utils.escapeNAL(raw, out);
+        out.flip();
+
+        ByteBuffer compact = ByteBuffer.allocate(out.remaining());
+        compact.put(out);
+        compact.flip();
+        return compact;
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+}
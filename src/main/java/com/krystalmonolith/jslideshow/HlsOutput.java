@@ -0,0 +1,143 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * HLS output with fMP4 media segments. Next to the playlist {@code name.m3u8} it writes
+ * {@code name-init.mp4} and one {@code name-NNNNN.m4s} per encoded segment. Each segment is an
+ * independent GOP starting with an IDR frame, so segment boundaries are valid HLS cut points.
+ * <p>
+ * The playlist is an EVENT playlist, rewritten atomically after every segment, so a player can
+ * start while the slideshow is still being encoded; {@code #EXT-X-ENDLIST} is added on
+ * {@link #finish()}.
+ */
+final class HlsOutput extends FragmentedMp4Output {
+
+    private final Path playlist;
+    private final String baseName;
+    private final int targetDuration;
+
+    private final List<String> segmentNames = new ArrayList<>();
+    private final List<Integer> segmentFrames = new ArrayList<>();
+    private FileChannel segment;
+    private int framesInSegment;
+
+    /**
+     * @param playlist          playlist file; media files are written beside it
+     * @param maxSegmentSeconds longest segment duration
+     */
+    HlsOutput(File playlist, int width, int height, int frameRate, double maxSegmentSeconds) throws IOException {
+        super(width, height, frameRate, null, false);
+        this.playlist = playlist.toPath().toAbsolutePath();
+        String name = this.playlist.getFileName().toString();
+        this.baseName = name.toLowerCase(Locale.ROOT).endsWith(".m3u8") ? name.substring(0, name.length() - 5) : name;
+        this.targetDuration = Math.max(1, (int) Math.ceil(maxSegmentSeconds));
+        writePlaylist(false);
+    }
+
+    /**
+     * Name of the initialization segment file.
+     */
+    String initSegmentName() {
+        return baseName + "-init.mp4";
+    }
+
+    @Override
+    public void endSegment() throws IOException {
+        super.endSegment();
+        if (segment == null) {
+            return;
+        }
+        segment.force(false);
+        segment.close();
+        segment = null;
+        segmentFrames.add(framesInSegment);
+        writePlaylist(false);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        endSegment();
+        writePlaylist(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            segment.close();
+            segment = null;
+        }
+    }
+
+    @Override
+    protected void writeInitSegment(ByteBuffer init) throws IOException {
+        try (FileChannel file = create(sibling(initSegmentName()))) {
+            writeFully(file, init);
+        }
+    }
+
+    @Override
+    protected void writeFragment(ByteBuffer fragment, int frames) throws IOException {
+        if (segment == null) {
+            String name = String.format("%s-%05d.m4s", baseName, segmentNames.size());
+            segment = create(sibling(name));
+            segmentNames.add(name);
+            framesInSegment = 0;
+        }
+        writeFully(segment, fragment);
+        framesInSegment += frames;
+    }
+
+    /**
+     * Playlist text for the segments completed so far.
+     */
+    String playlistText(boolean complete) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:7\n");
+        sb.append("#EXT-X-TARGETDURATION:").append(targetDuration).append('\n');
+        sb.append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        sb.append("#EXT-X-PLAYLIST-TYPE:EVENT\n");
+        sb.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        sb.append("#EXT-X-MAP:URI=\"").append(initSegmentName()).append("\"\n");
+        for (int i = 0; i < segmentFrames.size(); i++) {
+            sb.append(String.format(Locale.ROOT, "#EXTINF:%.3f,\n", (double) segmentFrames.get(i) / frameRate));
+            sb.append(segmentNames.get(i)).append('\n');
+        }
+        if (complete) {
+            sb.append("#EXT-X-ENDLIST\n");
+        }
+        return sb.toString();
+    }
+
+    private void writePlaylist(boolean complete) throws IOException {
+        Path tmp = sibling(playlist.getFileName() + ".tmp");
+        Files.writeString(tmp, playlistText(complete), StandardCharsets.UTF_8);
+        try {
+            Files.move(tmp, playlist, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, playlist, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private Path sibling(String name) {
+        return playlist.resolveSibling(name);
+    }
+
+    private static FileChannel create(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+}
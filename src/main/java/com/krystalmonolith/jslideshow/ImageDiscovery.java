@@ -0,0 +1,255 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Finds input images one at a time, in display order, without listing everything up front: a
+ * directory walked with {@link Files#newDirectoryStream} (optionally recursively), or a manifest
+ * file naming one image per line.
+ * <p>
+ * Directories are read one at a time and their entries sorted in {@link #NATURAL_ORDER}, so
+ * {@code img2.jpg} comes before {@code img10.jpg}; with recursion, subdirectories are visited in
+ * the same order as files, when their name comes up. Only the listings of the directories on the
+ * current path are held. Symbolic links to directories are not followed.
+ * <p>
+ * Iteration throws {@link UncheckedIOException} if a directory or the manifest cannot be read.
+ */
+final class ImageDiscovery implements Iterator<File>, Closeable {
+
+    /**
+     * Names compared character by character, except that runs of digits compare by their numeric
+     * value; names equal apart from leading zeros fall back to plain string order.
+     */
+    static final Comparator<String> NATURAL_ORDER = ImageDiscovery::compareNatural;
+
+    private final boolean recursive;
+    private final Deque<Iterator<Path>> directories = new ArrayDeque<>();
+    private final BufferedReader manifest;
+    private final Path manifestDirectory;
+    private final Deque<File> lookahead = new ArrayDeque<>();
+    private boolean manifestEnded;
+
+    private ImageDiscovery(Path directory, boolean recursive, BufferedReader manifest, Path manifestDirectory)
+            throws IOException {
+        this.recursive = recursive;
+        this.manifest = manifest;
+        this.manifestDirectory = manifestDirectory;
+        if (directory != null) {
+            directories.push(list(directory));
+        }
+    }
+
+    /**
+     * The {@code .JPG} and {@code .jpg} files in a directory and, if {@code recursive}, below it.
+     *
+     * @throws IOException if the directory cannot be read
+     */
+    static ImageDiscovery directory(Path directory, boolean recursive) throws IOException {
+        return new ImageDiscovery(directory, recursive, null, null);
+    }
+
+    /**
+     * The images named in a manifest, one path per line; relative paths are resolved against the
+     * manifest's directory, and blank lines and lines starting with {@code #} are skipped.
+     *
+     * @throws IOException if the manifest cannot be opened
+     */
+    static ImageDiscovery manifest(Path manifest) throws IOException {
+        Path parent = manifest.toAbsolutePath().getParent();
+        return new ImageDiscovery(null, false, Files.newBufferedReader(manifest, StandardCharsets.UTF_8), parent);
+    }
+
+    /**
+     * Largest width and height as shown among the next {@code count} images, read from their
+     * headers. The sampled images are still returned by the iterator.
+     *
+     * @return {width, height}, or {0, 0} if there are no images
+     * @throws IOException if an image header cannot be read
+     */
+    int[] sampleDimensions(int count) throws IOException {
+        try {
+            while (lookahead.size() < count) {
+                File file = discover();
+                if (file == null) {
+                    break;
+                }
+                lookahead.add(file);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        int maxWidth = 0;
+        int maxHeight = 0;
+        int sampled = 0;
+        for (File file : lookahead) {
+            if (sampled++ == count) {
+                break;
+            }
+            int[] dims = ImageIndex.readDisplayDimensions(file);
+            maxWidth = Math.max(maxWidth, dims[0]);
+            maxHeight = Math.max(maxHeight, dims[1]);
+        }
+        return new int[]{maxWidth, maxHeight};
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (lookahead.isEmpty()) {
+            File file = discover();
+            if (file == null) {
+                return false;
+            }
+            lookahead.add(file);
+        }
+        return true;
+    }
+
+    @Override
+    public File next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return lookahead.remove();
+    }
+
+    /**
+     * The next image after the lookahead, or null at the end.
+     */
+    private File discover() {
+        try {
+            return manifest != null ? nextListed() : nextInDirectories();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private File nextListed() throws IOException {
+        if (manifestEnded) {
+            return null;
+        }
+        String line;
+        while ((line = manifest.readLine()) != null) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                return manifestDirectory.resolve(line).toFile();
+            }
+        }
+        manifestEnded = true;
+        manifest.close();
+        return null;
+    }
+
+    private File nextInDirectories() throws IOException {
+        while (!directories.isEmpty()) {
+            Iterator<Path> entries = directories.peek();
+            if (!entries.hasNext()) {
+                directories.pop();
+                continue;
+            }
+            Path entry = entries.next();
+            if (recursive && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                directories.push(list(entry));
+            } else {
+                return entry.toFile();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One directory's images (and, when recursive, subdirectories) in natural order.
+     */
+    private Iterator<Path> list(Path directory) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                entry -> isImage(entry) || recursive && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS))) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        entries.sort(Comparator.comparing(entry -> entry.getFileName().toString(), NATURAL_ORDER));
+        return entries.iterator();
+    }
+
+    private static boolean isImage(Path entry) {
+        String name = entry.getFileName().toString();
+        return name.endsWith(".JPG") || name.endsWith(".jpg");
+    }
+
+    private static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (isDigit(ca) && isDigit(cb)) {
+                int startA = skipZeros(a, i);
+                int startB = skipZeros(b, j);
+                int endA = endOfDigits(a, startA);
+                int endB = endOfDigits(b, startB);
+                if (endA - startA != endB - startB) {
+                    return (endA - startA) - (endB - startB);
+                }
+                for (int k = 0; k < endA - startA; k++) {
+                    int diff = a.charAt(startA + k) - b.charAt(startB + k);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                i = endA;
+                j = endB;
+            } else {
+                if (ca != cb) {
+                    return ca - cb;
+                }
+                i++;
+                j++;
+            }
+        }
+        int rest = (a.length() - i) - (b.length() - j);
+        return rest != 0 ? rest : a.compareTo(b);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int skipZeros(String s, int from) {
+        while (from < s.length() - 1 && s.charAt(from) == '0' && isDigit(s.charAt(from + 1))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int endOfDigits(String s, int from) {
+        while (from < s.length() && isDigit(s.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    @Override
+    public void close() throws IOException {
+        directories.clear();
+        lookahead.clear();
+        if (manifest != null) {
+            manifest.close();
+        }
+    }
+}
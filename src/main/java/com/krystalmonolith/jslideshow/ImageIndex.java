@@ -0,0 +1,473 @@
+package com.krystalmonolith.jslideshow;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Image header metadata, scanned in parallel and cached in a sidecar index file.
+ * <p>
+ * Each input directory gets a {@value #INDEX_FILE_NAME} file holding one tab-separated line per
+ * image: name, size, modification time, width, height, EXIF orientation and SHA-256 of the
+ * content. Width and height are as stored; images with an orientation of 5-8 are shown with them
+ * swapped. An entry is reused as long as the file's size and modification time are unchanged;
+ * only new or modified files are opened. Entries for files a run does not include are kept until
+ * the file is deleted, so runs over different parts of a directory share its index. Scans run on virtual threads with a cap on concurrently
+ * open files, since header reads on network storage are dominated by latency rather than CPU.
+ * <p>
+ * The index is an optimization only: a missing, unreadable or malformed index is rebuilt, and a
+ * directory that cannot be written to just loses the cache.
+ */
+final class ImageIndex {
+
+    /**
+     * Sidecar file written to each input directory
+     */
+    static final String INDEX_FILE_NAME = ".jslideshow-index";
+
+    private static final String HEADER = "# jslideshow image index v1";
+
+    /**
+     * Maximum files being scanned at once
+     */
+    private static final int MAX_OPEN_FILES = 32;
+
+    /**
+     * Bytes read up front for EXIF parsing; the APP1 segment is at most 64K and comes first
+     */
+    private static final int PREFIX_BYTES = 128 * 1024;
+
+    /**
+     * Header metadata of one image file.
+     *
+     * @param name        file name within its directory
+     * @param size        file size in bytes
+     * @param modified    last modification time in milliseconds
+     * @param width       image width
+     * @param height      image height
+     * @param orientation EXIF orientation (1-8), 1 when absent
+     * @param sha256      hex SHA-256 of the file content
+     */
+    record ImageInfo(String name, long size, long modified, int width, int height,
+                     int orientation, String sha256) {
+
+        String toLine() {
+            return String.join("\t", name, Long.toString(size), Long.toString(modified),
+                    Integer.toString(width), Integer.toString(height), Integer.toString(orientation), sha256);
+        }
+
+        /**
+         * Width as shown, after the EXIF orientation is applied.
+         */
+        int displayWidth() {
+            return ImageScaler.swapsAxes(orientation) ? height : width;
+        }
+
+        /**
+         * Height as shown, after the EXIF orientation is applied.
+         */
+        int displayHeight() {
+            return ImageScaler.swapsAxes(orientation) ? width : height;
+        }
+
+        static ImageInfo fromLine(String line) {
+            String[] f = line.split("\t");
+            if (f.length != 7) {
+                throw new IllegalArgumentException("Malformed index line: " + line);
+            }
+            return new ImageInfo(f[0], Long.parseLong(f[1]), Long.parseLong(f[2]),
+                    Integer.parseInt(f[3]), Integer.parseInt(f[4]), Integer.parseInt(f[5]), f[6]);
+        }
+    }
+
+    /**
+     * Result of a scan: one entry per input file, in input order.
+     *
+     * @param images  metadata per input file
+     * @param scanned number of files whose headers had to be read (the rest came from the index)
+     */
+    record ScanResult(List<ImageInfo> images, int scanned) {
+    }
+
+    private ImageIndex() {
+    }
+
+    /**
+     * Return metadata for every file, reading headers only for files missing from or stale in
+     * their directory's index, and write back the updated indexes.
+     *
+     * @param imageFiles image files, possibly spread over several directories
+     * @param listener   receives warnings about indexes that cannot be read or written
+     * @throws IOException if a new or modified image header cannot be read
+     */
+    static ScanResult scan(File[] imageFiles, ProgressListener listener) throws IOException {
+        Map<Path, Map<String, ImageInfo>> indexes = new LinkedHashMap<>();
+        for (File file : imageFiles) {
+            indexes.computeIfAbsent(file.toPath().toAbsolutePath().getParent(), dir -> load(dir, listener));
+        }
+
+        // Files are checked against the index on the scan threads too: on network storage each
+        // stat is a round trip, so a warm run over an unchanged directory is latency bound as well
+        ImageInfo[] result = new ImageInfo[imageFiles.length];
+        AtomicInteger scanned = new AtomicInteger();
+        Semaphore openFiles = new Semaphore(MAX_OPEN_FILES);
+        try (ExecutorService scanners = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("image-scan-", 1).factory())) {
+            List<Future<ImageInfo>> futures = new ArrayList<>(imageFiles.length);
+            for (File file : imageFiles) {
+                Map<String, ImageInfo> index = indexes.get(file.toPath().toAbsolutePath().getParent());
+                futures.add(scanners.submit(() -> {
+                    openFiles.acquire();
+                    try {
+                        BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                        ImageInfo cached = index.get(file.getName());
+                        if (cached != null && cached.size() == attr.size()
+                                && cached.modified() == attr.lastModifiedTime().toMillis()) {
+                            return cached;
+                        }
+                        scanned.incrementAndGet();
+                        return readInfo(file, attr);
+                    } finally {
+                        openFiles.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < imageFiles.length; i++) {
+                result[i] = awaitInfo(futures.get(i), imageFiles[i]);
+            }
+        }
+
+        // Merge into each loaded index, so a run over part of a directory keeps the other entries,
+        // dropping only those whose files are gone; rewrite only indexes whose content changed
+        Map<Path, Map<String, ImageInfo>> updated = new LinkedHashMap<>();
+        for (int i = 0; i < imageFiles.length; i++) {
+            Path dir = imageFiles[i].toPath().toAbsolutePath().getParent();
+            updated.computeIfAbsent(dir, _ -> new LinkedHashMap<>()).put(result[i].name(), result[i]);
+        }
+        for (var entry : updated.entrySet()) {
+            Path dir = entry.getKey();
+            Map<String, ImageInfo> loaded = indexes.get(dir);
+            Map<String, ImageInfo> merged = new LinkedHashMap<>();
+            for (ImageInfo info : loaded.values()) {
+                if (!entry.getValue().containsKey(info.name()) && Files.exists(dir.resolve(info.name()))) {
+                    merged.put(info.name(), info);
+                }
+            }
+            merged.putAll(entry.getValue());
+            if (!merged.equals(loaded)) {
+                save(dir, merged.values(), listener);
+            }
+        }
+        return new ScanResult(List.of(result), scanned.get());
+    }
+
+    private static ImageInfo awaitInfo(Future<ImageInfo> future, File file) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + file.getName(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Cannot read image header: " + file.getName(), e.getCause());
+        }
+    }
+
+    /**
+     * Read the header dimensions, EXIF orientation and content hash of one file.
+     */
+    static ImageInfo readInfo(File file, BasicFileAttributes attr) throws IOException {
+        int[] dims = readDimensions(file);
+        MessageDigest digest = sha256();
+        int orientation;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(PREFIX_BYTES);
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // fill the prefix
+            }
+            buf.flip();
+            orientation = exifOrientation(buf.duplicate());
+            digest.update(buf);
+            buf.clear();
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return new ImageInfo(file.getName(), attr.size(), attr.lastModifiedTime().toMillis(),
+                dims[0], dims[1], orientation, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    /**
+     * Read width and height from the image header without decoding pixels.
+     */
+    static int[] readDimensions(File file) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            if (iis == null) {
+                throw new IOException("Cannot read image header: " + file.getName());
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader found for: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis);
+                return new int[]{reader.getWidth(0), reader.getHeight(0)};
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Read width and height as shown, after the EXIF orientation is applied, without decoding
+     * pixels.
+     */
+    static int[] readDisplayDimensions(File file) throws IOException {
+        int[] dims = readDimensions(file);
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(PREFIX_BYTES, Math.max(0, file.length())));
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (buf.hasRemaining() && ch.read(buf) >= 0) {
+                // fill the prefix
+            }
+        }
+        buf.flip();
+        return ImageScaler.swapsAxes(exifOrientation(buf)) ? new int[]{dims[1], dims[0]} : dims;
+    }
+
+    /**
+     * Find the EXIF orientation tag in a JPEG's APP1 segment.
+     *
+     * @param jpeg start of the file
+     * @return orientation 1-8, or 1 if the data is not a JPEG or carries no orientation
+     */
+    static int exifOrientation(ByteBuffer jpeg) {
+        try {
+            ByteBuffer tiff = exifTiff(jpeg);
+            return tiff == null ? 1 : tiffOrientation(tiff);
+        } catch (RuntimeException e) {
+            // truncated or malformed EXIF: treat as absent
+            return 1;
+        }
+    }
+
+    /**
+     * Find the JPEG thumbnail that cameras embed in the EXIF data (IFD1) of a JPEG.
+     *
+     * @param jpeg the whole file
+     * @return the thumbnail's JPEG data, or null if the data is not a JPEG or carries no thumbnail
+     */
+    static ByteBuffer exifThumbnail(ByteBuffer jpeg) {
+        try {
+            ByteBuffer tiff = exifTiff(jpeg);
+            return tiff == null ? null : tiffThumbnail(tiff);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Whether a JPEG holds 8-bit, three-component YCbCr, decided from its headers the way the
+     * JPEG decoder does: a JFIF marker means YCbCr, an Adobe marker's transform flag decides
+     * next, and otherwise only component IDs 'R', 'G', 'B' mean RGB.
+     *
+     * @param jpeg start of the file, up to its first frame header
+     * @return true for YCbCr, false for gray, RGB, CMYK, YCCK, other precisions or non-JPEG data
+     */
+    static boolean isYCbCrJpeg(ByteBuffer jpeg) {
+        try {
+            jpeg.order(ByteOrder.BIG_ENDIAN);
+            if (jpeg.remaining() < 4 || jpeg.getShort() != (short) 0xFFD8) {
+                return false;
+            }
+            boolean jfif = false;
+            int adobeTransform = -1;
+            while (jpeg.remaining() >= 4) {
+                int marker = jpeg.getShort() & 0xFFFF;
+                int length = jpeg.getShort() & 0xFFFF;
+                if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || length < 2) {
+                    return false;
+                }
+                int segmentStart = jpeg.position();
+                if (marker == 0xFFE0 && length >= 7 && jpeg.getInt(segmentStart) == 0x4A464946) {
+                    jfif = true;
+                } else if (marker == 0xFFEE && length >= 14 && jpeg.getInt(segmentStart) == 0x41646F62) {
+                    adobeTransform = jpeg.get(segmentStart + 11) & 0xFF;
+                } else if (marker >= 0xFFC0 && marker <= 0xFFCF
+                        && marker != 0xFFC4 && marker != 0xFFC8 && marker != 0xFFCC) {
+                    int precision = jpeg.get(segmentStart) & 0xFF;
+                    int components = jpeg.get(segmentStart + 5) & 0xFF;
+                    if (precision != 8 || components != 3) {
+                        return false;
+                    }
+                    if (jfif) {
+                        return true;
+                    }
+                    if (adobeTransform >= 0) {
+                        return adobeTransform != 0;
+                    }
+                    return !(jpeg.get(segmentStart + 6) == 'R' && jpeg.get(segmentStart + 9) == 'G'
+                            && jpeg.get(segmentStart + 12) == 'B');
+                }
+                jpeg.position(segmentStart + length - 2);
+            }
+            return false;
+        } catch (RuntimeException e) {
+            // truncated headers: let the decoder deal with them
+            return false;
+        }
+    }
+
+    /**
+     * The TIFF structure inside a JPEG's EXIF APP1 segment, or null if there is none.
+     */
+    private static ByteBuffer exifTiff(ByteBuffer jpeg) {
+        jpeg.order(ByteOrder.BIG_ENDIAN);
+        if (jpeg.remaining() < 4 || jpeg.getShort() != (short) 0xFFD8) {
+            return null;
+        }
+        while (jpeg.remaining() >= 4) {
+            int marker = jpeg.getShort() & 0xFFFF;
+            int length = jpeg.getShort() & 0xFFFF;
+            if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || length < 2) {
+                return null;
+            }
+            int segmentEnd = jpeg.position() + length - 2;
+            if (marker == 0xFFE1 && jpeg.remaining() >= 6 && jpeg.getInt() == 0x45786966 && jpeg.getShort() == 0) {
+                ByteBuffer tiff = jpeg.slice(jpeg.position(), Math.min(segmentEnd, jpeg.limit()) - jpeg.position());
+                tiff.order(tiff.getShort(0) == 0x4949 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                return tiff;
+            }
+            jpeg.position(segmentEnd);
+        }
+        return null;
+    }
+
+    private static int tiffOrientation(ByteBuffer tiff) {
+        int ifd = tiff.getInt(4);
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        for (int e = 0; e < entries; e++) {
+            int entry = ifd + 2 + e * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == 0x0112) {
+                int value = tiff.getShort(entry + 8) & 0xFFFF;
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static ByteBuffer tiffThumbnail(ByteBuffer tiff) {
+        int ifd0 = tiff.getInt(4);
+        // IFD1, the thumbnail's directory, follows IFD0's entries
+        int ifd1 = tiff.getInt(ifd0 + 2 + (tiff.getShort(ifd0) & 0xFFFF) * 12);
+        if (ifd1 <= 0) {
+            return null;
+        }
+        int entries = tiff.getShort(ifd1) & 0xFFFF;
+        int offset = -1;
+        int length = -1;
+        for (int e = 0; e < entries; e++) {
+            int entry = ifd1 + 2 + e * 12;
+            switch (tiff.getShort(entry) & 0xFFFF) {
+                case 0x0201 -> offset = tiff.getInt(entry + 8);
+                case 0x0202 -> length = tiff.getInt(entry + 8);
+                default -> {
+                }
+            }
+        }
+        if (offset <= 0 || length < 4 || offset > tiff.limit() - length
+                || tiff.order(ByteOrder.BIG_ENDIAN).getShort(offset) != (short) 0xFFD8) {
+            return null;
+        }
+        return tiff.slice(offset, length);
+    }
+
+    /**
+     * Load a directory's index, returning an empty map if it is missing or unreadable. An
+     * unreadable index is reported to {@code listener}.
+     */
+    static Map<String, ImageInfo> load(Path dir, ProgressListener listener) {
+        Map<String, ImageInfo> index = new LinkedHashMap<>();
+        try {
+            List<String> lines = Files.readAllLines(dir.resolve(INDEX_FILE_NAME), StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !lines.getFirst().equals(HEADER)) {
+                return index;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                ImageInfo info = ImageInfo.fromLine(line);
+                index.put(info.name(), info);
+            }
+        } catch (NoSuchFileException e) {
+            // first run in this directory
+        } catch (IOException | IllegalArgumentException e) {
+            listener.message("Ignoring unreadable image index in %s: %s".formatted(dir, e.getMessage()));
+            index.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Replace a directory's index atomically. Failure to write is reported to {@code listener}
+     * but not fatal.
+     */
+    static void save(Path dir, Iterable<ImageInfo> images, ProgressListener listener) {
+        Path target = dir.resolve(INDEX_FILE_NAME);
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add(HEADER);
+            images.forEach(info -> lines.add(info.toLine()));
+            Path tmp = Files.createTempFile(dir, INDEX_FILE_NAME, ".tmp");
+            try {
+                Files.write(tmp, lines, StandardCharsets.UTF_8);
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            listener.message("Could not write image index %s: %s".formatted(target, e.getMessage()));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
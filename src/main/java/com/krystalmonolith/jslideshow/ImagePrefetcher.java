@@ -0,0 +1,222 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes images ahead of the encoders.
+ * <p>
+ * Images are requested in their order of first use in the segment plan. Up to {@code depth}
+ * upcoming images are kept in flight: the image is read on a virtual thread (cheap to block on
+ * slow or network storage), then decoded, letterboxed and converted to YUV420 on a small platform
+ * decode pool. Each {@link #take} hands one image over to the caller and starts the next one,
+ * so at most {@code depth} prefetched images exist besides those the caller holds.
+ * <p>
+ * A {@link ImageSource#sequential() sequential} source is read by a single reader thread in
+ * submission order, which is its load order; decoding still runs in parallel. A
+ * {@link ImageSource#streamed() streamed} source is prefetched in index order, finding files as
+ * the prefetch reaches them.
+ * <p>
+ * For previews, images are decoded from their embedded EXIF thumbnails where those are large
+ * enough (see {@link ImageScaler}).
+ */
+final class ImagePrefetcher implements AutoCloseable {
+
+    private final ImageSource images;
+    private final List<Integer> loadOrder;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int depth;
+    private final boolean thumbnails;
+    private final RunStats stats;
+    private final ExecutorService readers;
+    private final ExecutorService decoders;
+    private final Map<Integer, CompletableFuture<Picture>> pending = new HashMap<>();
+    private int nextToStart;
+
+    /**
+     * @param images       all input images
+     * @param loadOrder    image indices in order of first use, or null for every image of a streamed
+     *                     source in index order
+     * @param outputWidth  output width each image is centered into
+     * @param outputHeight output height each image is centered into
+     * @param depth        images decoded ahead; 0 decodes on demand in the calling thread
+     * @param stats        counters charged with decode, center and color conversion time
+     */
+    ImagePrefetcher(ImageSource images, List<Integer> loadOrder, int outputWidth, int outputHeight, int depth,
+                    RunStats stats) {
+        this(images, loadOrder, outputWidth, outputHeight, depth, false, stats);
+    }
+
+    /**
+     * @param thumbnails decode large enough EXIF thumbnails instead of the images
+     */
+    ImagePrefetcher(ImageSource images, List<Integer> loadOrder, int outputWidth, int outputHeight, int depth,
+                    boolean thumbnails, RunStats stats) {
+        this.images = images;
+        this.loadOrder = loadOrder;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.depth = depth;
+        this.thumbnails = thumbnails;
+        this.stats = stats;
+        if (depth > 0) {
+            this.readers = images.sequential()
+                    ? Executors.newSingleThreadExecutor(Thread.ofVirtual().name("image-read").factory())
+                    : Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("image-read-", 1).factory());
+            this.decoders = Executors.newFixedThreadPool(
+                    Math.min(depth, Runtime.getRuntime().availableProcessors()),
+                    Thread.ofPlatform().name("image-decode-", 1).daemon().factory());
+        } else {
+            this.readers = null;
+            this.decoders = null;
+        }
+        topUp();
+    }
+
+    /**
+     * Return the decoded picture for an image, waiting for its prefetch if needed.
+     * Each image may be taken once; ownership passes to the caller.
+     *
+     * @param idx image index
+     * @return centered YUV420J picture at the output size
+     * @throws IOException if the image cannot be read or decoded
+     */
+    Picture take(int idx) throws IOException {
+        if (depth == 0) {
+            return load(images.read(idx), outputWidth, outputHeight, thumbnails, stats);
+        }
+        CompletableFuture<Picture> future;
+        synchronized (this) {
+            future = pending.remove(idx);
+            if (future == null) {
+                // requested before its prefetch started: load it now and skip it in the plan
+                future = start(idx);
+                pending.remove(idx);
+                if (hasPlanned(nextToStart) && planned(nextToStart) == idx) {
+                    nextToStart++;
+                }
+            }
+            topUp();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading image " + idx, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ce ? ce.getCause() : e.getCause();
+            if (cause instanceof UncheckedIOException uio) {
+                throw uio.getCause();
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Could not load image " + idx, cause);
+        }
+    }
+
+    /**
+     * Start prefetches until {@code depth} images are pending or the plan is exhausted.
+     */
+    private synchronized void topUp() {
+        while (pending.size() < depth && hasPlanned(nextToStart)) {
+            int idx = planned(nextToStart);
+            if (!pending.containsKey(idx)) {
+                start(idx);
+            }
+            nextToStart++;
+        }
+    }
+
+    private boolean hasPlanned(int position) {
+        if (loadOrder != null) {
+            return position < loadOrder.size();
+        }
+        try {
+            return images.exists(position);
+        } catch (IOException e) {
+            // stop prefetching; the segment plan fails on the same error
+            return false;
+        }
+    }
+
+    private int planned(int position) {
+        return loadOrder != null ? loadOrder.get(position) : position;
+    }
+
+    private CompletableFuture<Picture> start(int idx) {
+        CompletableFuture<Picture> future = CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return images.read(idx);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, readers)
+                .thenApplyAsync(image -> {
+                    try {
+                        return load(image, outputWidth, outputHeight, thumbnails, stats);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, decoders);
+        pending.put(idx, future);
+        return future;
+    }
+
+    /**
+     * Decode (unless already decoded), letterbox and convert one image.
+     */
+    static Picture load(ImageSource.SourceImage image, int outputWidth, int outputHeight, RunStats stats)
+            throws IOException {
+        return load(image, outputWidth, outputHeight, false, stats);
+    }
+
+    /**
+     * Decode (unless already decoded; from its EXIF thumbnail if {@code thumbnails} and it is large
+     * enough), letterbox and convert one image.
+     */
+    static Picture load(ImageSource.SourceImage image, int outputWidth, int outputHeight, boolean thumbnails,
+                        RunStats stats) throws IOException {
+        BufferedImage img = image.image();
+        if (img == null) {
+            long start = stats.start();
+            img = ImageScaler.decode(image.bytes(), image.name(), outputWidth, outputHeight, thumbnails);
+            stats.stop(RunStats.Stage.DECODE, start);
+        }
+
+        long start = stats.start();
+        boolean ycbcr = ImageScaler.isYCbCr(img);
+        int[] size = ImageScaler.fit(img.getWidth(), img.getHeight(), outputWidth, outputHeight);
+        img = ImageScaler.resize(img, size[0], size[1]);
+        stats.stop(RunStats.Stage.CENTER, start);
+
+        // letterboxed while converting, straight from the raster
+        start = stats.start();
+        Picture yuv = YuvConverter.centered(img, ycbcr, outputWidth, outputHeight);
+        stats.stop(RunStats.Stage.COLOR_CONVERT, start);
+        return yuv;
+    }
+
+    @Override
+    public synchronized void close() {
+        pending.values().forEach(f -> f.cancel(true));
+        pending.clear();
+        if (readers != null) {
+            readers.shutdownNow();
+            decoders.shutdownNow();
+        }
+    }
+}
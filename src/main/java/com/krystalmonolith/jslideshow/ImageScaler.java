@@ -0,0 +1,294 @@
+package com.krystalmonolith.jslideshow;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Hashtable;
+import java.util.Iterator;
+
+/**
+ * Decodes images close to their on-screen size and letterboxes them into the output frame.
+ * <p>
+ * Images larger than the output are decoded with {@link ImageReadParam#setSourceSubsampling}
+ * at the largest integer factor that keeps them at least as large as their final size, so a
+ * 6000x4000 photo bound for 1080p is decoded at roughly 2000x1333 instead of at full size. The
+ * remaining (at most 2:1) reduction is a bilinear resize, done in halving steps if needed so no
+ * step skips source pixels. Images are never enlarged; they are centered on black, preserving
+ * their aspect ratio.
+ * <p>
+ * For previews, the JPEG thumbnail a camera embeds in the EXIF data is decoded instead of the
+ * image when it is at least as large as the image's final size and has the same aspect ratio.
+ * <p>
+ * JPEGs are turned upright as their EXIF orientation says, after decoding at the reduced size:
+ * an image rotated a quarter turn is fitted into the box with its stored width and height swapped.
+ * <p>
+ * YCbCr JPEGs are read as their raw raster, skipping the decoder's conversion to RGB: the image
+ * returned carries full-range Y, Cb and Cr in its red, green and blue samples and is marked with
+ * the {@link #YCBCR} property, so {@link YuvConverter} can take the samples as they are instead
+ * of converting back from RGB. Resizing interpolates each sample separately, so it works on
+ * these images unchanged.
+ */
+final class ImageScaler {
+
+    /**
+     * Property of images whose samples are YCbCr rather than RGB
+     */
+    static final String YCBCR = "com.krystalmonolith.jslideshow.ycbcr";
+
+    private ImageScaler() {
+    }
+
+    /**
+     * Whether an image's red, green and blue samples hold full-range Y, Cb and Cr.
+     */
+    static boolean isYCbCr(BufferedImage img) {
+        return img.getProperty(YCBCR) == Boolean.TRUE;
+    }
+
+    /**
+     * Size of an image scaled down to fit a box, preserving aspect ratio. Never enlarges.
+     *
+     * @return {width, height}, each at least 1
+     */
+    static int[] fit(int width, int height, int boxWidth, int boxHeight) {
+        if (width <= boxWidth && height <= boxHeight) {
+            return new int[]{width, height};
+        }
+        double scale = Math.min((double) boxWidth / width, (double) boxHeight / height);
+        return new int[]{
+                Math.max(1, Math.min(boxWidth, (int) Math.round(width * scale))),
+                Math.max(1, Math.min(boxHeight, (int) Math.round(height * scale)))};
+    }
+
+    /**
+     * Largest integer subsampling factor that keeps a {@code width} x {@code height} source at
+     * least {@code targetWidth} x {@code targetHeight}.
+     */
+    static int subsampling(int width, int height, int targetWidth, int targetHeight) {
+        return Math.max(1, Math.min(width / targetWidth, height / targetHeight));
+    }
+
+    /**
+     * Decode an image, subsampling at decode time so it is no larger than needed for the box.
+     *
+     * @param bytes     encoded image
+     * @param name      file name for error messages
+     * @param boxWidth  output width the image will be letterboxed into
+     * @param boxHeight output height the image will be letterboxed into
+     * @throws IOException if the image cannot be decoded
+     */
+    static BufferedImage decode(byte[] bytes, String name, int boxWidth, int boxHeight) throws IOException {
+        return decode(bytes, name, boxWidth, boxHeight, false);
+    }
+
+    /**
+     * Decode an image like {@link #decode(byte[], String, int, int)}, or its embedded EXIF
+     * thumbnail if {@code useThumbnail} and the thumbnail is large enough for the box.
+     */
+    static BufferedImage decode(byte[] bytes, String name, int boxWidth, int boxHeight, boolean useThumbnail)
+            throws IOException {
+        int orientation = ImageIndex.exifOrientation(ByteBuffer.wrap(bytes));
+        BufferedImage img = swapsAxes(orientation)
+                ? decodeStored(bytes, name, boxHeight, boxWidth, useThumbnail)
+                : decodeStored(bytes, name, boxWidth, boxHeight, useThumbnail);
+        return orient(img, orientation);
+    }
+
+    /**
+     * Decode an image as stored, ignoring its EXIF orientation.
+     */
+    private static BufferedImage decodeStored(byte[] bytes, String name, int boxWidth, int boxHeight,
+                                              boolean useThumbnail) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Could not read image: " + name);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int[] target = fit(width, height, boxWidth, boxHeight);
+                if (useThumbnail) {
+                    BufferedImage thumbnail = thumbnail(bytes, width, height, target);
+                    if (thumbnail != null) {
+                        return thumbnail;
+                    }
+                }
+                int factor = subsampling(width, height, target[0], target[1]);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (factor > 1) {
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                }
+                if (reader.canReadRaster() && ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(bytes))) {
+                    return ycbcrImage(reader.readRaster(0, param));
+                }
+                return reader.read(0, param);
+            } catch (RuntimeException e) {
+                throw new IOException("Could not read image: " + name, e);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * A raw three-band YCbCr raster as an image marked {@link #YCBCR}.
+     */
+    private static BufferedImage ycbcrImage(Raster raster) {
+        WritableRaster samples;
+        if (raster instanceof WritableRaster writable && raster.getMinX() == 0 && raster.getMinY() == 0) {
+            samples = writable;
+        } else {
+            samples = raster.createCompatibleWritableRaster();
+            samples.setRect(raster);
+        }
+        ColorModel colors = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(YCBCR, Boolean.TRUE);
+        return new BufferedImage(colors, samples, false, properties);
+    }
+
+    /**
+     * Whether an EXIF orientation turns the image a quarter turn, swapping its width and height.
+     */
+    static boolean swapsAxes(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * Turn an image as stored upright, as its EXIF orientation says. Samples are moved, not
+     * converted, so the image keeps its color model and properties.
+     *
+     * @param orientation EXIF orientation 1-8; anything else leaves the image as it is
+     * @return the image itself for orientation 1, otherwise a new image
+     */
+    static BufferedImage orient(BufferedImage img, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return img;
+        }
+        // where source pixel (x, y) goes: mirrored along x and/or y, then transposed for 5-8
+        boolean transpose = swapsAxes(orientation);
+        boolean reverseX = orientation == 2 || orientation == 3 || orientation == 7 || orientation == 8;
+        boolean reverseY = orientation == 3 || orientation == 4 || orientation == 6 || orientation == 7;
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Raster source = img.getRaster();
+        WritableRaster rotated = source.createCompatibleWritableRaster(
+                transpose ? height : width, transpose ? width : height);
+        int bands = source.getNumBands();
+        int[] row = new int[width * bands];
+        int[] line = new int[width * bands];
+        for (int y = 0; y < height; y++) {
+            source.getPixels(source.getMinX(), source.getMinY() + y, width, 1, row);
+            if (reverseX) {
+                for (int x = 0; x < width; x++) {
+                    System.arraycopy(row, x * bands, line, (width - 1 - x) * bands, bands);
+                }
+            } else {
+                System.arraycopy(row, 0, line, 0, row.length);
+            }
+            int target = reverseY ? height - 1 - y : y;
+            if (transpose) {
+                rotated.setPixels(target, 0, 1, width, line);
+            } else {
+                rotated.setPixels(0, target, width, 1, line);
+            }
+        }
+        Hashtable<String, Object> properties = new Hashtable<>();
+        String[] names = img.getPropertyNames();
+        if (names != null) {
+            for (String property : names) {
+                properties.put(property, img.getProperty(property));
+            }
+        }
+        return new BufferedImage(img.getColorModel(), rotated, img.isAlphaPremultiplied(), properties);
+    }
+
+    /**
+     * The image's EXIF thumbnail if it covers {@code target} and matches the image's aspect ratio
+     * to within a pixel, else null.
+     */
+    private static BufferedImage thumbnail(byte[] bytes, int width, int height, int[] target) {
+        ByteBuffer data = ImageIndex.exifThumbnail(ByteBuffer.wrap(bytes));
+        if (data == null) {
+            return null;
+        }
+        BufferedImage thumbnail;
+        try {
+            thumbnail = ImageIO.read(new ByteArrayInputStream(bytes, data.arrayOffset() + data.position(),
+                    data.remaining()));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (thumbnail == null || thumbnail.getWidth() < target[0] || thumbnail.getHeight() < target[1]
+                || Math.abs((long) thumbnail.getWidth() * height - (long) thumbnail.getHeight() * width)
+                > Math.max(width, height)) {
+            return null;
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Scale an image to fit the output frame (never enlarging) and center it on black.
+     * Returns the original image if it already matches the output size.
+     */
+    static BufferedImage letterbox(BufferedImage img, int outputWidth, int outputHeight) {
+        if (img.getWidth() == outputWidth && img.getHeight() == outputHeight) {
+            return img;
+        }
+        int[] size = fit(img.getWidth(), img.getHeight(), outputWidth, outputHeight);
+        img = resize(img, size[0], size[1]);
+        if (img.getWidth() == outputWidth && img.getHeight() == outputHeight) {
+            return img;
+        }
+
+        BufferedImage canvas = new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = canvas.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, outputWidth, outputHeight);
+            int x = (outputWidth - img.getWidth()) / 2;
+            int y = (outputHeight - img.getHeight()) / 2;
+            g.drawImage(img, x, y, null);
+        } finally {
+            g.dispose();
+        }
+        return canvas;
+    }
+
+    /**
+     * Downscale with bilinear filtering, halving at most once per step.
+     */
+    static BufferedImage resize(BufferedImage img, int width, int height) {
+        while (img.getWidth() != width || img.getHeight() != height) {
+            int w = Math.max(width, (img.getWidth() + 1) / 2);
+            int h = Math.max(height, (img.getHeight() + 1) / 2);
+            BufferedImage step = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(img, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            img = step;
+        }
+        return img;
+    }
+}
@@ -0,0 +1,270 @@
+package com.krystalmonolith.jslideshow;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * The images of a slideshow, in display order: files on disk, or images held in memory by an
+ * embedding application, either as decoded {@link BufferedImage}s or as encoded bytes (JPEG, PNG,
+ * ...) that are decoded directly at their output size.
+ * <p>
+ * File sources are scanned for the output size like the command line does. In-memory sources
+ * state the image count and the output size up front, so nothing has to be read before encoding
+ * starts. Indexed sources ({@link IntFunction}) may be read in any order and from several threads;
+ * iterator sources are read exactly once per image, in order, one image at a time, and never hold
+ * more than the prefetch depth plus the images being encoded.
+ * <p>
+ * A streamed file source takes its files from an iterator while encoding runs, so encoding
+ * starts with the first file and the image count is only known at the end; its output size is
+ * stated up front, like an in-memory source's. Files found so far may be read in any order.
+ */
+public final class ImageSource {
+
+    /**
+     * One image as read from the source: either encoded bytes or an already decoded image.
+     */
+    record SourceImage(String name, byte[] bytes, BufferedImage image) {
+    }
+
+    @FunctionalInterface
+    private interface Reader {
+        SourceImage read(int index) throws IOException;
+    }
+
+    private final int count;
+    private final int width;
+    private final int height;
+    private final File[] files;
+    private final boolean sequential;
+    private final Reader reader;
+    private int nextSequential;
+
+    // streamed files: the iterator, the files taken from it so far, and the error that ended it
+    private final Iterator<File> stream;
+    private final List<File> streamed;
+    private IOException streamError;
+
+    private ImageSource(int count, int width, int height, File[] files, boolean sequential, Reader reader) {
+        this(count, width, height, files, sequential, reader, null);
+    }
+
+    private ImageSource(int count, int width, int height, File[] files, boolean sequential, Reader reader,
+                        Iterator<File> stream) {
+        if (count <= 0 && stream == null) throw new IllegalArgumentException("count must be > 0");
+        if (files == null && width <= 0) throw new IllegalArgumentException("width must be > 0");
+        if (files == null && height <= 0) throw new IllegalArgumentException("height must be > 0");
+        this.count = count;
+        this.width = width;
+        this.height = height;
+        this.files = files;
+        this.sequential = sequential;
+        this.reader = reader;
+        this.stream = stream;
+        this.streamed = stream == null ? null : new ArrayList<>();
+    }
+
+    /**
+     * Image files; the output size is the bounding box of their dimensions.
+     */
+    public static ImageSource ofFiles(File... files) {
+        File[] copy = files.clone();
+        return new ImageSource(copy.length, 0, 0, copy, false,
+                index -> new SourceImage(copy[index].getName(), Files.readAllBytes(copy[index].toPath()), null));
+    }
+
+    /**
+     * Image files taken from {@code files} as encoding needs them; nothing is listed or read
+     * before encoding starts. The iterator is only advanced by one thread at a time and may throw
+     * {@link UncheckedIOException}, which fails the run with its cause.
+     *
+     * @param width  output width images are scaled down and letterboxed into
+     * @param height output height images are scaled down and letterboxed into
+     */
+    public static ImageSource ofFiles(Iterator<File> files, int width, int height) {
+        return new ImageSource(0, width, height, null, false, null, files);
+    }
+
+    /**
+     * Decoded images produced by index; {@code images} may be called from several threads.
+     *
+     * @param width  output width images are scaled down and letterboxed into
+     * @param height output height images are scaled down and letterboxed into
+     */
+    public static ImageSource ofImages(int count, int width, int height, IntFunction<BufferedImage> images) {
+        return new ImageSource(count, width, height, null, false,
+                index -> new SourceImage(imageName(index), null, require(images.apply(index), index)));
+    }
+
+    /**
+     * Decoded images produced in order; the iterator is only advanced by one thread at a time.
+     *
+     * @param width  output width images are scaled down and letterboxed into
+     * @param height output height images are scaled down and letterboxed into
+     */
+    public static ImageSource ofImages(int count, int width, int height, Iterator<BufferedImage> images) {
+        return new ImageSource(count, width, height, null, true,
+                index -> new SourceImage(imageName(index), null, require(next(images, index, count), index)));
+    }
+
+    /**
+     * Encoded images (any format ImageIO reads) produced by index; {@code images} may be called
+     * from several threads.
+     *
+     * @param width  output width images are scaled down and letterboxed into
+     * @param height output height images are scaled down and letterboxed into
+     */
+    public static ImageSource ofEncodedImages(int count, int width, int height, IntFunction<byte[]> images) {
+        return new ImageSource(count, width, height, null, false,
+                index -> new SourceImage(imageName(index), require(images.apply(index), index), null));
+    }
+
+    /**
+     * Encoded images (any format ImageIO reads) produced in order; the iterator is only advanced by
+     * one thread at a time.
+     *
+     * @param width  output width images are scaled down and letterboxed into
+     * @param height output height images are scaled down and letterboxed into
+     */
+    public static ImageSource ofEncodedImages(int count, int width, int height, Iterator<byte[]> images) {
+        return new ImageSource(count, width, height, null, true,
+                index -> new SourceImage(imageName(index), require(next(images, index, count), index), null));
+    }
+
+    /**
+     * Number of images; for a streamed source, the number found so far.
+     */
+    public int size() {
+        if (stream == null) {
+            return count;
+        }
+        synchronized (this) {
+            return streamed.size();
+        }
+    }
+
+    /**
+     * Image files, or null for an in-memory or streamed source.
+     */
+    File[] files() {
+        return files;
+    }
+
+    /**
+     * One image file, or null for an in-memory source.
+     *
+     * @throws IOException if a streamed source cannot find the file
+     */
+    File file(int index) throws IOException {
+        if (stream == null) {
+            return files == null ? null : files[index];
+        }
+        if (!exists(index)) {
+            throw new IndexOutOfBoundsException("image " + index + " of " + size());
+        }
+        synchronized (this) {
+            return streamed.get(index);
+        }
+    }
+
+    /**
+     * True if the source has an image at {@code index}; a streamed source takes files from its
+     * iterator until it does or the iterator ends.
+     *
+     * @throws IOException if the iterator failed, now or earlier
+     */
+    boolean exists(int index) throws IOException {
+        if (stream == null) {
+            return index >= 0 && index < count;
+        }
+        synchronized (this) {
+            while (streamed.size() <= index) {
+                if (streamError != null) {
+                    throw streamError;
+                }
+                try {
+                    if (!stream.hasNext()) {
+                        return false;
+                    }
+                    streamed.add(stream.next());
+                } catch (UncheckedIOException e) {
+                    streamError = e.getCause();
+                }
+            }
+            return index >= 0;
+        }
+    }
+
+    /**
+     * True if files are taken from an iterator while encoding runs, so the count is not known up front.
+     */
+    boolean streamed() {
+        return stream != null;
+    }
+
+    /**
+     * Output size stated by an in-memory or streamed source, {width, height}; null for a file array.
+     */
+    int[] dimensions() {
+        return files == null ? new int[]{width, height} : null;
+    }
+
+    /**
+     * True if images can only be read once each, in index order.
+     */
+    boolean sequential() {
+        return sequential;
+    }
+
+    /**
+     * Read one image. Sequential sources must be read in index order.
+     *
+     * @throws IOException if the image cannot be read, or a sequential source ends early
+     */
+    SourceImage read(int index) throws IOException {
+        if (stream != null) {
+            File file = file(index);
+            return new SourceImage(file.getName(), Files.readAllBytes(file.toPath()), null);
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("image " + index + " of " + count);
+        }
+        if (!sequential) {
+            return reader.read(index);
+        }
+        synchronized (this) {
+            if (index != nextSequential) {
+                throw new IllegalStateException("images of a sequential source must be read in order: expected "
+                        + nextSequential + " but got " + index);
+            }
+            nextSequential++;
+            return reader.read(index);
+        }
+    }
+
+    private static String imageName(int index) {
+        return "image " + index;
+    }
+
+    private static <T> T next(Iterator<T> images, int index, int count) throws IOException {
+        try {
+            return images.next();
+        } catch (NoSuchElementException e) {
+            throw new IOException("Image source ended after " + index + " of " + count + " images", e);
+        }
+    }
+
+    private static <T> T require(T image, int index) throws IOException {
+        if (image == null) {
+            throw new IOException("Image source returned no data for " + imageName(index));
+        }
+        return image;
+    }
+}
@@ -0,0 +1,72 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds each loaded image from just before its first segment is submitted until its last segment
+ * has been encoded. Images are put and released by the submitting thread; encoder threads read
+ * them concurrently through {@link #pictures}.
+ */
+interface ImageStore extends AutoCloseable {
+
+    boolean contains(int index);
+
+    /**
+     * Store a decoded YUV420J picture; the store may copy it and drop the original.
+     */
+    void put(int index, Picture picture);
+
+    /**
+     * The pictures a segment uses, keyed by image index, for the calling encoder thread. They are
+     * valid until that thread's next call and must not be modified.
+     */
+    Map<Integer, Picture> pictures(JCodecParallelEncoder.SegmentSpec spec);
+
+    /**
+     * Drop an image no remaining segment uses.
+     */
+    void release(int index);
+
+    /**
+     * Release every image still held.
+     */
+    @Override
+    void close();
+
+    /**
+     * Store keeping pictures as they are, on the Java heap.
+     */
+    static ImageStore onHeap() {
+        return new ImageStore() {
+            private final Map<Integer, Picture> pictures = new ConcurrentHashMap<>();
+
+            @Override
+            public boolean contains(int index) {
+                return pictures.containsKey(index);
+            }
+
+            @Override
+            public void put(int index, Picture picture) {
+                pictures.put(index, picture);
+            }
+
+            @Override
+            public Map<Integer, Picture> pictures(JCodecParallelEncoder.SegmentSpec spec) {
+                return pictures;
+            }
+
+            @Override
+            public void release(int index) {
+                pictures.remove(index);
+            }
+
+            @Override
+            public void close() {
+                pictures.clear();
+            }
+        };
+    }
+}
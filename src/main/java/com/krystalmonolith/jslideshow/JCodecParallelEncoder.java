@@ -1,297 +1,838 @@
 package com.krystalmonolith.jslideshow;
 
-import org.jcodec.codecs.h264.H264Encoder;
-import org.jcodec.common.Codec;
-import org.jcodec.common.VideoCodecMeta;
-import org.jcodec.common.VideoEncoder;
-import org.jcodec.common.io.NIOUtils;
-import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.model.*;
-import org.jcodec.containers.mp4.Brand;
 import org.jcodec.containers.mp4.MP4Packet;
-import org.jcodec.containers.mp4.muxer.CodecMP4MuxerTrack;
-import org.jcodec.containers.mp4.muxer.MP4Muxer;
-import org.jcodec.scale.AWTUtil;
 
 import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.stream.ImageInputStream;
-import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.util.Iterator;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
 
 /**
- * Parallel H.264 encoder using batched segment-based GOP encoding with
- * dissolve transitions, fade in/out, and an async muxer thread.
+ * Parallel H.264 encoder: the slideshow is planned as independently encoded GOP segments (holds,
+ * transitions and the fades in and out) which a {@link SegmentScheduler} hands to a pool of worker
+ * threads in plan order. Each segment's packets flow through its own bounded
+ * {@link SegmentChannel} to an async muxer thread that writes segments strictly in order, and at
+ * most a sliding window of segments is in flight between submission and muxing, so a slow
+ * segment pauses submission (and image loading) instead of letting finished segments pile up.
+ * <p>
+ * The {@code batchSize} of the encode methods is the number of worker threads, with a window of
+ * twice as many segments, unless a memory budget sizes both. The name is kept for compatibility with the command line's
+ * {@code -b/--batchsize} (its {@code effectiveBatchSize}); there are no batches any more.
+ * <p>
+ * Besides the file-based entry point used by the command line, it can be embedded: encode an
+ * {@link ImageSource} of in-memory images to any {@link WritableByteChannel}, with status sent to a
+ * {@link ProgressListener} instead of the console.
  */
 public class JCodecParallelEncoder {
 
-    private static final char[] SPINNER = {'|', '/', '-', '\\'};
-    private static final AtomicInteger spinnerIndex = new AtomicInteger(0);
+    /**
+     * Find max width and max height over all images, as shown upright, from their header metadata.
+     */
+    static int[] maxDimensions(List<ImageIndex.ImageInfo> images) {
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (ImageIndex.ImageInfo info : images) {
+            maxWidth = Math.max(maxWidth, info.displayWidth());
+            maxHeight = Math.max(maxHeight, info.displayHeight());
+        }
+        return new int[]{maxWidth, maxHeight};
+    }
 
-    private static void spin() {
-        System.out.print("\b" + SPINNER[spinnerIndex.getAndIncrement() & 3]);
+    /**
+     * Output frame size for images whose largest dimensions are maxWidth x maxHeight: the bounding
+     * box itself, or that box scaled down to fit the cap (rounded down to even dimensions for 4:2:0).
+     *
+     * @param capWidth  maximum output width, 0 for no limit
+     * @param capHeight maximum output height, 0 for no limit
+     * @return {width, height}
+     */
+    static int[] outputDimensions(int maxWidth, int maxHeight, int capWidth, int capHeight) {
+        int boxWidth = capWidth > 0 ? capWidth : Integer.MAX_VALUE;
+        int boxHeight = capHeight > 0 ? capHeight : Integer.MAX_VALUE;
+        if (maxWidth <= boxWidth && maxHeight <= boxHeight) {
+            return new int[]{maxWidth, maxHeight};
+        }
+        int[] fitted = ImageScaler.fit(maxWidth, maxHeight, boxWidth, boxHeight);
+        return new int[]{Math.max(2, fitted[0] & ~1), Math.max(2, fitted[1] & ~1)};
     }
 
-    private static void clearSpinner() {
-        System.out.print("\b \b");
+    enum SegmentType { FADE_IN, HOLD, DISSOLVE, FADE_OUT }
+
+    /**
+     * One independently encoded GOP. A HOLD, DISSOLVE or FADE longer than the maximum GOP length
+     * is split into several specs covering frames [firstFrame, firstFrame + frameCount) of a
+     * span of spanFrames frames; transition weights are computed over the whole span.
+     */
+    record SegmentSpec(int segmentIndex, SegmentType type,
+                       int imageIndexA, int imageIndexB, int frameCount,
+                       int firstFrame, int spanFrames) {
+
+        SegmentSpec(int segmentIndex, SegmentType type, int imageIndexA, int imageIndexB, int frameCount) {
+            this(segmentIndex, type, imageIndexA, imageIndexB, frameCount, 0, frameCount);
+        }
     }
 
     /**
-     * Scan image file headers (without full pixel decode) to find max width and max height.
+     * Opens the output once the output size is known.
      */
-    static int[] scanOutputDimensions(File[] imageFiles) throws IOException {
-        int maxWidth = 0;
-        int maxHeight = 0;
+    @FunctionalInterface
+    private interface OutputOpener {
+        VideoOutput open(int width, int height, int frameRate, double maxSegmentSeconds) throws IOException;
+    }
 
-        for (File file : imageFiles) {
-            try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
-                if (iis == null) {
-                    throw new IOException("Cannot read image header: " + file.getName());
-                }
-                Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
-                if (!readers.hasNext()) {
-                    throw new IOException("No image reader found for: " + file.getName());
-                }
-                ImageReader reader = readers.next();
-                try {
-                    reader.setInput(iis);
-                    int w = reader.getWidth(0);
-                    int h = reader.getHeight(0);
-                    maxWidth = Math.max(maxWidth, w);
-                    maxHeight = Math.max(maxHeight, h);
-                } finally {
-                    reader.dispose();
-                }
-            }
+    /**
+     * Listener that ignores progress, for runs whose progress is shown some other way
+     */
+    static final ProgressListener NO_PROGRESS = new ProgressListener() {
+    };
+
+    /**
+     * Queued after the last segment of a streamed run, whose segment count the muxer does not know
+     */
+    static final SegmentChannel END_OF_PLAN = new SegmentChannel(-1, 1);
+
+    /**
+     * Receives a segment's packets in frame order as they are encoded.
+     */
+    @FunctionalInterface
+    interface PacketSink {
+        void accept(MP4Packet packet) throws InterruptedException;
+    }
+
+    /**
+     * Maximum frames per independently encoded GOP, 0 for no limit
+     */
+    private int maxGopFrames;
+
+    /**
+     * Maximum output width and height, 0 for no limit
+     */
+    private int maxOutputWidth;
+    private int maxOutputHeight;
+
+    /**
+     * Encoded segment cache directory and size limit, null when caching is off
+     */
+    private Path segmentCacheDirectory;
+    private long segmentCacheBytes;
+
+    /**
+     * Off-heap image store spill directory and RAM limit, null when images stay on the heap
+     */
+    private Path frameStoreDirectory;
+    private long frameStoreBytes;
+
+    /**
+     * Output container format
+     */
+    private OutputFormat outputFormat = OutputFormat.MP4;
+
+    /**
+     * JSON run report destination, null for none
+     */
+    private Path reportFile;
+
+    /**
+     * Images decoded ahead of the encoders, 0 to decode on demand
+     */
+    private int prefetchImages = DEFAULT_PREFETCH_IMAGES;
+
+    /**
+     * Receiver of status and progress, null to print them to the console
+     */
+    private ProgressListener progressListener;
+
+    /**
+     * Shared encoder threads, null to start a worker pool per run
+     */
+    private SharedWorkerPool workerPool;
+
+    /**
+     * Heap budget for images, encoders and in-flight segments in bytes, 0 for none
+     */
+    private long maxMemoryBytes;
+
+    /**
+     * Rate modes of hold and of transition (dissolve and fade) segments, null for JCodec's default
+     */
+    private RateMode holdRate;
+    private RateMode transitionRate;
+
+    /**
+     * Decode encoded frames to report their PSNR
+     */
+    private boolean measureQuality;
+
+    /**
+     * Render a quick low resolution, low frame rate preview with the final output's timing
+     */
+    private boolean preview;
+
+    /**
+     * Transition between images and from and to black, and the transitions into particular images
+     */
+    private Transition transition = Transition.DISSOLVE;
+    private final Map<Integer, Transition> transitionsInto = new HashMap<>();
+
+    /**
+     * Segment workers to encode on instead of local threads, null to encode locally
+     */
+    private List<InetSocketAddress> remoteWorkers;
+
+    /**
+     * Scheduler of the run in progress, for cancellation
+     */
+    private volatile SegmentScheduler activeScheduler;
+    private volatile boolean cancelled;
+
+    /**
+     * Console progress of the run in progress, which messages are printed above
+     */
+    private volatile ProgressReporter consoleProgress;
+
+    /**
+     * Warnings from the image index and the segment cache, passed on like status lines
+     */
+    private final ProgressListener messages = new ProgressListener() {
+        @Override
+        public void message(String message) {
+            JCodecParallelEncoder.this.message(message);
         }
+    };
 
-        return new int[]{maxWidth, maxHeight};
+    /**
+     * Default number of images decoded ahead of the encoders
+     */
+    public static final int DEFAULT_PREFETCH_IMAGES = 2;
+
+    /**
+     * Box a preview's output is scaled down to fit
+     */
+    public static final int PREVIEW_WIDTH = 640;
+    public static final int PREVIEW_HEIGHT = 360;
+
+    /**
+     * Frames per second a preview encodes, at most (it keeps the output's timescale)
+     */
+    public static final int PREVIEW_FRAME_RATE = 10;
+
+    public JCodecParallelEncoder() {
+    }
+
+    /**
+     * Set how many upcoming images are read and decoded in the background ahead of the encoders.
+     *
+     * @param prefetchImages images decoded ahead, or 0 to decode on demand
+     */
+    public void setPrefetchImages(int prefetchImages) {
+        if (prefetchImages < 0) throw new IllegalArgumentException("prefetchImages must be >= 0");
+        this.prefetchImages = prefetchImages;
+    }
+
+    /**
+     * Send status messages and per-segment progress to a listener instead of printing them.
+     *
+     * @param progressListener listener, or null for console output
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Encode on a pool shared with other encoders instead of starting one per run.
+     *
+     * @param workerPool shared pool, or null for a dedicated pool of batchSize threads
+     */
+    void setWorkerPool(SharedWorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Fit the run into a heap budget. Memory per image, per worker and per in-flight segment is
+     * estimated from the output size; the batch size then caps the encoder threads rather than
+     * setting them, and the in-flight window and prefetch depth are sized to the budget (the
+     * prefetch setting is lowered if it does not fit, and raised up to one image per thread if
+     * there is room). The window is resized during the run from the packet sizes actually written.
+     *
+     * @param maxMemoryBytes budget in bytes, or 0 to size everything from the batch size
+     */
+    public void setMaxMemory(long maxMemoryBytes) {
+        if (maxMemoryBytes < 0) throw new IllegalArgumentException("maxMemoryBytes must be >= 0");
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Rate control every segment at {@code mode}: a constant QP or a target bitrate.
+     *
+     * @param mode rate mode, or null for JCodec's default rate control
+     */
+    public void setRateMode(RateMode mode) {
+        this.holdRate = mode;
+        this.transitionRate = mode;
+    }
+
+    /**
+     * Rate control hold segments at {@code mode}. A hold is one keyframe followed by all-skip
+     * P-frames, so this sets the quality (and nearly the whole size) of each image's keyframe.
+     *
+     * @param mode rate mode, or null for JCodec's default rate control
+     */
+    public void setHoldRateMode(RateMode mode) {
+        this.holdRate = mode;
+    }
+
+    /**
+     * Rate control dissolve and fade segments, where every frame is encoded, at {@code mode}.
+     *
+     * @param mode rate mode, or null for JCodec's default rate control
+     */
+    public void setTransitionRateMode(RateMode mode) {
+        this.transitionRate = mode;
+    }
+
+    /**
+     * Decode every encoded frame and add its PSNR against the picture it was encoded from, with
+     * bytes per segment type, to the run report's {@code quality} entry. Costs about one H.264
+     * decode per encoded frame. Segments read from the segment cache or encoded on remote workers
+     * are not measured.
+     */
+    public void setMeasureQuality(boolean measureQuality) {
+        this.measureQuality = measureQuality;
+    }
+
+    /**
+     * Rate mode segments of {@code type} are encoded at; null for JCodec's default.
+     */
+    RateMode rateMode(SegmentType type) {
+        return type == SegmentType.HOLD ? holdRate : transitionRate;
+    }
+
+    /**
+     * Render a preview instead of the final video: the same segment plan and timing, at no more
+     * than {@link #PREVIEW_WIDTH} x {@link #PREVIEW_HEIGHT} (or the output size cap, if smaller)
+     * and about {@link #PREVIEW_FRAME_RATE} pictures per second. Transitions encode every n-th
+     * frame and show each for n frames, holds are a single picture, P-frames use a short motion
+     * search, and images are decoded from their embedded EXIF thumbnails where those are large
+     * enough. Previews are encoded locally and bypass the segment cache.
+     *
+     * @param preview true to render a preview
+     */
+    public void setPreview(boolean preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * Render every transition, and the fade in and fade out, with {@code transition}.
+     *
+     * @param transition transition to use, see {@link Transition#available()}
+     */
+    public void setTransition(Transition transition) {
+        if (transition == null) throw new IllegalArgumentException("transition must not be null");
+        this.transition = transition;
     }
 
     /**
-     * Center an image on a black background at the given output dimensions.
-     * Returns the original image if it already matches the output size.
+     * Render the transition into image {@code imageIndex} (the fade in, for image 0) with
+     * {@code transition} instead of the slideshow's transition.
+     *
+     * @param transition transition into that image, or null for the slideshow's transition
      */
-    static BufferedImage centerOnBlack(BufferedImage img, int outputWidth, int outputHeight) {
-        if (img.getWidth() == outputWidth && img.getHeight() == outputHeight) {
-            return img;
+    public void setTransition(int imageIndex, Transition transition) {
+        if (imageIndex < 0) throw new IllegalArgumentException("imageIndex must be >= 0");
+        if (transition == null) {
+            transitionsInto.remove(imageIndex);
+        } else {
+            transitionsInto.put(imageIndex, transition);
         }
+    }
 
-        BufferedImage canvas = new BufferedImage(outputWidth, outputHeight, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = canvas.createGraphics();
-        try {
-            g.setColor(Color.BLACK);
-            g.fillRect(0, 0, outputWidth, outputHeight);
-            int x = (outputWidth - img.getWidth()) / 2;
-            int y = (outputHeight - img.getHeight()) / 2;
-            g.drawImage(img, x, y, null);
-        } finally {
-            g.dispose();
+    /**
+     * Transition segment {@code spec} is rendered with; null for holds.
+     */
+    Transition transition(SegmentSpec spec) {
+        return switch (spec.type()) {
+            case HOLD -> null;
+            case FADE_IN -> transitionsInto.getOrDefault(spec.imageIndexA(), transition);
+            case DISSOLVE -> transitionsInto.getOrDefault(spec.imageIndexB(), transition);
+            case FADE_OUT -> transition;
+        };
+    }
+
+    /**
+     * Frames each encoded frame stands for in a preview at {@code frameRate}.
+     */
+    static int previewFrameStep(int frameRate) {
+        return Math.max(1, frameRate / PREVIEW_FRAME_RATE);
+    }
+
+    /**
+     * Encode segments on remote {@link SegmentWorkerServer}s instead of local threads; this
+     * process only scans, muxes and reads the segment cache. Workers read image files at the paths
+     * this process sees them, so they need the same files at the same paths (e.g. a shared mount);
+     * in-memory images are sent along with each segment instead. As many segments are kept in
+     * flight as the reachable workers have slots, and the batch size is ignored.
+     *
+     * @param remoteWorkers worker addresses, or null or empty to encode locally
+     */
+    public void setRemoteWorkers(List<InetSocketAddress> remoteWorkers) {
+        this.remoteWorkers = remoteWorkers == null || remoteWorkers.isEmpty() ? null : List.copyOf(remoteWorkers);
+    }
+
+    /**
+     * Cancel the run in progress, or the next one if none has started. Queued segments are
+     * dropped, running ones interrupted, and {@code encode} throws a {@link CancellationException}.
+     * The partially written output is left behind.
+     */
+    public void cancel() {
+        cancelled = true;
+        SegmentScheduler scheduler = activeScheduler;
+        if (scheduler != null) {
+            scheduler.fail(new CancellationException("Encoding cancelled"));
         }
-        return canvas;
     }
 
-    enum SegmentType { FADE_IN, HOLD, DISSOLVE, FADE_OUT }
+    /**
+     * Write a JSON report of the run (stage times, throughput, cache hit rates) when encoding finishes.
+     *
+     * @param reportFile report file, or null for no report
+     */
+    public void setReport(Path reportFile) {
+        this.reportFile = reportFile;
+    }
 
-    record SegmentSpec(int segmentIndex, SegmentType type,
-                       int imageIndexA, int imageIndexB, int frameCount) {}
+    /**
+     * Select the output container. Fragmented MP4 and HLS are written progressively as segments
+     * are muxed and can be played before encoding finishes.
+     *
+     * @param outputFormat output format; for HLS the output file is the playlist
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        if (outputFormat == null) throw new IllegalArgumentException("outputFormat must not be null");
+        this.outputFormat = outputFormat;
+    }
 
-    record EncodedSegment(int segmentIndex, List<MP4Packet> packets) {}
+    /**
+     * Reuse encoded segments across runs from an on-disk cache. Segments whose source images,
+     * timing and output size are unchanged are read back instead of encoded.
+     *
+     * @param directory cache directory, or null to disable caching
+     * @param maxBytes  cache size limit; least recently used segments are evicted beyond it
+     */
+    public void setSegmentCache(Path directory, long maxBytes) {
+        if (directory != null && maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+        this.segmentCacheDirectory = directory;
+        this.segmentCacheBytes = maxBytes;
+    }
 
-    public JCodecParallelEncoder() {
+    /**
+     * Keep loaded images off the Java heap. Up to {@code ramBytes} of YUV planes are held in
+     * native memory; further images are written to memory-mapped temp files in the spill
+     * directory. Each image's memory is freed as soon as its last segment has been encoded.
+     *
+     * @param spillDirectory directory for spill files, or null to keep images on the heap
+     * @param ramBytes       native memory for images before they spill
+     */
+    public void setFrameStore(Path spillDirectory, long ramBytes) {
+        if (spillDirectory != null && ramBytes < 0) throw new IllegalArgumentException("ramBytes must be >= 0");
+        this.frameStoreDirectory = spillDirectory;
+        this.frameStoreBytes = ramBytes;
+    }
+
+    /**
+     * Cap the output resolution. Larger images are decoded subsampled and scaled down to fit,
+     * preserving their aspect ratio.
+     *
+     * @param maxOutputWidth  maximum output width, or 0 for no limit
+     * @param maxOutputHeight maximum output height, or 0 for no limit
+     */
+    public void setMaxOutputSize(int maxOutputWidth, int maxOutputHeight) {
+        if (maxOutputWidth < 0) throw new IllegalArgumentException("maxOutputWidth must be >= 0");
+        if (maxOutputHeight < 0) throw new IllegalArgumentException("maxOutputHeight must be >= 0");
+        this.maxOutputWidth = maxOutputWidth;
+        this.maxOutputHeight = maxOutputHeight;
+    }
+
+    /**
+     * Limit the length of each independently encoded GOP. Longer holds and transitions are split
+     * into sub-segments that each start with an IDR frame and are encoded in parallel.
+     *
+     * @param maxGopFrames maximum frames per GOP, or 0 for no limit
+     */
+    public void setMaxGopFrames(int maxGopFrames) {
+        if (maxGopFrames < 0) throw new IllegalArgumentException("maxGopFrames must be >= 0");
+        this.maxGopFrames = maxGopFrames;
+    }
+
+    /**
+     * Build the list of segment specifications for N images without GOP splitting.
+     */
+    static List<SegmentSpec> buildSegmentSpecs(int imageCount, int holdFrames, int transitionFrames) {
+        return buildSegmentSpecs(imageCount, holdFrames, transitionFrames, 0);
     }
 
     /**
      * Build the list of segment specifications for N images.
      * Layout: FADE_IN, HOLD[0], DISSOLVE[0->1], HOLD[1], ..., HOLD[N-1], FADE_OUT
+     * with each entry split into balanced sub-segments of at most maxGopFrames frames.
+     *
+     * @param maxGopFrames maximum frames per segment, or 0 for no limit
      */
-    static List<SegmentSpec> buildSegmentSpecs(int imageCount, int holdFrames, int transitionFrames) {
+    static List<SegmentSpec> buildSegmentSpecs(int imageCount, int holdFrames, int transitionFrames,
+                                               int maxGopFrames) {
         List<SegmentSpec> specs = new ArrayList<>(2 * imageCount);
-        int segIdx = 0;
 
         // Fade in from black to first image
-        specs.add(new SegmentSpec(segIdx++, SegmentType.FADE_IN, 0, -1, transitionFrames));
+        int next = addSplit(specs, 0, SegmentType.FADE_IN, 0, -1, transitionFrames, maxGopFrames);
 
         for (int i = 0; i < imageCount; i++) {
             // Hold segment for image i
-            specs.add(new SegmentSpec(segIdx++, SegmentType.HOLD, i, -1, holdFrames));
+            next = addSplit(specs, next, SegmentType.HOLD, i, -1, holdFrames, maxGopFrames);
 
             if (i < imageCount - 1) {
                 // Dissolve from image i to image i+1
-                specs.add(new SegmentSpec(segIdx++, SegmentType.DISSOLVE, i, i + 1, transitionFrames));
+                next = addSplit(specs, next, SegmentType.DISSOLVE, i, i + 1, transitionFrames, maxGopFrames);
             }
         }
 
         // Fade out from last image to black
-        specs.add(new SegmentSpec(segIdx++, SegmentType.FADE_OUT, imageCount - 1, -1, transitionFrames));
+        addSplit(specs, next, SegmentType.FADE_OUT, imageCount - 1, -1, transitionFrames, maxGopFrames);
 
         return specs;
     }
 
     /**
-     * Blend two images together with specified alpha using AlphaComposite.SRC_OVER.
+     * Append one logical segment of spanFrames frames, split into near-equal parts of at most maxGopFrames.
+     *
+     * @param segmentIndex index of the first part
+     * @return index of the segment after the last part
      */
-    private static BufferedImage blendImages(BufferedImage img1, BufferedImage img2, float alpha) {
-        int width = img1.getWidth();
-        int height = img1.getHeight();
-
-        var blended = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        var g = blended.createGraphics();
-        try {
-            g.drawImage(img1, 0, 0, null);
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha));
-            g.drawImage(img2, 0, 0, null);
-        } finally {
-            g.dispose();
+    static int addSplit(Collection<SegmentSpec> specs, int segmentIndex, SegmentType type, int imageIndexA,
+                        int imageIndexB, int spanFrames, int maxGopFrames) {
+        int parts = splitParts(spanFrames, maxGopFrames);
+        int firstFrame = 0;
+        for (int part = 0; part < parts; part++) {
+            int frameCount = spanFrames / parts + (part < spanFrames % parts ? 1 : 0);
+            specs.add(new SegmentSpec(segmentIndex++, type, imageIndexA, imageIndexB,
+                    frameCount, firstFrame, spanFrames));
+            firstFrame += frameCount;
         }
-        return blended;
+        return segmentIndex;
     }
 
     /**
-     * Encode a hold segment: static image repeated for frameCount frames.
+     * Number of segments a span of spanFrames frames is split into.
      */
-    private static EncodedSegment encodeHoldSegment(SegmentSpec spec, BufferedImage image, int frameRate) {
-        return encodeFrames(spec.segmentIndex(), spec.frameCount(), frameRate,
-                localFrame -> image);
+    static int splitParts(int spanFrames, int maxGopFrames) {
+        return (maxGopFrames <= 0 || spanFrames <= maxGopFrames) ? 1 : (spanFrames + maxGopFrames - 1) / maxGopFrames;
     }
 
     /**
-     * Encode a dissolve segment: alpha-blended transition from imgA to imgB.
+     * Encode a hold segment: static image repeated for frameCount frames.
+     * The image is encoded once as an IDR frame; every following frame is an all-skip
+     * P-frame that repeats the decoded IDR picture, so holds cost one encode regardless of length.
+     * In a preview the IDR frame alone is shown for the whole hold.
      */
-    private static EncodedSegment encodeDissolveSegment(SegmentSpec spec, BufferedImage imgA,
-                                                        BufferedImage imgB, int frameRate) {
+    static void encodeHoldSegment(EncoderContext ctx, SegmentSpec spec, Picture yuv, int frameRate,
+                                  PacketSink sink) throws InterruptedException {
         int frameCount = spec.frameCount();
-        return encodeFrames(spec.segmentIndex(), frameCount, frameRate,
-                localFrame -> {
-                    float alpha = (float) (localFrame + 1) / frameCount;
-                    return blendImages(imgA, imgB, alpha);
-                });
+        if (frameCount <= 0) {
+            return;
+        }
+
+        ByteBuffer idr = copyOf(ctx.encode(yuv, 0));
+        ctx.measure(spec.type(), yuv, idr);
+        if (ctx.frameStep() > 1) {
+            sink.accept(framePacket(idr, 0, frameCount, frameRate, true));
+            return;
+        }
+        sink.accept(framePacket(idr, 0, frameRate, true));
+
+        H264SkipFrames skipFrames = new H264SkipFrames(
+                ctx.encoder().initSPS(new Size(yuv.getCroppedWidth(), yuv.getCroppedHeight())),
+                ctx.encoder().initPPS());
+        for (int localFrame = 1; localFrame < frameCount; localFrame++) {
+            ByteBuffer skip = skipFrames.frame(localFrame);
+            ctx.measureRepeat(spec.type(), skip.remaining());
+            sink.accept(framePacket(skip, localFrame, frameRate, false));
+        }
     }
 
     /**
-     * Encode a fade segment (fade-in or fade-out) by dissolving between a black image and the real image.
+     * Encode a fade-in or fade-out segment as {@code transition} from or to black.
      */
-    private static EncodedSegment encodeFadeSegment(SegmentSpec spec, BufferedImage realImage, int frameRate) {
-        BufferedImage black = new BufferedImage(realImage.getWidth(), realImage.getHeight(), BufferedImage.TYPE_INT_RGB);
-        if (spec.type() == SegmentType.FADE_IN) {
-            return encodeDissolveSegment(spec, black, realImage, frameRate);
-        } else {
-            return encodeDissolveSegment(spec, realImage, black, frameRate);
+    static void encodeTransitionSegment(EncoderContext ctx, SegmentSpec spec, Transition transition, Picture image,
+                                        int frameRate, PacketSink sink) throws InterruptedException {
+        boolean fadeIn = spec.type() == SegmentType.FADE_IN;
+        encodeTransitionSegment(ctx, spec, transition, fadeIn ? null : image, fadeIn ? image : null, frameRate,
+                sink);
+    }
+
+    /**
+     * Encode a transition segment: each frame is rendered by {@code transition} into the worker's
+     * blend picture, so the only per-frame allocation on this side is the compact packet payload.
+     * Static frames are not rendered or encoded; the frame before them is shown for longer. In a
+     * preview only every {@link EncoderContext#frameStep()}-th frame is encoded, and key frames are
+     * counted in encoded frames.
+     *
+     * @param from outgoing image, or null when fading in from black
+     * @param to   incoming image, or null when fading out to black
+     */
+    static void encodeTransitionSegment(EncoderContext ctx, SegmentSpec spec, Transition transition, Picture from,
+                                        Picture to, int frameRate, PacketSink sink) throws InterruptedException {
+        int frameCount = spec.frameCount();
+        int step = ctx.frameStep();
+        Picture dest = ctx.blendTarget(from != null ? from : to);
+        // each packet is held back until it is known how many frames it is shown for
+        ByteBuffer pending = null;
+        int pendingFrame = 0;
+        int pendingDuration = 0;
+        int encodedFrames = 0;
+        for (int localFrame = 0; localFrame < frameCount; localFrame += step) {
+            int duration = Math.min(step, frameCount - localFrame);
+            if (pending != null && unchangedSince(transition, spec, localFrame - step, localFrame)) {
+                pendingDuration += duration;
+                continue;
+            }
+            if (pending != null) {
+                sink.accept(framePacket(pending, pendingFrame, pendingDuration, frameRate,
+                        EncoderContext.isKeyFrame(encodedFrames - 1)));
+            }
+            long start = ctx.stats().start();
+            Picture yuv = transition.render(from, to, spec.firstFrame() + localFrame, spec.spanFrames(), dest);
+            ctx.stats().stop(RunStats.Stage.BLEND, start);
+            pending = copyOf(ctx.encode(yuv, encodedFrames));
+            ctx.measure(spec.type(), yuv, pending);
+            pendingFrame = localFrame;
+            pendingDuration = duration;
+            encodedFrames++;
+        }
+        if (pending != null) {
+            sink.accept(framePacket(pending, pendingFrame, pendingDuration, frameRate,
+                    EncoderContext.isKeyFrame(encodedFrames - 1)));
         }
     }
 
     /**
-     * Generic frame encoder: encodes frameCount frames using a frame supplier.
+     * Whether every frame after {@code previous} up to {@code localFrame} is static.
      */
-    private static EncodedSegment encodeFrames(int segmentIndex, int frameCount, int frameRate,
-                                               java.util.function.IntFunction<BufferedImage> frameSupplier) {
-        if (frameCount <= 0) {
-            return new EncodedSegment(segmentIndex, List.of());
+    private static boolean unchangedSince(Transition transition, SegmentSpec spec, int previous, int localFrame) {
+        for (int frame = previous + 1; frame <= localFrame; frame++) {
+            if (!transition.isStatic(spec.firstFrame() + frame, spec.spanFrames())) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        H264Encoder encoder = H264Encoder.createH264Encoder();
-        List<MP4Packet> packets = new ArrayList<>(frameCount);
+    /**
+     * Copy encoded data out of a (large, reusable) encoder output buffer into a compact buffer.
+     */
+    private static ByteBuffer copyOf(ByteBuffer srcData) {
+        ByteBuffer data = ByteBuffer.allocate(srcData.remaining());
+        data.put(srcData);
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Wrap one encoded frame as a segment-local MP4 packet; the muxer rewrites the timestamps.
+     */
+    static MP4Packet framePacket(ByteBuffer data, int localFrame, int frameRate, boolean isKeyFrame) {
+        return framePacket(data, localFrame, 1, frameRate, isKeyFrame);
+    }
+
+    /**
+     * Wrap one encoded frame that is shown for {@code duration} frames, as in a preview.
+     */
+    static MP4Packet framePacket(ByteBuffer data, int localFrame, int duration, int frameRate, boolean isKeyFrame) {
+        return new MP4Packet(
+                data,
+                localFrame,
+                frameRate,
+                duration,
+                localFrame,
+                isKeyFrame ? Packet.FrameType.KEY : Packet.FrameType.INTER,
+                null,
+                localFrame,
+                localFrame,
+                0,
+                0L,
+                data.remaining(),
+                isKeyFrame
+        );
+    }
 
-        for (int localFrame = 0; localFrame < frameCount; localFrame++) {
-            BufferedImage frameImage = frameSupplier.apply(localFrame);
-            Picture yuv = AWTUtil.fromBufferedImage(frameImage, ColorSpace.YUV420J);
+    /**
+     * Dispatch encoding of one segment based on its type at rate mode {@code rate} (null for
+     * JCodec's default), charging stage times to {@code stats}.
+     */
+    static void encodeOneSegment(SegmentSpec spec, Map<Integer, Picture> imageCache, int frameRate, RateMode rate,
+                                 PacketSink sink, RunStats stats) throws InterruptedException {
+        encodeOneSegment(spec, imageCache, frameRate, 1, rate, sink, stats);
+    }
 
-            int bufferSize = frameImage.getWidth() * frameImage.getHeight() * 3;
-            ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+    /**
+     * Encode one segment, only every {@code frameStep}-th frame for a preview (1 for all frames).
+     */
+    static void encodeOneSegment(SegmentSpec spec, Map<Integer, Picture> imageCache, int frameRate, int frameStep,
+                                 RateMode rate, PacketSink sink, RunStats stats) throws InterruptedException {
+        encodeOneSegment(spec, imageCache, frameRate, frameStep, rate, Transition.DISSOLVE, sink, stats);
+    }
 
-            VideoEncoder.EncodedFrame encoded = encoder.encodeFrame(yuv, buffer);
-            boolean isKeyFrame = encoded.isKeyFrame();
+    /**
+     * Encode one segment, rendering a transition segment with {@code transition}.
+     */
+    static void encodeOneSegment(SegmentSpec spec, Map<Integer, Picture> imageCache, int frameRate, int frameStep,
+                                 RateMode rate, Transition transition, PacketSink sink, RunStats stats)
+            throws InterruptedException {
+        EncoderContext ctx = EncoderContext.current();
+        ctx.setStats(stats);
+        ctx.startSegment(rate, frameRate, frameStep);
+        try {
+            switch (spec.type()) {
+                case HOLD -> encodeHoldSegment(ctx, spec, imageCache.get(spec.imageIndexA()), frameRate, sink);
+                case DISSOLVE -> encodeTransitionSegment(ctx, spec, transition, imageCache.get(spec.imageIndexA()),
+                        imageCache.get(spec.imageIndexB()), frameRate, sink);
+                case FADE_IN, FADE_OUT -> encodeTransitionSegment(ctx, spec, transition,
+                        imageCache.get(spec.imageIndexA()), frameRate, sink);
+            }
+        } finally {
+            ctx.startSegment(null, frameRate);
+        }
+    }
 
-            ByteBuffer srcData = encoded.getData();
-            ByteBuffer data = ByteBuffer.allocate(srcData.remaining());
-            data.put(srcData);
-            data.flip();
+    /**
+     * Encode a segment outside the prefetch plan, decoding its images in the calling thread.
+     */
+    private static void encodeStandalone(SegmentSpec spec, ImageSource source, int outputWidth, int outputHeight,
+                                         int frameRate, RateMode rate, Transition transition, PacketSink sink,
+                                         RunStats stats)
+            throws IOException, InterruptedException {
+        Map<Integer, Picture> images = new HashMap<>();
+        for (int idx : new int[]{spec.imageIndexA(), spec.imageIndexB()}) {
+            if (idx >= 0) {
+                images.put(idx, ImagePrefetcher.load(source.read(idx), outputWidth, outputHeight, stats));
+            }
+        }
+        encodeOneSegment(spec, images, frameRate, 1, rate, transition, sink, stats);
+    }
 
-            MP4Packet packet = new MP4Packet(
-                    data,
-                    localFrame,
-                    frameRate,
-                    1L,
-                    localFrame,
-                    isKeyFrame ? Packet.FrameType.KEY : Packet.FrameType.INTER,
-                    null,
-                    localFrame,
-                    localFrame,
-                    0,
-                    0L,
-                    data.remaining(),
-                    isKeyFrame
-            );
+    /**
+     * Send packets to both the muxer and, when caching, a cache entry.
+     */
+    private static PacketSink tee(SegmentChannel channel, SegmentCache.Writer cacheWriter) {
+        if (cacheWriter == null) {
+            return channel;
+        }
+        return packet -> {
+            cacheWriter.accept(packet);
+            channel.accept(packet);
+        };
+    }
 
-            packets.add(packet);
-            spin();
+    /**
+     * Count a segment whose packets have all been handed to the muxer and commit its JFR event.
+     *
+     * @param event event begun when the segment's task started
+     */
+    private static void segmentDone(SegmentSpec spec, boolean reused, SlideshowEvents.SegmentEvent event,
+                                    RunStats stats) {
+        stats.segmentDone(reused);
+        if (event.shouldCommit()) {
+            event.segmentIndex = spec.segmentIndex();
+            event.type = spec.type().name();
+            event.frames = spec.frameCount();
+            event.source = reused ? "Reused" : "Encoded";
+            event.commit();
         }
+    }
 
-        return new EncodedSegment(segmentIndex, packets);
+    /**
+     * Count how many segments use each image; an image is evicted when its count reaches zero.
+     */
+    static AtomicIntegerArray countImageUses(List<SegmentSpec> specs, int imageCount) {
+        AtomicIntegerArray uses = new AtomicIntegerArray(imageCount);
+        for (SegmentSpec spec : specs) {
+            if (spec.imageIndexA() >= 0) uses.incrementAndGet(spec.imageIndexA());
+            if (spec.imageIndexB() >= 0) uses.incrementAndGet(spec.imageIndexB());
+        }
+        return uses;
     }
 
     /**
-     * Dispatch encoding of one segment based on its type.
+     * Use counter of a streamed run, whose images are all used by the same number of segments;
+     * true for an image's last use.
      */
-    private static EncodedSegment encodeOneSegment(SegmentSpec spec, Map<Integer, BufferedImage> imageCache,
-                                                   int frameRate) {
-        return switch (spec.type()) {
-            case HOLD -> encodeHoldSegment(spec, imageCache.get(spec.imageIndexA()), frameRate);
-            case DISSOLVE -> encodeDissolveSegment(spec, imageCache.get(spec.imageIndexA()),
-                    imageCache.get(spec.imageIndexB()), frameRate);
-            case FADE_IN, FADE_OUT -> encodeFadeSegment(spec, imageCache.get(spec.imageIndexA()), frameRate);
+    static IntPredicate lastUseCounter(int usesPerImage) {
+        Map<Integer, AtomicInteger> remaining = new ConcurrentHashMap<>();
+        return idx -> {
+            if (remaining.computeIfAbsent(idx, k -> new AtomicInteger(usesPerImage)).decrementAndGet() > 0) {
+                return false;
+            }
+            remaining.remove(idx);
+            return true;
         };
     }
 
     /**
-     * Load images needed for a batch into the cache (skipping already-loaded ones).
+     * Image indices in order of first use by the segment plan, which is the order they are prefetched in.
      */
-    private static void loadForBatch(List<SegmentSpec> batch, File[] imageFiles,
-                                     Map<Integer, BufferedImage> imageCache,
-                                     int outputWidth, int outputHeight) throws IOException {
-        Set<Integer> needed = new HashSet<>();
-        for (SegmentSpec spec : batch) {
-            if (spec.imageIndexA() >= 0) needed.add(spec.imageIndexA());
-            if (spec.imageIndexB() >= 0) needed.add(spec.imageIndexB());
+    static List<Integer> imageLoadOrder(List<SegmentSpec> specs) {
+        Set<Integer> order = new LinkedHashSet<>();
+        for (SegmentSpec spec : specs) {
+            if (spec.imageIndexA() >= 0) order.add(spec.imageIndexA());
+            if (spec.imageIndexB() >= 0) order.add(spec.imageIndexB());
         }
+        return new ArrayList<>(order);
+    }
 
-        for (int idx : needed) {
-            if (!imageCache.containsKey(idx)) {
-                BufferedImage img = ImageIO.read(imageFiles[idx]);
-                if (img == null) {
-                    throw new IOException("Could not read image: " + imageFiles[idx].getName());
-                }
-                img = centerOnBlack(img, outputWidth, outputHeight);
-                imageCache.put(idx, img);
-                clearSpinner();
-                System.out.printf("%n  Loaded: %s (%dx%d)  ", imageFiles[idx].getName(), img.getWidth(), img.getHeight());
+    /**
+     * Move the images a segment needs from the prefetcher into the store (skipping already-loaded ones).
+     */
+    private static void loadForSegment(SegmentSpec spec, ImagePrefetcher prefetcher,
+                                       ImageStore store) throws IOException {
+        for (int idx : new int[]{spec.imageIndexA(), spec.imageIndexB()}) {
+            if (idx >= 0 && !store.contains(idx)) {
+                store.put(idx, prefetcher.take(idx));
             }
         }
     }
 
     /**
-     * Evict images from cache that are not needed by any future segment.
+     * Release a finished segment's images, evicting any that no remaining segment uses.
      */
-    private static void evictUnneeded(Map<Integer, BufferedImage> imageCache, List<SegmentSpec> futureSpecs) {
-        Set<Integer> futureNeeded = new HashSet<>();
-        for (SegmentSpec spec : futureSpecs) {
-            if (spec.imageIndexA() >= 0) futureNeeded.add(spec.imageIndexA());
-            if (spec.imageIndexB() >= 0) futureNeeded.add(spec.imageIndexB());
+    private static void evictUnneeded(SegmentSpec spec, ImageStore store, IntPredicate lastUse) {
+        for (int idx : new int[]{spec.imageIndexA(), spec.imageIndexB()}) {
+            if (idx >= 0 && lastUse.test(idx)) {
+                store.release(idx);
+            }
         }
-        imageCache.keySet().removeIf(idx -> !futureNeeded.contains(idx));
     }
 
     /**
@@ -302,163 +843,597 @@ public class JCodecParallelEncoder {
      * @param transitionFrames number of frames for each transition
      * @param frameRate        frame rate for the output video
      * @param output           output MP4 file
-     * @param batchSize        parallel encoding batch size
+     * @param batchSize        number of encoder threads
      */
     public void encode(File[] imageFiles, int holdFrames, int transitionFrames,
                        int frameRate, File output, int batchSize) throws Exception {
         if (imageFiles.length == 0) {
             throw new IllegalArgumentException("Image file list cannot be empty");
         }
+        encode(ImageSource.ofFiles(imageFiles), holdFrames, transitionFrames, frameRate, output, batchSize);
+    }
+
+    /**
+     * Encode images into a video file in the selected output format.
+     *
+     * @param images           images to encode, in display order
+     * @param holdFrames       number of frames to hold each image
+     * @param transitionFrames number of frames for each transition
+     * @param frameRate        frame rate for the output video
+     * @param output           output file; for HLS, the playlist
+     * @param batchSize        number of encoder threads
+     */
+    public void encode(ImageSource images, int holdFrames, int transitionFrames,
+                       int frameRate, File output, int batchSize) throws Exception {
+        run(images, holdFrames, transitionFrames, frameRate, output.getAbsolutePath(),
+                (w, h, fr, maxSegmentSeconds) -> VideoOutput.open(outputFormat, output, w, h, fr, maxSegmentSeconds),
+                batchSize);
+    }
+
+    /**
+     * Encode images to a caller's channel, which is left open. MP4 output needs a
+     * {@link java.nio.channels.SeekableByteChannel}; fragmented MP4 is written strictly in order
+     * and streams to any channel. HLS, which writes several files, is not available here.
+     *
+     * @param images           images to encode, in display order
+     * @param holdFrames       number of frames to hold each image
+     * @param transitionFrames number of frames for each transition
+     * @param frameRate        frame rate for the output video
+     * @param output           destination of the video
+     * @param batchSize        number of encoder threads
+     */
+    public void encode(ImageSource images, int holdFrames, int transitionFrames,
+                       int frameRate, WritableByteChannel output, int batchSize) throws Exception {
+        VideoOutput.checkChannel(outputFormat, output);
+        run(images, holdFrames, transitionFrames, frameRate, output.toString(),
+                (w, h, fr, maxSegmentSeconds) -> VideoOutput.open(outputFormat, output, w, h, fr),
+                batchSize);
+    }
 
-        // Scan all image headers to determine output resolution
-        int[] dims = scanOutputDimensions(imageFiles);
+    /**
+     * Print a status line, or hand it to the progress listener.
+     */
+    private void info(String format, Object... args) {
+        message(String.format(format, args));
+    }
+
+    /**
+     * Print a line, above the console progress while it is shown, or hand it to the progress
+     * listener. Called from any thread.
+     */
+    private void message(String message) {
+        ProgressReporter progress = consoleProgress;
+        if (progressListener != null) {
+            progressListener.message(message);
+        } else if (progress != null) {
+            progress.message(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    private void run(ImageSource images, int holdFrames, int transitionFrames, int frameRate,
+                     String outputName, OutputOpener opener, int batchSize) throws Exception {
+        if (cancelled) {
+            throw new CancellationException("Encoding cancelled");
+        }
+        if (preview && remoteWorkers != null) {
+            throw new IllegalArgumentException("Previews are encoded locally; remote workers cannot be used");
+        }
+        if (remoteWorkers != null && images.files() == null && images.sequential()) {
+            throw new IllegalArgumentException(
+                    "Remote workers need image files or an indexed image source; an iterator is read only once");
+        }
+        long startNanos = System.nanoTime();
+        RunStats stats = new RunStats(measureQuality && remoteWorkers == null ? new QualityStats() : null);
+        boolean streamed = images.streamed();
+        if (streamed && !images.exists(0)) {
+            throw new IllegalArgumentException("Image source is empty");
+        }
+        int imageCount = images.size();
+
+        // Scan all image headers to determine output resolution, unless the source states it
+        ImageIndex.ScanResult scan = null;
+        int[] maxDims = images.dimensions();
+        if (maxDims == null) {
+            scan = ImageIndex.scan(images.files(), messages);
+            info("Scanned %d image headers (%d from index)", scan.scanned(), imageCount - scan.scanned());
+            maxDims = maxDimensions(scan.images());
+        }
+        int[] dims = preview
+                ? outputDimensions(maxDims[0], maxDims[1], previewCap(maxOutputWidth, PREVIEW_WIDTH),
+                        previewCap(maxOutputHeight, PREVIEW_HEIGHT))
+                : outputDimensions(maxDims[0], maxDims[1], maxOutputWidth, maxOutputHeight);
+        int frameStep = preview ? previewFrameStep(frameRate) : 1;
         int outputWidth = dims[0];
         int outputHeight = dims[1];
 
-        List<SegmentSpec> allSpecs = buildSegmentSpecs(imageFiles.length, holdFrames, transitionFrames);
-        int totalSegments = allSpecs.size();
+        // A streamed source is planned as its images are found, so the totals are unknown (-1)
+        List<SegmentSpec> allSpecs = streamed ? null
+                : buildSegmentSpecs(imageCount, holdFrames, transitionFrames, maxGopFrames);
+        SegmentPlan streamPlan = streamed ? new SegmentPlan(images, holdFrames, transitionFrames, maxGopFrames) : null;
+        int totalSegments = streamed ? -1 : allSpecs.size();
+
+        long totalFrames = streamed ? -1 : allSpecs.stream().mapToLong(SegmentSpec::frameCount).sum();
+        // every image gets the same holds and transitions, so two images already show the longest segment
+        List<SegmentSpec> sizingSpecs = streamed
+                ? buildSegmentSpecs(2, holdFrames, transitionFrames, maxGopFrames) : allSpecs;
+        double maxSegmentSeconds = (double) sizingSpecs.stream().mapToInt(SegmentSpec::frameCount).max().orElse(0)
+                / frameRate;
+        info("Output resolution: %dx%d", outputWidth, outputHeight);
+        if (streamed) {
+            info("Encoding images as they are found @ %d fps", frameRate);
+        } else {
+            info("Encoding %d images into %d segments (%d total frames) @ %d fps",
+                    imageCount, totalSegments, totalFrames, frameRate);
+        }
+        // Up to two segments per worker may be in flight (submitted but not yet muxed),
+        // unless a memory budget says otherwise
+        int workerCount = batchSize;
+        int windowSize = 2 * batchSize;
+        int prefetch = prefetchImages;
+        MemoryBudget budget = memoryBudget(outputWidth, outputHeight);
+        if (budget != null && remoteWorkers == null) {
+            MemoryBudget.Plan plan = budget.plan(batchSize, prefetchImages);
+            workerCount = plan.workers();
+            windowSize = plan.window();
+            prefetch = plan.prefetch();
+            info("Memory budget: %d MB (%.1f MB per image, %.1f MB per worker, %.1f MB per segment in flight)",
+                    budget.bytes() >> 20, budget.pictureBytes() / 1048576.0, budget.workerBytes() / 1048576.0,
+                    budget.segmentBytes() / 1048576.0);
+        }
+        if (remoteWorkers == null) {
+            info("Batch size: %d (parallel threads), up to %d segments in flight", workerCount, windowSize);
+            info("Prefetch: %d images", prefetch);
+        }
+        if (maxGopFrames > 0) {
+            info("Max GOP: %d frames", maxGopFrames);
+        }
+        if (preview) {
+            info("Preview: every %d frames encoded, fast motion search, EXIF thumbnails where large enough",
+                    frameStep);
+        }
+        if (transition != Transition.DISSOLVE || !transitionsInto.isEmpty()) {
+            info("Transition: %s%s", transition.name(),
+                    transitionsInto.isEmpty() ? "" : ", %d images with their own".formatted(transitionsInto.size()));
+        }
+        if (holdRate != null || transitionRate != null) {
+            info("Rate control: holds %s, transitions %s",
+                    RateMode.describe(holdRate), RateMode.describe(transitionRate));
+        }
+        if (measureQuality && remoteWorkers != null) {
+            info("Quality: not measured for segments encoded on remote workers");
+        }
+        FrameStore frameStore = frameStoreDirectory == null || remoteWorkers != null ? null
+                : new FrameStore(frameStoreBytes, frameStoreDirectory);
+        if (frameStore != null) {
+            info("Off-heap images: %d MB in RAM, then spilled to %s", frameStoreBytes >> 20, frameStoreDirectory);
+        }
+
+        // Segments found in the cache are read back instead of encoded, and need no images.
+        // Cache keys are built from file hashes, so in-memory sources are never cached.
+        SegmentCache cache = segmentCacheDirectory == null || scan == null || preview ? null
+                : new SegmentCache(segmentCacheDirectory, segmentCacheBytes, messages);
+        Map<Integer, String> cacheKeys = new HashMap<>();
+        Set<Integer> cachedSegments = new HashSet<>();
+        List<SegmentSpec> specsToEncode = allSpecs;
+        if (cache != null) {
+            List<String> imageHashes = scan.images().stream().map(ImageIndex.ImageInfo::sha256).toList();
+            specsToEncode = new ArrayList<>();
+            for (SegmentSpec spec : allSpecs) {
+                String key = SegmentCache.key(spec, imageHashes, frameRate, outputWidth, outputHeight,
+                        rateMode(spec.type()), transition(spec));
+                cacheKeys.put(spec.segmentIndex(), key);
+                if (cache.lookup(key)) {
+                    cachedSegments.add(spec.segmentIndex());
+                } else {
+                    specsToEncode.add(spec);
+                }
+            }
+            info("Segment cache: %d of %d segments cached (%s)",
+                    cachedSegments.size(), totalSegments, segmentCacheDirectory);
+        } else if (segmentCacheDirectory != null) {
+            info("Segment cache: not used for %s",
+                    preview ? "previews" : streamed ? "streamed images" : "in-memory images");
+        }
 
-        long totalFrames = allSpecs.stream().mapToLong(SegmentSpec::frameCount).sum();
-        System.out.printf("Output resolution: %dx%d%n", outputWidth, outputHeight);
-        System.out.printf("Encoding %d images into %d segments (%d total frames) @ %d fps%n",
-                imageFiles.length, totalSegments, totalFrames, frameRate);
-        System.out.printf("Batch size: %d (parallel threads)%n", batchSize);
+        // Channels in segment order; the muxer streams each one's packets to the output as they arrive
+        BlockingQueue<SegmentChannel> muxQueue = new LinkedBlockingQueue<>();
+        ProgressListener listener = progressListener != null ? progressListener : NO_PROGRESS;
 
-        // Shared state for muxer coordination
-        ConcurrentSkipListMap<Integer, EncodedSegment> completedSegments = new ConcurrentSkipListMap<>();
-        Object muxerLock = new Object();
-        AtomicReference<Exception> muxerError = new AtomicReference<>();
-        final boolean[] encodingComplete = {false};
+        RemoteSegmentEncoder remote = connectRemote();
+        if (remote != null) {
+            workerCount = remote.slots();
+            // segments are buffered here whole, so the budget bounds how many are in flight
+            windowSize = budget == null ? 2 * workerCount : budget.window(0, 0, 2 * workerCount);
+            info("Remote workers: %d of %d reachable, %d segments at a time, up to %d in flight",
+                    remote.reachableWorkers(), remoteWorkers.size(), workerCount, windowSize);
+        }
+        int localWorkers = remote == null ? workerCount : 0;
+        int maxWindow = remote == null ? MemoryBudget.MAX_WINDOW_PER_WORKER * workerCount : 2 * workerCount;
+        int initialWindow = windowSize;
 
-        // Start muxer thread
-        Thread muxerThread = new Thread(() -> {
-            try {
-                muxerLoop(completedSegments, totalSegments, frameRate, output, muxerLock, encodingComplete,
-                        outputWidth, outputHeight);
-            } catch (Exception e) {
-                muxerError.set(e);
+        // Remote workers decode their own images, so nothing is prefetched for them.
+        int peakInFlight;
+        int finalWindow;
+        try (remote;
+             ImageStore store = frameStore != null ? frameStore : ImageStore.onHeap();
+             VideoOutput out = openOutput(opener, outputName, outputWidth, outputHeight, frameRate,
+                maxSegmentSeconds);
+             SegmentScheduler scheduler = workerPool == null ? new SegmentScheduler(workerCount, windowSize)
+                     : new SegmentScheduler(workerPool.newLane(), windowSize);
+             ImagePrefetcher prefetcher = new ImagePrefetcher(images,
+                     remote != null ? List.of() : streamed ? null : imageLoadOrder(specsToEncode),
+                     outputWidth, outputHeight, prefetch, preview, stats)) {
+            activeScheduler = scheduler;
+            if (cancelled) {
+                scheduler.fail(new CancellationException("Encoding cancelled"));
             }
-        }, "muxer-thread");
-        muxerThread.start();
+            // Start muxer thread
+            ProgressListener muxListener = budget == null ? listener
+                    : resizingWindow(budget, scheduler, stats, localWorkers, prefetch, maxWindow, listener);
+            Thread muxerThread = new Thread(() -> {
+                try {
+                    muxerLoop(muxQueue, totalSegments, totalFrames, out, scheduler, stats, muxListener);
+                } catch (InterruptedException e) {
+                    scheduler.fail(e);
+                } catch (Exception e) {
+                    writeFailed(outputName);
+                    scheduler.fail(e);
+                }
+            }, "muxer-thread");
+            muxerThread.start();
 
-        // Batched encoding
-        Map<Integer, BufferedImage> imageCache = new HashMap<>();
+            // Images are taken from the prefetcher just before their first segment is submitted
+            // and released from the store after their last one
+            IntPredicate lastUse;
+            if (streamed) {
+                lastUse = lastUseCounter(streamPlan.usesPerImage());
+            } else {
+                AtomicIntegerArray remainingUses = countImageUses(specsToEncode, imageCount);
+                lastUse = idx -> remainingUses.decrementAndGet(idx) == 0;
+            }
 
-        try {
-            for (int batchStart = 0; batchStart < totalSegments; batchStart += batchSize) {
-                // Check for muxer errors early
-                Exception err = muxerError.get();
-                if (err != null) throw err;
-
-                int batchEnd = Math.min(batchStart + batchSize, totalSegments);
-                List<SegmentSpec> batch = allSpecs.subList(batchStart, batchEnd);
-
-                // Load images needed for this batch
-                loadForBatch(batch, imageFiles, imageCache, outputWidth, outputHeight);
-
-                // Encode batch in parallel
-                batch.parallelStream().forEach(spec -> {
-                    EncodedSegment segment = encodeOneSegment(spec, imageCache, frameRate);
-                    completedSegments.put(segment.segmentIndex(), segment);
-                    clearSpinner();
-                    System.out.printf("%n  Encoded segment %d/%d (%s, %d frames)  ",
-                            spec.segmentIndex() + 1, totalSegments, spec.type(), spec.frameCount());
-                    synchronized (muxerLock) {
-                        muxerLock.notifyAll();
-                    }
-                });
+            // console progress, printed by its own thread until the muxer is done
+            ProgressReporter progress = progressListener != null ? null
+                    : new ProgressReporter(stats, totalSegments, totalFrames);
+            consoleProgress = progress;
+            try {
+                try {
+                    Iterator<SegmentSpec> plan = streamed ? streamPlan : allSpecs.iterator();
+                    while (plan.hasNext()) {
+                        SegmentSpec spec = plan.next();
+                        scheduler.awaitSlot();
+                        String cacheKey = cacheKeys.get(spec.segmentIndex());
+                        SegmentChannel channel = new SegmentChannel(spec.segmentIndex(),
+                                SegmentChannel.DEFAULT_CAPACITY, stats);
+                        muxQueue.put(channel);
 
-                // Evict images not needed by future segments
-                if (batchEnd < totalSegments) {
-                    evictUnneeded(imageCache, allSpecs.subList(batchEnd, totalSegments));
-                } else {
-                    imageCache.clear();
+                        if (cachedSegments.contains(spec.segmentIndex())) {
+                            scheduler.submit(() -> {
+                                var event = new SlideshowEvents.SegmentEvent();
+                                event.begin();
+                                boolean reused = true;
+                                if (!cache.get(cacheKey, frameRate, channel)) {
+                                    // entry vanished: encode it after all, loading its images directly
+                                    try (SegmentCache.Writer cacheWriter = cache.begin(cacheKey)) {
+                                        encodeStandalone(spec, images, outputWidth, outputHeight, frameRate,
+                                                rateMode(spec.type()), transition(spec), tee(channel, cacheWriter),
+                                                stats);
+                                        cacheWriter.commit();
+                                    }
+                                    reused = false;
+                                }
+                                channel.close();
+                                segmentDone(spec, reused, event, stats);
+                            });
+                            continue;
+                        }
+
+                        if (remote != null) {
+                            scheduler.submit(() -> {
+                                var event = new SlideshowEvents.SegmentEvent();
+                                event.begin();
+                                try (SegmentCache.Writer cacheWriter = cache == null ? null
+                                        : cache.begin(cacheKey)) {
+                                    remote.encode(remoteRequest(spec, images, frameRate, outputWidth, outputHeight),
+                                            tee(channel, cacheWriter), stats);
+                                    if (cacheWriter != null) {
+                                        cacheWriter.commit();
+                                    }
+                                }
+                                channel.close();
+                                segmentDone(spec, false, event, stats);
+                            });
+                            continue;
+                        }
+
+                        loadForSegment(spec, prefetcher, store);
+                        scheduler.submit(() -> {
+                            var event = new SlideshowEvents.SegmentEvent();
+                            event.begin();
+                            try (SegmentCache.Writer cacheWriter = cache == null ? null : cache.begin(cacheKey)) {
+                                encodeOneSegment(spec, store.pictures(spec), frameRate, frameStep,
+                                        rateMode(spec.type()), transition(spec), tee(channel, cacheWriter), stats);
+                                if (cacheWriter != null) {
+                                    cacheWriter.commit();
+                                }
+                            }
+                            evictUnneeded(spec, store, lastUse);
+                            channel.close();
+                            segmentDone(spec, false, event, stats);
+                        });
+                    }
+                    if (streamed) {
+                        muxQueue.put(END_OF_PLAN);
+                    }
+                    scheduler.awaitWorkers();
+                } catch (Exception e) {
+                    // a streamed source or an image could not be read: stop the workers and the muxer
+                    Exception failure = e instanceof UncheckedIOException u ? u.getCause() : e;
+                    scheduler.fail(failure);
+                    throw failure;
+                } finally {
+                    if (scheduler.hasFailed()) {
+                        // the failure already interrupted the encoders; unblock those waiting on
+                        // remote workers, and a muxer waiting for packets
+                        if (remote != null) {
+                            remote.close();
+                        }
+                        muxerThread.interrupt();
+                    }
+                    muxerThread.join();
+                }
+            } finally {
+                consoleProgress = null;
+                if (progress != null) {
+                    progress.close();
                 }
             }
+
+            // Check for encoder and muxer errors
+            scheduler.throwIfFailed();
+            peakInFlight = scheduler.peakInFlight();
+            finalWindow = scheduler.windowSize();
         } finally {
-            // Signal encoding complete and wake muxer
-            synchronized (muxerLock) {
-                encodingComplete[0] = true;
-                muxerLock.notifyAll();
+            activeScheduler = null;
+        }
+        int imagesEncoded = streamed ? images.size() : imageCount;
+        int segmentsEncoded = streamed ? streamPlan.segments() : totalSegments;
+        if (streamed) {
+            info("Streamed %d images into %d segments", imagesEncoded, segmentsEncoded);
+        }
+        info("Wrote %d total frames", stats.framesMuxed());
+
+        if (reportFile != null) {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("output", outputName);
+            report.put("format", outputFormat.name().toLowerCase(Locale.ROOT));
+            report.put("width", outputWidth);
+            report.put("height", outputHeight);
+            report.put("frameRate", frameRate);
+            report.put("images", imagesEncoded);
+            report.put("segments", segmentsEncoded);
+            report.put("frames", stats.framesMuxed());
+            report.put("batchSize", workerCount);
+            report.put("wallSeconds", seconds);
+            report.put("framesPerSecond", stats.framesMuxed() / seconds);
+            report.put("bytesOut", stats.bytesMuxed());
+            report.put("peakInFlightSegments", peakInFlight);
+            Map<String, Object> budgetReport = null;
+            if (budget != null) {
+                budgetReport = new LinkedHashMap<>();
+                budgetReport.put("bytes", budget.bytes());
+                budgetReport.put("workers", localWorkers);
+                budgetReport.put("prefetch", prefetch);
+                budgetReport.put("initialWindow", initialWindow);
+                budgetReport.put("finalWindow", finalWindow);
+                budgetReport.put("packetBytesEstimate", budget.packetBytes());
+            }
+            report.put("memoryBudget", budgetReport);
+            Map<String, Object> storeReport = null;
+            if (frameStore != null) {
+                storeReport = new LinkedHashMap<>();
+                storeReport.put("ramLimitBytes", frameStoreBytes);
+                storeReport.put("peakRamBytes", frameStore.peakRamBytes());
+                storeReport.put("spilledImages", frameStore.spilledImages());
+                storeReport.put("spilledBytes", frameStore.spilledBytes());
             }
+            report.put("frameStore", storeReport);
+            report.put("imageIndex", scan == null ? null : hitRate(imageCount - scan.scanned(), scan.scanned()));
+            report.put("segmentCache", cache == null ? null
+                    : hitRate(stats.segmentsReused(), stats.segmentsEncoded()));
+            Map<String, Object> remoteReport = null;
+            if (remote != null) {
+                remoteReport = new LinkedHashMap<>();
+                remoteReport.put("configured", remoteWorkers.size());
+                remoteReport.put("reachable", remote.reachableWorkers());
+                remoteReport.put("slots", workerCount);
+                remoteReport.put("retries", remote.retries());
+            }
+            report.put("remoteWorkers", remoteReport);
+            Map<String, Object> rateReport = new LinkedHashMap<>();
+            rateReport.put("hold", RateMode.describe(holdRate));
+            rateReport.put("transition", RateMode.describe(transitionRate));
+            report.put("rateControl", rateReport);
+            Map<String, Object> previewReport = null;
+            if (preview) {
+                previewReport = new LinkedHashMap<>();
+                previewReport.put("frameStep", frameStep);
+                previewReport.put("encodedFrames", stats.packetsMuxed());
+            }
+            report.put("preview", previewReport);
+            report.put("transition", transition.name());
+            report.put("quality", stats.quality() == null ? null : stats.quality().report());
+            report.put("stages", stats.stageReport());
+            Files.writeString(reportFile, RunStats.toJson(report));
+            info("Wrote run report to %s", reportFile);
         }
+    }
 
-        // Wait for muxer to finish
-        muxerThread.join();
+    /**
+     * A preview's output size cap: the preview box, or the user's cap where that is smaller.
+     */
+    private static int previewCap(int cap, int previewSize) {
+        return cap > 0 ? Math.min(cap, previewSize) : previewSize;
+    }
 
-        // Check for muxer errors
-        Exception err = muxerError.get();
-        if (err != null) throw err;
+    /**
+     * The run's memory budget, capped at the heap limit; null if none is set.
+     */
+    private MemoryBudget memoryBudget(int outputWidth, int outputHeight) {
+        if (maxMemoryBytes == 0) {
+            return null;
+        }
+        long bytes = maxMemoryBytes;
+        long heap = Runtime.getRuntime().maxMemory();
+        if (heap != Long.MAX_VALUE && heap < bytes) {
+            info("Memory budget: %d MB is more than the %d MB heap limit (-Xmx); using the heap limit",
+                    bytes >> 20, heap >> 20);
+            bytes = heap;
+        }
+        return new MemoryBudget(bytes, outputWidth, outputHeight);
     }
 
     /**
-     * Muxer thread body: drains consecutive completed segments and writes them to the MP4 file.
+     * Progress listener for the muxer that also refines the budget's packet size estimate from
+     * each written segment and resizes the in-flight window to match.
      */
-    private void muxerLoop(ConcurrentSkipListMap<Integer, EncodedSegment> completedSegments,
-                           int totalSegments, int frameRate, File output,
-                           Object muxerLock, boolean[] encodingComplete,
-                           int outputWidth, int outputHeight) throws Exception {
-        try (SeekableByteChannel out = NIOUtils.writableFileChannel(output.getPath())) {
-            MP4Muxer muxer = MP4Muxer.createMP4Muxer(out, Brand.MP4);
+    private static ProgressListener resizingWindow(MemoryBudget budget, SegmentScheduler scheduler, RunStats stats,
+                                                   int workers, int prefetch, int maxWindow,
+                                                   ProgressListener listener) {
+        return new ProgressListener() {
+            private long lastBytes;
+            private long lastFrames;
 
-            Size size = new Size(outputWidth, outputHeight);
-            CodecMP4MuxerTrack track = (CodecMP4MuxerTrack) muxer.addVideoTrack(
-                    Codec.H264,
-                    VideoCodecMeta.createVideoCodecMeta("avc1", null, size, Rational.ONE)
-            );
+            @Override
+            public void message(String message) {
+                listener.message(message);
+            }
 
-            int nextExpected = 0;
-            long globalFrame = 0;
+            @Override
+            public void segmentWritten(int segmentsWritten, int totalSegments, long framesWritten, long totalFrames) {
+                long bytes = stats.bytesMuxed();
+                if (budget.segmentMuxed(bytes - lastBytes, framesWritten - lastFrames)) {
+                    scheduler.resizeWindow(budget.window(workers, prefetch, maxWindow));
+                }
+                lastBytes = bytes;
+                lastFrames = framesWritten;
+                listener.segmentWritten(segmentsWritten, totalSegments, framesWritten, totalFrames);
+            }
+        };
+    }
 
-            while (nextExpected < totalSegments) {
-                EncodedSegment segment;
+    /**
+     * Handshake with the remote workers, if any are set.
+     *
+     * @return the connected encoder, or null to encode locally
+     */
+    private RemoteSegmentEncoder connectRemote() throws IOException {
+        if (remoteWorkers == null) {
+            return null;
+        }
+        RemoteSegmentEncoder remote = new RemoteSegmentEncoder(remoteWorkers);
+        try {
+            remote.connect();
+            return remote;
+        } catch (IOException e) {
+            remote.close();
+            throw e;
+        }
+    }
 
-                // Try to drain consecutive segments
-                while ((segment = completedSegments.remove(nextExpected)) != null) {
-                    for (MP4Packet packet : segment.packets()) {
-                        ByteBuffer rawData = packet.getData().duplicate();
+    /**
+     * A segment as sent to a remote worker: image files by path, in-memory images as encoded bytes.
+     */
+    private SegmentProtocol.Request remoteRequest(SegmentSpec spec, ImageSource images, int frameRate,
+                                                  int outputWidth, int outputHeight) throws IOException {
+        Transition transition = transition(spec);
+        return new SegmentProtocol.Request(spec, frameRate, outputWidth, outputHeight, rateMode(spec.type()),
+                transition == null ? Transition.DISSOLVE.name() : transition.name(),
+                imageRef(images, spec.imageIndexA()),
+                spec.imageIndexB() >= 0 ? imageRef(images, spec.imageIndexB()) : null);
+    }
 
-                        MP4Packet globalPacket = new MP4Packet(
-                                rawData,
-                                globalFrame,
-                                frameRate,
-                                1L,
-                                globalFrame,
-                                packet.getFrameType(),
-                                null,
-                                (int) globalFrame,
-                                globalFrame,
-                                0,
-                                0L,
-                                rawData.remaining(),
-                                packet.getFrameType() == Packet.FrameType.KEY
-                        );
+    private static SegmentProtocol.ImageRef imageRef(ImageSource images, int index) throws IOException {
+        File file = images.file(index);
+        if (file != null) {
+            return SegmentProtocol.ImageRef.of(file.toPath());
+        }
+        ImageSource.SourceImage image = images.read(index);
+        if (image.bytes() != null) {
+            return SegmentProtocol.ImageRef.of(image.bytes());
+        }
+        // lossless, so the worker letterboxes exactly what a local encoder would
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        BufferedImage img = image.image();
+        if (!ImageIO.write(img, "png", png)) {
+            throw new IOException("Cannot send " + image.name() + " to a remote worker");
+        }
+        return SegmentProtocol.ImageRef.of(png.toByteArray());
+    }
 
-                        track.addFrame(globalPacket);
-                        globalFrame++;
-                    }
-                    clearSpinner();
-                    System.out.printf("%n  Muxed segment %d/%d  ", nextExpected + 1, totalSegments);
-                    nextExpected++;
-                }
+    private VideoOutput openOutput(OutputOpener opener, String outputName, int width, int height, int frameRate,
+                                   double maxSegmentSeconds) throws IOException {
+        try {
+            return opener.open(width, height, frameRate, maxSegmentSeconds);
+        } catch (IOException e) {
+            writeFailed(outputName);
+            throw e;
+        }
+    }
 
-                if (nextExpected < totalSegments) {
-                    synchronized (muxerLock) {
-                        // Re-check after acquiring lock
-                        if (!completedSegments.containsKey(nextExpected) && !encodingComplete[0]) {
-                            muxerLock.wait(500);
-                        }
-                    }
-                }
-            }
+    /**
+     * Tell a command line user which output failed; embedders get the exception only.
+     */
+    private void writeFailed(String outputName) {
+        if (progressListener == null) {
+            System.err.println("Error writing to \"" + outputName + "\"");
+        }
+    }
 
-            muxer.finish();
-            clearSpinner();
-            System.out.printf("%nWrote %d total frames%n", globalFrame);
+    /**
+     * Report entry {@code {"hits": h, "misses": m, "hitRate": h / (h + m)}}.
+     */
+    private static Map<String, Object> hitRate(long hits, long misses) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("hits", hits);
+        entry.put("misses", misses);
+        entry.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return entry;
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error writing to \"" + output.getAbsolutePath() + "\"");
-            throw e;
+    /**
+     * Muxer thread body: takes segment channels in order and streams each one's packets to the
+     * output as its encoder produces them, blocking (without polling) while the head segment is behind.
+     * The caller opens and closes the output.
+     *
+     * @param totalSegments segments to write, or -1 to write segments until {@link #END_OF_PLAN} is queued
+     * @param totalFrames   frames to write, or -1 if unknown
+     */
+    static void muxerLoop(BlockingQueue<SegmentChannel> muxQueue, int totalSegments, long totalFrames,
+                          VideoOutput out, SegmentScheduler scheduler, RunStats stats,
+                          ProgressListener listener) throws Exception {
+        for (int nextExpected = 0; totalSegments < 0 || nextExpected < totalSegments; nextExpected++) {
+            SegmentChannel channel = muxQueue.take();
+            if (channel == END_OF_PLAN) {
+                break;
+            }
+            out.beginSegment(channel.segmentIndex());
+            MP4Packet packet;
+            while ((packet = channel.receive()) != null) {
+                long start = stats.start();
+                out.writeFrame(packet);
+                stats.stop(RunStats.Stage.MUX, start);
+                stats.frameMuxed(packet.getData().remaining(), packet.getDuration());
+            }
+            out.endSegment();
+            stats.segmentMuxed();
+            scheduler.segmentWritten();
+            listener.segmentWritten(nextExpected + 1, totalSegments, stats.framesMuxed(), totalFrames);
         }
+
+        out.finish();
     }
 }
@@ -7,10 +7,17 @@ import picocli.CommandLine.Parameters;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -21,11 +28,14 @@ import java.util.jar.Manifest;
         name = "jslideshow",
         description = "Creates MP4 video slideshows from JPG images with smooth dissolve transitions.",
         mixinStandardHelpOptions = true,
-        versionProvider = Main.ManifestVersionProvider.class
+        versionProvider = Main.ManifestVersionProvider.class,
+        subcommands = {Main.Serve.class, Main.Worker.class}
 )
 public class Main implements Callable<Integer> {
 
-    @Parameters(index = "0", description = "Path to folder containing JPG images.")
+    @Parameters(index = "0", arity = "0..1",
+            description = "Path to folder containing JPG images, or to a manifest file listing image paths " +
+                    "one per line.")
     private Path directory;
 
     @Option(names = {"-d", "--duration"},
@@ -34,7 +44,7 @@ public class Main implements Callable<Integer> {
     private double duration;
 
     @Option(names = {"-t", "--transition"},
-            description = "Dissolve transition duration in seconds (default: ${DEFAULT-VALUE}).",
+            description = "Transition duration in seconds (default: ${DEFAULT-VALUE}).",
             defaultValue = "0.75")
     private double transition;
 
@@ -44,46 +54,349 @@ public class Main implements Callable<Integer> {
     private int frameRate;
 
     @Option(names = {"-o", "--output"},
-            description = "Output MP4 file path (default: timestamped filename).")
+            description = "Output MP4 file path, or playlist path for HLS (default: timestamped filename).")
     private String output;
 
+    @Option(names = {"--format"},
+            description = "Output format: mp4, fmp4 (fragmented MP4, playable while it is written) or hls " +
+                    "(.m3u8 playlist with fMP4 segments) (default: ${DEFAULT-VALUE}).",
+            defaultValue = "mp4")
+    private String format;
+
     @Option(names = {"-b", "--batchsize"},
-            description = "Parallel encoding batch size (default: number of available processors).")
+            description = "Parallel encoding batch size (default: number of available processors). " +
+                    "With --max-memory it is the upper limit and may exceed the processor count.")
     private Integer batchSize;
 
+    @Option(names = {"--max-memory"}, paramLabel = "SIZE",
+            description = "Memory budget for images and in-flight segments, e.g. 512m or 2g (plain numbers are MB); " +
+                    "encoder threads, segments in flight and prefetch depth are chosen to fit (default: off).")
+    private String maxMemory;
+
+    @Option(names = {"--off-heap"}, paramLabel = "SIZE",
+            description = "Keep loaded images off the Java heap, using up to this much native memory, e.g. 1g " +
+                    "(plain numbers are MB); further images spill to memory-mapped files (default: off).")
+    private String offHeap;
+
+    @Option(names = {"--spill-dir"},
+            description = "Directory for --off-heap spill files (default: the system temp directory).")
+    private Path spillDir;
+
+    @Option(names = {"-r", "--recursive"},
+            description = "Include images in subdirectories; each directory is sorted in natural order " +
+                    "(img2 before img10).")
+    private boolean recursive;
+
+    @Option(names = {"--stream"},
+            description = "Start encoding as soon as the first image is found instead of listing and scanning " +
+                    "every image first. The output size is --size or --max-width/--max-height when they bound " +
+                    "both dimensions, otherwise that of the first --sample images. The segment cache is not used.")
+    private boolean stream;
+
+    @Option(names = {"--sample"}, paramLabel = "N",
+            description = "Images whose headers size the output of a --stream run (default: ${DEFAULT-VALUE}).",
+            defaultValue = "" + SlideshowCreator2.DEFAULT_SAMPLE_IMAGES)
+    private int sample;
+
+    @Option(names = {"-g", "--gop"},
+            description = "Maximum frames per independently encoded GOP; longer holds and transitions " +
+                    "are split and encoded in parallel (default: ${DEFAULT-VALUE}, no limit).",
+            defaultValue = "0")
+    private int gop;
+
+    @Option(names = {"-p", "--prefetch"},
+            description = "Images read and decoded in the background ahead of the encoders; " +
+                    "0 decodes on demand (default: ${DEFAULT-VALUE}).",
+            defaultValue = "" + JCodecParallelEncoder.DEFAULT_PREFETCH_IMAGES)
+    private int prefetch;
+
+    @Option(names = {"-s", "--size"},
+            description = "Output size preset bounding the resolution: 480p, 720p, 1080p, 1440p or 2160p (4k). " +
+                    "--max-width/--max-height override it per dimension.")
+    private String size;
+
+    @Option(names = {"--max-width"},
+            description = "Maximum output width; larger images are scaled down (default: no limit).")
+    private Integer maxWidth;
+
+    @Option(names = {"--max-height"},
+            description = "Maximum output height; larger images are scaled down (default: no limit).")
+    private Integer maxHeight;
+
+    @Option(names = {"--segment-cache"},
+            description = "Directory caching encoded segments between runs; unchanged segments are reused " +
+                    "instead of re-encoded (default: off).")
+    private Path segmentCache;
+
+    @Option(names = {"--segment-cache-size"},
+            description = "Segment cache size limit in MB; least recently used segments are evicted " +
+                    "(default: ${DEFAULT-VALUE}).",
+            defaultValue = "1024")
+    private long segmentCacheMb;
+
+    @Option(names = {"--report"},
+            description = "Write a JSON performance report (per-stage times, frames/s, bytes out, " +
+                    "peak in-flight segments, cache hit rates) to this file.")
+    private Path report;
+
+    @Option(names = {"--remote-workers"}, split = ",", paramLabel = "HOST:PORT",
+            description = "Encode segments on these segment workers (started with 'jslideshow worker') " +
+                    "instead of local threads; workers must see the images at the same paths.")
+    private List<String> remoteWorkers;
+
+    @Option(names = {"--qp"},
+            description = "Encode every frame at this constant quantizer, 0-51; lower is better quality " +
+                    "and larger output (default: JCodec's rate control).")
+    private Integer qp;
+
+    @Option(names = {"--bitrate"}, paramLabel = "RATE",
+            description = "Target bitrate, e.g. 800k or 2m (plain numbers are kbit/s); each frame's size is " +
+                    "capped at its share (default: JCodec's rate control).")
+    private String bitrate;
+
+    @Option(names = {"--hold-qp"},
+            description = "Constant quantizer for holds (each image's keyframe), overriding --qp/--bitrate.")
+    private Integer holdQp;
+
+    @Option(names = {"--transition-qp"},
+            description = "Constant quantizer for dissolves and fades, overriding --qp/--bitrate.")
+    private Integer transitionQp;
+
+    @Option(names = {"--transition-bitrate"}, paramLabel = "RATE",
+            description = "Target bitrate for dissolves and fades, overriding --qp/--bitrate.")
+    private String transitionBitrate;
+
+    @Option(names = {"--psnr"},
+            description = "Decode encoded frames and add PSNR and bytes per segment type to the --report file.")
+    private boolean psnr;
+
+    @Option(names = {"--preview"},
+            description = "Render a quick review video with the final timing: at most 640x360, about 10 " +
+                    "pictures per second, decoded from embedded EXIF thumbnails where possible.")
+    private boolean preview;
+
+    @Option(names = {"--transition-style"}, paramLabel = "NAME", defaultValue = "dissolve",
+            description = "How images give way to each other and fade from and to black: dissolve, wipe or a " +
+                    "transition found on the class path (default: ${DEFAULT-VALUE}).")
+    private String transitionStyle;
+
+    /**
+     * Output size presets as {width, height} bounding boxes
+     */
+    static final Map<String, int[]> SIZE_PRESETS = Map.of(
+            "480p", new int[]{854, 480},
+            "720p", new int[]{1280, 720},
+            "1080p", new int[]{1920, 1080},
+            "1440p", new int[]{2560, 1440},
+            "2160p", new int[]{3840, 2160},
+            "4k", new int[]{3840, 2160});
+
     @Override
     public Integer call() throws Exception {
+        if (directory == null) {
+            System.err.println("Error: Missing image directory. Usage: jslideshow [OPTIONS] <directory>, " +
+                    "or jslideshow serve [OPTIONS] to run the render server.");
+            return 1;
+        }
+
         if (!directory.toFile().exists()) {
             System.err.println("Error: Directory does not exist: " + directory);
             return 1;
         }
 
-        if (!directory.toFile().isDirectory()) {
-            System.err.println("Error: Path is not a directory: " + directory);
+        if (!directory.toFile().isDirectory() && !directory.toFile().isFile()) {
+            System.err.println("Error: Path is not a directory or a manifest file: " + directory);
+            return 1;
+        }
+
+        long maxMemoryBytes = 0;
+        if (maxMemory != null) {
+            maxMemoryBytes = parseSize(maxMemory);
+            if (maxMemoryBytes <= 0) {
+                System.err.printf("Error: Invalid memory budget '%s'. --max-memory takes a size such as 512m or 2g.%n",
+                        maxMemory);
+                return 1;
+            }
+        }
+
+        long offHeapBytes = 0;
+        if (offHeap != null) {
+            offHeapBytes = parseSize(offHeap);
+            if (offHeapBytes <= 0) {
+                System.err.printf("Error: Invalid off-heap size '%s'. --off-heap takes a size such as 512m or 2g.%n",
+                        offHeap);
+                return 1;
+            }
+        }
+        Path spillDirectory = spillDir != null ? spillDir : Path.of(System.getProperty("java.io.tmpdir"));
+        if (offHeap != null && !Files.isDirectory(spillDirectory)) {
+            System.err.println("Error: Spill directory does not exist: " + spillDirectory);
             return 1;
         }
 
         int maxBatchSize = Runtime.getRuntime().availableProcessors();
         int effectiveBatchSize = maxBatchSize;
 
-        if (batchSize != null) {
+        if (batchSize != null && maxMemory != null) {
+            // the budget decides how many threads actually fit
+            if (batchSize < 1) {
+                System.err.printf("Error: Invalid batch size %d. -b/--batchsize must be at least 1.%n", batchSize);
+                return 1;
+            }
+            effectiveBatchSize = batchSize;
+        } else if (batchSize != null) {
             if (batchSize < 1 || batchSize > maxBatchSize) {
                 System.err.printf("Error: Invalid batch size %d. " +
                         "On this system, -b/--batchsize must be between 1 and %d " +
-                        "(%d available processors).%n", batchSize, maxBatchSize, maxBatchSize);
+                        "(%d available processors), or above that with --max-memory.%n",
+                        batchSize, maxBatchSize, maxBatchSize);
                 return 1;
             }
             effectiveBatchSize = batchSize;
         }
 
+        if (gop < 0) {
+            System.err.printf("Error: Invalid GOP length %d. -g/--gop must be 0 (no limit) or positive.%n", gop);
+            return 1;
+        }
+
+        if (sample < 0) {
+            System.err.printf("Error: Invalid sample size %d. --sample must be 0 or positive.%n", sample);
+            return 1;
+        }
+
+        if (prefetch < 0) {
+            System.err.printf("Error: Invalid prefetch depth %d. -p/--prefetch must be 0 or positive.%n", prefetch);
+            return 1;
+        }
+
+        int capWidth = 0;
+        int capHeight = 0;
+        if (size != null) {
+            int[] preset = SIZE_PRESETS.get(size.toLowerCase(Locale.ROOT));
+            if (preset == null) {
+                System.err.printf("Error: Unknown size preset '%s'. -s/--size must be one of " +
+                        "480p, 720p, 1080p, 1440p, 2160p or 4k.%n", size);
+                return 1;
+            }
+            capWidth = preset[0];
+            capHeight = preset[1];
+        }
+        if (maxWidth != null) {
+            if (maxWidth < 2) {
+                System.err.printf("Error: Invalid maximum width %d. --max-width must be at least 2.%n", maxWidth);
+                return 1;
+            }
+            capWidth = maxWidth;
+        }
+        if (maxHeight != null) {
+            if (maxHeight < 2) {
+                System.err.printf("Error: Invalid maximum height %d. --max-height must be at least 2.%n", maxHeight);
+                return 1;
+            }
+            capHeight = maxHeight;
+        }
+
+        if (segmentCacheMb < 1) {
+            System.err.printf("Error: Invalid segment cache size %d. --segment-cache-size must be at least 1 MB.%n",
+                    segmentCacheMb);
+            return 1;
+        }
+
+        List<InetSocketAddress> workerAddresses = null;
+        if (remoteWorkers != null) {
+            workerAddresses = new ArrayList<>();
+            for (String worker : remoteWorkers) {
+                InetSocketAddress address = parseAddress(worker);
+                if (address == null) {
+                    System.err.printf("Error: Invalid worker address '%s'. --remote-workers takes HOST:PORT " +
+                            "entries separated by commas.%n", worker);
+                    return 1;
+                }
+                workerAddresses.add(address);
+            }
+        }
+
+        if (preview && remoteWorkers != null) {
+            System.err.println("Error: --preview renders locally and cannot be combined with --remote-workers.");
+            return 1;
+        }
+
+        Transition transitionType = Transition.named(transitionStyle);
+        if (transitionType == null) {
+            System.err.printf("Error: Unknown transition '%s'. --transition-style must be one of %s.%n",
+                    transitionStyle, String.join(", ", Transition.available().stream().map(Transition::name).toList()));
+            return 1;
+        }
+
+        if (qp != null && bitrate != null || transitionQp != null && transitionBitrate != null) {
+            System.err.println("Error: A constant QP and a bitrate cannot both be set for the same segments.");
+            return 1;
+        }
+        RateMode rateMode;
+        RateMode holdRate;
+        RateMode transitionRate;
+        try {
+            rateMode = rateMode(qp, bitrate, "--qp", "--bitrate");
+            holdRate = holdQp != null ? rateMode(holdQp, null, "--hold-qp", null) : rateMode;
+            transitionRate = transitionQp != null || transitionBitrate != null
+                    ? rateMode(transitionQp, transitionBitrate, "--transition-qp", "--transition-bitrate") : rateMode;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 1;
+        }
+
+        OutputFormat outputFormat;
+        try {
+            outputFormat = OutputFormat.valueOf(format.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.printf("Error: Unknown output format '%s'. --format must be one of mp4, fmp4 or hls.%n", format);
+            return 1;
+        }
+
         System.out.println("Parameters:");
+        System.out.printf("  Input:      %s%s%s%n", directory.toFile().isFile() ? "manifest" : "directory",
+                recursive ? ", recursive" : "", stream ? ", streamed" : "");
         System.out.printf("  Duration:   %.2f seconds%n", duration);
-        System.out.printf("  Transition: %.2f seconds%n", transition);
+        System.out.printf("  Transition: %.2f seconds, %s%n", transition, transitionType.name());
         System.out.printf("  Frame rate: %d fps%n", frameRate);
-        System.out.printf("  Batch size: %d%n%n", effectiveBatchSize);
+        System.out.printf("  Format:     %s%n", outputFormat.name().toLowerCase(Locale.ROOT));
+        System.out.printf("  Batch size: %d%s%n", effectiveBatchSize, maxMemory == null ? "" : " (at most)");
+        System.out.printf("  Max memory: %s%n", maxMemory == null ? "off" : (maxMemoryBytes >> 20) + " MB");
+        System.out.printf("  Off-heap:   %s%n",
+                offHeap == null ? "off" : (offHeapBytes >> 20) + " MB, spill to " + spillDirectory);
+        System.out.printf("  Rate:       holds %s, transitions %s%s%n", RateMode.describe(holdRate),
+                RateMode.describe(transitionRate), psnr ? " (measuring PSNR)" : "");
+        System.out.printf("  Max GOP:    %s%n", gop == 0 ? "no limit" : gop + " frames");
+        System.out.printf("  Max size:   %s x %s%n", capWidth == 0 ? "any" : capWidth, capHeight == 0 ? "any" : capHeight);
+        System.out.printf("  Preview:    %s%n", preview ? "every " + JCodecParallelEncoder.previewFrameStep(frameRate)
+                + " frames, at most " + JCodecParallelEncoder.PREVIEW_WIDTH + "x" + JCodecParallelEncoder.PREVIEW_HEIGHT
+                : "off");
+        System.out.printf("  Prefetch:   %d images%n", prefetch);
+        System.out.printf("  Seg cache:  %s%n",
+                segmentCache == null ? "off" : segmentCache + " (" + segmentCacheMb + " MB)");
+        System.out.printf("  Report:     %s%n", report == null ? "none" : report);
+        System.out.printf("  Workers:    %s%n%n", remoteWorkers == null ? "local" : String.join(", ", remoteWorkers));
 
         try {
             var creator = new SlideshowCreator2(duration, transition, frameRate);
+            creator.setMaxGopFrames(gop);
+            creator.setPrefetchImages(prefetch);
+            creator.setMaxOutputSize(capWidth, capHeight);
+            creator.setSegmentCache(segmentCache, segmentCacheMb * 1024 * 1024);
+            creator.setOutputFormat(outputFormat);
+            creator.setReport(report);
+            creator.setRemoteWorkers(workerAddresses);
+            creator.setMaxMemory(maxMemoryBytes);
+            creator.setHoldRateMode(holdRate);
+            creator.setTransitionRateMode(transitionRate);
+            creator.setMeasureQuality(psnr);
+            creator.setPreview(preview);
+            creator.setTransition(transitionType);
+            creator.setFrameStore(offHeap == null ? null : spillDirectory, offHeapBytes);
+            creator.setRecursive(recursive);
+            creator.setStreamInput(stream);
+            creator.setSampleImages(sample);
             if (output != null) {
                 creator.createSlideshow(directory, new File(output), effectiveBatchSize);
             } else {
@@ -96,6 +409,126 @@ public class Main implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Rate mode from a QP option or a bitrate option, whichever is set; null if neither is.
+     *
+     * @throws IllegalArgumentException naming the option if its value is invalid
+     */
+    private static RateMode rateMode(Integer qp, String bitrate, String qpOption, String bitrateOption) {
+        if (qp != null) {
+            if (qp < 0 || qp > RateMode.MAX_QP) {
+                throw new IllegalArgumentException("Invalid QP %d. %s must be between 0 and %d."
+                        .formatted(qp, qpOption, RateMode.MAX_QP));
+            }
+            return RateMode.constantQp(qp);
+        }
+        if (bitrate != null) {
+            long bitsPerSecond = parseBitrate(bitrate);
+            if (bitsPerSecond <= 0) {
+                throw new IllegalArgumentException("Invalid bitrate '%s'. %s takes a rate such as 800k or 2m."
+                        .formatted(bitrate, bitrateOption));
+            }
+            return RateMode.targetBitrate(bitsPerSecond);
+        }
+        return null;
+    }
+
+    /**
+     * Parse a bitrate with an optional k, m or g suffix (decimal, any case); a plain number is in kbit/s.
+     *
+     * @return bits per second, or -1 if it is malformed
+     */
+    static long parseBitrate(String rate) {
+        String s = rate.trim().toLowerCase(Locale.ROOT);
+        long unit = 1000;
+        if (!s.isEmpty()) {
+            switch (s.charAt(s.length() - 1)) {
+                case 'k' -> s = s.substring(0, s.length() - 1);
+                case 'm' -> {
+                    unit = 1000_000;
+                    s = s.substring(0, s.length() - 1);
+                }
+                case 'g' -> {
+                    unit = 1000_000_000;
+                    s = s.substring(0, s.length() - 1);
+                }
+                default -> {
+                }
+            }
+        }
+        try {
+            double value = Double.parseDouble(s);
+            if (!(value * unit >= 1) || value * unit > Long.MAX_VALUE) {
+                return -1;
+            }
+            return (long) (value * unit);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse a size with an optional k, m, g or t suffix (any case, optionally followed by b);
+     * a plain number is in MB.
+     *
+     * @return size in bytes, or -1 if it is malformed
+     */
+    static long parseSize(String size) {
+        String s = size.trim().toLowerCase(Locale.ROOT);
+        if (s.length() > 1 && s.endsWith("b") && Character.isLetter(s.charAt(s.length() - 2))) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long unit = 1024 * 1024;
+        if (!s.isEmpty()) {
+            switch (s.charAt(s.length() - 1)) {
+                case 'k' -> unit = 1024L;
+                case 'm' -> unit = 1024L * 1024;
+                case 'g' -> unit = 1024L * 1024 * 1024;
+                case 't' -> unit = 1024L * 1024 * 1024 * 1024;
+                default -> unit = 0;
+            }
+            if (unit != 0) {
+                s = s.substring(0, s.length() - 1);
+            } else {
+                unit = 1024 * 1024;
+            }
+        }
+        try {
+            double value = Double.parseDouble(s);
+            if (!(value > 0) || value * unit > Long.MAX_VALUE) {
+                return -1;
+            }
+            return (long) (value * unit);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse {@code host:port} (IPv6 hosts in brackets); the host is resolved when connecting.
+     *
+     * @return the address, or null if it is malformed
+     */
+    static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        String host = address.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        try {
+            int port = Integer.parseInt(address.substring(colon + 1));
+            if (port < 1 || port > 65535 || host.isEmpty()) {
+                return null;
+            }
+            return InetSocketAddress.createUnresolved(host, port);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Program Entry Point
      * @param args Array of zero or more command line arguments.
@@ -105,6 +538,188 @@ public class Main implements Callable<Integer> {
         System.exit(exitCode);
     }
 
+    /**
+     * {@code serve}: keep one warm JVM running and render jobs submitted over HTTP or through a
+     * spool directory, encoding the segments of all running jobs on one shared worker pool.
+     */
+    @Command(
+            name = "serve",
+            description = "Runs a render server: jobs are submitted over a local HTTP API and/or as .job files " +
+                    "in a spool directory, and share one warm encoder pool.",
+            mixinStandardHelpOptions = true
+    )
+    static class Serve implements Callable<Integer> {
+
+        @Option(names = {"--port"},
+                description = "HTTP port for the job API; 0 picks a free port (default: no HTTP API).")
+        private Integer port;
+
+        @Option(names = {"--bind"},
+                description = "Address the HTTP API listens on (default: ${DEFAULT-VALUE}).",
+                defaultValue = "127.0.0.1")
+        private String bind;
+
+        @Option(names = {"--spool"},
+                description = "Directory watched for .job files (default: none).")
+        private Path spool;
+
+        @Option(names = {"-w", "--workers"},
+                description = "Encoder threads shared by all jobs (default: number of available processors).")
+        private Integer workers;
+
+        @Option(names = {"-j", "--jobs"},
+                description = "Jobs rendered at the same time; further jobs are queued (default: ${DEFAULT-VALUE}).",
+                defaultValue = "2")
+        private int jobs;
+
+        @Override
+        public Integer call() throws Exception {
+            if (port == null && spool == null) {
+                System.err.println("Error: Nothing to serve. Give --port for the HTTP API and/or --spool <dir>.");
+                return 1;
+            }
+            if (port != null && (port < 0 || port > 65535)) {
+                System.err.printf("Error: Invalid port %d. --port must be between 0 and 65535.%n", port);
+                return 1;
+            }
+            if (spool != null && !spool.toFile().isDirectory()) {
+                System.err.println("Error: Spool path is not a directory: " + spool);
+                return 1;
+            }
+            int workerCount = workers != null ? workers : Runtime.getRuntime().availableProcessors();
+            if (workerCount < 1) {
+                System.err.printf("Error: Invalid worker count %d. -w/--workers must be at least 1.%n", workerCount);
+                return 1;
+            }
+            if (jobs < 1) {
+                System.err.printf("Error: Invalid job count %d. -j/--jobs must be at least 1.%n", jobs);
+                return 1;
+            }
+
+            var server = new RenderServer(workerCount, jobs);
+            RenderHttpApi api = null;
+            SpoolWatcher watcher = null;
+            try {
+                if (port != null) {
+                    api = new RenderHttpApi(server, new InetSocketAddress(bind, port));
+                }
+                if (spool != null) {
+                    watcher = new SpoolWatcher(server, spool, new ProgressListener() {
+                        @Override
+                        public void message(String message) {
+                            System.err.println(message);
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                server.close();
+                return 1;
+            }
+
+            System.out.println("Render server:");
+            System.out.printf("  Workers:    %d%n", workerCount);
+            System.out.printf("  Jobs:       %d at a time%n", jobs);
+            System.out.printf("  HTTP API:   %s%n", api == null ? "off"
+                    : "http://" + api.address().getHostString() + ":" + api.address().getPort() + "/jobs");
+            System.out.printf("  Spool:      %s%n", spool == null ? "off" : spool.toAbsolutePath());
+
+            CountDownLatch stopped = new CountDownLatch(1);
+            RenderHttpApi httpApi = api;
+            SpoolWatcher spoolWatcher = watcher;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (httpApi != null) {
+                        httpApi.close();
+                    }
+                    if (spoolWatcher != null) {
+                        spoolWatcher.close();
+                    }
+                    server.close();
+                } catch (Exception ignored) {
+                }
+                stopped.countDown();
+            }, "serve-shutdown"));
+            stopped.await();
+            return 0;
+        }
+    }
+
+    /**
+     * {@code worker}: encode segments for coordinators started with {@code --remote-workers}.
+     */
+    @Command(
+            name = "worker",
+            description = "Runs a segment worker: encodes segments sent by a coordinator " +
+                    "(jslideshow --remote-workers ...) and returns the encoded packets.",
+            mixinStandardHelpOptions = true
+    )
+    static class Worker implements Callable<Integer> {
+
+        @Option(names = {"--port"}, required = true,
+                description = "Port to listen on for coordinators; 0 picks a free port.")
+        private int port;
+
+        @Option(names = {"--bind"},
+                description = "Address to listen on; use 0.0.0.0 to accept other machines (default: ${DEFAULT-VALUE}).",
+                defaultValue = "127.0.0.1")
+        private String bind;
+
+        @Option(names = {"-w", "--workers"},
+                description = "Segments encoded at the same time (default: number of available processors).")
+        private Integer workers;
+
+        @Option(names = {"--image-root"}, paramLabel = "DIR",
+                description = "Directory coordinators may reference image files in, repeatable; paths outside " +
+                        "every root are refused (default: none, images must be sent as bytes).")
+        private List<Path> imageRoots = new ArrayList<>();
+
+        @Override
+        public Integer call() throws Exception {
+            if (port < 0 || port > 65535) {
+                System.err.printf("Error: Invalid port %d. --port must be between 0 and 65535.%n", port);
+                return 1;
+            }
+            for (Path root : imageRoots) {
+                if (!Files.isDirectory(root)) {
+                    System.err.println("Error: Image root is not a directory: " + root);
+                    return 1;
+                }
+            }
+            int slots = workers != null ? workers : Runtime.getRuntime().availableProcessors();
+            if (slots < 1) {
+                System.err.printf("Error: Invalid worker count %d. -w/--workers must be at least 1.%n", slots);
+                return 1;
+            }
+
+            SegmentWorkerServer server;
+            try {
+                server = new SegmentWorkerServer(new InetSocketAddress(bind, port), slots, imageRoots);
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                return 1;
+            }
+
+            System.out.println("Segment worker:");
+            System.out.printf("  Listening:  %s:%d%n", server.address().getHostString(), server.address().getPort());
+            System.out.printf("  Workers:    %d%n", slots);
+            System.out.printf("  Images:     %s%n", imageRoots.isEmpty() ? "sent as bytes only"
+                    : "paths under " + String.join(", ",
+                    imageRoots.stream().map(root -> root.toAbsolutePath().toString()).toList()));
+
+            CountDownLatch stopped = new CountDownLatch(1);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                } catch (Exception ignored) {
+                }
+                stopped.countDown();
+            }, "worker-shutdown"));
+            stopped.await();
+            return 0;
+        }
+    }
+
     /**
      * Reads Implementation-Version from the JAR manifest for --version support.
      */
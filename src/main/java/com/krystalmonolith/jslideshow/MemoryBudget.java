@@ -0,0 +1,160 @@
+package com.krystalmonolith.jslideshow;
+
+/**
+ * Chooses encoder concurrency, in-flight window and prefetch depth to fit a heap budget.
+ * <p>
+ * Costs are estimated from the output size: a YUV420 picture per loaded image, RGB rasters while
+ * an image is decoded and letterboxed, an output buffer, blend picture and encoder reference
+ * frames per worker, and per in-flight segment a full channel of packets plus the image it may
+ * keep loaded. Packet size starts from a conservative guess and is replaced by the largest mean
+ * packet size of any segment muxed so far, so the window can grow (or shrink) once real sizes
+ * are known. A fixed reserve covers the JVM itself, the muxer and the image index.
+ */
+final class MemoryBudget {
+
+    /**
+     * Heap set aside for everything the estimate does not cover
+     */
+    static final long RESERVE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * The window never grows beyond this many segments per worker
+     */
+    static final int MAX_WINDOW_PER_WORKER = 8;
+
+    /**
+     * Observed packet sizes are scaled up by this margin before use
+     */
+    private static final double PACKET_MARGIN = 1.25;
+
+    /**
+     * Encoder threads, in-flight segment window and prefetch depth.
+     */
+    record Plan(int workers, int window, int prefetch) {
+    }
+
+    private final long bytes;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final long pixels;
+    private volatile long packetBytes;
+    private boolean measured;
+
+    /**
+     * @param bytes        heap the run may use
+     * @param outputWidth  output width
+     * @param outputHeight output height
+     */
+    MemoryBudget(long bytes, int outputWidth, int outputHeight) {
+        if (bytes <= 0) throw new IllegalArgumentException("bytes must be > 0");
+        this.bytes = bytes;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.pixels = (long) outputWidth * outputHeight;
+        // roughly a keyframe at JCodec's default quality, well above a typical P-frame
+        this.packetBytes = Math.max(1024, pixels / 8);
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * One decoded image: a YUV420 picture.
+     */
+    long pictureBytes() {
+        return pixels * 3 / 2;
+    }
+
+    /**
+     * Transient rasters while one image is decoded (subsampled to near the output size) and letterboxed.
+     */
+    long decodeBytes() {
+        return pixels * 4 * 2;
+    }
+
+    /**
+     * One worker: output buffer, blend picture and the encoder's reference frames.
+     */
+    long workerBytes() {
+        return pixels * 3 + pictureBytes() * 3;
+    }
+
+    /**
+     * One in-flight segment: a full channel of packets and the image it may keep loaded.
+     */
+    long segmentBytes() {
+        return (long) SegmentChannel.DEFAULT_CAPACITY * packetBytes + pictureBytes();
+    }
+
+    long packetBytes() {
+        return packetBytes;
+    }
+
+    private long cost(int workers, int window, int prefetch) {
+        int decoders = Math.min(prefetch, Runtime.getRuntime().availableProcessors());
+        return RESERVE_BYTES + workers * workerBytes() + window * segmentBytes()
+                + prefetch * pictureBytes() + Math.max(1, decoders) * decodeBytes();
+    }
+
+    /**
+     * The most workers (up to {@code maxWorkers}) that fit with a window of two segments each, then
+     * a window and prefetch depth grown into whatever is left. The requested prefetch depth is kept
+     * if it fits, and otherwise reduced.
+     *
+     * @throws IllegalArgumentException if not even one worker fits
+     */
+    Plan plan(int maxWorkers, int prefetch) {
+        for (int workers = maxWorkers; workers >= 1; workers--) {
+            int depth = prefetch;
+            while (depth > 0 && cost(workers, 2 * workers, depth) > bytes) {
+                depth--;
+            }
+            if (cost(workers, 2 * workers, depth) <= bytes) {
+                int window = window(workers, depth, MAX_WINDOW_PER_WORKER * workers);
+                while (depth < workers && cost(workers, window, depth + 1) <= bytes) {
+                    depth++;
+                }
+                return new Plan(workers, window, depth);
+            }
+        }
+        if (cost(1, 1, 0) <= bytes) {
+            return new Plan(1, 1, 0);
+        }
+        throw new IllegalArgumentException("Memory budget of %d MB is too small for %dx%d output; it needs at least %d MB"
+                .formatted(bytes >> 20, outputWidth, outputHeight, (cost(1, 1, 0) >> 20) + 1));
+    }
+
+    /**
+     * The largest window that fits beside {@code workers} local workers and {@code prefetch}
+     * prefetched images at the current packet size estimate, between 1 and {@code maxWindow}.
+     */
+    int window(int workers, int prefetch, int maxWindow) {
+        long spare = bytes - cost(workers, 0, prefetch);
+        long fits = spare / segmentBytes();
+        return (int) Math.max(1, Math.min(fits, maxWindow));
+    }
+
+    /**
+     * Refine the packet size estimate from a segment the muxer has written.
+     *
+     * @param segmentBytes  bytes of the segment's packets
+     * @param segmentFrames frames in the segment
+     * @return true if the estimate changed
+     */
+    boolean segmentMuxed(long segmentBytes, long segmentFrames) {
+        if (segmentFrames == 0) {
+            return false;
+        }
+        long observed = (long) (segmentBytes / (double) segmentFrames * PACKET_MARGIN);
+        synchronized (this) {
+            if (!measured || observed > packetBytes) {
+                measured = true;
+                long previous = packetBytes;
+                packetBytes = Math.max(1, observed);
+                return packetBytes != previous;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.Codec;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Rational;
+import org.jcodec.common.model.Size;
+import org.jcodec.containers.mp4.Brand;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.jcodec.containers.mp4.muxer.CodecMP4MuxerTrack;
+import org.jcodec.containers.mp4.muxer.MP4Muxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Regular (non-fragmented) MP4 file written with JCodec's muxer. Packets are renumbered onto a
+ * global timeline, each keeping its duration in frames; the moov box, and with it playability,
+ * only exists after {@link #finish()}. The muxer seeks back to patch the mdat size, so the output must be seekable.
+ */
+final class Mp4Output implements VideoOutput {
+
+    private final SeekableByteChannel out;
+    private final MP4Muxer muxer;
+    private final CodecMP4MuxerTrack track;
+    private final int frameRate;
+    private long globalFrame;
+    private long globalTime;
+
+    Mp4Output(File output, int width, int height, int frameRate) throws IOException {
+        this(NIOUtils.writableFileChannel(output.getPath()), width, height, frameRate);
+    }
+
+    /**
+     * Write to a caller's channel, which is left open.
+     */
+    Mp4Output(java.nio.channels.SeekableByteChannel output, int width, int height, int frameRate)
+            throws IOException {
+        this(new BorrowedChannel(output), width, height, frameRate);
+    }
+
+    private Mp4Output(SeekableByteChannel out, int width, int height, int frameRate) throws IOException {
+        this.frameRate = frameRate;
+        this.out = out;
+        this.muxer = MP4Muxer.createMP4Muxer(out, Brand.MP4);
+        this.track = (CodecMP4MuxerTrack) muxer.addVideoTrack(
+                Codec.H264,
+                VideoCodecMeta.createVideoCodecMeta("avc1", null, new Size(width, height), Rational.ONE)
+        );
+    }
+
+    @Override
+    public void beginSegment(int segmentIndex) {
+    }
+
+    @Override
+    public void writeFrame(MP4Packet packet) throws IOException {
+        ByteBuffer rawData = packet.getData().duplicate();
+
+        MP4Packet globalPacket = new MP4Packet(
+                rawData,
+                globalTime,
+                frameRate,
+                packet.getDuration(),
+                globalFrame,
+                packet.getFrameType(),
+                null,
+                (int) globalFrame,
+                globalTime,
+                0,
+                0L,
+                rawData.remaining(),
+                packet.getFrameType() == Packet.FrameType.KEY
+        );
+
+        track.addFrame(globalPacket);
+        globalFrame++;
+        globalTime += packet.getDuration();
+    }
+
+    @Override
+    public void endSegment() {
+    }
+
+    @Override
+    public void finish() throws IOException {
+        muxer.finish();
+    }
+
+    @Override
+    public long framesWritten() {
+        return globalTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * JCodec view of a standard seekable channel that is not closed with the output.
+     */
+    private record BorrowedChannel(java.nio.channels.SeekableByteChannel channel) implements SeekableByteChannel {
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public SeekableByteChannel setPosition(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.krystalmonolith.jslideshow;
+
+/**
+ * Output container format of a slideshow.
+ */
+public enum OutputFormat {
+    /**
+     * Single MP4 file, playable once the moov is written at the end
+     */
+    MP4,
+    /**
+     * Single fragmented MP4 file, one or more fragments per segment, playable while growing
+     */
+    FMP4,
+    /**
+     * HLS: fMP4 init segment, one .m4s media segment per encoded segment and a growing .m3u8 playlist
+     */
+    HLS
+}
@@ -0,0 +1,27 @@
+package com.krystalmonolith.jslideshow;
+
+/**
+ * Receives an encoder's status when it is embedded in another application, in place of the
+ * console output of the command line. Both methods have empty defaults, so a listener only
+ * implements what it needs.
+ */
+public interface ProgressListener {
+
+    /**
+     * Informational line, e.g. the output resolution or segment cache hits.
+     */
+    default void message(String message) {
+    }
+
+    /**
+     * A segment has been completely written to the output. Called on the muxer thread, in
+     * segment order; it should return quickly, since the muxer waits for it.
+     *
+     * @param segmentsWritten segments written so far
+     * @param totalSegments   segments of the run, or -1 while images are still being found
+     * @param framesWritten   frames written so far
+     * @param totalFrames     frames of the run, or -1 while images are still being found
+     */
+    default void segmentWritten(int segmentsWritten, int totalSegments, long framesWritten, long totalFrames) {
+    }
+}
@@ -0,0 +1,117 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders console progress from a single background thread at a fixed rate.
+ * <p>
+ * Workers and the muxer only bump {@link RunStats} counters; this thread reads them and
+ * rewrites one status line, so no hot-path thread ever touches the synchronized
+ * {@code System.out}. Messages printed during the run go through {@link #message} so they do
+ * not land in the middle of the status line. When output is redirected to a file the line is printed on its own line
+ * each interval instead of being rewritten in place.
+ */
+final class ProgressReporter implements AutoCloseable {
+
+    /**
+     * Default interval between progress updates
+     */
+    static final long DEFAULT_INTERVAL_MILLIS = 500;
+
+    private final RunStats stats;
+    private final int totalSegments;
+    private final long totalFrames;
+    private final long intervalMillis;
+    private final PrintStream out;
+    private final boolean inPlace;
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    private int lastLength;
+
+    /**
+     * @param totalSegments segments of the run, or -1 if unknown
+     * @param totalFrames   frames of the run, or -1 if unknown
+     */
+    ProgressReporter(RunStats stats, int totalSegments, long totalFrames) {
+        this(stats, totalSegments, totalFrames, DEFAULT_INTERVAL_MILLIS, System.out, System.console() != null);
+    }
+
+    /**
+     * @param inPlace rewrite one line with carriage returns rather than printing a line per update
+     */
+    ProgressReporter(RunStats stats, int totalSegments, long totalFrames, long intervalMillis,
+                     PrintStream out, boolean inPlace) {
+        if (intervalMillis <= 0) throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.stats = stats;
+        this.totalSegments = totalSegments;
+        this.totalFrames = totalFrames;
+        this.intervalMillis = intervalMillis;
+        this.out = out;
+        this.inPlace = inPlace;
+        this.thread = Thread.ofPlatform().name("progress").daemon().start(this::run);
+    }
+
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                TimeUnit.MILLISECONDS.sleep(intervalMillis);
+                print(false);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Current status line.
+     */
+    String status() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long frames = stats.framesMuxed();
+        String segments = totalSegments < 0 ? "?" : Integer.toString(totalSegments);
+        return String.format("  Progress: %d/%s segments encoded (%d reused), %d/%s muxed, %d/%s frames, %.1f fps",
+                stats.segmentsEncoded() + stats.segmentsReused(), segments, stats.segmentsReused(),
+                stats.segmentsMuxed(), segments, frames, totalFrames < 0 ? "?" : Long.toString(totalFrames),
+                seconds > 0 ? frames / seconds : 0.0);
+    }
+
+    private synchronized void print(boolean last) {
+        String line = status();
+        if (inPlace) {
+            int pad = Math.max(0, lastLength - line.length());
+            out.print("\r" + line + " ".repeat(pad) + (last ? System.lineSeparator() : ""));
+            lastLength = line.length();
+        } else {
+            out.println(line);
+        }
+        out.flush();
+    }
+
+    /**
+     * Print a message on its own line. A status line being rewritten in place is cleared first and
+     * redrawn below the message, so the two never share a line.
+     */
+    synchronized void message(String message) {
+        if (inPlace && lastLength > 0) {
+            out.print("\r" + " ".repeat(lastLength) + "\r");
+            out.println(message);
+            String line = status();
+            out.print(line);
+            lastLength = line.length();
+        } else {
+            out.println(message);
+        }
+        out.flush();
+    }
+
+    /**
+     * Stop updating and print the final status.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        thread.interrupt();
+        thread.join();
+        print(true);
+    }
+}
@@ -0,0 +1,144 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size and quality of the frames a run encodes, per segment type: bytes, and PSNR of each decoded
+ * frame against the picture that was encoded. Updates are lock free, like {@link RunStats}.
+ */
+final class QualityStats {
+
+    /**
+     * PSNR reported for a frame that decodes to exactly its source
+     */
+    static final double LOSSLESS_PSNR = 100.0;
+
+    private static final class Totals {
+        final LongAdder frames = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final DoubleAdder psnrY = new DoubleAdder();
+        final DoubleAdder psnr = new DoubleAdder();
+        final AtomicLong minPsnrY = new AtomicLong(Double.doubleToLongBits(LOSSLESS_PSNR));
+    }
+
+    private final Totals[] totals = new Totals[JCodecParallelEncoder.SegmentType.values().length];
+
+    QualityStats() {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] = new Totals();
+        }
+    }
+
+    /**
+     * Count one frame of a segment of {@code type}.
+     *
+     * @param bytes encoded size
+     * @param psnrY luma PSNR in dB
+     * @param psnr  PSNR over all three planes in dB
+     */
+    void frame(JCodecParallelEncoder.SegmentType type, int bytes, double psnrY, double psnr) {
+        Totals t = totals[type.ordinal()];
+        t.frames.increment();
+        t.bytes.add(bytes);
+        t.psnrY.add(psnrY);
+        t.psnr.add(psnr);
+        t.minPsnrY.accumulateAndGet(Double.doubleToLongBits(psnrY),
+                (a, b) -> Double.longBitsToDouble(a) <= Double.longBitsToDouble(b) ? a : b);
+    }
+
+    long frames(JCodecParallelEncoder.SegmentType type) {
+        return totals[type.ordinal()].frames.sum();
+    }
+
+    double meanPsnrY(JCodecParallelEncoder.SegmentType type) {
+        Totals t = totals[type.ordinal()];
+        long frames = t.frames.sum();
+        return frames == 0 ? Double.NaN : t.psnrY.sum() / frames;
+    }
+
+    /**
+     * Per segment type (and over all frames): frames, bytes, bytes per frame, mean and minimum luma
+     * PSNR and mean PSNR over all planes.
+     */
+    Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Totals all = new Totals();
+        for (JCodecParallelEncoder.SegmentType type : JCodecParallelEncoder.SegmentType.values()) {
+            Totals t = totals[type.ordinal()];
+            report.put(type.name().toLowerCase(Locale.ROOT), entry(t));
+            all.frames.add(t.frames.sum());
+            all.bytes.add(t.bytes.sum());
+            all.psnrY.add(t.psnrY.sum());
+            all.psnr.add(t.psnr.sum());
+            if (t.frames.sum() > 0) {
+                all.minPsnrY.accumulateAndGet(t.minPsnrY.get(),
+                        (a, b) -> Double.longBitsToDouble(a) <= Double.longBitsToDouble(b) ? a : b);
+            }
+        }
+        report.put("all", entry(all));
+        return report;
+    }
+
+    private static Map<String, Object> entry(Totals t) {
+        long frames = t.frames.sum();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("frames", frames);
+        entry.put("bytes", t.bytes.sum());
+        entry.put("bytesPerFrame", frames == 0 ? 0.0 : (double) t.bytes.sum() / frames);
+        entry.put("meanPsnrY", frames == 0 ? null : t.psnrY.sum() / frames);
+        entry.put("minPsnrY", frames == 0 ? null : Double.longBitsToDouble(t.minPsnrY.get()));
+        entry.put("meanPsnr", frames == 0 ? null : t.psnr.sum() / frames);
+        return entry;
+    }
+
+    /**
+     * Luma PSNR and PSNR over all planes of {@code decoded} against {@code source}, over the
+     * source's size (the decoder's picture may be padded to whole macroblocks).
+     *
+     * @return {psnrY, psnr} in dB, {@link #LOSSLESS_PSNR} where the planes are identical
+     */
+    static double[] psnr(Picture source, Picture decoded) {
+        long squaredError = 0;
+        long samples = 0;
+        long lumaError = 0;
+        long lumaSamples = 0;
+        for (int p = 0; p < 3; p++) {
+            byte[] src = source.getPlaneData(p);
+            byte[] dec = decoded.getPlaneData(p);
+            int width = source.getPlaneWidth(p);
+            int height = source.getPlaneHeight(p);
+            int decodedStride = decoded.getPlaneWidth(p);
+            long error = 0;
+            for (int y = 0; y < height; y++) {
+                int s = y * width;
+                int d = y * decodedStride;
+                for (int x = 0; x < width; x++) {
+                    int diff = src[s + x] - dec[d + x];
+                    error += diff * diff;
+                }
+            }
+            if (p == 0) {
+                lumaError = error;
+                lumaSamples = (long) width * height;
+            }
+            squaredError += error;
+            samples += (long) width * height;
+        }
+        return new double[]{psnr(lumaError, lumaSamples), psnr(squaredError, samples)};
+    }
+
+    private static double psnr(long squaredError, long samples) {
+        if (squaredError == 0) {
+            return LOSSLESS_PSNR;
+        }
+        double mse = (double) squaredError / samples;
+        return Math.min(LOSSLESS_PSNR, 10 * Math.log10(255.0 * 255.0 / mse));
+    }
+}
@@ -0,0 +1,74 @@
+package com.krystalmonolith.jslideshow;
+
+import java.util.Locale;
+
+/**
+ * How the H.264 encoder trades output size against quality.
+ * <p>
+ * Wherever a rate mode is taken, {@code null} keeps JCodec's own rate control: QP 20 for
+ * keyframes and 26 for P-frames, raised per macroblock only when one exceeds a generous size
+ * limit. Every segment is rate controlled on its own, starting from its first frame, so a segment
+ * encodes to the same bytes whichever worker encodes it and whatever was encoded before.
+ */
+public sealed interface RateMode {
+
+    /**
+     * Highest QP H.264 allows
+     */
+    int MAX_QP = 51;
+
+    /**
+     * Every macroblock of every frame at one quantizer; lower is better quality and larger output.
+     *
+     * @param qp quantization parameter, 0 to {@value #MAX_QP}
+     */
+    record ConstantQp(int qp) implements RateMode {
+        public ConstantQp {
+            if (qp < 0 || qp > MAX_QP) throw new IllegalArgumentException("qp must be between 0 and " + MAX_QP);
+        }
+
+        @Override
+        public String describe() {
+            return "qp " + qp;
+        }
+    }
+
+    /**
+     * A bit budget per frame, derived from a bitrate and the frame rate. Keyframes get a larger
+     * share of each key interval's budget than P-frames. The quantizer of each frame is predicted
+     * from how far the previous frame of its kind was off its budget, and raised within a frame
+     * as soon as it runs over, so the budget acts as a cap.
+     *
+     * @param bitsPerSecond target bitrate
+     */
+    record TargetBitrate(long bitsPerSecond) implements RateMode {
+        public TargetBitrate {
+            if (bitsPerSecond <= 0) throw new IllegalArgumentException("bitsPerSecond must be > 0");
+        }
+
+        @Override
+        public String describe() {
+            return String.format(Locale.ROOT, "%d kbit/s", bitsPerSecond / 1000);
+        }
+    }
+
+    static RateMode constantQp(int qp) {
+        return new ConstantQp(qp);
+    }
+
+    static RateMode targetBitrate(long bitsPerSecond) {
+        return new TargetBitrate(bitsPerSecond);
+    }
+
+    /**
+     * Short description for logs and the run report, e.g. {@code qp 24} or {@code 2000 kbit/s}.
+     */
+    String describe();
+
+    /**
+     * {@link #describe()}, or {@code default} for JCodec's own rate control.
+     */
+    static String describe(RateMode mode) {
+        return mode == null ? "default" : mode.describe();
+    }
+}
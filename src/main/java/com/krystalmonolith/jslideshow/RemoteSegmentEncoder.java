@@ -0,0 +1,376 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coordinator side of distributed encoding: sends segments to {@link SegmentWorkerServer}s and
+ * hands the returned packets on like a local encoder would.
+ * <p>
+ * {@link #connect()} handshakes with every worker to learn how many segments it encodes at once;
+ * the sum is the number of segments worth keeping in flight. Each segment goes to the reachable
+ * worker with the most free slots, over a connection kept open for the next segment. A segment's
+ * packets are buffered until it is complete, so when a worker dies or stops responding part way
+ * through, nothing has reached the muxer and the segment is simply sent again to another worker.
+ * A worker that fails is left alone for {@link #RETRY_DELAY_MILLIS} before it is tried again.
+ * Errors a worker reports itself (e.g. an unreadable image) fail the run without retries.
+ */
+final class RemoteSegmentEncoder implements AutoCloseable {
+
+    /**
+     * Attempts per segment before the run fails
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * How long a failed worker is skipped
+     */
+    static final long RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * Longest silence from a worker, while connecting or between packets, before it counts as failed
+     */
+    static final int TIMEOUT_MILLIS = 120_000;
+
+    private final List<Worker> workers;
+    private final LongAdder retries = new LongAdder();
+    private int slots;
+    private boolean closed;
+
+    /**
+     * @param addresses worker addresses; nothing is connected until {@link #connect()}
+     */
+    RemoteSegmentEncoder(List<InetSocketAddress> addresses) {
+        if (addresses.isEmpty()) throw new IllegalArgumentException("at least one worker address is required");
+        this.workers = addresses.stream().map(Worker::new).toList();
+    }
+
+    /**
+     * Handshake with every worker. Unreachable workers are skipped for now and retried later.
+     *
+     * @return segments the reachable workers encode at once
+     * @throws IOException if no worker is reachable
+     */
+    int connect() throws IOException {
+        int slots = 0;
+        IOException last = null;
+        for (Worker worker : workers) {
+            try {
+                Connection connection = worker.open();
+                synchronized (this) {
+                    worker.idle.push(connection);
+                }
+                slots += worker.slots;
+            } catch (IOException e) {
+                synchronized (this) {
+                    worker.failed();
+                }
+                last = e;
+            }
+        }
+        if (slots == 0) {
+            throw new IOException("No segment worker reachable (" + last.getMessage() + ")", last);
+        }
+        synchronized (this) {
+            this.slots = slots;
+        }
+        return slots;
+    }
+
+    /**
+     * Segments the workers reachable at {@link #connect()} encode at once.
+     */
+    synchronized int slots() {
+        return slots;
+    }
+
+    /**
+     * Workers that answered the last handshake, of all configured.
+     */
+    synchronized int reachableWorkers() {
+        return (int) workers.stream().filter(w -> w.slots > 0 && w.downUntil == 0).count();
+    }
+
+    /**
+     * Segments sent again after a worker failed.
+     */
+    long retries() {
+        return retries.sum();
+    }
+
+    /**
+     * Encode one segment remotely, retrying on other workers if one fails.
+     *
+     * @throws IOException if the segment failed {@link #MAX_ATTEMPTS} times, or a worker rejected it
+     */
+    void encode(SegmentProtocol.Request request, JCodecParallelEncoder.PacketSink sink, RunStats stats)
+            throws IOException, InterruptedException {
+        IOException last = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                retries.increment();
+            }
+            Worker worker = pick();
+            Connection connection = null;
+            List<byte[]> packets = new ArrayList<>();
+            List<Boolean> keyFrames = new ArrayList<>();
+            List<Integer> durations = new ArrayList<>();
+            long start = stats.start();
+            try {
+                connection = borrow(worker);
+                request.write(connection.out);
+                String error = connection.receive(packets, keyFrames, durations);
+                giveBack(worker, connection);
+                connection = null;
+                if (error != null) {
+                    throw new RejectedSegmentException("Worker " + worker.name() + " could not encode segment "
+                            + request.spec().segmentIndex() + ": " + error);
+                }
+            } catch (RejectedSegmentException e) {
+                throw e;
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException("Remote encoding interrupted");
+                }
+                failed(worker, connection);
+                last = new IOException("worker " + worker.name() + ": " + e.getMessage(), e);
+                continue;
+            } finally {
+                stats.stop(RunStats.Stage.REMOTE, start);
+            }
+            int localFrame = 0;
+            for (int i = 0; i < packets.size(); i++) {
+                sink.accept(JCodecParallelEncoder.framePacket(ByteBuffer.wrap(packets.get(i)), localFrame,
+                        durations.get(i), request.frameRate(), keyFrames.get(i)));
+                localFrame += durations.get(i);
+            }
+            return;
+        }
+        throw new IOException("Segment " + request.spec().segmentIndex() + " failed " + MAX_ATTEMPTS
+                + " times; last on " + last.getMessage(), last);
+    }
+
+    /**
+     * The worker with the most free slots among those not recently failed, or the one failed
+     * longest ago if all have.
+     */
+    private synchronized Worker pick() throws IOException {
+        if (closed) {
+            throw new IOException("Remote encoder closed");
+        }
+        long now = System.nanoTime();
+        Worker best = null;
+        for (Worker worker : workers) {
+            if (worker.downUntil != 0 && worker.downUntil - now > 0) {
+                continue;
+            }
+            if (best == null || worker.freeSlots() > best.freeSlots()) {
+                best = worker;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (Worker worker : workers) {
+            if (best == null || worker.downUntil - best.downUntil < 0) {
+                best = worker;
+            }
+        }
+        return best;
+    }
+
+    private Connection borrow(Worker worker) throws IOException {
+        synchronized (this) {
+            worker.busy++;
+            Connection connection = worker.idle.poll();
+            if (connection != null) {
+                worker.open.add(connection);
+                return connection;
+            }
+        }
+        Connection connection = worker.open();
+        synchronized (this) {
+            if (closed) {
+                connection.close();
+                throw new IOException("Remote encoder closed");
+            }
+            worker.open.add(connection);
+        }
+        return connection;
+    }
+
+    private synchronized void giveBack(Worker worker, Connection connection) {
+        worker.busy--;
+        worker.open.remove(connection);
+        worker.downUntil = 0;
+        if (closed) {
+            connection.close();
+        } else {
+            worker.idle.push(connection);
+        }
+    }
+
+    private synchronized void failed(Worker worker, Connection connection) {
+        worker.busy--;
+        if (connection != null) {
+            worker.open.remove(connection);
+            connection.close();
+        }
+        worker.failed();
+    }
+
+    /**
+     * Close every connection, including those of segments in progress, whose {@link #encode}
+     * calls then fail promptly.
+     */
+    @Override
+    public void close() {
+        List<Connection> all = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Worker worker : workers) {
+                all.addAll(worker.idle);
+                all.addAll(worker.open);
+                worker.idle.clear();
+            }
+        }
+        all.forEach(Connection::close);
+    }
+
+    /**
+     * A worker's own report that it cannot encode a segment; sending it elsewhere would not help.
+     */
+    private static final class RejectedSegmentException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        RejectedSegmentException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One worker and its connections; guarded by the encoder's lock.
+     */
+    private static final class Worker {
+        private final InetSocketAddress address;
+        private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+        private final Set<Connection> open = new HashSet<>();
+        private volatile int slots;
+        private int busy;
+        private long downUntil;
+
+        Worker(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        String name() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+
+        int freeSlots() {
+            return slots - busy;
+        }
+
+        void failed() {
+            downUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS);
+            if (downUntil == 0) {
+                downUntil = 1;
+            }
+            idle.forEach(Connection::close);
+            idle.clear();
+        }
+
+        /**
+         * Connect and handshake; records the worker's slot count.
+         */
+        Connection open() throws IOException {
+            Socket socket = new Socket();
+            try {
+                // resolved afresh on every connect, so a restarted worker may come back elsewhere
+                socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), TIMEOUT_MILLIS);
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                var connection = new Connection(socket);
+                connection.out.writeInt(SegmentProtocol.MAGIC);
+                connection.out.writeInt(SegmentProtocol.VERSION);
+                connection.out.flush();
+                if (connection.in.readInt() != SegmentProtocol.MAGIC) {
+                    throw new IOException("not a segment worker");
+                }
+                int version = connection.in.readInt();
+                if (version != SegmentProtocol.VERSION) {
+                    throw new IOException("protocol version " + version + ", expected " + SegmentProtocol.VERSION);
+                }
+                slots = connection.in.readInt();
+                return connection;
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        /**
+         * Read one segment's packets.
+         *
+         * @return the worker's error message, or null if the segment is complete
+         */
+        String receive(List<byte[]> packets, List<Boolean> keyFrames, List<Integer> durations) throws IOException {
+            while (true) {
+                byte flag = in.readByte();
+                switch (flag) {
+                    case SegmentProtocol.END_OF_SEGMENT -> {
+                        return null;
+                    }
+                    case SegmentProtocol.ERROR -> {
+                        return in.readUTF();
+                    }
+                    case SegmentProtocol.KEY_FRAME, SegmentProtocol.INTER_FRAME,
+                         SegmentProtocol.HELD_KEY_FRAME, SegmentProtocol.HELD_INTER_FRAME -> {
+                        boolean held = flag == SegmentProtocol.HELD_KEY_FRAME
+                                || flag == SegmentProtocol.HELD_INTER_FRAME;
+                        durations.add(held ? in.readInt() : 1);
+                        byte[] bytes = new byte[in.readInt()];
+                        in.readFully(bytes);
+                        packets.add(bytes);
+                        keyFrames.add(flag == SegmentProtocol.KEY_FRAME || flag == SegmentProtocol.HELD_KEY_FRAME);
+                    }
+                    default -> throw new IOException("Unexpected packet flag " + flag);
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.krystalmonolith.jslideshow;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Local HTTP front end of a {@link RenderServer}, built on the JDK's {@code HttpServer}.
+ * <pre>
+ *   POST   /jobs        submit a job; the body is a properties file (see {@link RenderServer.JobRequest#parse})
+ *   GET    /jobs        all jobs
+ *   GET    /jobs/{id}   one job
+ *   DELETE /jobs/{id}   cancel a job
+ *   GET    /metrics     queue depth, pool utilisation and throughput
+ * </pre>
+ * Responses are JSON. Relative paths in job bodies are resolved against the server's working
+ * directory. There is no authentication, so it should only listen on a loopback address.
+ */
+final class RenderHttpApi implements AutoCloseable {
+
+    private final RenderServer server;
+    private final HttpServer http;
+    private final ExecutorService handlers;
+
+    /**
+     * Start listening.
+     *
+     * @param address address to bind; port 0 picks a free port
+     */
+    RenderHttpApi(RenderServer server, InetSocketAddress address) throws IOException {
+        this.server = server;
+        this.handlers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-", 1).factory());
+        this.http = HttpServer.create(address, 0);
+        http.createContext("/jobs", this::jobs);
+        http.createContext("/metrics", exchange -> {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, Map.of("error", "method not allowed"));
+            } else {
+                respond(exchange, 200, server.metrics());
+            }
+        });
+        http.setExecutor(handlers);
+        http.start();
+    }
+
+    /**
+     * Bound address, with the actual port.
+     */
+    InetSocketAddress address() {
+        return http.getAddress();
+    }
+
+    private void jobs(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String rest = exchange.getRequestURI().getPath().substring("/jobs".length());
+        if (rest.isEmpty() || rest.equals("/")) {
+            switch (method) {
+                case "GET" -> respond(exchange, 200, server.jobs().stream().map(RenderServer.Job::toMap).toList());
+                case "POST" -> submit(exchange);
+                default -> respond(exchange, 405, Map.of("error", "method not allowed"));
+            }
+            return;
+        }
+
+        RenderServer.Job job = null;
+        try {
+            job = server.job(Long.parseLong(rest.substring(1)));
+        } catch (NumberFormatException e) {
+            // unknown
+        }
+        if (job == null) {
+            respond(exchange, 404, Map.of("error", "no such job"));
+            return;
+        }
+        switch (method) {
+            case "GET" -> respond(exchange, 200, job.toMap());
+            case "DELETE" -> respond(exchange, job.cancel() ? 200 : 409, job.toMap());
+            default -> respond(exchange, 405, Map.of("error", "method not allowed"));
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        Properties props = new Properties();
+        try (InputStream body = exchange.getRequestBody()) {
+            props.load(new InputStreamReader(body, StandardCharsets.UTF_8));
+        }
+        try {
+            var request = RenderServer.JobRequest.parse(props, Path.of("").toAbsolutePath());
+            respond(exchange, 201, server.submit(request).toMap());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, Map.of("error", e.getMessage()));
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, Map.of("error", e.getMessage()));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = RunStats.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        handlers.shutdownNow();
+    }
+}
@@ -0,0 +1,420 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Long-running render service: a job queue in front of one warm {@link SharedWorkerPool}.
+ * <p>
+ * Up to {@code maxConcurrentJobs} jobs run at once, each on its own runner thread that plans,
+ * prefetches and muxes while its segments are encoded on the shared pool; further jobs wait in
+ * FIFO order. Every running job submits its segments to its own pool lane, so the pool is split
+ * fairly between them. Jobs come from the HTTP API ({@link RenderHttpApi}) or a spool directory
+ * ({@link SpoolWatcher}) and are described by the same properties in both.
+ */
+final class RenderServer implements AutoCloseable {
+
+    /**
+     * Finished jobs kept for status queries; older ones are forgotten
+     */
+    static final int MAX_FINISHED_JOBS = 1000;
+
+    enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        boolean finished() {
+            return this != QUEUED && this != RUNNING;
+        }
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * What to render.
+     *
+     * @param input     directory of JPG images
+     * @param output    output file; for HLS, the playlist
+     * @param maxWidth  maximum output width, 0 for no limit
+     * @param maxHeight maximum output height, 0 for no limit
+     */
+    record JobRequest(Path input, Path output, double duration, double transition, int frameRate,
+                      OutputFormat format, int maxWidth, int maxHeight, int maxGopFrames) {
+
+        JobRequest {
+            if (input == null) throw new IllegalArgumentException("input is required");
+            if (output == null) throw new IllegalArgumentException("output is required");
+            if (duration <= 0) throw new IllegalArgumentException("duration must be > 0");
+            if (transition < 0) throw new IllegalArgumentException("transition must be >= 0");
+            if (frameRate <= 0) throw new IllegalArgumentException("frameRate must be positive");
+            if (format == null) throw new IllegalArgumentException("format must not be null");
+            if (maxWidth < 0) throw new IllegalArgumentException("maxWidth must be >= 0");
+            if (maxHeight < 0) throw new IllegalArgumentException("maxHeight must be >= 0");
+            if (maxGopFrames < 0) throw new IllegalArgumentException("gop must be >= 0");
+            if ((int) (duration * frameRate) == 0 && (int) (transition * frameRate) == 0) {
+                throw new IllegalArgumentException("duration and transition both produce 0 frames");
+            }
+        }
+
+        int holdFrames() {
+            return (int) (duration * frameRate);
+        }
+
+        int transitionFrames() {
+            return (int) (transition * frameRate);
+        }
+
+        /**
+         * Parse a job description. Keys mirror the command line options: {@code input},
+         * {@code output} (both required), {@code duration}, {@code transition}, {@code frameRate},
+         * {@code format}, {@code size}, {@code maxWidth}, {@code maxHeight} and {@code gop}.
+         *
+         * @param baseDirectory directory relative paths are resolved against
+         * @throws IllegalArgumentException if a key is missing or invalid
+         */
+        static JobRequest parse(Properties props, Path baseDirectory) {
+            int maxWidth = 0;
+            int maxHeight = 0;
+            String size = props.getProperty("size");
+            if (size != null) {
+                int[] preset = Main.SIZE_PRESETS.get(size.trim().toLowerCase(Locale.ROOT));
+                if (preset == null) throw new IllegalArgumentException("unknown size preset: " + size);
+                maxWidth = preset[0];
+                maxHeight = preset[1];
+            }
+            String format = props.getProperty("format", "mp4").trim();
+            OutputFormat outputFormat;
+            try {
+                outputFormat = OutputFormat.valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown format: " + format);
+            }
+            return new JobRequest(
+                    path(props, "input", baseDirectory),
+                    path(props, "output", baseDirectory),
+                    number(props, "duration", SlideshowCreator2.DEFAULT_DURATION),
+                    number(props, "transition", SlideshowCreator2.DEFAULT_TRANSITION),
+                    (int) number(props, "frameRate", SlideshowCreator2.DEFAULT_FRAME_RATE),
+                    outputFormat,
+                    (int) number(props, "maxWidth", maxWidth),
+                    (int) number(props, "maxHeight", maxHeight),
+                    (int) number(props, "gop", 0));
+        }
+
+        private static Path path(Properties props, String key, Path baseDirectory) {
+            String value = props.getProperty(key);
+            return value == null || value.isBlank() ? null : baseDirectory.resolve(value.trim());
+        }
+
+        private static double number(Properties props, String key, double defaultValue) {
+            String value = props.getProperty(key);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(key + " must be a number: " + value);
+            }
+        }
+    }
+
+    /**
+     * One submitted job and its progress.
+     */
+    final class Job implements ProgressListener {
+
+        private final long id;
+        private final JobRequest request;
+        private final Consumer<Job> onFinish;
+        private final JCodecParallelEncoder encoder = new JCodecParallelEncoder();
+        private final Instant submitted = Instant.now();
+        private State state = State.QUEUED;
+        private boolean cancelRequested;
+        private long startNanos;
+        private long endNanos;
+        private String error;
+        private volatile int segmentsWritten;
+        private volatile int totalSegments;
+        private volatile long framesWritten;
+        private volatile long totalFrames;
+
+        private Job(long id, JobRequest request, Consumer<Job> onFinish) {
+            this.id = id;
+            this.request = request;
+            this.onFinish = onFinish;
+        }
+
+        long id() {
+            return id;
+        }
+
+        JobRequest request() {
+            return request;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        synchronized String error() {
+            return error;
+        }
+
+        /**
+         * Cancel the job: a queued job is dropped, a running one interrupted.
+         *
+         * @return false if the job had already finished
+         */
+        boolean cancel() {
+            synchronized (this) {
+                if (state.finished()) {
+                    return false;
+                }
+                cancelRequested = true;
+                if (state == State.RUNNING) {
+                    encoder.cancel();
+                    return true;
+                }
+                // still queued: its runner will find it already finished
+                state = State.CANCELLED;
+            }
+            queuedJobs.decrementAndGet();
+            finish(State.CANCELLED, null);
+            return true;
+        }
+
+        @Override
+        public void segmentWritten(int segmentsWritten, int totalSegments, long framesWritten, long totalFrames) {
+            RenderServer.this.framesWritten.add(framesWritten - this.framesWritten);
+            this.segmentsWritten = segmentsWritten;
+            this.totalSegments = totalSegments;
+            this.framesWritten = framesWritten;
+            this.totalFrames = totalFrames;
+        }
+
+        private synchronized boolean start() {
+            if (state != State.QUEUED) {
+                return false;
+            }
+            state = State.RUNNING;
+            startNanos = System.nanoTime();
+            return true;
+        }
+
+        private void finish(State outcome, String message) {
+            synchronized (this) {
+                state = outcome;
+                error = message;
+                endNanos = System.nanoTime();
+            }
+            LongAdder counter = switch (outcome) {
+                case SUCCEEDED -> succeeded;
+                case CANCELLED -> cancelled;
+                default -> failed;
+            };
+            counter.increment();
+            forgetOldJobs();
+            if (onFinish != null) {
+                onFinish.accept(this);
+            }
+        }
+
+        /**
+         * Status as a JSON-ready map.
+         */
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", id);
+            map.put("state", state.key());
+            map.put("input", request.input().toString());
+            map.put("output", request.output().toString());
+            map.put("format", request.format().name().toLowerCase(Locale.ROOT));
+            map.put("submitted", submitted.toString());
+            double seconds = startNanos == 0 ? 0.0
+                    : ((state.finished() ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+            map.put("runSeconds", seconds);
+            map.put("segmentsWritten", segmentsWritten);
+            map.put("totalSegments", totalSegments);
+            map.put("framesWritten", framesWritten);
+            map.put("totalFrames", totalFrames);
+            map.put("framesPerSecond", seconds > 0 ? framesWritten / seconds : 0.0);
+            map.put("error", error);
+            return map;
+        }
+    }
+
+    private final SharedWorkerPool pool;
+    private final ExecutorService runners;
+    private final Map<Long, Job> jobs = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder framesWritten = new LongAdder();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * @param workerCount       encoder threads shared by all jobs
+     * @param maxConcurrentJobs jobs running at once; more are queued
+     */
+    RenderServer(int workerCount, int maxConcurrentJobs) {
+        if (maxConcurrentJobs < 1) throw new IllegalArgumentException("maxConcurrentJobs must be >= 1");
+        this.pool = new SharedWorkerPool(workerCount);
+        this.runners = Executors.newFixedThreadPool(maxConcurrentJobs,
+                Thread.ofPlatform().name("render-job-", 1).daemon().factory());
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param onFinish called on the job's runner thread once it has finished, or null
+     * @throws RejectedExecutionException if the server is shutting down
+     */
+    Job submit(JobRequest request, Consumer<Job> onFinish) {
+        if (closed) {
+            throw new RejectedExecutionException("server is shutting down");
+        }
+        Job job = new Job(nextId.getAndIncrement(), request, onFinish);
+        jobs.put(job.id(), job);
+        submitted.increment();
+        queuedJobs.incrementAndGet();
+        runners.execute(() -> run(job));
+        return job;
+    }
+
+    Job submit(JobRequest request) {
+        return submit(request, null);
+    }
+
+    /**
+     * @return the job, or null if unknown or forgotten
+     */
+    Job job(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * All known jobs, oldest first.
+     */
+    List<Job> jobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void run(Job job) {
+        if (!job.start()) {
+            return;
+        }
+        queuedJobs.decrementAndGet();
+        runningJobs.incrementAndGet();
+        State outcome;
+        String message = null;
+        try {
+            JobRequest request = job.request();
+            File[] files = SlideshowCreator2.findImageFiles(request.input());
+            if (files.length == 0) {
+                throw new IllegalStateException("No .JPG or .jpg files found in: " + request.input());
+            }
+            JCodecParallelEncoder encoder = job.encoder;
+            encoder.setWorkerPool(pool);
+            encoder.setProgressListener(job);
+            encoder.setOutputFormat(request.format());
+            encoder.setMaxOutputSize(request.maxWidth(), request.maxHeight());
+            encoder.setMaxGopFrames(request.maxGopFrames());
+            encoder.encode(files, request.holdFrames(), request.transitionFrames(), request.frameRate(),
+                    request.output().toFile(), pool.workerCount());
+            outcome = State.SUCCEEDED;
+        } catch (Exception e) {
+            boolean wasCancelled;
+            synchronized (job) {
+                wasCancelled = job.cancelRequested;
+            }
+            outcome = wasCancelled || e instanceof CancellationException ? State.CANCELLED : State.FAILED;
+            message = outcome == State.CANCELLED ? null : e.getMessage() != null ? e.getMessage() : e.toString();
+            if (outcome == State.CANCELLED && job.request().format() != OutputFormat.HLS) {
+                deleteQuietly(job.request().output());
+            }
+        } finally {
+            runningJobs.decrementAndGet();
+        }
+        job.finish(outcome, message);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Drop the oldest finished jobs beyond {@link #MAX_FINISHED_JOBS}.
+     */
+    private void forgetOldJobs() {
+        List<Long> finished = jobs.values().stream().filter(j -> j.state().finished()).map(Job::id).toList();
+        for (int i = 0; i < finished.size() - MAX_FINISHED_JOBS; i++) {
+            jobs.remove(finished.get(i));
+        }
+    }
+
+    /**
+     * Queue depth, pool utilisation and throughput as a JSON-ready map.
+     */
+    Map<String, Object> metrics() {
+        double uptime = (System.nanoTime() - startNanos) / 1e9;
+        Map<String, Object> jobCounts = new LinkedHashMap<>();
+        jobCounts.put("submitted", submitted.sum());
+        jobCounts.put("succeeded", succeeded.sum());
+        jobCounts.put("failed", failed.sum());
+        jobCounts.put("cancelled", cancelled.sum());
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("uptimeSeconds", uptime);
+        metrics.put("queuedJobs", queuedJobs.get());
+        metrics.put("runningJobs", runningJobs.get());
+        metrics.put("workers", pool.workerCount());
+        metrics.put("busyWorkers", pool.busyWorkers());
+        metrics.put("queuedSegments", pool.queuedTasks());
+        metrics.put("segmentsEncoded", pool.tasksCompleted());
+        metrics.put("framesWritten", framesWritten.sum());
+        metrics.put("framesPerSecond", uptime > 0 ? framesWritten.sum() / uptime : 0.0);
+        metrics.put("jobs", jobCounts);
+        return metrics;
+    }
+
+    /**
+     * Stop accepting jobs, cancel queued and running ones, and stop the worker pool.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        jobs.values().forEach(Job::cancel);
+        runners.shutdown();
+        runners.awaitTermination(1, TimeUnit.MINUTES);
+        pool.close();
+    }
+}
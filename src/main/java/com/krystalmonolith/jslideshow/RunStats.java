@@ -0,0 +1,293 @@
+package com.krystalmonolith.jslideshow;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-run performance counters: time spent in each pipeline stage, and frames, bytes and
+ * segments through the pipeline.
+ * <p>
+ * Stages are timed by their callers with {@link #start()} and {@link #stop}; times are summed
+ * over all threads, so with several workers a stage's total can exceed the wall time. Every
+ * {@code stop} also emits a {@link SlideshowEvents.StageEvent} when a Flight Recorder recording
+ * has it enabled. Updates are lock free ({@link LongAdder}) and allocation free, so workers never
+ * contend on them; the progress reporter and the run report read them from other threads.
+ */
+final class RunStats {
+
+    /**
+     * Timed pipeline stages.
+     */
+    enum Stage {
+        /**
+         * JPEG decode (with subsampling)
+         */
+        DECODE,
+        /**
+         * Resize and letterbox into the output frame
+         */
+        CENTER,
+        /**
+         * Dissolve and fade blending in YUV
+         */
+        BLEND,
+        /**
+         * RGB to YUV420 conversion
+         */
+        COLOR_CONVERT,
+        /**
+         * H.264 encode of one frame
+         */
+        ENCODE,
+        /**
+         * Round trip of one segment to a remote worker, packets included
+         */
+        REMOTE,
+        /**
+         * Encoder blocked on a full segment channel, waiting for the muxer
+         */
+        QUEUE_WAIT,
+        /**
+         * Muxing one packet into the output
+         */
+        MUX;
+
+        /**
+         * Name used in the JSON report and JFR events
+         */
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Discards everything; used where no run is being measured (e.g. unit tests).
+     */
+    static final RunStats NONE = new RunStats(false);
+
+    private final boolean recording;
+    private final QualityStats quality;
+    private final LongAdder[] stageNanos = new LongAdder[Stage.values().length];
+    private final LongAdder[] stageCounts = new LongAdder[Stage.values().length];
+    private final LongAdder segmentsEncoded = new LongAdder();
+    private final LongAdder segmentsReused = new LongAdder();
+    private final AtomicLong segmentsMuxed = new AtomicLong();
+    private final AtomicLong framesMuxed = new AtomicLong();
+    private final AtomicLong packetsMuxed = new AtomicLong();
+    private final AtomicLong bytesMuxed = new AtomicLong();
+
+    RunStats() {
+        this(true, null);
+    }
+
+    /**
+     * @param quality size and PSNR of encoded frames to collect, or null not to measure them
+     */
+    RunStats(QualityStats quality) {
+        this(true, quality);
+    }
+
+    private RunStats(boolean recording) {
+        this(recording, null);
+    }
+
+    private RunStats(boolean recording, QualityStats quality) {
+        this.recording = recording;
+        this.quality = quality;
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] = new LongAdder();
+            stageCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return start timestamp to pass to {@link #stop}
+     */
+    long start() {
+        return recording ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record one execution of a stage that began at {@code start}.
+     */
+    void stop(Stage stage, long start) {
+        if (!recording) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        stageNanos[stage.ordinal()].add(elapsed);
+        stageCounts[stage.ordinal()].increment();
+        if (SlideshowEvents.StageEvent.TYPE.isEnabled()) {
+            SlideshowEvents.StageEvent event = new SlideshowEvents.StageEvent();
+            event.stage = stage.key();
+            event.elapsed = elapsed;
+            event.commit();
+        }
+    }
+
+    /**
+     * Count a segment whose packets have all been handed to the muxer.
+     *
+     * @param reused true if it was read from the segment cache rather than encoded
+     */
+    void segmentDone(boolean reused) {
+        (reused ? segmentsReused : segmentsEncoded).increment();
+    }
+
+    /**
+     * Count one packet written by the muxer.
+     */
+    void frameMuxed(int bytes) {
+        frameMuxed(bytes, 1);
+    }
+
+    /**
+     * Count one packet written by the muxer that is shown for {@code frames} frames.
+     */
+    void frameMuxed(int bytes, long frames) {
+        framesMuxed.addAndGet(frames);
+        packetsMuxed.incrementAndGet();
+        bytesMuxed.addAndGet(bytes);
+    }
+
+    void segmentMuxed() {
+        segmentsMuxed.incrementAndGet();
+    }
+
+    /**
+     * Frame quality measurements, or null if this run does not measure them.
+     */
+    QualityStats quality() {
+        return quality;
+    }
+
+    long stageNanos(Stage stage) {
+        return stageNanos[stage.ordinal()].sum();
+    }
+
+    long stageCount(Stage stage) {
+        return stageCounts[stage.ordinal()].sum();
+    }
+
+    long segmentsEncoded() {
+        return segmentsEncoded.sum();
+    }
+
+    long segmentsReused() {
+        return segmentsReused.sum();
+    }
+
+    long segmentsMuxed() {
+        return segmentsMuxed.get();
+    }
+
+    /**
+     * Frames of the timeline muxed, counting each packet for its duration.
+     */
+    long framesMuxed() {
+        return framesMuxed.get();
+    }
+
+    /**
+     * Packets (encoded frames) muxed; fewer than {@link #framesMuxed()} in a preview.
+     */
+    long packetsMuxed() {
+        return packetsMuxed.get();
+    }
+
+    long bytesMuxed() {
+        return bytesMuxed.get();
+    }
+
+    /**
+     * Stage totals as {@code {"decode": {"count": n, "totalMillis": t, "meanMicros": m}, ...}}.
+     */
+    Map<String, Object> stageReport() {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            long count = stageCount(stage);
+            long nanos = stageNanos(stage);
+            stages.put(stage.key(), Map.of(
+                    "count", count,
+                    "totalMillis", nanos / 1e6,
+                    "meanMicros", count == 0 ? 0.0 : nanos / 1e3 / count));
+        }
+        return stages;
+    }
+
+    /**
+     * Render maps, iterables, strings, numbers, booleans and nulls as JSON. Map entries keep their
+     * iteration order, except {@link Map#of} maps, which are sorted by key for stable output.
+     */
+    static String toJson(Object value) {
+        StringBuilder sb = new StringBuilder();
+        appendJson(sb, value, "");
+        return sb.append('\n').toString();
+    }
+
+    private static void appendJson(StringBuilder sb, Object value, String indent) {
+        switch (value) {
+            case null -> sb.append("null");
+            case String s -> appendString(sb, s);
+            case Double d when d.isNaN() || d.isInfinite() -> sb.append("null");
+            case Double d -> sb.append(String.format(Locale.ROOT, "%.3f", d));
+            case Float f -> appendJson(sb, f.doubleValue(), indent);
+            case Number n -> sb.append(n);
+            case Boolean b -> sb.append(b);
+            case Map<?, ?> map -> {
+                Iterable<? extends Map.Entry<?, ?>> entries = map instanceof LinkedHashMap<?, ?>
+                        || map instanceof SortedMap<?, ?> ? map.entrySet()
+                        : new TreeMap<>(map).entrySet();
+                String inner = indent + "  ";
+                sb.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> e : entries) {
+                    sb.append(first ? "\n" : ",\n").append(inner);
+                    appendString(sb, String.valueOf(e.getKey()));
+                    sb.append(": ");
+                    appendJson(sb, e.getValue(), inner);
+                    first = false;
+                }
+                sb.append(first ? "}" : "\n" + indent + "}");
+            }
+            case Iterable<?> list -> {
+                sb.append('[');
+                boolean first = true;
+                for (Object item : list) {
+                    sb.append(first ? "" : ", ");
+                    appendJson(sb, item, indent);
+                    first = false;
+                }
+                sb.append(']');
+            }
+            default -> appendString(sb, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,367 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.containers.mp4.MP4Packet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of encoded segments.
+ * <p>
+ * Every segment is an independent GOP, so its packets depend only on the content of its source
+ * images, its type, frame range and span, the frame rate and the output size. {@link #key} hashes
+ * exactly those inputs, which makes a cached segment reusable wherever it appears in a later
+ * slideshow: adding one photo to an album only encodes the segments that touch it.
+ * <p>
+ * Entries are {@code <key>.seg} files. Recency is kept in each file's modification time so it
+ * survives across runs, and the least recently used entries are deleted once the cache grows past
+ * its size limit. Entries looked up for the current run are pinned and never evicted by it.
+ * Files are written to a temp file and moved into place, so concurrent runs sharing a cache
+ * directory only ever see complete entries.
+ */
+final class SegmentCache {
+
+    /**
+     * Bump when the encoder output for the same inputs changes, to invalidate old entries
+     */
+    private static final int FORMAT_VERSION = 4;
+
+    private static final int MAGIC = 0x4A53_5347; // "JSSG"
+    private static final byte INTER_FRAME = 0;
+    private static final byte KEY_FRAME = 1;
+    /**
+     * Frames shown for more than one frame time, followed by the duration in frames; entries
+     * without them are still read
+     */
+    private static final byte HELD_INTER_FRAME = 2;
+    private static final byte HELD_KEY_FRAME = 3;
+    private static final byte END_OF_SEGMENT = -1;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final ProgressListener listener;
+
+    /**
+     * Entry sizes in least to most recently used order
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> pinned = new HashSet<>();
+    private long totalBytes;
+
+    /**
+     * Open (creating if needed) a cache directory.
+     *
+     * @param directory cache directory
+     * @param maxBytes  size limit; least recently used entries are evicted beyond it
+     * @param listener  receives warnings about entries that cannot be written, from encoder threads
+     * @throws IOException if the directory cannot be created or listed
+     */
+    SegmentCache(Path directory, long maxBytes, ProgressListener listener) throws IOException {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.listener = listener;
+        Files.createDirectories(directory);
+
+        record Entry(String key, long size, FileTime used) {}
+        List<Entry> existing = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                    existing.add(new Entry(name.substring(0, name.length() - SUFFIX.length()),
+                            attr.size(), attr.lastModifiedTime()));
+                }
+            }
+        }
+        existing.sort(Comparator.comparing(Entry::used));
+        for (Entry e : existing) {
+            entries.put(e.key(), e.size());
+            totalBytes += e.size();
+        }
+    }
+
+    /**
+     * Cache key of a segment.
+     *
+     * @param spec         segment to encode
+     * @param imageHashes  content hash per image index
+     * @param frameRate    output frame rate
+     * @param outputWidth  output width
+     * @param outputHeight output height
+     * @param rate         rate mode of the segment's type, null for JCodec's default
+     * @return hex SHA-256 of the segment's inputs
+     */
+    static String key(JCodecParallelEncoder.SegmentSpec spec, List<String> imageHashes,
+                      int frameRate, int outputWidth, int outputHeight, RateMode rate) {
+        return key(spec, imageHashes, frameRate, outputWidth, outputHeight, rate, null);
+    }
+
+    /**
+     * Cache key of a segment rendered with {@code transition} (null for a hold).
+     */
+    static String key(JCodecParallelEncoder.SegmentSpec spec, List<String> imageHashes,
+                      int frameRate, int outputWidth, int outputHeight, RateMode rate, Transition transition) {
+        String inputs = String.join("|",
+                "v" + FORMAT_VERSION,
+                spec.type().name(),
+                Integer.toString(spec.firstFrame()),
+                Integer.toString(spec.frameCount()),
+                Integer.toString(spec.spanFrames()),
+                Integer.toString(frameRate),
+                outputWidth + "x" + outputHeight,
+                Integer.toString(EncoderContext.KEY_INTERVAL),
+                imageHashes.get(spec.imageIndexA()),
+                spec.imageIndexB() >= 0 ? imageHashes.get(spec.imageIndexB()) : "-");
+        if (rate != null) {
+            // nothing is added for the default rate control, so existing entries stay valid
+            inputs += "|" + rate;
+        }
+        if (transition != null && transition != Transition.DISSOLVE) {
+            // likewise for the default transition
+            inputs += "|" + transition.name();
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(inputs.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Check whether an entry exists and, if so, pin it so this run does not evict it before
+     * {@link #get} reads it. Also marks the entry as recently used.
+     */
+    synchronized boolean lookup(String key) {
+        if (entries.get(key) == null) {
+            return false;
+        }
+        pinned.add(key);
+        touch(key);
+        return true;
+    }
+
+    /**
+     * Stream a cached segment's packets into {@code sink} and release its pin.
+     * <p>
+     * An entry that is missing or has a bad header is reported as a miss before any packet is
+     * sent, so the caller can still encode the segment. An entry that turns out to be truncated
+     * after packets were sent is dropped and reported as an {@link IOException}.
+     *
+     * @return true if the segment was sent, false on a miss
+     * @throws IOException if the entry is corrupt part way through
+     */
+    boolean get(String key, int frameRate, JCodecParallelEncoder.PacketSink sink)
+            throws IOException, InterruptedException {
+        try {
+            InputStream in;
+            try {
+                in = Files.newInputStream(entryFile(key));
+            } catch (IOException e) {
+                drop(key);
+                return false;
+            }
+            try (DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+                if (!hasMagic(data)) {
+                    drop(key);
+                    return false;
+                }
+                int localFrame = 0;
+                for (int flag = data.readByte(); flag != END_OF_SEGMENT; flag = data.readByte()) {
+                    int duration = flag == HELD_INTER_FRAME || flag == HELD_KEY_FRAME ? data.readInt() : 1;
+                    byte[] bytes = new byte[data.readInt()];
+                    data.readFully(bytes);
+                    sink.accept(JCodecParallelEncoder.framePacket(ByteBuffer.wrap(bytes), localFrame, duration,
+                            frameRate, flag == KEY_FRAME || flag == HELD_KEY_FRAME));
+                    localFrame += duration;
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                drop(key);
+                throw new IOException("Corrupt segment cache entry " + entryFile(key) + "; rerun to re-encode it", e);
+            }
+        } finally {
+            synchronized (this) {
+                pinned.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Start writing an entry. Packets are streamed to a temp file and the entry only becomes
+     * visible on {@link Writer#commit()}; closing an uncommitted writer discards it.
+     */
+    Writer begin(String key) {
+        return new Writer(key);
+    }
+
+    /**
+     * Streams one segment into the cache. Write failures are reported once and otherwise
+     * ignored; the cache is an optimization only.
+     */
+    final class Writer implements JCodecParallelEncoder.PacketSink, AutoCloseable {
+        private final String key;
+        private Path tmp;
+        private DataOutputStream out;
+
+        private Writer(String key) {
+            this.key = key;
+            try {
+                tmp = Files.createTempFile(directory, key, ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+                out.writeInt(MAGIC);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        @Override
+        public void accept(MP4Packet packet) {
+            if (out == null) {
+                return;
+            }
+            try {
+                byte[] bytes = new byte[packet.getData().remaining()];
+                packet.getData().duplicate().get(bytes);
+                if (packet.getDuration() == 1) {
+                    out.writeByte(packet.isKeyFrame() ? KEY_FRAME : INTER_FRAME);
+                } else {
+                    out.writeByte(packet.isKeyFrame() ? HELD_KEY_FRAME : HELD_INTER_FRAME);
+                    out.writeInt((int) packet.getDuration());
+                }
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Publish the entry, then evict least recently used entries beyond the size limit.
+         */
+        void commit() {
+            if (out == null) {
+                return;
+            }
+            Path target = entryFile(key);
+            long size;
+            try {
+                out.writeByte(END_OF_SEGMENT);
+                out.close();
+                out = null;
+                size = Files.size(tmp);
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                failed(e);
+                return;
+            }
+            synchronized (SegmentCache.this) {
+                Long previous = entries.put(key, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evict();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (out != null) {
+                    out.close();
+                    out = null;
+                }
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+                // leftover temp files are harmless
+            }
+        }
+
+        private void failed(IOException e) {
+            listener.message("Could not write segment cache entry %s: %s".formatted(entryFile(key), e.getMessage()));
+            close();
+        }
+    }
+
+    /**
+     * Total size of all entries in bytes.
+     */
+    synchronized long size() {
+        return totalBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (pinned.contains(eldest.getKey())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(entryFile(eldest.getKey()));
+            } catch (IOException e) {
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    private static boolean hasMagic(DataInputStream data) {
+        try {
+            return data.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private synchronized void drop(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private void touch(String key) {
+        try {
+            Files.setLastModifiedTime(entryFile(key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // recency is best effort
+        }
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+}
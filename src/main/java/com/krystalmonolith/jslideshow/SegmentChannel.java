@@ -0,0 +1,76 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.containers.mp4.MP4Packet;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded hand-off of one segment's packets from its encoder to the muxer.
+ * <p>
+ * The encoder {@link #accept}s packets as they are produced and blocks once {@code capacity}
+ * packets are waiting; the muxer {@link #receive}s them as it writes the segment. Only the head
+ * segment is being drained at any time, so encoders running ahead of it stall after filling their
+ * channel and the packets held in memory are bounded by the window size times the capacity,
+ * independent of segment length.
+ */
+final class SegmentChannel implements JCodecParallelEncoder.PacketSink {
+
+    /**
+     * Packets buffered per segment before its encoder blocks: one key interval
+     */
+    static final int DEFAULT_CAPACITY = EncoderContext.KEY_INTERVAL;
+
+    private static final MP4Packet END = JCodecParallelEncoder.framePacket(ByteBuffer.allocate(0), 0, 1, false);
+
+    private final int segmentIndex;
+    private final BlockingQueue<MP4Packet> packets;
+    private final RunStats stats;
+
+    SegmentChannel(int segmentIndex, int capacity) {
+        this(segmentIndex, capacity, RunStats.NONE);
+    }
+
+    /**
+     * @param stats counters charged with the time encoders spend blocked on a full channel
+     */
+    SegmentChannel(int segmentIndex, int capacity, RunStats stats) {
+        this.segmentIndex = segmentIndex;
+        this.packets = new ArrayBlockingQueue<>(capacity);
+        this.stats = stats;
+    }
+
+    int segmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Queue the next packet, blocking while the channel is full.
+     */
+    @Override
+    public void accept(MP4Packet packet) throws InterruptedException {
+        if (!packets.offer(packet)) {
+            long start = stats.start();
+            packets.put(packet);
+            stats.stop(RunStats.Stage.QUEUE_WAIT, start);
+        }
+    }
+
+    /**
+     * Mark the segment complete; called once after its last packet.
+     */
+    void close() throws InterruptedException {
+        packets.put(END);
+    }
+
+    /**
+     * Take the next packet, blocking until one is available.
+     *
+     * @return the packet, or null once the segment is complete
+     */
+    MP4Packet receive() throws InterruptedException {
+        MP4Packet packet = packets.take();
+        return packet == END ? null : packet;
+    }
+}
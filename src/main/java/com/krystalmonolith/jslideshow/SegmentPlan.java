@@ -0,0 +1,102 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * The segment plan of a {@link ImageSource#streamed() streamed} source, built while its images
+ * are found: the same specs, in the same order, as
+ * {@link JCodecParallelEncoder#buildSegmentSpecs(int, int, int, int)} returns for the final image
+ * count, without knowing that count.
+ * <p>
+ * Each image's hold is planned once it has been found, and what follows the hold (a dissolve to
+ * the next image or the fade out) once it is known whether there is a next image, so the plan is
+ * at most one image ahead of discovery. Every image is used by the same number of segments
+ * whether or not it is the last one, {@link #usesPerImage()}, which is what lets images be
+ * evicted before the plan is complete.
+ * <p>
+ * {@link #hasNext()} throws {@link UncheckedIOException} if the source cannot be read.
+ */
+final class SegmentPlan implements Iterator<JCodecParallelEncoder.SegmentSpec> {
+
+    private final ImageSource images;
+    private final int holdFrames;
+    private final int transitionFrames;
+    private final int maxGopFrames;
+    private final Queue<JCodecParallelEncoder.SegmentSpec> planned = new ArrayDeque<>();
+    private int nextSegment;
+    private int nextImage;
+    private boolean done;
+
+    SegmentPlan(ImageSource images, int holdFrames, int transitionFrames, int maxGopFrames) {
+        this.images = images;
+        this.holdFrames = holdFrames;
+        this.transitionFrames = transitionFrames;
+        this.maxGopFrames = maxGopFrames;
+    }
+
+    /**
+     * Segments that use each image: its holds, and the transitions into and out of it.
+     */
+    int usesPerImage() {
+        return JCodecParallelEncoder.splitParts(holdFrames, maxGopFrames)
+                + 2 * JCodecParallelEncoder.splitParts(transitionFrames, maxGopFrames);
+    }
+
+    /**
+     * Segments planned so far.
+     */
+    int segments() {
+        return nextSegment;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (planned.isEmpty() && !done) {
+            try {
+                planNextImage();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return !planned.isEmpty();
+    }
+
+    @Override
+    public JCodecParallelEncoder.SegmentSpec next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return planned.remove();
+    }
+
+    /**
+     * Plan the transition into the next image and its hold, or the fade out after the last image.
+     */
+    private void planNextImage() throws IOException {
+        int image = nextImage;
+        if (image == 0) {
+            if (!images.exists(0)) {
+                throw new IOException("Image source is empty");
+            }
+            add(JCodecParallelEncoder.SegmentType.FADE_IN, 0, -1, transitionFrames);
+        } else if (images.exists(image)) {
+            add(JCodecParallelEncoder.SegmentType.DISSOLVE, image - 1, image, transitionFrames);
+        } else {
+            add(JCodecParallelEncoder.SegmentType.FADE_OUT, image - 1, -1, transitionFrames);
+            done = true;
+            return;
+        }
+        add(JCodecParallelEncoder.SegmentType.HOLD, image, -1, holdFrames);
+        nextImage++;
+    }
+
+    private void add(JCodecParallelEncoder.SegmentType type, int imageIndexA, int imageIndexB, int spanFrames) {
+        nextSegment = JCodecParallelEncoder.addSplit(planned, nextSegment, type, imageIndexA, imageIndexB,
+                spanFrames, maxGopFrames);
+    }
+}
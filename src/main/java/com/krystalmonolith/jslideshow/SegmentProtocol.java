@@ -0,0 +1,207 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Wire format between a coordinator ({@link RemoteSegmentEncoder}) and its segment workers
+ * ({@link SegmentWorkerServer}). All values are big-endian as written by {@link DataOutputStream}.
+ * <pre>
+ *   handshake  coordinator: MAGIC VERSION          worker: MAGIC VERSION slots
+ *   request    segmentIndex type imageIndexA imageIndexB frameCount firstFrame spanFrames
+ *              frameRate width height rate utf-transition ref(A) [ref(B) if imageIndexB &gt;= 0]
+ *   rate       DEFAULT_RATE | CONSTANT_QP qp | TARGET_BITRATE bitsPerSecond
+ *   ref        PATH utf-path | BYTES length bytes
+ *   response   packet* END_OF_SEGMENT | ERROR utf-message
+ *   packet     KEY_FRAME|INTER_FRAME length bytes | HELD_KEY_FRAME|HELD_INTER_FRAME duration length bytes
+ * </pre>
+ * A connection carries any number of requests, one at a time. Packets use the same framing as
+ * {@link SegmentCache} entries.
+ * <p>
+ * Workers may be reachable by anyone on their network, so a request is checked as it is read:
+ * image lengths, output size, frame rate and frame range must lie within the limits below, and a
+ * request outside them is refused before anything is allocated for it.
+ */
+final class SegmentProtocol {
+
+    static final int MAGIC = 0x4A53574B; // "JSWK"
+    static final int VERSION = 3;
+
+    static final byte END_OF_SEGMENT = 0;
+    static final byte KEY_FRAME = 1;
+    static final byte INTER_FRAME = 2;
+    static final byte ERROR = 3;
+    static final byte HELD_KEY_FRAME = 4;
+    static final byte HELD_INTER_FRAME = 5;
+
+    static final byte PATH = 0;
+    static final byte BYTES = 1;
+
+    static final byte DEFAULT_RATE = 0;
+    static final byte CONSTANT_QP = 1;
+    static final byte TARGET_BITRATE = 2;
+
+    /**
+     * Largest encoded image sent as bytes
+     */
+    static final int MAX_IMAGE_BYTES = 256 << 20;
+
+    /**
+     * Largest output width or height
+     */
+    static final int MAX_DIMENSION = 16384;
+
+    /**
+     * Highest frame rate
+     */
+    static final int MAX_FRAME_RATE = 1000;
+
+    /**
+     * Longest span of frames a segment may be part of
+     */
+    static final int MAX_SPAN_FRAMES = 1 << 24;
+
+    private SegmentProtocol() {
+    }
+
+    /**
+     * An image as sent to a worker: a path the worker reads itself, or the encoded image.
+     */
+    record ImageRef(Path path, byte[] bytes) {
+
+        static ImageRef of(Path path) {
+            return new ImageRef(path.toAbsolutePath(), null);
+        }
+
+        static ImageRef of(byte[] bytes) {
+            return new ImageRef(null, bytes);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            if (path != null) {
+                out.writeByte(PATH);
+                out.writeUTF(path.toString());
+            } else {
+                out.writeByte(BYTES);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        static ImageRef read(DataInputStream in) throws IOException {
+            return switch (in.readByte()) {
+                case PATH -> of(Path.of(in.readUTF()));
+                case BYTES -> {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_IMAGE_BYTES) {
+                        throw new IOException("Invalid image length " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    yield of(bytes);
+                }
+                default -> throw new IOException("Unknown image reference kind");
+            };
+        }
+    }
+
+    /**
+     * One segment to encode, with the settings it is encoded at; the transition goes by its
+     * {@link Transition#name() name}.
+     */
+    record Request(JCodecParallelEncoder.SegmentSpec spec, int frameRate, int width, int height,
+                   RateMode rate, String transition, ImageRef imageA, ImageRef imageB) {
+
+        /**
+         * A request rendering any transition as a dissolve.
+         */
+        Request(JCodecParallelEncoder.SegmentSpec spec, int frameRate, int width, int height,
+                RateMode rate, ImageRef imageA, ImageRef imageB) {
+            this(spec, frameRate, width, height, rate, Transition.DISSOLVE.name(), imageA, imageB);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(spec.segmentIndex());
+            out.writeByte(spec.type().ordinal());
+            out.writeInt(spec.imageIndexA());
+            out.writeInt(spec.imageIndexB());
+            out.writeInt(spec.frameCount());
+            out.writeInt(spec.firstFrame());
+            out.writeInt(spec.spanFrames());
+            out.writeInt(frameRate);
+            out.writeInt(width);
+            out.writeInt(height);
+            switch (rate) {
+                case null -> out.writeByte(DEFAULT_RATE);
+                case RateMode.ConstantQp qp -> {
+                    out.writeByte(CONSTANT_QP);
+                    out.writeInt(qp.qp());
+                }
+                case RateMode.TargetBitrate bitrate -> {
+                    out.writeByte(TARGET_BITRATE);
+                    out.writeLong(bitrate.bitsPerSecond());
+                }
+            }
+            out.writeUTF(transition);
+            imageA.write(out);
+            if (spec.imageIndexB() >= 0) {
+                imageB.write(out);
+            }
+            out.flush();
+        }
+
+        /**
+         * @throws java.io.EOFException if the coordinator closed the connection between requests
+         * @throws IOException          if the request is malformed or outside the protocol's limits
+         */
+        static Request read(DataInputStream in) throws IOException {
+            int segmentIndex = in.readInt();
+            int type = in.readByte();
+            if (type < 0 || type >= JCodecParallelEncoder.SegmentType.values().length) {
+                throw new IOException("Unknown segment type " + type);
+            }
+            var spec = new JCodecParallelEncoder.SegmentSpec(segmentIndex,
+                    JCodecParallelEncoder.SegmentType.values()[type],
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            int frameRate = in.readInt();
+            int width = in.readInt();
+            int height = in.readInt();
+            check(spec, frameRate, width, height);
+            RateMode rate;
+            try {
+                rate = switch (in.readByte()) {
+                    case DEFAULT_RATE -> null;
+                    case CONSTANT_QP -> RateMode.constantQp(in.readInt());
+                    case TARGET_BITRATE -> RateMode.targetBitrate(in.readLong());
+                    default -> throw new IOException("Unknown rate mode");
+                };
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid rate mode: " + e.getMessage());
+            }
+            String transition = in.readUTF();
+            ImageRef imageA = ImageRef.read(in);
+            ImageRef imageB = spec.imageIndexB() >= 0 ? ImageRef.read(in) : null;
+            return new Request(spec, frameRate, width, height, rate, transition, imageA, imageB);
+        }
+
+        private static void check(JCodecParallelEncoder.SegmentSpec spec, int frameRate, int width, int height)
+                throws IOException {
+            if (spec.segmentIndex() < 0 || spec.imageIndexA() < 0 || spec.imageIndexB() < -1) {
+                throw new IOException("Invalid segment or image index");
+            }
+            if (spec.frameCount() < 1 || spec.firstFrame() < 0 || spec.spanFrames() > MAX_SPAN_FRAMES
+                    || (long) spec.firstFrame() + spec.frameCount() > spec.spanFrames()) {
+                throw new IOException("Invalid frame range " + spec.firstFrame() + "+" + spec.frameCount()
+                        + " of " + spec.spanFrames());
+            }
+            if (frameRate < 1 || frameRate > MAX_FRAME_RATE) {
+                throw new IOException("Invalid frame rate " + frameRate);
+            }
+            if (width < 1 || height < 1 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+                throw new IOException("Invalid output size " + width + "x" + height);
+            }
+        }
+    }
+}
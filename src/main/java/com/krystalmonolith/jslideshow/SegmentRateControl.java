@@ -0,0 +1,147 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.encode.DumbRateControl;
+import org.jcodec.codecs.h264.encode.RateControl;
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.model.Size;
+
+import java.util.Arrays;
+
+/**
+ * JCodec {@link RateControl} implementing a {@link RateMode}, reconfigured by its worker at the
+ * start of every segment.
+ * <p>
+ * JCodec calls {@link #startPicture} for the base QP of each frame and {@link #accept} with the
+ * bits of each macroblock; a non-zero return re-encodes that macroblock with the QP moved by that
+ * much, and the change carries over to the rest of the frame. Without a mode everything goes to a
+ * {@link DumbRateControl}, JCodec's default, so output is unchanged.
+ */
+final class SegmentRateControl implements RateControl {
+
+    /**
+     * Share of a key interval's bit budget given to its keyframe, in frames
+     */
+    static final int KEY_FRAME_WEIGHT = 4;
+
+    /**
+     * Lowest QP target bitrate mode goes down to
+     */
+    private static final int MIN_QP = 12;
+
+    /**
+     * QP a segment's first keyframe starts from in target bitrate mode (JCodec's P-frame default)
+     */
+    private static final int INITIAL_QP = 26;
+
+    /**
+     * Most the predicted QP moves from one frame to the next
+     */
+    private static final int MAX_QP_STEP = 6;
+
+    /**
+     * A frame's running size may exceed its share of the budget by this factor before QP is raised
+     */
+    private static final double OVERSHOOT = 1.25;
+
+    private final DumbRateControl defaultControl = new DumbRateControl();
+    private RateMode mode;
+    private double frameBits;
+
+    // target bitrate state, reset per segment; arrays are indexed by frame kind, 0 keyframe and 1 P-frame
+    private final int[] nextQp = new int[2];
+    private final boolean[] seen = new boolean[2];
+    private boolean inFrame;
+    private int frameKind;
+    private int frameQp;
+    private double targetBits;
+    private double bitsPerMb;
+    private long spentBits;
+    private int macroblocks;
+    private boolean justRaised;
+
+    /**
+     * Use {@code mode} from the next frame on, forgetting everything learned from earlier frames.
+     *
+     * @param mode      rate mode, or null for JCodec's default
+     * @param frameRate frames per second, to turn a bitrate into a budget per frame
+     */
+    void startSegment(RateMode mode, int frameRate) {
+        this.mode = mode;
+        if (mode instanceof RateMode.TargetBitrate bitrate) {
+            frameBits = (double) bitrate.bitsPerSecond() / frameRate;
+        }
+        nextQp[0] = INITIAL_QP;
+        nextQp[1] = INITIAL_QP;
+        Arrays.fill(seen, false);
+        inFrame = false;
+    }
+
+    @Override
+    public int startPicture(Size size, int maxSize, SliceType sliceType) {
+        return switch (mode) {
+            case null -> defaultControl.startPicture(size, maxSize, sliceType);
+            case RateMode.ConstantQp constant -> constant.qp();
+            case RateMode.TargetBitrate ignored -> startBudgetedPicture(size, sliceType);
+        };
+    }
+
+    private int startBudgetedPicture(Size size, SliceType sliceType) {
+        if (inFrame) {
+            frameDone();
+        }
+        frameKind = sliceType == SliceType.I ? 0 : 1;
+        int interval = EncoderContext.KEY_INTERVAL;
+        targetBits = frameKind == 0 ? frameBits * KEY_FRAME_WEIGHT
+                : frameBits * (interval - KEY_FRAME_WEIGHT) / (interval - 1);
+        int mbs = ((size.getWidth() + 15) >> 4) * ((size.getHeight() + 15) >> 4);
+        bitsPerMb = targetBits / mbs;
+        spentBits = 0;
+        macroblocks = 0;
+        justRaised = false;
+        if (frameKind == 1 && !seen[1]) {
+            // the first P-frame of a segment starts a little coarser than the keyframe before it
+            nextQp[1] = Math.min(RateMode.MAX_QP, nextQp[0] + 2);
+        }
+        frameQp = nextQp[frameKind];
+        inFrame = true;
+        return frameQp;
+    }
+
+    /**
+     * Predict the next QP for the finished frame's kind: about 6 QP per doubling of size.
+     */
+    private void frameDone() {
+        double ratio = Math.max(spentBits, 1) / targetBits;
+        int step = (int) Math.round(6 * Math.log(ratio) / Math.log(2));
+        step = Math.max(-MAX_QP_STEP, Math.min(MAX_QP_STEP, step));
+        nextQp[frameKind] = Math.max(MIN_QP, Math.min(RateMode.MAX_QP, frameQp + step));
+        seen[frameKind] = true;
+        inFrame = false;
+    }
+
+    @Override
+    public int initialQpDelta() {
+        return mode == null ? defaultControl.initialQpDelta() : 0;
+    }
+
+    @Override
+    public int accept(int bits) {
+        if (mode == null) {
+            return defaultControl.accept(bits);
+        }
+        if (!(mode instanceof RateMode.TargetBitrate)) {
+            return 0;
+        }
+        if (!justRaised && frameQp < RateMode.MAX_QP
+                && spentBits + bits > (macroblocks + 1) * bitsPerMb * OVERSHOOT) {
+            // over budget so far: redo this macroblock, and the rest of the frame, one QP coarser
+            frameQp++;
+            justRaised = true;
+            return 1;
+        }
+        spentBits += bits;
+        macroblocks++;
+        justRaised = false;
+        return 0;
+    }
+}
@@ -0,0 +1,188 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.Serial;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs segment encodes on a dedicated worker pool with a bounded in-flight window.
+ * <p>
+ * Segments are submitted in plan order and picked up by whichever worker is free, so a slow
+ * DISSOLVE never holds back the start of the next segment. A window slot is taken per submitted
+ * segment and returned only once the muxer has written that segment: when the head segment is
+ * slow, finished segments queue up behind it until the window is full, and submission (and with
+ * it image loading) pauses until the muxer catches up.
+ */
+final class SegmentScheduler implements AutoCloseable {
+
+    /**
+     * A unit of work that may throw a checked exception.
+     */
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private final ExecutorService workers;
+    private final Window window;
+    private int windowSize;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    /**
+     * @param workerCount number of encoder threads
+     * @param windowSize  maximum segments submitted but not yet muxed
+     */
+    SegmentScheduler(int workerCount, int windowSize) {
+        this(Executors.newFixedThreadPool(workerCount, Thread.ofPlatform().name("segment-encoder-", 1).factory()),
+                windowSize);
+    }
+
+    /**
+     * Run on an executor owned by this scheduler from now on, such as a {@link SharedWorkerPool.Lane};
+     * it is shut down with the scheduler.
+     *
+     * @param windowSize maximum segments submitted but not yet muxed
+     */
+    SegmentScheduler(ExecutorService workers, int windowSize) {
+        this.workers = workers;
+        this.window = new Window(windowSize);
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Block until a window slot is free, then claim it.
+     *
+     * @throws Exception the first failure reported by a worker or the muxer
+     */
+    void awaitSlot() throws Exception {
+        window.acquire();
+        throwIfFailed();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * Run a task on the worker pool. A task that throws fails the whole run.
+     * Tasks submitted after a failure are dropped.
+     */
+    void submit(Task task) {
+        if (failure.get() != null) {
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                if (failure.get() != null) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    fail(e);
+                } catch (Error e) {
+                    fail(new ExecutionException(e));
+                    throw e;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the pool was shut down by a concurrent failure
+            if (failure.get() == null) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Return the slot of a segment the muxer has written.
+     */
+    void segmentWritten() {
+        inFlight.decrementAndGet();
+        window.release();
+    }
+
+    /**
+     * Change the window size. Growing it lets waiting submissions proceed at once; shrinking it
+     * takes effect as segments in flight are written.
+     */
+    synchronized void resizeWindow(int size) {
+        if (size < 1) throw new IllegalArgumentException("size must be >= 1");
+        if (size > windowSize) {
+            window.release(size - windowSize);
+        } else if (size < windowSize) {
+            window.reducePermits(windowSize - size);
+        }
+        windowSize = size;
+    }
+
+    synchronized int windowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Largest number of segments that were submitted but not yet muxed at the same time.
+     */
+    int peakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Record a failure (only the first is kept), wake the submitting thread and interrupt the
+     * workers, which may be blocked handing packets to a muxer that is no longer reading.
+     */
+    void fail(Exception e) {
+        if (failure.compareAndSet(null, e)) {
+            // enough permits to wake every waiter even after the window was shrunk
+            window.release(windowSize() + inFlight.get());
+            workers.shutdownNow();
+        }
+    }
+
+    boolean hasFailed() {
+        return failure.get() != null;
+    }
+
+    void throwIfFailed() throws Exception {
+        Exception e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Stop accepting work and wait for every submitted segment to finish encoding.
+     */
+    void awaitWorkers() throws InterruptedException {
+        workers.shutdown();
+        while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            // keep waiting; large segments at high resolution can take a while
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Window slots; a semaphore whose size can also be reduced.
+     */
+    private static final class Window extends Semaphore {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Window(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
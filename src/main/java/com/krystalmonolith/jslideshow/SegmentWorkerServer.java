@@ -0,0 +1,263 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Worker side of distributed encoding: encodes the segments a coordinator sends over
+ * {@link SegmentProtocol} and streams the packets back.
+ * <p>
+ * Each connection is served by its own thread, one request at a time; at most {@code slots}
+ * segments are encoded at once, however many connections are open. Images referenced by path
+ * are read from this machine's file system, so the coordinator's paths must be valid here too
+ * (e.g. a shared mount). The last few decoded images are kept, because the hold segment of an
+ * image and the transitions on either side of it tend to arrive close together.
+ * <p>
+ * Coordinators are not authenticated, so a path is only read if it lies under one of the image
+ * roots the worker was started with, after resolving symbolic links; any other path is refused
+ * without touching the file system. Without image roots, images must be sent as bytes. A
+ * malformed request is answered with an error and ends its connection.
+ */
+final class SegmentWorkerServer implements AutoCloseable {
+
+    /**
+     * Decoded images kept for reuse by later requests
+     */
+    private static final int DECODED_IMAGES = 4;
+
+    private final ServerSocket server;
+    private final int slots;
+    private final List<Path> imageRoots;
+    private final List<Path> realImageRoots;
+    private final Semaphore encoding;
+    private final Thread acceptor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder segmentsEncoded = new LongAdder();
+    private final Map<String, Picture> decoded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Picture> eldest) {
+            return size() > DECODED_IMAGES;
+        }
+    };
+
+    /**
+     * Start listening.
+     *
+     * @param address    address to bind; port 0 picks a free port
+     * @param slots      segments encoded at the same time
+     * @param imageRoots directories images may be read from by path; empty to accept images as bytes only
+     * @throws IOException if an image root does not exist or the address cannot be bound
+     */
+    SegmentWorkerServer(InetSocketAddress address, int slots, List<Path> imageRoots) throws IOException {
+        if (slots < 1) throw new IllegalArgumentException("slots must be >= 1");
+        this.slots = slots;
+        this.imageRoots = new ArrayList<>();
+        this.realImageRoots = new ArrayList<>();
+        for (Path root : imageRoots) {
+            this.imageRoots.add(root.toAbsolutePath().normalize());
+            this.realImageRoots.add(root.toRealPath());
+        }
+        this.encoding = new Semaphore(slots);
+        this.server = new ServerSocket();
+        server.bind(address);
+        this.acceptor = Thread.ofPlatform().name("segment-worker-accept").daemon().start(this::accept);
+    }
+
+    /**
+     * Bound address, with the actual port.
+     */
+    InetSocketAddress address() {
+        return (InetSocketAddress) server.getLocalSocketAddress();
+    }
+
+    long segmentsEncoded() {
+        return segmentsEncoded.sum();
+    }
+
+    private void accept() {
+        var connectionThreads = Thread.ofPlatform().name("segment-worker-", 1).daemon();
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.add(socket);
+                connectionThreads.start(() -> serve(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            if (in.readInt() != SegmentProtocol.MAGIC) {
+                return;
+            }
+            int version = in.readInt();
+            out.writeInt(SegmentProtocol.MAGIC);
+            out.writeInt(SegmentProtocol.VERSION);
+            out.writeInt(slots);
+            out.flush();
+            if (version != SegmentProtocol.VERSION) {
+                return;
+            }
+            while (true) {
+                SegmentProtocol.Request request;
+                try {
+                    request = SegmentProtocol.Request.read(in);
+                } catch (EOFException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    // the rest of the stream cannot be framed any more: report and hang up
+                    out.writeByte(SegmentProtocol.ERROR);
+                    out.writeUTF("Malformed request: " + e.getMessage());
+                    out.flush();
+                    return;
+                }
+                encoding.acquire();
+                try {
+                    encode(request, out);
+                } finally {
+                    encoding.release();
+                }
+            }
+        } catch (IOException | UncheckedIOException | InterruptedException e) {
+            // coordinator went away or the server is closing; it retries elsewhere
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Encode one segment and stream its packets, or report why it could not be encoded.
+     * A failure to write to the coordinator ends the connection.
+     */
+    private void encode(SegmentProtocol.Request request, DataOutputStream out)
+            throws IOException, InterruptedException {
+        var spec = request.spec();
+        Transition transition = Transition.named(request.transition());
+        if (transition == null) {
+            out.writeByte(SegmentProtocol.ERROR);
+            out.writeUTF("Unknown transition " + request.transition());
+            out.flush();
+            return;
+        }
+        Map<Integer, Picture> images = new HashMap<>();
+        try {
+            images.put(spec.imageIndexA(), load(request.imageA(), request.width(), request.height()));
+            if (spec.imageIndexB() >= 0) {
+                images.put(spec.imageIndexB(), load(request.imageB(), request.width(), request.height()));
+            }
+        } catch (IOException | RuntimeException e) {
+            out.writeByte(SegmentProtocol.ERROR);
+            out.writeUTF(String.valueOf(e.getMessage()));
+            out.flush();
+            return;
+        }
+        JCodecParallelEncoder.PacketSink sink = packet -> {
+            try {
+                byte[] bytes = new byte[packet.getData().remaining()];
+                packet.getData().duplicate().get(bytes);
+                if (packet.getDuration() == 1) {
+                    out.writeByte(packet.isKeyFrame() ? SegmentProtocol.KEY_FRAME : SegmentProtocol.INTER_FRAME);
+                } else {
+                    out.writeByte(packet.isKeyFrame() ? SegmentProtocol.HELD_KEY_FRAME
+                            : SegmentProtocol.HELD_INTER_FRAME);
+                    out.writeInt((int) packet.getDuration());
+                }
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        JCodecParallelEncoder.encodeOneSegment(spec, images, request.frameRate(), 1, request.rate(), transition, sink,
+                RunStats.NONE);
+        segmentsEncoded.increment();
+        out.writeByte(SegmentProtocol.END_OF_SEGMENT);
+        out.flush();
+    }
+
+    private Picture load(SegmentProtocol.ImageRef ref, int width, int height) throws IOException {
+        if (ref.path() == null) {
+            return ImagePrefetcher.load(new ImageSource.SourceImage("image", ref.bytes(), null), width, height,
+                    RunStats.NONE);
+        }
+        Path path = allowedPath(ref.path());
+        // keyed by size and modification time too, so an edited file is decoded afresh
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path + "|" + attributes.size() + "|" + attributes.lastModifiedTime().toMillis()
+                + "|" + width + "x" + height;
+        synchronized (decoded) {
+            Picture picture = decoded.get(key);
+            if (picture != null) {
+                return picture;
+            }
+        }
+        Picture picture = ImagePrefetcher.load(
+                new ImageSource.SourceImage(path.getFileName().toString(), Files.readAllBytes(path), null),
+                width, height, RunStats.NONE);
+        synchronized (decoded) {
+            decoded.put(key, picture);
+        }
+        return picture;
+    }
+
+    /**
+     * The real path of an image the coordinator referenced, if it lies under an image root.
+     * Paths outside every root are refused before the file system is asked about them, so a
+     * peer cannot probe for files elsewhere.
+     *
+     * @throws IOException if the path is not under an image root, also once links are resolved
+     */
+    private Path allowedPath(Path requested) throws IOException {
+        Path path = requested.normalize();
+        if (path.isAbsolute() && imageRoots.stream().anyMatch(path::startsWith)) {
+            Path real = path.toRealPath();
+            if (realImageRoots.stream().anyMatch(real::startsWith)) {
+                return real;
+            }
+        }
+        throw new IOException(imageRoots.isEmpty() ? "This worker only accepts images sent as bytes"
+                : "Image path is not under an image root of this worker: " + requested);
+    }
+
+    /**
+     * Stop listening and drop every connection; segments being encoded are abandoned.
+     */
+    @Override
+    public void close() throws IOException, InterruptedException {
+        server.close();
+        for (Socket socket : connections) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        acceptor.join();
+    }
+}
@@ -0,0 +1,250 @@
+package com.krystalmonolith.jslideshow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One pool of encoder threads shared by every job of a long-running server.
+ * <p>
+ * Each job submits its segments to its own {@link Lane}. Idle workers take the next task from
+ * the lanes in round-robin order, so concurrent jobs get an equal share of the pool at segment
+ * granularity however many segments each one has queued, and a job that starts later does not
+ * wait for earlier ones to drain. Worker threads outlive jobs, so their JIT-compiled code and
+ * per-thread {@link EncoderContext}s stay warm between jobs.
+ */
+final class SharedWorkerPool implements AutoCloseable {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+    private final List<Thread> threads;
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    private final LongAdder tasksCompleted = new LongAdder();
+    private boolean closed;
+
+    /**
+     * @param workerCount number of encoder threads
+     */
+    SharedWorkerPool(int workerCount) {
+        if (workerCount < 1) throw new IllegalArgumentException("workerCount must be >= 1");
+        List<Thread> started = new ArrayList<>(workerCount);
+        var factory = Thread.ofPlatform().name("shared-encoder-", 1).daemon().factory();
+        for (int i = 0; i < workerCount; i++) {
+            Thread thread = factory.newThread(this::work);
+            thread.start();
+            started.add(thread);
+        }
+        this.threads = List.copyOf(started);
+    }
+
+    /**
+     * A new lane for one job's tasks.
+     */
+    Lane newLane() {
+        return new Lane();
+    }
+
+    int workerCount() {
+        return threads.size();
+    }
+
+    /**
+     * Workers currently running a task.
+     */
+    int busyWorkers() {
+        return busyWorkers.get();
+    }
+
+    /**
+     * Tasks waiting in all lanes.
+     */
+    int queuedTasks() {
+        lock.lock();
+        try {
+            return ready.stream().mapToInt(lane -> lane.queue.size()).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long tasksCompleted() {
+        return tasksCompleted.sum();
+    }
+
+    private void work() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            Lane lane;
+            Runnable task;
+            lock.lock();
+            try {
+                while (ready.isEmpty() && !closed) {
+                    workAvailable.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                lane = ready.pollFirst();
+                task = lane.queue.pollFirst();
+                if (!lane.queue.isEmpty()) {
+                    // back of the line, behind every other lane with work
+                    ready.addLast(lane);
+                }
+                lane.running.add(self);
+            } finally {
+                lock.unlock();
+            }
+
+            busyWorkers.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                // the task's owner records its failures; the shared worker carries on
+            } finally {
+                busyWorkers.decrementAndGet();
+                tasksCompleted.increment();
+                lock.lock();
+                try {
+                    lane.running.remove(self);
+                    // a cancelled lane may have interrupted this thread; don't carry it into the next task
+                    Thread.interrupted();
+                    if (lane.isTerminated()) {
+                        lane.terminated.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop all workers. Queued tasks are dropped and running ones interrupted.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            ready.clear();
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        threads.forEach(Thread::interrupt);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * The executor one job submits to. Shutting it down affects only this job's tasks:
+     * {@link #shutdownNow()} drops its queued tasks and interrupts the workers running its
+     * tasks, which is how a job is cancelled.
+     */
+    final class Lane extends AbstractExecutorService {
+
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private final Set<Thread> running = new HashSet<>();
+        private final Condition terminated = lock.newCondition();
+        private boolean shutdown;
+
+        private Lane() {
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            lock.lock();
+            try {
+                if (shutdown || closed) {
+                    throw new RejectedExecutionException("lane is shut down");
+                }
+                queue.addLast(task);
+                if (queue.size() == 1) {
+                    ready.addLast(this);
+                    workAvailable.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            lock.lock();
+            try {
+                shutdown = true;
+                if (isTerminated()) {
+                    terminated.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            lock.lock();
+            try {
+                shutdown = true;
+                List<Runnable> dropped = new ArrayList<>(queue);
+                queue.clear();
+                ready.remove(this);
+                running.forEach(Thread::interrupt);
+                if (isTerminated()) {
+                    terminated.signalAll();
+                }
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            lock.lock();
+            try {
+                return shutdown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            lock.lock();
+            try {
+                return shutdown && queue.isEmpty() && running.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!isTerminated()) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = terminated.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
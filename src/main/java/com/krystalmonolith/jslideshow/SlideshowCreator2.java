@@ -1,11 +1,17 @@
 package com.krystalmonolith.jslideshow;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 
 /**
  * Creates a video slideshow from JPG images using parallel encoding
@@ -26,6 +32,10 @@ public class SlideshowCreator2 {
      * Default frames per second
      */
     public static final int DEFAULT_FRAME_RATE = 30;
+    /**
+     * Default number of images whose headers size the output of a streamed run
+     */
+    public static final int DEFAULT_SAMPLE_IMAGES = 16;
 
     /**
      * seconds per image
@@ -39,6 +49,74 @@ public class SlideshowCreator2 {
      * frames per second
      */
     private final int frameRate;
+    /**
+     * maximum frames per independently encoded GOP, 0 for no limit
+     */
+    private int maxGopFrames;
+    /**
+     * images decoded ahead of the encoders
+     */
+    private int prefetchImages = JCodecParallelEncoder.DEFAULT_PREFETCH_IMAGES;
+    /**
+     * maximum output width and height, 0 for no limit
+     */
+    private int maxOutputWidth;
+    private int maxOutputHeight;
+    /**
+     * encoded segment cache directory (null when off) and its size limit in bytes
+     */
+    private Path segmentCacheDirectory;
+    private long segmentCacheBytes;
+    /**
+     * output container format
+     */
+    private OutputFormat outputFormat = OutputFormat.MP4;
+    /**
+     * JSON run report file, null for none
+     */
+    private Path reportFile;
+    /**
+     * heap budget in bytes, 0 for none
+     */
+    private long maxMemoryBytes;
+    /**
+     * rate modes of holds and of transitions, null for JCodec's default
+     */
+    private RateMode holdRate;
+    private RateMode transitionRate;
+    /**
+     * decode encoded frames to report their PSNR
+     */
+    private boolean measureQuality;
+    /**
+     * render a quick low resolution preview with the final timing
+     */
+    private boolean preview;
+    /**
+     * transition between images and from and to black
+     */
+    private Transition transitionStyle = Transition.DISSOLVE;
+    /**
+     * off-heap image spill directory (null when images stay on the heap) and native memory limit in bytes
+     */
+    private Path frameStoreDirectory;
+    private long frameStoreBytes;
+    /**
+     * segment workers to encode on, null to encode locally
+     */
+    private List<InetSocketAddress> remoteWorkers;
+    /**
+     * hand images to the encoder as they are found instead of listing and scanning them all first
+     */
+    private boolean streamInput;
+    /**
+     * include images in subdirectories
+     */
+    private boolean recursive;
+    /**
+     * images whose headers size a streamed run's output when the maximum size does not fix it
+     */
+    private int sampleImages = DEFAULT_SAMPLE_IMAGES;
 
     /**
      * Default Constructor using default values.
@@ -67,22 +145,204 @@ public class SlideshowCreator2 {
         this.frameRate = frameRate;
     }
 
+    /**
+     * Limit the length of each independently encoded GOP so long holds and transitions
+     * are split and encoded in parallel.
+     *
+     * @param maxGopFrames maximum frames per GOP, or 0 for no limit
+     * @throws IllegalArgumentException if maxGopFrames is negative
+     */
+    public void setMaxGopFrames(int maxGopFrames) {
+        if (maxGopFrames < 0) throw new IllegalArgumentException("maxGopFrames must be >= 0");
+        this.maxGopFrames = maxGopFrames;
+    }
+
+    /**
+     * Set how many upcoming images are read and decoded in the background ahead of the encoders.
+     *
+     * @param prefetchImages images decoded ahead, or 0 to decode on demand
+     * @throws IllegalArgumentException if prefetchImages is negative
+     */
+    public void setPrefetchImages(int prefetchImages) {
+        if (prefetchImages < 0) throw new IllegalArgumentException("prefetchImages must be >= 0");
+        this.prefetchImages = prefetchImages;
+    }
+
+    /**
+     * Cap the output resolution; larger images are scaled down to fit, preserving aspect ratio.
+     *
+     * @param maxOutputWidth  maximum output width, or 0 for no limit
+     * @param maxOutputHeight maximum output height, or 0 for no limit
+     * @throws IllegalArgumentException if either limit is negative
+     */
+    public void setMaxOutputSize(int maxOutputWidth, int maxOutputHeight) {
+        if (maxOutputWidth < 0) throw new IllegalArgumentException("maxOutputWidth must be >= 0");
+        if (maxOutputHeight < 0) throw new IllegalArgumentException("maxOutputHeight must be >= 0");
+        this.maxOutputWidth = maxOutputWidth;
+        this.maxOutputHeight = maxOutputHeight;
+    }
+
+    /**
+     * Reuse unchanged encoded segments across runs from an on-disk cache.
+     *
+     * @param directory cache directory, or null to disable caching
+     * @param maxBytes  cache size limit; least recently used segments are evicted beyond it
+     * @throws IllegalArgumentException if caching is enabled with a non-positive size limit
+     */
+    public void setSegmentCache(Path directory, long maxBytes) {
+        if (directory != null && maxBytes <= 0) throw new IllegalArgumentException("maxBytes must be > 0");
+        this.segmentCacheDirectory = directory;
+        this.segmentCacheBytes = maxBytes;
+    }
+
+    /**
+     * Select the output container: a regular MP4, a fragmented MP4, or an HLS playlist with
+     * fMP4 media segments written next to it.
+     *
+     * @param outputFormat output format
+     * @throws IllegalArgumentException if outputFormat is null
+     */
+    public void setOutputFormat(OutputFormat outputFormat) {
+        if (outputFormat == null) throw new IllegalArgumentException("outputFormat must not be null");
+        this.outputFormat = outputFormat;
+    }
+
+    /**
+     * Write a JSON performance report (per-stage times, throughput, cache hit rates) after encoding.
+     *
+     * @param reportFile report file, or null for no report
+     */
+    public void setReport(Path reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * Fit encoding into a heap budget: encoder threads (up to the batch size), segments in flight and
+     * prefetch depth are chosen from estimated per-image and per-segment memory at the output size.
+     *
+     * @param maxMemoryBytes budget in bytes, or 0 for none
+     * @throws IllegalArgumentException if maxMemoryBytes is negative
+     */
+    public void setMaxMemory(long maxMemoryBytes) {
+        if (maxMemoryBytes < 0) throw new IllegalArgumentException("maxMemoryBytes must be >= 0");
+        this.maxMemoryBytes = maxMemoryBytes;
+    }
+
+    /**
+     * Rate control hold segments (each image's keyframe) at a constant QP or a target bitrate.
+     *
+     * @param mode rate mode, or null for JCodec's default rate control
+     */
+    public void setHoldRateMode(RateMode mode) {
+        this.holdRate = mode;
+    }
+
+    /**
+     * Rate control dissolve and fade segments at a constant QP or a target bitrate.
+     *
+     * @param mode rate mode, or null for JCodec's default rate control
+     */
+    public void setTransitionRateMode(RateMode mode) {
+        this.transitionRate = mode;
+    }
+
+    /**
+     * Report PSNR and bytes per segment type in the run report; costs one decode per encoded frame.
+     */
+    public void setMeasureQuality(boolean measureQuality) {
+        this.measureQuality = measureQuality;
+    }
+
+    /**
+     * Render a quick review video instead of the final one: the same timing, at low resolution and
+     * frame rate, from embedded EXIF thumbnails where possible. Generated output names end in
+     * {@code -preview}.
+     */
+    public void setPreview(boolean preview) {
+        this.preview = preview;
+    }
+
+    /**
+     * Render transitions with {@code transition} instead of dissolving; see {@link Transition#available()}.
+     */
+    public void setTransition(Transition transition) {
+        if (transition == null) throw new IllegalArgumentException("transition must not be null");
+        this.transitionStyle = transition;
+    }
+
+    /**
+     * Keep loaded images off the Java heap in native memory, spilling to memory-mapped temp files
+     * beyond {@code ramBytes}.
+     *
+     * @param spillDirectory directory for spill files, or null to keep images on the heap
+     * @param ramBytes       native memory for images before they spill
+     * @throws IllegalArgumentException if the store is enabled with a negative limit
+     */
+    public void setFrameStore(Path spillDirectory, long ramBytes) {
+        if (spillDirectory != null && ramBytes < 0) throw new IllegalArgumentException("ramBytes must be >= 0");
+        this.frameStoreDirectory = spillDirectory;
+        this.frameStoreBytes = ramBytes;
+    }
+
+    /**
+     * Encode segments on remote segment workers ({@code jslideshow worker}) instead of local threads.
+     * Workers must see the image files at the same paths as this process.
+     *
+     * @param remoteWorkers worker addresses, or null or empty to encode locally
+     */
+    public void setRemoteWorkers(List<InetSocketAddress> remoteWorkers) {
+        this.remoteWorkers = remoteWorkers;
+    }
+
+    /**
+     * Start encoding as soon as the first image is found, planning segments as further images are
+     * found, instead of listing every image and reading every header first. The output size is
+     * the maximum output size if both dimensions are set, otherwise the bounding box of the first
+     * sampled images capped by it; later images that are larger are scaled down to fit. Streamed
+     * runs do not use the segment cache.
+     */
+    public void setStreamInput(boolean streamInput) {
+        this.streamInput = streamInput;
+    }
+
+    /**
+     * Include images in subdirectories of the input directory. Each directory is listed in natural
+     * order ({@code img2.jpg} before {@code img10.jpg}), subdirectories where their name sorts.
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * Set how many images' headers size a streamed run's output when the maximum output size does
+     * not fix both dimensions.
+     *
+     * @param sampleImages images sampled; 0 requires a maximum width and height
+     * @throws IllegalArgumentException if sampleImages is negative
+     */
+    public void setSampleImages(int sampleImages) {
+        if (sampleImages < 0) throw new IllegalArgumentException("sampleImages must be >= 0");
+        this.sampleImages = sampleImages;
+    }
+
     /**
      * Generate output filename with timestamp in format: YYYYMMDD'T'hhmmss-output.mp4
-     * Example: 20240119T143052-output.mp4
+     * (or .m3u8 for HLS). Example: 20240119T143052-output.mp4
      *
      * @return time stamped output file name string
      */
-    private static String generateOutputFilename() {
+    private String generateOutputFilename() {
         var formatter = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
         var timestamp = LocalDateTime.now().format(formatter);
-        return "%s-output.mp4".formatted(timestamp);
+        return "%s-%s.%s".formatted(timestamp, preview ? "preview" : "output",
+                outputFormat == OutputFormat.HLS ? "m3u8" : "mp4");
     }
 
     /**
      * Make a slide show video using defaults for output filename and batch size.
      *
-     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files.
+     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files, or of a
+     *                      manifest file listing images one per line.
      * @throws Exception on error creating the video
      */
     public void createSlideshow(Path directoryPath) throws Exception {
@@ -93,7 +353,8 @@ public class SlideshowCreator2 {
     /**
      * Make a slide show video using a generated timestamped output filename.
      *
-     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files.
+     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files, or of a
+     *                      manifest file listing images one per line.
      * @param batchSize     parallel encoding batch size
      * @throws Exception on error creating the video
      */
@@ -104,20 +365,38 @@ public class SlideshowCreator2 {
     /**
      * Make a slide show video!
      *
-     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files.
-     * @param outputFile    the output MP4 file to write
+     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files, or of a
+     *                      manifest file listing images one per line.
+     * @param outputFile    the output MP4 file to write (the playlist for HLS)
      * @param batchSize     parallel encoding batch size
      * @throws Exception on error creating the video
      */
     public void createSlideshow(Path directoryPath, File outputFile, int batchSize) throws Exception {
         var startTime = System.currentTimeMillis();
 
-        var imageFiles = findImageFiles(directoryPath);
-
-        if (imageFiles.length == 0) {
-            throw new IllegalStateException("No .JPG or .jpg files found in: " + directoryPath);
+        try (ImageDiscovery discovery = streamInput ? discover(directoryPath) : null) {
+            ImageSource images;
+            if (discovery != null) {
+                images = streamedImages(discovery, directoryPath);
+            } else {
+                File[] imageFiles = listImageFiles(directoryPath);
+                if (imageFiles.length == 0) {
+                    throw new IllegalStateException("No .JPG or .jpg files found in: " + directoryPath);
+                }
+                images = ImageSource.ofFiles(imageFiles);
+            }
+            encode(images, directoryPath, outputFile, batchSize);
         }
 
+        var endTime = System.currentTimeMillis();
+        var elapsedSeconds = (endTime - startTime) / 1000.0;
+
+        System.out.println();
+        System.out.printf("Success! Created %s (%s)%n", outputFile.getPath(), humanReadableSize(outputFile.length()));
+        System.out.printf("Total processing time: %.2f seconds%n", elapsedSeconds);
+    }
+
+    private void encode(ImageSource images, Path directoryPath, File outputFile, int batchSize) throws Exception {
         int holdFrames = (int) (duration * frameRate);
         int transitionFrames = (int) (transition * frameRate);
 
@@ -135,21 +414,89 @@ public class SlideshowCreator2 {
                     transition, frameRate);
         }
 
-        System.out.printf("Processing directory: %s%n", directoryPath.toAbsolutePath());
-        System.out.printf("Found %d images%n", imageFiles.length);
+        System.out.printf("Processing %s: %s%n", Files.isDirectory(directoryPath) ? "directory" : "manifest",
+                directoryPath.toAbsolutePath());
+        if (images.streamed()) {
+            int[] size = images.dimensions();
+            System.out.printf("Streaming images at up to %dx%d (%s)%n", size[0], size[1],
+                    maxOutputWidth > 0 && maxOutputHeight > 0 ? "maximum size"
+                            : "size of the first " + sampleImages + " images");
+        } else {
+            System.out.printf("Found %d images%n", images.size());
+        }
         System.out.printf("Duration: %.2f seconds per image (%d hold frames @ %d fps)%n", duration, holdFrames, frameRate);
         System.out.printf("Transition: %.2f seconds (%d frames)%n", transition, transitionFrames);
         System.out.printf("Output file: %s%n%n", outputFile.getPath());
 
         JCodecParallelEncoder encoder = new JCodecParallelEncoder();
-        encoder.encode(imageFiles, holdFrames, transitionFrames, frameRate, outputFile, batchSize);
+        encoder.setMaxGopFrames(maxGopFrames);
+        encoder.setPrefetchImages(prefetchImages);
+        encoder.setMaxOutputSize(maxOutputWidth, maxOutputHeight);
+        encoder.setSegmentCache(segmentCacheDirectory, segmentCacheBytes);
+        encoder.setOutputFormat(outputFormat);
+        encoder.setReport(reportFile);
+        encoder.setRemoteWorkers(remoteWorkers);
+        encoder.setMaxMemory(maxMemoryBytes);
+        encoder.setFrameStore(frameStoreDirectory, frameStoreBytes);
+        encoder.setHoldRateMode(holdRate);
+        encoder.setTransitionRateMode(transitionRate);
+        encoder.setMeasureQuality(measureQuality);
+        encoder.setPreview(preview);
+        encoder.setTransition(transitionStyle);
+        encoder.encode(images, holdFrames, transitionFrames, frameRate, outputFile, batchSize);
+    }
 
-        var endTime = System.currentTimeMillis();
-        var elapsedSeconds = (endTime - startTime) / 1000.0;
+    /**
+     * Images found by walking a directory, or listed in a manifest file.
+     */
+    private ImageDiscovery discover(Path inputPath) throws IOException {
+        return Files.isRegularFile(inputPath) ? ImageDiscovery.manifest(inputPath)
+                : ImageDiscovery.directory(inputPath, recursive);
+    }
 
-        System.out.println();
-        System.out.printf("Success! Created %s (%s)%n", outputFile.getPath(), humanReadableSize(outputFile.length()));
-        System.out.printf("Total processing time: %.2f seconds%n", elapsedSeconds);
+    /**
+     * A streamed source over the discovered images, at the maximum output size or, unless that
+     * fixes both dimensions, the bounding box of the sampled images.
+     */
+    private ImageSource streamedImages(ImageDiscovery discovery, Path inputPath) throws IOException {
+        int[] size;
+        if (maxOutputWidth > 0 && maxOutputHeight > 0) {
+            size = new int[]{maxOutputWidth, maxOutputHeight};
+        } else if (sampleImages > 0) {
+            size = discovery.sampleDimensions(sampleImages);
+        } else {
+            throw new IllegalArgumentException(
+                    "Error: Streamed input needs a maximum output width and height, or sampled images to size the output.");
+        }
+        if (!hasNext(discovery)) {
+            throw new IllegalStateException("No .JPG or .jpg files found in: " + inputPath);
+        }
+        return ImageSource.ofFiles(discovery, size[0], size[1]);
+    }
+
+    /**
+     * Image files of the input, all listed before encoding starts: the directory's own images
+     * sorted by name, or with recursion or a manifest every discovered image.
+     */
+    private File[] listImageFiles(Path inputPath) throws IOException {
+        if (!recursive && Files.isDirectory(inputPath)) {
+            return findImageFiles(inputPath);
+        }
+        List<File> files = new ArrayList<>();
+        try (ImageDiscovery discovery = discover(inputPath)) {
+            discovery.forEachRemaining(files::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return files.toArray(File[]::new);
+    }
+
+    private static boolean hasNext(ImageDiscovery discovery) throws IOException {
+        try {
+            return discovery.hasNext();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
@@ -173,10 +520,11 @@ public class SlideshowCreator2 {
     /**
      * Locates all the image file(s) to be used as input.
      *
-     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files.
+     * @param directoryPath Path of a directory containing one or more *.JPG or *.jpg files, or of a
+     *                      manifest file listing images one per line.
      * @return an array of zero or more {@link File}
      */
-    private File[] findImageFiles(Path directoryPath) {
+    static File[] findImageFiles(Path directoryPath) {
         var dir = directoryPath.toFile();
         var files = dir.listFiles((_, name) ->
                 name.endsWith(".JPG") || name.endsWith(".jpg"));
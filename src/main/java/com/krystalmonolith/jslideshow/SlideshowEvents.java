@@ -0,0 +1,68 @@
+package com.krystalmonolith.jslideshow;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom JDK Flight Recorder events. They are disabled unless a recording enables them, e.g.
+ * {@code java -XX:StartFlightRecording=filename=run.jfr,settings=profile ...}, and cost one
+ * flag check per stage when off.
+ */
+final class SlideshowEvents {
+
+    private SlideshowEvents() {
+    }
+
+    /**
+     * One timed pipeline stage of one frame or image. Emitted when the stage ends; the elapsed
+     * time is a field because stages are timed with {@link System#nanoTime()} by {@link RunStats}
+     * rather than by the event itself.
+     */
+    @Name("com.krystalmonolith.jslideshow.Stage")
+    @Label("Slideshow Stage")
+    @Category({"JSlideshow"})
+    @Description("Time spent in one pipeline stage (decode, center, blend, color convert, encode, queue wait, mux)")
+    @StackTrace(false)
+    static final class StageEvent extends Event {
+
+        static final EventType TYPE = EventType.getEventType(StageEvent.class);
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+    }
+
+    /**
+     * One segment, from the start of its encode (or cache read) until its last packet was handed
+     * to the muxer.
+     */
+    @Name("com.krystalmonolith.jslideshow.Segment")
+    @Label("Slideshow Segment")
+    @Category({"JSlideshow"})
+    @Description("One independently encoded segment")
+    @StackTrace(false)
+    static final class SegmentEvent extends Event {
+
+        @Label("Segment Index")
+        int segmentIndex;
+
+        @Label("Type")
+        String type;
+
+        @Label("Frames")
+        int frames;
+
+        @Label("Source")
+        @Description("Encoded or Reused from the segment cache")
+        String source;
+    }
+}
@@ -0,0 +1,148 @@
+package com.krystalmonolith.jslideshow;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Spool directory front end of a {@link RenderServer}, watched with a {@link WatchService}.
+ * <p>
+ * Each {@code name.job} file dropped into the directory is a properties file describing one job
+ * (see {@link RenderServer.JobRequest#parse}); relative paths are resolved against the spool
+ * directory. It should be written under another name and renamed into place, so it is never read
+ * half written. An accepted job file is renamed to {@code name.job.accepted}, a rejected one to
+ * {@code name.job.rejected}, and {@code name.status.json} holds the reason for a rejection or the
+ * job's final status once it finishes. Job files already present at startup are picked up too.
+ * Errors scanning the directory or writing a status file go to a {@link ProgressListener}.
+ */
+final class SpoolWatcher implements AutoCloseable {
+
+    static final String JOB_SUFFIX = ".job";
+
+    private final RenderServer server;
+    private final Path directory;
+    private final ProgressListener listener;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    /**
+     * @param listener receives errors scanning the directory or writing status files
+     */
+    SpoolWatcher(RenderServer server, Path directory, ProgressListener listener) throws IOException {
+        this.server = server;
+        this.directory = directory.toAbsolutePath();
+        this.listener = listener;
+        this.watcher = directory.getFileSystem().newWatchService();
+        this.directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        scan();
+        this.thread = Thread.ofPlatform().name("spool-watcher").daemon().start(this::run);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean overflow = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                    } else if (event.context() instanceof Path name) {
+                        accept(directory.resolve(name));
+                    }
+                }
+                if (overflow) {
+                    scan();
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Submit every job file currently in the directory.
+     */
+    private void scan() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + JOB_SUFFIX)) {
+            for (Path file : files) {
+                accept(file);
+            }
+        } catch (IOException e) {
+            listener.message("Error scanning spool directory " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private void accept(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(JOB_SUFFIX) || !Files.isRegularFile(file)) {
+            return;
+        }
+        String base = name.substring(0, name.length() - JOB_SUFFIX.length());
+        Path status = directory.resolve(base + ".status.json");
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException e) {
+            // removed or renamed meanwhile (e.g. by an earlier event for the same file)
+            return;
+        }
+        try {
+            RenderServer.JobRequest request = RenderServer.JobRequest.parse(props, directory);
+            // claim the file first so a second event for it finds nothing
+            if (!move(file, directory.resolve(name + ".accepted"))) {
+                return;
+            }
+            server.submit(request, job -> writeStatus(status, job.toMap()));
+        } catch (IllegalArgumentException | RejectedExecutionException e) {
+            if (move(file, directory.resolve(name + ".rejected"))) {
+                writeStatus(status, Map.of("state", "rejected", "error", String.valueOf(e.getMessage())));
+            }
+        }
+    }
+
+    private static boolean move(Path from, Path to) {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void writeStatus(Path status, Map<String, ?> body) {
+        Path temp = status.resolveSibling(status.getFileName() + ".tmp");
+        try {
+            Files.writeString(temp, RunStats.toJson(body));
+            try {
+                Files.move(temp, status, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, status, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            listener.message("Error writing " + status + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        watcher.close();
+        thread.interrupt();
+        thread.join();
+    }
+}
@@ -0,0 +1,95 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * How one image gives way to the next, and how the show fades in from and out to black, rendered
+ * frame by frame on {@link ColorSpace#YUV420J} planes.
+ * <p>
+ * Frames are rendered into a destination picture owned by the calling worker and reused for every
+ * frame it encodes, so a transition allocates nothing per frame. Frame {@code i} of {@code n} may
+ * depend only on {@code i}, {@code n} and the two sources, never on earlier frames or on what the
+ * destination held before: a transition split by the maximum GOP length is rendered in parts, each
+ * starting mid-span on whichever worker encodes it. Implementations are shared by all workers and
+ * must be thread safe, which in practice means stateless.
+ * <p>
+ * A transition that leaves some frames unchanged says so through {@link #isStatic}; those frames
+ * are neither rendered nor encoded, the previous frame is just shown for longer.
+ * <p>
+ * Transitions are selected by {@link #name()}. Besides the built-in ones, implementations listed in
+ * {@code META-INF/services/com.krystalmonolith.jslideshow.Transition} on the class path are found
+ * through {@link ServiceLoader}; remote segment workers resolve transitions by name too, so they
+ * need the same implementations on their class path.
+ */
+public interface Transition {
+
+    /**
+     * Cross-dissolve between the images, and a fade from and to black at the start and end
+     */
+    Transition DISSOLVE = new DissolveTransition();
+
+    /**
+     * The next image (or black) wipes the previous one away from left to right
+     */
+    Transition WIPE = new WipeTransition();
+
+    /**
+     * Transitions available without a service provider
+     */
+    List<Transition> BUILT_IN = List.of(DISSOLVE, WIPE);
+
+    /**
+     * Name on the command line, in the run report, in segment cache keys and on the wire to workers.
+     */
+    String name();
+
+    /**
+     * Render frame {@code frame} of a transition {@code frames} long. The last frame should show
+     * {@code to} alone.
+     *
+     * @param from   outgoing image, or null for black (the fade in)
+     * @param to     incoming image, or null for black (the fade out); never null together with from
+     * @param frame  frame index, 0 to {@code frames - 1}
+     * @param frames length of the whole transition
+     * @param dest   destination with the geometry of the images
+     * @return the picture to encode: {@code dest}, or {@code from} or {@code to} when the frame is
+     * exactly that image and nothing was rendered
+     */
+    Picture render(Picture from, Picture to, int frame, int frames, Picture dest);
+
+    /**
+     * Whether frame {@code frame} is identical to frame {@code frame - 1} for any images. Static
+     * frames are not rendered or encoded.
+     */
+    default boolean isStatic(int frame, int frames) {
+        return false;
+    }
+
+    /**
+     * The built-in or service-provided transition called {@code name}.
+     *
+     * @return the transition, or null if there is none by that name
+     */
+    static Transition named(String name) {
+        for (Transition transition : available()) {
+            if (transition.name().equals(name)) {
+                return transition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The built-in transitions followed by those found through {@link ServiceLoader}.
+     */
+    static List<Transition> available() {
+        List<Transition> transitions = new ArrayList<>(BUILT_IN);
+        ServiceLoader.load(Transition.class).forEach(transitions::add);
+        return transitions;
+    }
+}
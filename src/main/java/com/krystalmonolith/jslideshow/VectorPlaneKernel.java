@@ -0,0 +1,67 @@
+package com.krystalmonolith.jslideshow;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD plane kernel using the incubating Vector API. Bytes are widened to int lanes,
+ * mixed with the same fixed-point formula as {@link YuvBlender.ScalarPlaneKernel},
+ * and narrowed back. Only loaded by {@link YuvBlender} when {@code jdk.incubator.vector} is present.
+ */
+final class VectorPlaneKernel implements YuvBlender.PlaneKernel {
+
+    /**
+     * Narrowest preferred vector shape, in bits, the int lanes are compiled to native SIMD for;
+     * on narrower hardware (NEON, SSE only) the 256-bit species would run emulated
+     */
+    static final int MIN_BIT_SIZE = 256;
+
+    private static final VectorSpecies<Integer> INT = IntVector.SPECIES_PREFERRED.vectorBitSize() >= 512
+            ? IntVector.SPECIES_512 : IntVector.SPECIES_256;
+    private static final VectorSpecies<Byte> BYTE =
+            ByteVector.SPECIES_64.withShape(VectorShape.forBitSize(INT.length() * Byte.SIZE));
+
+    /**
+     * @return bit size of the platform's preferred vector shape
+     */
+    static int preferredBitSize() {
+        return IntVector.SPECIES_PREFERRED.vectorBitSize();
+    }
+
+    @Override
+    public void mix(byte[] a, byte[] b, int weight, byte[] dst) {
+        IntVector w = IntVector.broadcast(INT, weight);
+        int upper = BYTE.loopBound(dst.length);
+        int i = 0;
+        for (; i < upper; i += BYTE.length()) {
+            IntVector va = widen(a, i);
+            IntVector vb = widen(b, i);
+            narrow(vb.sub(va).mul(w).add(128).lanewise(VectorOperators.ASHR, 8).add(va), dst, i);
+        }
+        YuvBlender.mixTail(a, b, weight, dst, i);
+    }
+
+    @Override
+    public void mixConstant(byte[] a, byte k, int weight, byte[] dst) {
+        IntVector w = IntVector.broadcast(INT, weight);
+        IntVector vk = IntVector.broadcast(INT, k);
+        int upper = BYTE.loopBound(dst.length);
+        int i = 0;
+        for (; i < upper; i += BYTE.length()) {
+            IntVector va = widen(a, i);
+            narrow(vk.sub(va).mul(w).add(128).lanewise(VectorOperators.ASHR, 8).add(va), dst, i);
+        }
+        YuvBlender.mixConstantTail(a, k, weight, dst, i);
+    }
+
+    private static IntVector widen(byte[] src, int offset) {
+        return (IntVector) ByteVector.fromArray(BYTE, src, offset).convertShape(VectorOperators.B2I, INT, 0);
+    }
+
+    private static void narrow(IntVector v, byte[] dst, int offset) {
+        ((ByteVector) v.convertShape(VectorOperators.I2B, BYTE, 0)).intoArray(dst, offset);
+    }
+}
@@ -0,0 +1,77 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.containers.mp4.MP4Packet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Destination of the muxed H.264 stream. The muxer hands over segments in order; each segment's
+ * packets are in Annex B form with segment-local timestamps.
+ */
+interface VideoOutput extends AutoCloseable {
+
+    void beginSegment(int segmentIndex) throws IOException;
+
+    void writeFrame(MP4Packet packet) throws IOException;
+
+    void endSegment() throws IOException;
+
+    /**
+     * Complete the output after the last segment.
+     */
+    void finish() throws IOException;
+
+    /**
+     * Frames of the timeline written so far; a packet counts for its duration.
+     */
+    long framesWritten();
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Open an output of the given format.
+     *
+     * @param output              output file; for HLS, the playlist
+     * @param maxSegmentSeconds   longest segment duration, used as the HLS target duration
+     */
+    static VideoOutput open(OutputFormat format, File output, int width, int height, int frameRate,
+                            double maxSegmentSeconds) throws IOException {
+        return switch (format) {
+            case MP4 -> new Mp4Output(output, width, height, frameRate);
+            case FMP4 -> new FragmentedMp4Output(output, width, height, frameRate);
+            case HLS -> new HlsOutput(output, width, height, frameRate, maxSegmentSeconds);
+        };
+    }
+
+    /**
+     * Open an output of the given format on a caller's channel, which is left open.
+     *
+     * @throws IllegalArgumentException for HLS, which writes several files, and for MP4 on a
+     *                                  channel that cannot seek
+     */
+    static VideoOutput open(OutputFormat format, WritableByteChannel output, int width, int height, int frameRate)
+            throws IOException {
+        checkChannel(format, output);
+        return switch (format) {
+            case MP4 -> new Mp4Output((SeekableByteChannel) output, width, height, frameRate);
+            case FMP4 -> new FragmentedMp4Output(output, width, height, frameRate);
+            case HLS -> throw new IllegalStateException();
+        };
+    }
+
+    /**
+     * Check that a format can be written to a channel.
+     */
+    static void checkChannel(OutputFormat format, WritableByteChannel output) {
+        if (format == OutputFormat.HLS) {
+            throw new IllegalArgumentException("HLS output writes a playlist and media files; it needs an output file");
+        }
+        if (format == OutputFormat.MP4 && !(output instanceof SeekableByteChannel)) {
+            throw new IllegalArgumentException("MP4 output needs a SeekableByteChannel; use FMP4 to stream");
+        }
+    }
+}
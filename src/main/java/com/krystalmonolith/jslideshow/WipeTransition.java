@@ -0,0 +1,60 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+
+import java.util.Arrays;
+
+/**
+ * {@link Transition#WIPE}: the incoming image replaces the outgoing one left of an edge that
+ * moves from the left to the right border. Rows are copied straight from the source planes, and
+ * the edge is kept on an even column so luma and chroma switch at the same place.
+ */
+final class WipeTransition implements Transition {
+
+    @Override
+    public String name() {
+        return "wipe";
+    }
+
+    @Override
+    public Picture render(Picture from, Picture to, int frame, int frames, Picture dest) {
+        int width = dest.getPlaneWidth(0);
+        int weight = YuvBlender.weight(frame, frames);
+        int edge = weight == YuvBlender.ONE ? width : (int) ((long) width * weight / YuvBlender.ONE) & ~1;
+        if (edge >= width && to != null) {
+            return to;
+        }
+        if (edge == 0 && from != null) {
+            return from;
+        }
+        for (int p = 0; p < 3; p++) {
+            int planeWidth = dest.getPlaneWidth(p);
+            int planeEdge = edge == width ? planeWidth : p == 0 ? edge : edge >> 1;
+            byte[] dst = dest.getPlaneData(p);
+            byte[] left = to == null ? null : to.getPlaneData(p);
+            byte[] right = from == null ? null : from.getPlaneData(p);
+            for (int row = 0, rows = dest.getPlaneHeight(p); row < rows; row++) {
+                int start = row * planeWidth;
+                copyOrBlack(left, dst, start, planeEdge, p);
+                copyOrBlack(right, dst, start + planeEdge, planeWidth - planeEdge, p);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * The edge moves in whole steps of the blend weight, so frames whose weight rounds the same repeat.
+     */
+    @Override
+    public boolean isStatic(int frame, int frames) {
+        return frame > 0 && YuvBlender.weight(frame, frames) == YuvBlender.weight(frame - 1, frames);
+    }
+
+    private static void copyOrBlack(byte[] src, byte[] dst, int offset, int length, int plane) {
+        if (src != null) {
+            System.arraycopy(src, offset, dst, offset, length);
+        } else {
+            Arrays.fill(dst, offset, offset + length, YuvBlender.black(plane));
+        }
+    }
+}
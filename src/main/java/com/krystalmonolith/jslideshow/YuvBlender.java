@@ -0,0 +1,142 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+/**
+ * Dissolve and fade blending directly on {@link ColorSpace#YUV420J} planes.
+ * <p>
+ * JCodec stores YUV samples as signed bytes offset by -128. The RGB to YUV transform is affine,
+ * so blending the planes gives the same result as blending in RGB and converting afterwards.
+ * Weights are fixed point in [0, {@link #ONE}]; every path computes
+ * {@code a + (((b - a) * w + 128) >> 8)} so the SIMD and scalar kernels are bit-identical.
+ * <p>
+ * The SIMD kernel needs the {@code jdk.incubator.vector} module at run time
+ * ({@code --add-modules jdk.incubator.vector}) and vectors of at least 256 bits; without either the
+ * scalar kernel is used.
+ */
+final class YuvBlender {
+
+    /**
+     * Fixed-point weight representing 1.0
+     */
+    static final int ONE = 256;
+
+    /**
+     * Black in YUV420J (full range): Y = 0, U = V = 128, stored with the -128 offset
+     */
+    private static final byte[] BLACK = {-128, 0, 0};
+
+    /**
+     * Blends one plane; implementations must produce identical output.
+     */
+    interface PlaneKernel {
+        /**
+         * dst[i] = a[i] + (((b[i] - a[i]) * weight + 128) &gt;&gt; 8)
+         */
+        void mix(byte[] a, byte[] b, int weight, byte[] dst);
+
+        /**
+         * dst[i] = a[i] + (((k - a[i]) * weight + 128) &gt;&gt; 8)
+         */
+        void mixConstant(byte[] a, byte k, int weight, byte[] dst);
+    }
+
+    private static final PlaneKernel KERNEL = selectKernel();
+
+    private YuvBlender() {
+    }
+
+    private static PlaneKernel selectKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return selectKernel(VectorPlaneKernel.preferredBitSize());
+            } catch (LinkageError | RuntimeException ignored) {
+                // fall through to the scalar kernel
+            }
+        }
+        return new ScalarPlaneKernel();
+    }
+
+    /**
+     * The SIMD kernel if the preferred vector shape is at least {@link VectorPlaneKernel#MIN_BIT_SIZE}
+     * bits wide, else the scalar kernel, which beats the emulated wider shape.
+     */
+    static PlaneKernel selectKernel(int preferredBitSize) {
+        return preferredBitSize >= VectorPlaneKernel.MIN_BIT_SIZE ? new VectorPlaneKernel() : new ScalarPlaneKernel();
+    }
+
+    /**
+     * @return name of the active kernel, for logging
+     */
+    static String kernelName() {
+        return KERNEL.getClass().getSimpleName();
+    }
+
+    /**
+     * Fixed-point weight of frame {@code localFrame} in a transition of {@code frameCount} frames.
+     * Matches the previous float alpha {@code (localFrame + 1) / frameCount}, rounded.
+     */
+    static int weight(int localFrame, int frameCount) {
+        return ((localFrame + 1) * ONE + (frameCount >> 1)) / frameCount;
+    }
+
+    /**
+     * Stored sample value of black in plane {@code plane}.
+     */
+    static byte black(int plane) {
+        return BLACK[plane];
+    }
+
+    /**
+     * Allocate an empty destination picture with the same geometry as {@code like}.
+     */
+    static Picture createLike(Picture like) {
+        return Picture.create(like.getWidth(), like.getHeight(), ColorSpace.YUV420J);
+    }
+
+    /**
+     * Mix {@code from} towards {@code to} by {@code weight} / {@link #ONE} into {@code dst}.
+     */
+    static void dissolve(Picture from, Picture to, int weight, Picture dst) {
+        for (int p = 0; p < 3; p++) {
+            KERNEL.mix(from.getPlaneData(p), to.getPlaneData(p), weight, dst.getPlaneData(p));
+        }
+    }
+
+    /**
+     * Scale {@code image} towards black by {@code weight} / {@link #ONE} into {@code dst}.
+     */
+    static void fadeToBlack(Picture image, int weight, Picture dst) {
+        for (int p = 0; p < 3; p++) {
+            KERNEL.mixConstant(image.getPlaneData(p), BLACK[p], weight, dst.getPlaneData(p));
+        }
+    }
+
+    /**
+     * Portable scalar kernel.
+     */
+    static final class ScalarPlaneKernel implements PlaneKernel {
+        @Override
+        public void mix(byte[] a, byte[] b, int weight, byte[] dst) {
+            mixTail(a, b, weight, dst, 0);
+        }
+
+        @Override
+        public void mixConstant(byte[] a, byte k, int weight, byte[] dst) {
+            mixConstantTail(a, k, weight, dst, 0);
+        }
+    }
+
+    static void mixTail(byte[] a, byte[] b, int weight, byte[] dst, int from) {
+        for (int i = from; i < dst.length; i++) {
+            dst[i] = (byte) (a[i] + (((b[i] - a[i]) * weight + 128) >> 8));
+        }
+    }
+
+    static void mixConstantTail(byte[] a, byte k, int weight, byte[] dst, int from) {
+        for (int i = from; i < dst.length; i++) {
+            dst[i] = (byte) (a[i] + (((k - a[i]) * weight + 128) >> 8));
+        }
+    }
+}
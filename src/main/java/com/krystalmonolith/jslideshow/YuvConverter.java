@@ -0,0 +1,355 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Letterboxes an image straight into {@link ColorSpace#YUV420J} planes.
+ * <p>
+ * The planes are allocated black and only the image's own region is written, read directly from
+ * the image's {@link DataBufferInt} or {@link DataBufferByte} raster, so neither the padded RGB
+ * canvas of {@link ImageScaler#letterbox} nor the intermediate RGB picture of JCodec's
+ * {@code AWTUtil.fromBufferedImage} is allocated. The arithmetic is the full range BT.601 (JFIF)
+ * matrix in 8-bit fixed point, and black contributes nothing to a 2x2 block's chroma, so a block
+ * that straddles the image border gets exactly the chroma the padded canvas would have given it.
+ * Chroma is the same as JCodec's {@code RgbToYuv420j}, but luma weights blue 29/256 where JCodec
+ * uses 15/256, so white reaches 255 whatever the input type.
+ * <p>
+ * Packed-int RGB images ({@code TYPE_INT_RGB}, {@code TYPE_INT_BGR}, which every resized image
+ * is) and interleaved-byte sRGB or gray images ({@code TYPE_3BYTE_BGR}, {@code TYPE_BYTE_GRAY},
+ * which is what {@code ImageIO} returns for JPEG) are read directly. Gray samples are taken as
+ * R = G = B, as drawing onto the canvas did. Any other image (with alpha, indexed, 16-bit or in
+ * another color space) is first drawn onto black as {@code TYPE_INT_RGB}, as the canvas did.
+ * <p>
+ * Images decoded as raw YCbCr ({@link ImageScaler#YCBCR}) skip the color transform altogether:
+ * luma is copied and chroma averaged down to 4:2:0. JPEG's YCbCr is the same full range BT.601
+ * as YUV420J, so this is the picture the decoder's RGB would have converted back to, without
+ * two rounding steps. Both paths use the same matrix, so a YCbCr JPEG and a PNG of the same
+ * picture come out equally bright.
+ * <p>
+ * Large images are converted in bands of rows on the common fork-join pool.
+ */
+final class YuvConverter {
+
+    /**
+     * Chroma rows (two image rows each) per parallel band
+     */
+    private static final int BAND_ROWS = 32;
+
+    /**
+     * Images with fewer pixels are converted on the calling thread
+     */
+    private static final int PARALLEL_PIXELS = 1 << 18;
+
+    private YuvConverter() {
+    }
+
+    /**
+     * Scale an image to fit the output frame (never enlarging), center it on black and convert it.
+     */
+    static Picture letterbox(BufferedImage img, int outputWidth, int outputHeight) {
+        boolean ycbcr = ImageScaler.isYCbCr(img);
+        int[] size = ImageScaler.fit(img.getWidth(), img.getHeight(), outputWidth, outputHeight);
+        return centered(ImageScaler.resize(img, size[0], size[1]), ycbcr, outputWidth, outputHeight);
+    }
+
+    /**
+     * Convert an image that already fits the output frame, centered on black.
+     */
+    static Picture centered(BufferedImage img, int outputWidth, int outputHeight) {
+        return centered(img, ImageScaler.isYCbCr(img), outputWidth, outputHeight);
+    }
+
+    /**
+     * Convert an image that already fits the output frame, centered on black, taking its samples
+     * as Y, Cb and Cr if {@code ycbcr} (a resized {@link ImageScaler#YCBCR} image no longer says so).
+     */
+    static Picture centered(BufferedImage img, boolean ycbcr, int outputWidth, int outputHeight) {
+        return convert(img, ycbcr, (outputWidth - img.getWidth()) / 2, (outputHeight - img.getHeight()) / 2,
+                outputWidth, outputHeight);
+    }
+
+    /**
+     * Convert an image placed at {@code (x0, y0)} in an otherwise black picture of the output size.
+     */
+    static Picture convert(BufferedImage img, boolean ycbcr, int x0, int y0, int outputWidth, int outputHeight) {
+        if (x0 < 0 || y0 < 0 || x0 + img.getWidth() > outputWidth || y0 + img.getHeight() > outputHeight) {
+            throw new IllegalArgumentException("image must lie inside the output");
+        }
+        Picture yuv = Picture.create(outputWidth, outputHeight, ColorSpace.YUV420J);
+        // chroma planes start at 0, which is already black
+        Arrays.fill(yuv.getPlaneData(0), YuvBlender.black(0));
+
+        Source source = Source.of(img);
+        int firstRow = y0 >> 1;
+        int rows = ((y0 + img.getHeight() + 1) >> 1) - firstRow;
+        if ((long) img.getWidth() * img.getHeight() < PARALLEL_PIXELS) {
+            convertRows(source, ycbcr, x0, y0, img.getWidth(), img.getHeight(), yuv, firstRow, firstRow + rows);
+        } else {
+            int bands = (rows + BAND_ROWS - 1) / BAND_ROWS;
+            IntStream.range(0, bands).parallel().forEach(band -> convertRows(source, ycbcr, x0, y0,
+                    img.getWidth(), img.getHeight(), yuv, firstRow + band * BAND_ROWS,
+                    Math.min(firstRow + rows, firstRow + (band + 1) * BAND_ROWS)));
+        }
+        return yuv;
+    }
+
+    /**
+     * Convert chroma rows {@code from} (inclusive) to {@code to}, i.e. output rows {@code 2 * from}
+     * to {@code 2 * to}, of the image's region.
+     */
+    private static void convertRows(Source source, boolean ycbcr, int x0, int y0, int width, int height,
+                                    Picture yuv, int from, int to) {
+        if (ycbcr) {
+            copyRows(source, x0, y0, width, height, yuv, from, to);
+            return;
+        }
+        byte[] lumaPlane = yuv.getPlaneData(0);
+        byte[] cbPlane = yuv.getPlaneData(1);
+        byte[] crPlane = yuv.getPlaneData(2);
+        int stride = yuv.getPlaneWidth(0);
+        int chromaStride = yuv.getPlaneWidth(1);
+        int[] scratch0 = new int[width];
+        int[] scratch1 = new int[width];
+        int firstColumn = x0 >> 1;
+        int lastColumn = (x0 + width - 1) >> 1;
+        int rShift = source.rShift;
+        int gShift = source.gShift;
+        int bShift = source.bShift;
+
+        for (int cy = from; cy < to; cy++) {
+            int top = 2 * cy - y0;
+            int[] row0 = top >= 0 ? source.row(top, scratch0) : null;
+            int[] row1 = top + 1 < height ? source.row(top + 1, scratch1) : null;
+            int offset0 = row0 == null ? 0 : source.offset(top);
+            int offset1 = row1 == null ? 0 : source.offset(top + 1);
+            int luma0 = 2 * cy * stride;
+            int luma1 = luma0 + stride;
+
+            for (int cx = firstColumn; cx <= lastColumn; cx++) {
+                int cb = 0;
+                int cr = 0;
+                for (int ox = 2 * cx; ox < 2 * cx + 2; ox++) {
+                    int x = ox - x0;
+                    if (x < 0 || x >= width) {
+                        continue;
+                    }
+                    if (row0 != null) {
+                        int p = row0[offset0 + x];
+                        int r = (p >> rShift) & 0xFF;
+                        int g = (p >> gShift) & 0xFF;
+                        int b = (p >> bShift) & 0xFF;
+                        lumaPlane[luma0 + ox] = (byte) (((77 * r + 150 * g + 29 * b + 128) >> 8) - 128);
+                        cb += clip((-43 * r - 85 * g + 128 * b + 128) >> 8);
+                        cr += clip((128 * r - 107 * g - 21 * b + 128) >> 8);
+                    }
+                    if (row1 != null) {
+                        int p = row1[offset1 + x];
+                        int r = (p >> rShift) & 0xFF;
+                        int g = (p >> gShift) & 0xFF;
+                        int b = (p >> bShift) & 0xFF;
+                        lumaPlane[luma1 + ox] = (byte) (((77 * r + 150 * g + 29 * b + 128) >> 8) - 128);
+                        cb += clip((-43 * r - 85 * g + 128 * b + 128) >> 8);
+                        cr += clip((128 * r - 107 * g - 21 * b + 128) >> 8);
+                    }
+                }
+                cbPlane[cy * chromaStride + cx] = (byte) ((cb + 2) >> 2);
+                crPlane[cy * chromaStride + cx] = (byte) ((cr + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * {@link #convertRows} for samples that already are Y, Cb and Cr: luma is copied and chroma
+     * averaged over each 2x2 block, black again contributing nothing.
+     */
+    private static void copyRows(Source source, int x0, int y0, int width, int height, Picture yuv,
+                                 int from, int to) {
+        byte[] lumaPlane = yuv.getPlaneData(0);
+        byte[] cbPlane = yuv.getPlaneData(1);
+        byte[] crPlane = yuv.getPlaneData(2);
+        int stride = yuv.getPlaneWidth(0);
+        int chromaStride = yuv.getPlaneWidth(1);
+        int[] scratch0 = new int[width];
+        int[] scratch1 = new int[width];
+        int firstColumn = x0 >> 1;
+        int lastColumn = (x0 + width - 1) >> 1;
+        int yShift = source.rShift;
+        int cbShift = source.gShift;
+        int crShift = source.bShift;
+
+        for (int cy = from; cy < to; cy++) {
+            int top = 2 * cy - y0;
+            int[] row0 = top >= 0 ? source.row(top, scratch0) : null;
+            int[] row1 = top + 1 < height ? source.row(top + 1, scratch1) : null;
+            int offset0 = row0 == null ? 0 : source.offset(top);
+            int offset1 = row1 == null ? 0 : source.offset(top + 1);
+            int luma0 = 2 * cy * stride;
+            int luma1 = luma0 + stride;
+
+            for (int cx = firstColumn; cx <= lastColumn; cx++) {
+                int cb = 0;
+                int cr = 0;
+                for (int ox = 2 * cx; ox < 2 * cx + 2; ox++) {
+                    int x = ox - x0;
+                    if (x < 0 || x >= width) {
+                        continue;
+                    }
+                    if (row0 != null) {
+                        int p = row0[offset0 + x];
+                        lumaPlane[luma0 + ox] = (byte) (((p >> yShift) & 0xFF) - 128);
+                        cb += ((p >> cbShift) & 0xFF) - 128;
+                        cr += ((p >> crShift) & 0xFF) - 128;
+                    }
+                    if (row1 != null) {
+                        int p = row1[offset1 + x];
+                        lumaPlane[luma1 + ox] = (byte) (((p >> yShift) & 0xFF) - 128);
+                        cb += ((p >> cbShift) & 0xFF) - 128;
+                        cr += ((p >> crShift) & 0xFF) - 128;
+                    }
+                }
+                cbPlane[cy * chromaStride + cx] = (byte) ((cb + 2) >> 2);
+                crPlane[cy * chromaStride + cx] = (byte) ((cr + 2) >> 2);
+            }
+        }
+    }
+
+    private static int clip(int value) {
+        return value < -128 ? -128 : Math.min(value, 127);
+    }
+
+    /**
+     * Rows of an image as packed 8-bit RGB ints, straight from the raster's backing array where
+     * its layout allows.
+     */
+    private abstract static class Source {
+        final int rShift;
+        final int gShift;
+        final int bShift;
+
+        Source(int rShift, int gShift, int bShift) {
+            this.rShift = rShift;
+            this.gShift = gShift;
+            this.bShift = bShift;
+        }
+
+        /**
+         * The array holding row {@code y} from {@link #offset(int)}: the backing array, or
+         * {@code scratch} filled with the row.
+         */
+        abstract int[] row(int y, int[] scratch);
+
+        abstract int offset(int y);
+
+        static Source of(BufferedImage img) {
+            Source source = direct(img);
+            if (source != null) {
+                return source;
+            }
+            BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            try {
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, img.getWidth(), img.getHeight());
+                g.drawImage(img, 0, 0, null);
+            } finally {
+                g.dispose();
+            }
+            return direct(rgb);
+        }
+
+        /**
+         * A source reading the raster's backing array, or null if its layout is not one of those
+         * read directly.
+         */
+        private static Source direct(BufferedImage img) {
+            if (img.getColorModel().hasAlpha()) {
+                return null;
+            }
+            Raster raster = img.getRaster();
+            int tx = raster.getSampleModelTranslateX();
+            int ty = raster.getSampleModelTranslateY();
+            if (raster.getDataBuffer() instanceof DataBufferInt ints
+                    && raster.getSampleModel() instanceof SinglePixelPackedSampleModel model
+                    && img.getColorModel() instanceof DirectColorModel colors
+                    && colors.getColorSpace().isCS_sRGB()) {
+                int r = byteShift(colors.getRedMask());
+                int g = byteShift(colors.getGreenMask());
+                int b = byteShift(colors.getBlueMask());
+                if (r < 0 || g < 0 || b < 0) {
+                    return null;
+                }
+                int[] data = ints.getData();
+                int base = ints.getOffset() + model.getOffset(-tx, -ty);
+                int stride = model.getScanlineStride();
+                return new Source(r, g, b) {
+                    @Override
+                    int[] row(int y, int[] scratch) {
+                        return data;
+                    }
+
+                    @Override
+                    int offset(int y) {
+                        return base + y * stride;
+                    }
+                };
+            }
+            if (raster.getDataBuffer() instanceof DataBufferByte bytes
+                    && raster.getSampleModel() instanceof ComponentSampleModel model
+                    && bytes.getNumBanks() == 1
+                    && img.getColorModel().getComponentSize(0) == 8) {
+                int bands = model.getNumBands();
+                int[] bandOffsets = model.getBandOffsets();
+                boolean gray = bands == 1 && img.getColorModel().getColorSpace().getType()
+                        == java.awt.color.ColorSpace.TYPE_GRAY;
+                boolean rgb = bands == 3 && img.getColorModel().getColorSpace().isCS_sRGB();
+                if (!gray && !rgb) {
+                    return null;
+                }
+                byte[] data = bytes.getData();
+                int stride = model.getScanlineStride();
+                int pixelStride = model.getPixelStride();
+                int base = bytes.getOffset() - ty * stride - tx * pixelStride;
+                int rOffset = bandOffsets[0];
+                int gOffset = bandOffsets[gray ? 0 : 1];
+                int bOffset = bandOffsets[gray ? 0 : 2];
+                int width = img.getWidth();
+                return new Source(16, 8, 0) {
+                    @Override
+                    int[] row(int y, int[] scratch) {
+                        for (int x = 0, i = base + y * stride; x < width; x++, i += pixelStride) {
+                            scratch[x] = (data[i + rOffset] & 0xFF) << 16 | (data[i + gOffset] & 0xFF) << 8
+                                    | data[i + bOffset] & 0xFF;
+                        }
+                        return scratch;
+                    }
+
+                    @Override
+                    int offset(int y) {
+                        return 0;
+                    }
+                };
+            }
+            return null;
+        }
+
+        /**
+         * Shift of an 8-bit channel mask, or -1 if the mask is not 8 contiguous bits.
+         */
+        private static int byteShift(int mask) {
+            int shift = Integer.numberOfTrailingZeros(mask);
+            return shift < 32 && mask >>> shift == 0xFF ? shift : -1;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.mp4.AvcCBox;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the fragmented MP4 and HLS outputs.
+ */
+class FragmentedMp4OutputTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_RATE = 10;
+
+    @TempDir
+    Path tempDir;
+
+    private record Box(String type, int offset, int size) {
+        int body() {
+            return offset + 8;
+        }
+    }
+
+    /**
+     * Top-level boxes of an ISO BMFF buffer.
+     */
+    private static List<Box> boxes(ByteBuffer buf, int from, int to) {
+        List<Box> boxes = new ArrayList<>();
+        for (int at = from; at < to; ) {
+            int size = buf.getInt(at);
+            assertTrue(size >= 8 && at + size <= to, "bad box size at " + at);
+            byte[] type = new byte[4];
+            buf.get(at + 4, type);
+            boxes.add(new Box(new String(type, StandardCharsets.US_ASCII), at, size));
+            at += size;
+        }
+        return boxes;
+    }
+
+    /**
+     * First child box of a type, skipping headerBytes of the parent's own fields.
+     */
+    private static Box child(ByteBuffer buf, Box parent, String type, int headerBytes) {
+        return boxes(buf, parent.body() + headerBytes, parent.offset() + parent.size()).stream()
+                .filter(b -> b.type().equals(type)).findFirst().orElseThrow(() -> new AssertionError("no " + type));
+    }
+
+    private static Box find(List<Box> boxes, String type) {
+        return boxes.stream().filter(b -> b.type().equals(type)).findFirst()
+                .orElseThrow(() -> new AssertionError("no " + type));
+    }
+
+    private static List<MP4Packet> holdPackets(int seed, int frames) throws InterruptedException {
+        Picture pic = JCodecParallelEncoderTest.testPicture(WIDTH, HEIGHT, seed);
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, frames);
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeHoldSegment(EncoderContext.current(), spec, pic, FRAME_RATE, packets::add);
+        return packets;
+    }
+
+    private static void writeSegments(VideoOutput out, List<List<MP4Packet>> segments) throws IOException {
+        for (int i = 0; i < segments.size(); i++) {
+            out.beginSegment(i);
+            for (MP4Packet packet : segments.get(i)) {
+                out.writeFrame(packet);
+            }
+            out.endSegment();
+        }
+        out.finish();
+    }
+
+    /**
+     * Decode the samples of an init segment and its fragments, checking the fragment structure on the way.
+     *
+     * @return number of frames decoded
+     */
+    private static int decodeFragments(ByteBuffer init, List<ByteBuffer> mediaFiles) {
+        List<Box> initBoxes = boxes(init, 0, init.limit());
+        assertEquals(List.of("ftyp", "moov"), initBoxes.stream().map(Box::type).toList());
+        Box moov = initBoxes.get(1);
+        assertNotNull(child(init, moov, "mvex", 0));
+        Box stbl = child(init, child(init, child(init, child(init, moov, "trak", 0), "mdia", 0), "minf", 0), "stbl", 0);
+        Box avc1 = child(init, child(init, stbl, "stsd", 0), "avc1", 8);
+        Box avcCBox = child(init, avc1, "avcC", 78);
+        AvcCBox avcC = H264Utils.parseAVCCFromBuffer(
+                init.duplicate().position(avcCBox.body()).limit(avcCBox.offset() + avcCBox.size()).slice());
+
+        H264Decoder decoder = new H264Decoder();
+        byte[][] buffer = Picture.create(WIDTH, HEIGHT, ColorSpace.YUV420J).getData();
+        long expectedDecodeTime = 0;
+        int decoded = 0;
+        for (ByteBuffer media : mediaFiles) {
+            List<Box> mediaBoxes = boxes(media, 0, media.limit());
+            for (int i = 0; i < mediaBoxes.size(); i += 2) {
+                Box moof = mediaBoxes.get(i);
+                assertEquals("moof", moof.type());
+                assertEquals("mdat", mediaBoxes.get(i + 1).type());
+                Box traf = child(media, moof, "traf", 0);
+                Box tfdt = child(media, traf, "tfdt", 0);
+                assertEquals(expectedDecodeTime, media.getLong(tfdt.body() + 4));
+
+                Box trun = child(media, traf, "trun", 0);
+                int count = media.getInt(trun.body() + 4);
+                int dataAt = moof.offset() + media.getInt(trun.body() + 8);
+                assertEquals(mediaBoxes.get(i + 1).body(), dataAt, "data offset points at the mdat payload");
+                for (int s = 0; s < count; s++) {
+                    int size = media.getInt(trun.body() + 12 + 8 * s);
+                    int flags = media.getInt(trun.body() + 16 + 8 * s);
+                    ByteBuffer sample = ByteBuffer.allocate(size);
+                    sample.put(media.duplicate().position(dataAt).limit(dataAt + size)).flip();
+                    H264Utils.decodeMOVPacketInplace(sample, avcC);
+                    if (decoded == 0) {
+                        assertEquals(0, flags & 0x0001_0000, "first sample is a sync sample");
+                        ByteBuffer header = H264Utils.avcCToAnnexB(avcC);
+                        sample = ByteBuffer.allocate(header.remaining() + sample.remaining()).put(header).put(sample).flip();
+                    }
+                    assertNotNull(decoder.decodeFrame(sample, buffer), "sample " + decoded + " did not decode");
+                    dataAt += size;
+                    decoded++;
+                }
+                expectedDecodeTime += count;
+            }
+        }
+        return decoded;
+    }
+
+    // ========== Fragmented MP4 tests ==========
+
+    @Test
+    void fragmentedMp4_decodesAllFramesAndSplitsAtKeyIntervals() throws Exception {
+        File file = tempDir.resolve("out.mp4").toFile();
+        try (var out = new FragmentedMp4Output(file, WIDTH, HEIGHT, FRAME_RATE)) {
+            writeSegments(out, List.of(holdPackets(1, 30), holdPackets(2, 10)));
+            assertEquals(40, out.framesWritten());
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        List<Box> top = boxes(bytes, 0, bytes.limit());
+        int initEnd = find(top, "moov").offset() + find(top, "moov").size();
+        // 30 frames -> 25 + 5, then 10 for the second segment
+        assertEquals(3, top.stream().filter(b -> b.type().equals("moof")).count());
+        assertEquals(40, decodeFragments(bytes.duplicate().limit(initEnd).slice(),
+                List.of(bytes.duplicate().position(initEnd).slice())));
+    }
+
+    @Test
+    void fragmentedMp4_withoutParameterSets_fails() {
+        File file = tempDir.resolve("out.mp4").toFile();
+        assertThrows(IOException.class, () -> {
+            try (var out = new FragmentedMp4Output(file, WIDTH, HEIGHT, FRAME_RATE)) {
+                out.beginSegment(0);
+                out.writeFrame(JCodecParallelEncoder.framePacket(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x65, 1}),
+                        0, FRAME_RATE, true));
+            }
+        });
+    }
+
+    // ========== HLS tests ==========
+
+    @Test
+    void hls_writesOneMediaSegmentPerSegmentAndCompletePlaylist() throws Exception {
+        File playlist = tempDir.resolve("show.m3u8").toFile();
+        try (var out = new HlsOutput(playlist, WIDTH, HEIGHT, FRAME_RATE, 3.0)) {
+            writeSegments(out, List.of(holdPackets(1, 30), List.of(), holdPackets(2, 15)));
+        }
+
+        List<String> lines = Files.readAllLines(playlist.toPath());
+        assertEquals("#EXTM3U", lines.getFirst());
+        assertTrue(lines.contains("#EXT-X-TARGETDURATION:3"));
+        assertTrue(lines.contains("#EXT-X-MAP:URI=\"show-init.mp4\""));
+        // the empty segment produces no media file
+        assertEquals(List.of("#EXTINF:3.000,", "show-00000.m4s", "#EXTINF:1.500,", "show-00001.m4s", "#EXT-X-ENDLIST"),
+                lines.subList(lines.size() - 5, lines.size()));
+
+        ByteBuffer init = ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve("show-init.mp4")));
+        List<ByteBuffer> media = List.of(
+                ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve("show-00000.m4s"))),
+                ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve("show-00001.m4s"))));
+        assertEquals(45, decodeFragments(init, media));
+    }
+
+    @Test
+    void hls_playlistIsOpenUntilFinished() throws Exception {
+        File playlist = tempDir.resolve("live.m3u8").toFile();
+        try (var out = new HlsOutput(playlist, WIDTH, HEIGHT, FRAME_RATE, 1.0)) {
+            out.beginSegment(0);
+            for (MP4Packet packet : holdPackets(3, 10)) {
+                out.writeFrame(packet);
+            }
+            out.endSegment();
+
+            String text = Files.readString(playlist.toPath());
+            assertTrue(text.contains("live-00000.m4s"));
+            assertFalse(text.contains("#EXT-X-ENDLIST"));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.Picture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the off-heap image store and its memory-mapped spill.
+ */
+class FrameStoreTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final long IMAGE_BYTES = WIDTH * HEIGHT * 3 / 2;
+
+    @TempDir
+    Path tempDir;
+
+    private static Picture picture(int seed) {
+        return JCodecParallelEncoderTest.testPicture(WIDTH, HEIGHT, seed);
+    }
+
+    private static void assertSamePlanes(Picture expected, Picture actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int p = 0; p < 3; p++) {
+            assertArrayEquals(expected.getPlaneData(p), actual.getPlaneData(p), "plane " + p);
+        }
+    }
+
+    private static JCodecParallelEncoder.SegmentSpec dissolve(int a, int b) {
+        return new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, a, b, 5);
+    }
+
+    // ========== Store tests ==========
+
+    @Test
+    void pictures_inRam_returnStoredPlanes() {
+        try (var store = new FrameStore(10 * IMAGE_BYTES, tempDir)) {
+            store.put(0, picture(0));
+            store.put(1, picture(1));
+            assertTrue(store.contains(1));
+            assertEquals(2 * IMAGE_BYTES, store.ramBytes());
+
+            var pictures = store.pictures(dissolve(0, 1));
+            assertSamePlanes(picture(0), pictures.get(0));
+            assertSamePlanes(picture(1), pictures.get(1));
+            assertEquals(0, store.spilledImages());
+        }
+    }
+
+    @Test
+    void put_beyondRamLimit_spillsToMappedFile() throws Exception {
+        try (var store = new FrameStore(IMAGE_BYTES, tempDir)) {
+            store.put(0, picture(0));
+            store.put(1, picture(1));
+            store.put(2, picture(2));
+            assertEquals(IMAGE_BYTES, store.ramBytes());
+            assertEquals(2, store.spilledImages());
+            assertEquals(2 * IMAGE_BYTES, store.spilledBytes());
+            // spill files are unlinked as soon as they are mapped
+            try (var files = Files.list(tempDir)) {
+                assertEquals(0, files.count());
+            }
+
+            assertSamePlanes(picture(2), store.pictures(dissolve(2, 1)).get(2));
+            assertSamePlanes(picture(1), store.pictures(dissolve(0, 1)).get(1));
+        }
+    }
+
+    @Test
+    void release_freesRamForLaterImages() {
+        try (var store = new FrameStore(IMAGE_BYTES, tempDir)) {
+            store.put(0, picture(0));
+            store.release(0);
+            assertFalse(store.contains(0));
+            assertEquals(0, store.ramBytes());
+
+            store.put(1, picture(1));
+            assertEquals(0, store.spilledImages());
+            assertEquals(IMAGE_BYTES, store.peakRamBytes());
+        }
+    }
+
+    @Test
+    void pictures_releasedImage_throws() {
+        try (var store = new FrameStore(IMAGE_BYTES, tempDir)) {
+            store.put(0, picture(0));
+            store.release(0);
+            assertThrows(IllegalStateException.class, () -> store.pictures(dissolve(0, -1)));
+        }
+    }
+
+    // ========== Run tests ==========
+
+    @Test
+    void encode_offHeapWithSpill_matchesOnHeapOutput() throws Exception {
+        var source = ImageSource.ofImages(3, WIDTH, HEIGHT, i -> JCodecParallelEncoderTest.testImage(WIDTH, HEIGHT, i));
+        var heapBytes = new ByteArrayOutputStream();
+        var heap = new JCodecParallelEncoder();
+        heap.setOutputFormat(OutputFormat.FMP4);
+        heap.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        heap.encode(source, 5, 3, 10, Channels.newChannel(heapBytes), 2);
+
+        Path report = tempDir.resolve("report.json");
+        var offHeapBytes = new ByteArrayOutputStream();
+        var offHeap = new JCodecParallelEncoder();
+        offHeap.setOutputFormat(OutputFormat.FMP4);
+        offHeap.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        offHeap.setFrameStore(tempDir, IMAGE_BYTES);
+        offHeap.setReport(report);
+        offHeap.encode(source, 5, 3, 10, Channels.newChannel(offHeapBytes), 2);
+
+        assertArrayEquals(heapBytes.toByteArray(), offHeapBytes.toByteArray());
+        String json = Files.readString(report);
+        assertTrue(json.contains("\"frameStore\": {"), json);
+        assertTrue(json.contains("\"peakRamBytes\": " + IMAGE_BYTES), json);
+    }
+}
@@ -0,0 +1,180 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for streaming ingestion: image discovery, the lazily built segment plan and
+ * streamed encoding.
+ */
+class ImageDiscoveryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static File writeImage(Path file, int width, int height, int seed) throws IOException {
+        Files.createDirectories(file.getParent());
+        ImageIO.write(JCodecParallelEncoderTest.testImage(width, height, seed), "jpg", file.toFile());
+        return file.toFile();
+    }
+
+    private static List<String> names(Iterator<File> files) {
+        List<String> names = new ArrayList<>();
+        files.forEachRemaining(file -> names.add(file.getName()));
+        return names;
+    }
+
+    // ========== Discovery tests ==========
+
+    @Test
+    void naturalOrder_comparesDigitRunsByValue() {
+        List<String> names = new ArrayList<>(List.of("img10.jpg", "img2.jpg", "img1.jpg", "img002.jpg", "a.jpg"));
+        names.sort(ImageDiscovery.NATURAL_ORDER);
+        assertEquals(List.of("a.jpg", "img1.jpg", "img002.jpg", "img2.jpg", "img10.jpg"), names);
+    }
+
+    @Test
+    void directory_recursive_visitsSubdirectoriesInNaturalOrder() throws IOException {
+        writeImage(tempDir.resolve("day10/c.jpg"), 8, 8, 0);
+        writeImage(tempDir.resolve("day2/b.JPG"), 8, 8, 1);
+        writeImage(tempDir.resolve("day1.jpg"), 8, 8, 2);
+        Files.writeString(tempDir.resolve("notes.txt"), "not an image");
+
+        try (var flat = ImageDiscovery.directory(tempDir, false)) {
+            assertEquals(List.of("day1.jpg"), names(flat));
+        }
+        try (var recursive = ImageDiscovery.directory(tempDir, true)) {
+            assertEquals(List.of("day1.jpg", "b.JPG", "c.jpg"), names(recursive));
+        }
+    }
+
+    @Test
+    void manifest_resolvesRelativePathsAndSkipsComments() throws IOException {
+        File absolute = writeImage(tempDir.resolve("other/one.jpg"), 8, 8, 0);
+        Path manifest = tempDir.resolve("list/manifest.txt");
+        Files.createDirectories(manifest.getParent());
+        Files.writeString(manifest, "# holiday\n\n  two.jpg  \n" + absolute + "\n");
+
+        try (var discovery = ImageDiscovery.manifest(manifest)) {
+            assertEquals(manifest.getParent().resolve("two.jpg").toFile(), discovery.next());
+            assertEquals(absolute, discovery.next());
+            assertFalse(discovery.hasNext());
+            assertFalse(discovery.hasNext());
+        }
+    }
+
+    @Test
+    void sampleDimensions_boundsSampleAndKeepsItForIteration() throws IOException {
+        writeImage(tempDir.resolve("1.jpg"), 40, 20, 0);
+        writeImage(tempDir.resolve("2.jpg"), 20, 30, 1);
+        writeImage(tempDir.resolve("3.jpg"), 90, 90, 2);
+
+        try (var discovery = ImageDiscovery.directory(tempDir, false)) {
+            assertArrayEquals(new int[]{40, 30}, discovery.sampleDimensions(2));
+            assertEquals(List.of("1.jpg", "2.jpg", "3.jpg"), names(discovery));
+        }
+    }
+
+    // ========== Plan tests ==========
+
+    @Test
+    void segmentPlan_matchesFullPlanAndUseCounts() throws IOException {
+        for (int count : new int[]{1, 2, 5}) {
+            for (int gop : new int[]{0, 7}) {
+                List<File> files = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    files.add(tempDir.resolve("img" + i + ".jpg").toFile());
+                }
+                var plan = new SegmentPlan(ImageSource.ofFiles(files.iterator(), 64, 48), 20, 9, gop);
+                List<JCodecParallelEncoder.SegmentSpec> streamed = new ArrayList<>();
+                plan.forEachRemaining(streamed::add);
+
+                var expected = JCodecParallelEncoder.buildSegmentSpecs(count, 20, 9, gop);
+                assertEquals(expected, streamed, count + " images, gop " + gop);
+                assertEquals(expected.size(), plan.segments());
+                var uses = JCodecParallelEncoder.countImageUses(expected, count);
+                for (int i = 0; i < count; i++) {
+                    assertEquals(plan.usesPerImage(), uses.get(i), "image " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void segmentPlan_emptySource_throws() {
+        var plan = new SegmentPlan(ImageSource.ofFiles(List.<File>of().iterator(), 64, 48), 20, 9, 0);
+        assertThrows(UncheckedIOException.class, plan::hasNext);
+    }
+
+    // ========== Run tests ==========
+
+    @Test
+    void encode_streamedFiles_matchesListedOutput() throws Exception {
+        File[] files = new File[4];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = writeImage(tempDir.resolve("img" + i + ".jpg"), 64, 48, i);
+        }
+        var listedBytes = new ByteArrayOutputStream();
+        var listed = new JCodecParallelEncoder();
+        listed.setOutputFormat(OutputFormat.FMP4);
+        listed.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        listed.encode(ImageSource.ofFiles(files), 5, 3, 10, Channels.newChannel(listedBytes), 2);
+
+        Path report = tempDir.resolve("report.json");
+        var streamedBytes = new ByteArrayOutputStream();
+        var streamed = new JCodecParallelEncoder();
+        streamed.setOutputFormat(OutputFormat.FMP4);
+        streamed.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        streamed.setReport(report);
+        streamed.encode(ImageSource.ofFiles(List.of(files).iterator(), 64, 48), 5, 3, 10,
+                Channels.newChannel(streamedBytes), 2);
+
+        assertArrayEquals(listedBytes.toByteArray(), streamedBytes.toByteArray());
+        String json = Files.readString(report);
+        assertTrue(json.contains("\"images\": 4"), json);
+        assertTrue(json.contains("\"segments\": 9"), json);
+    }
+
+    @Test
+    void encode_streamFailsMidway_throwsItsCause() throws Exception {
+        File first = writeImage(tempDir.resolve("img0.jpg"), 64, 48, 0);
+        File second = writeImage(tempDir.resolve("img1.jpg"), 64, 48, 1);
+        Iterator<File> failing = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == 2) {
+                    throw new UncheckedIOException(new IOException("directory vanished"));
+                }
+                return true;
+            }
+
+            @Override
+            public File next() {
+                return next++ == 0 ? first : second;
+            }
+        };
+
+        var encoder = new JCodecParallelEncoder();
+        encoder.setOutputFormat(OutputFormat.FMP4);
+        encoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        var e = assertThrows(IOException.class, () -> encoder.encode(ImageSource.ofFiles(failing, 64, 48), 5, 3,
+                10, Channels.newChannel(new ByteArrayOutputStream()), 2));
+        assertEquals("directory vanished", e.getMessage());
+    }
+}
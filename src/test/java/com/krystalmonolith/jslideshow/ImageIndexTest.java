@@ -0,0 +1,152 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ImageIndex.
+ */
+class ImageIndexTest {
+
+    private static File[] writeImages(Path dir, int count) throws IOException {
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = dir.resolve("img%02d.jpg".formatted(i)).toFile();
+            ImageIO.write(JCodecParallelEncoderTest.testImage(40 + 8 * i, 30 + 2 * i, i), "jpg", files[i]);
+        }
+        return files;
+    }
+
+    // ========== Scan tests ==========
+
+    @Test
+    void scan_firstRun_readsHeadersAndWritesIndex(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 3);
+
+        var scan = ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+
+        assertEquals(3, scan.scanned());
+        for (int i = 0; i < files.length; i++) {
+            var info = scan.images().get(i);
+            assertEquals(files[i].getName(), info.name());
+            assertEquals(40 + 8 * i, info.width());
+            assertEquals(30 + 2 * i, info.height());
+            assertEquals(1, info.orientation());
+            assertEquals(64, info.sha256().length());
+        }
+        assertTrue(Files.exists(tempDir.resolve(ImageIndex.INDEX_FILE_NAME)));
+    }
+
+    @Test
+    void scan_unchangedFiles_comeFromIndex(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 3);
+        var first = ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+
+        var second = ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+
+        assertEquals(0, second.scanned());
+        assertEquals(first.images(), second.images());
+    }
+
+    @Test
+    void scan_modifiedFile_isRescanned(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 3);
+        ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+        ImageIO.write(JCodecParallelEncoderTest.testImage(100, 50, 7), "jpg", files[1]);
+        Files.setLastModifiedTime(files[1].toPath(), FileTime.fromMillis(files[1].lastModified() + 2000));
+
+        var scan = ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+
+        assertEquals(1, scan.scanned());
+        assertEquals(100, scan.images().get(1).width());
+        assertEquals(50, scan.images().get(1).height());
+    }
+
+    @Test
+    void scan_subsetOfDirectory_keepsOtherEntriesAndPrunesDeletedFiles(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 4);
+        ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS);
+
+        assertEquals(0, ImageIndex.scan(new File[]{files[0], files[1]}, JCodecParallelEncoder.NO_PROGRESS).scanned());
+        assertEquals(0, ImageIndex.scan(new File[]{files[2], files[3]}, JCodecParallelEncoder.NO_PROGRESS).scanned());
+        assertEquals(4, ImageIndex.load(tempDir, JCodecParallelEncoder.NO_PROGRESS).size());
+
+        Files.delete(files[3].toPath());
+        assertEquals(0, ImageIndex.scan(new File[]{files[0]}, JCodecParallelEncoder.NO_PROGRESS).scanned());
+        assertEquals(Set.of(files[0].getName(), files[1].getName(), files[2].getName()),
+                ImageIndex.load(tempDir, JCodecParallelEncoder.NO_PROGRESS).keySet());
+    }
+
+    @Test
+    void scan_malformedIndex_isRebuilt(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 2);
+        Files.writeString(tempDir.resolve(ImageIndex.INDEX_FILE_NAME), "# jslideshow image index v1\ngarbage\n");
+
+        List<String> warnings = new ArrayList<>();
+        ProgressListener listener = new ProgressListener() {
+            @Override
+            public void message(String message) {
+                warnings.add(message);
+            }
+        };
+        var scan = ImageIndex.scan(files, listener);
+
+        assertEquals(2, scan.scanned());
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.getFirst().startsWith("Ignoring unreadable image index"), warnings.getFirst());
+        assertEquals(0, ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS).scanned());
+    }
+
+    @Test
+    void scan_unreadableImage_throwsIOException(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 2);
+        Files.write(files[0].toPath(), new byte[]{1, 2, 3, 4});
+
+        assertThrows(IOException.class, () -> ImageIndex.scan(files, JCodecParallelEncoder.NO_PROGRESS));
+    }
+
+    // ========== EXIF tests ==========
+
+    @Test
+    void exifOrientation_readsTagInEitherByteOrder() {
+        assertEquals(6, ImageIndex.exifOrientation(jpegWithOrientation(6, true)));
+        assertEquals(8, ImageIndex.exifOrientation(jpegWithOrientation(8, false)));
+    }
+
+    @Test
+    void exifOrientation_withoutExif_isOne() {
+        assertEquals(1, ImageIndex.exifOrientation(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xDA, 0, 2})));
+        assertEquals(1, ImageIndex.exifOrientation(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+    }
+
+    /**
+     * SOI followed by an APP1 segment with a one-entry IFD0 holding the orientation tag.
+     */
+    static ByteBuffer jpegWithOrientation(int orientation, boolean littleEndian) {
+        ByteBuffer tiff = ByteBuffer.allocate(26)
+                .order(littleEndian ? java.nio.ByteOrder.LITTLE_ENDIAN : java.nio.ByteOrder.BIG_ENDIAN);
+        tiff.putShort(littleEndian ? (short) 0x4949 : (short) 0x4D4D).putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientation).putShort((short) 0);
+        tiff.putInt(0);
+
+        ByteBuffer jpeg = ByteBuffer.allocate(2 + 4 + 6 + tiff.capacity());
+        jpeg.putShort((short) 0xFFD8).putShort((short) 0xFFE1).putShort((short) (2 + 6 + tiff.capacity()));
+        jpeg.put("Exif".getBytes()).putShort((short) 0).put(tiff.array());
+        return jpeg.flip();
+    }
+}
@@ -0,0 +1,107 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ImagePrefetcher.
+ */
+class ImagePrefetcherTest {
+
+    private static File[] writeImages(Path dir, int count) throws IOException {
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = dir.resolve("img%02d.jpg".formatted(i)).toFile();
+            ImageIO.write(JCodecParallelEncoderTest.testImage(40 + 4 * i, 30, i), "jpg", files[i]);
+        }
+        return files;
+    }
+
+    @Test
+    void take_returnsCenteredPicturesAtOutputSize(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 4);
+        for (int depth : new int[]{0, 1, 3}) {
+            try (var prefetcher = new ImagePrefetcher(ImageSource.ofFiles(files), List.of(0, 1, 2, 3), 64, 32, depth, RunStats.NONE)) {
+                for (int i = 0; i < files.length; i++) {
+                    var pic = prefetcher.take(i);
+                    assertEquals(64, pic.getWidth(), "depth " + depth);
+                    assertEquals(32, pic.getHeight(), "depth " + depth);
+                }
+            }
+        }
+    }
+
+    @Test
+    void take_outOfPlanOrder_stillLoads(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 4);
+        try (var prefetcher = new ImagePrefetcher(ImageSource.ofFiles(files), List.of(0, 1, 2, 3), 64, 32, 1, RunStats.NONE)) {
+            assertNotNull(prefetcher.take(2));
+            assertNotNull(prefetcher.take(0));
+            assertNotNull(prefetcher.take(1));
+            assertNotNull(prefetcher.take(3));
+        }
+    }
+
+    @Test
+    void take_withCorruptImage_throwsIOException(@TempDir Path tempDir) throws IOException {
+        File[] files = writeImages(tempDir, 2);
+        Files.write(files[1].toPath(), new byte[]{1, 2, 3, 4});
+        try (var prefetcher = new ImagePrefetcher(ImageSource.ofFiles(files), List.of(0, 1), 64, 32, 2, RunStats.NONE)) {
+            assertNotNull(prefetcher.take(0));
+            var ex = assertThrows(IOException.class, () -> prefetcher.take(1));
+            assertTrue(ex.getMessage().contains("img01.jpg"));
+        }
+    }
+
+    @Test
+    void take_fromIteratorSource_readsEachImageOnceInOrder() throws IOException {
+        List<Integer> served = new ArrayList<>();
+        Iterator<BufferedImage> images = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return served.size() < 5;
+            }
+
+            @Override
+            public BufferedImage next() {
+                served.add(served.size());
+                return JCodecParallelEncoderTest.testImage(80, 60, served.size());
+            }
+        };
+        var source = ImageSource.ofImages(5, 64, 32, images);
+        try (var prefetcher = new ImagePrefetcher(source, List.of(0, 1, 2, 3, 4), 64, 32, 3, RunStats.NONE)) {
+            for (int i = 0; i < 5; i++) {
+                var pic = prefetcher.take(i);
+                assertEquals(64, pic.getWidth());
+                assertEquals(32, pic.getHeight());
+            }
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4), served);
+    }
+
+    @Test
+    void imageSource_iteratorEndingEarly_throwsIOException() {
+        var source = ImageSource.ofEncodedImages(3, 64, 32, List.of(new byte[]{1}).iterator());
+        assertDoesNotThrow(() -> source.read(0));
+        var ex = assertThrows(IOException.class, () -> source.read(1));
+        assertTrue(ex.getMessage().contains("ended after 1 of 3"), ex.getMessage());
+    }
+
+    @Test
+    void imageSource_sequentialReadOutOfOrder_throws() {
+        var source = ImageSource.ofEncodedImages(3, 64, 32, List.of(new byte[]{1}, new byte[]{2}).iterator());
+        assertThrows(IllegalStateException.class, () -> source.read(1));
+    }
+}
@@ -0,0 +1,171 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ImageScaler.
+ */
+class ImageScalerTest {
+
+    private static byte[] jpeg(BufferedImage img) throws IOException {
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * {@code jpeg} with an EXIF APP1 segment carrying {@code orientation} inserted after its SOI.
+     */
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        ByteBuffer header = ImageIndexTest.jpegWithOrientation(orientation, false);
+        ByteBuffer out = ByteBuffer.allocate(header.remaining() + jpeg.length - 2);
+        out.put(header).put(jpeg, 2, jpeg.length - 2);
+        return out.array();
+    }
+
+    // ========== Geometry tests ==========
+
+    @Test
+    void fit_neverEnlarges() {
+        assertArrayEquals(new int[]{100, 50}, ImageScaler.fit(100, 50, 400, 400));
+    }
+
+    @Test
+    void fit_preservesAspectRatio() {
+        assertArrayEquals(new int[]{300, 200}, ImageScaler.fit(6000, 4000, 300, 300));
+        assertArrayEquals(new int[]{150, 300}, ImageScaler.fit(2000, 4000, 300, 300));
+    }
+
+    @Test
+    void subsampling_keepsSourceAtLeastTargetSize() {
+        assertEquals(1, ImageScaler.subsampling(100, 100, 100, 100));
+        assertEquals(3, ImageScaler.subsampling(6000, 4000, 1620, 1080));
+        assertEquals(2, ImageScaler.subsampling(600, 1000, 300, 400));
+    }
+
+    // ========== Decode and letterbox tests ==========
+
+    @Test
+    void decode_largeImage_isSubsampledButNotBelowTarget() throws IOException {
+        byte[] bytes = jpeg(JCodecParallelEncoderTest.testImage(800, 600, 1));
+
+        BufferedImage img = ImageScaler.decode(bytes, "big.jpg", 200, 200);
+
+        // fit is 200x150, factor min(800/200, 600/150) = 4
+        assertEquals(200, img.getWidth());
+        assertEquals(150, img.getHeight());
+    }
+
+    @Test
+    void decode_invalidData_throwsIOException() {
+        var ex = assertThrows(IOException.class, () -> ImageScaler.decode(new byte[]{1, 2, 3}, "bad.jpg", 10, 10));
+        assertTrue(ex.getMessage().contains("bad.jpg"));
+    }
+
+    @Test
+    void letterbox_scalesDownAndCentersOnBlack() {
+        BufferedImage src = new BufferedImage(400, 100, BufferedImage.TYPE_INT_RGB);
+        var g = src.createGraphics();
+        g.setColor(java.awt.Color.WHITE);
+        g.fillRect(0, 0, 400, 100);
+        g.dispose();
+
+        BufferedImage out = ImageScaler.letterbox(src, 200, 200);
+
+        assertEquals(200, out.getWidth());
+        assertEquals(200, out.getHeight());
+        // image occupies rows 75..124
+        assertEquals(0x000000, out.getRGB(100, 10) & 0xFFFFFF);
+        assertEquals(0xFFFFFF, out.getRGB(100, 100) & 0xFFFFFF);
+        assertEquals(0x000000, out.getRGB(100, 190) & 0xFFFFFF);
+    }
+
+    @Test
+    void letterbox_smallImage_isCenteredWithoutEnlarging() {
+        BufferedImage src = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        src.setRGB(0, 0, 0xFFFFFF);
+
+        BufferedImage out = ImageScaler.letterbox(src, 30, 30);
+
+        assertEquals(0xFFFFFF, out.getRGB(10, 10) & 0xFFFFFF);
+        assertEquals(0x000000, out.getRGB(9, 9) & 0xFFFFFF);
+    }
+
+    @Test
+    void resize_largeReduction_halvesInSteps() {
+        BufferedImage out = ImageScaler.resize(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_RGB), 90, 45);
+
+        assertEquals(90, out.getWidth());
+        assertEquals(45, out.getHeight());
+    }
+
+    // ========== Orientation tests ==========
+
+    @Test
+    void orient_movesEveryPixelAsExifSays() {
+        BufferedImage src = new BufferedImage(3, 2, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 2; y++) {
+            for (int x = 0; x < 3; x++) {
+                src.setRGB(x, y, y * 3 + x + 1);
+            }
+        }
+        // where source pixel (x, y) of a w x h image ends up, per orientation 1-8
+        for (int orientation = 1; orientation <= 8; orientation++) {
+            BufferedImage out = ImageScaler.orient(src, orientation);
+            boolean transposed = orientation >= 5;
+            assertEquals(transposed ? 2 : 3, out.getWidth());
+            assertEquals(transposed ? 3 : 2, out.getHeight());
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 3; x++) {
+                    int[] to = switch (orientation) {
+                        case 2 -> new int[]{2 - x, y};
+                        case 3 -> new int[]{2 - x, 1 - y};
+                        case 4 -> new int[]{x, 1 - y};
+                        case 5 -> new int[]{y, x};
+                        case 6 -> new int[]{1 - y, x};
+                        case 7 -> new int[]{1 - y, 2 - x};
+                        case 8 -> new int[]{y, 2 - x};
+                        default -> new int[]{x, y};
+                    };
+                    assertEquals(y * 3 + x + 1, out.getRGB(to[0], to[1]) & 0xFFFFFF,
+                            "orientation " + orientation + " pixel " + x + "," + y);
+                }
+            }
+        }
+        assertSame(src, ImageScaler.orient(src, 1));
+    }
+
+    @Test
+    void decode_rotatedJpeg_isUprightAndFitsTheBox() throws IOException {
+        BufferedImage stored = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        var g = stored.createGraphics();
+        g.setColor(java.awt.Color.WHITE);
+        g.fillRect(0, 0, 100, 600);
+        g.dispose();
+
+        // a quarter turn clockwise: the white left edge becomes the top
+        BufferedImage img = ImageScaler.decode(withOrientation(jpeg(stored), 6), "rotated.jpg", 200, 200);
+
+        assertEquals(150, img.getWidth());
+        assertEquals(200, img.getHeight());
+        assertTrue(ImageScaler.isYCbCr(img));
+        assertTrue(img.getRaster().getSample(75, 5, 0) > 200);
+        assertTrue(img.getRaster().getSample(75, 195, 0) < 50);
+    }
+
+    @Test
+    void maxDimensions_usesUprightSize() {
+        var landscape = new ImageIndex.ImageInfo("a.jpg", 1, 1, 800, 600, 1, "aa");
+        var portrait = new ImageIndex.ImageInfo("b.jpg", 1, 1, 800, 600, 8, "bb");
+        assertArrayEquals(new int[]{800, 800}, JCodecParallelEncoder.maxDimensions(List.of(landscape, portrait)));
+    }
+}
@@ -0,0 +1,340 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Decoder;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Picture;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.jcodec.containers.mp4.demuxer.MP4Demuxer;
+import org.jcodec.scale.AWTUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for JCodecParallelEncoder segment encoding.
+ */
+class JCodecParallelEncoderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * Synthetic test image: a diagonal gradient with a different tint per seed.
+     */
+    static BufferedImage testImage(int width, int height, int seed) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + seed * 40) & 0xFF;
+                int g = (y * 255 / height + seed * 80) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + seed * 20) & 0xFF;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * {@link #testImage} converted to a YUV420J picture.
+     */
+    static Picture testPicture(int width, int height, int seed) {
+        return AWTUtil.fromBufferedImage(testImage(width, height, seed), ColorSpace.YUV420J);
+    }
+
+    /**
+     * Decode every packet of a segment, returning one copy of the decoded luma plane per frame.
+     */
+    static List<byte[]> decodeLuma(List<MP4Packet> packets, int width, int height) {
+        H264Decoder decoder = new H264Decoder();
+        byte[][] buffer = Picture.create(width, height, ColorSpace.YUV420J).getData();
+        List<byte[]> frames = new ArrayList<>();
+        for (MP4Packet packet : packets) {
+            // the decoder unescapes in place, and skip frames share one read-only buffer
+            ByteBuffer data = ByteBuffer.allocate(packet.getData().remaining());
+            data.put(packet.getData().duplicate()).flip();
+            Picture pic = decoder.decodeFrame(data, buffer);
+            assertNotNull(pic, "packet " + frames.size() + " did not decode");
+            frames.add(pic.getPlaneData(0).clone());
+        }
+        return frames;
+    }
+
+    // ========== Segment plan tests ==========
+
+    @Test
+    void buildSegmentSpecs_withoutGopLimit_emitsOneSpecPerSegment() {
+        var specs = JCodecParallelEncoder.buildSegmentSpecs(3, 90, 20);
+        assertEquals(7, specs.size());
+        assertEquals(JCodecParallelEncoder.SegmentType.FADE_IN, specs.get(0).type());
+        assertEquals(JCodecParallelEncoder.SegmentType.HOLD, specs.get(1).type());
+        assertEquals(JCodecParallelEncoder.SegmentType.DISSOLVE, specs.get(2).type());
+        assertEquals(JCodecParallelEncoder.SegmentType.FADE_OUT, specs.get(6).type());
+        for (int i = 0; i < specs.size(); i++) {
+            assertEquals(i, specs.get(i).segmentIndex());
+            assertEquals(0, specs.get(i).firstFrame());
+            assertEquals(specs.get(i).frameCount(), specs.get(i).spanFrames());
+        }
+    }
+
+    @Test
+    void buildSegmentSpecs_withGopLimit_splitsLongSegmentsEvenly() {
+        var specs = JCodecParallelEncoder.buildSegmentSpecs(2, 100, 20, 30);
+        // FADE_IN(20) HOLD(100 -> 4 x 25) DISSOLVE(20) HOLD(4 x 25) FADE_OUT(20)
+        assertEquals(11, specs.size());
+        var hold = specs.subList(1, 5);
+        int expectedFirst = 0;
+        for (var spec : hold) {
+            assertEquals(JCodecParallelEncoder.SegmentType.HOLD, spec.type());
+            assertEquals(25, spec.frameCount());
+            assertEquals(expectedFirst, spec.firstFrame());
+            assertEquals(100, spec.spanFrames());
+            expectedFirst += spec.frameCount();
+        }
+        for (int i = 0; i < specs.size(); i++) {
+            assertEquals(i, specs.get(i).segmentIndex());
+            assertTrue(specs.get(i).frameCount() <= 30);
+        }
+        assertEquals(2 * 100 + 3 * 20, specs.stream().mapToInt(JCodecParallelEncoder.SegmentSpec::frameCount).sum());
+    }
+
+    @Test
+    void dissolveSegment_splitIntoGops_blendsOverWholeSpan() throws InterruptedException {
+        Picture a = testPicture(WIDTH, HEIGHT, 1);
+        Picture b = testPicture(WIDTH, HEIGHT, 4);
+        var ctx = EncoderContext.current();
+        var whole = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1, 20);
+        var tail = new JCodecParallelEncoder.SegmentSpec(1, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1,
+                10, 10, 20);
+
+        var wholeFrames = decodeLuma(packetsOf(sink -> JCodecParallelEncoder.encodeTransitionSegment(
+                ctx, whole, Transition.DISSOLVE, a, b, 30, sink)), WIDTH, HEIGHT);
+        var tailFrames = decodeLuma(packetsOf(sink -> JCodecParallelEncoder.encodeTransitionSegment(
+                ctx, tail, Transition.DISSOLVE, a, b, 30, sink)), WIDTH, HEIGHT);
+
+        assertEquals(10, tailFrames.size());
+        // same blend weights as the matching frames of the unsplit segment, up to coding loss
+        assertTrue(meanAbsDiff(wholeFrames.get(10), tailFrames.get(0)) < 2.0);
+        assertTrue(meanAbsDiff(wholeFrames.get(19), tailFrames.get(9)) < 2.0);
+    }
+
+    /**
+     * Encodes a segment into a packet list.
+     */
+    @FunctionalInterface
+    private interface SegmentEncoding {
+        void encodeTo(JCodecParallelEncoder.PacketSink sink) throws InterruptedException;
+    }
+
+    private static List<MP4Packet> packetsOf(SegmentEncoding encoding) throws InterruptedException {
+        List<MP4Packet> packets = new ArrayList<>();
+        encoding.encodeTo(packets::add);
+        return packets;
+    }
+
+    private static double meanAbsDiff(byte[] x, byte[] y) {
+        long sum = 0;
+        for (int i = 0; i < x.length; i++) {
+            sum += Math.abs(x[i] - y[i]);
+        }
+        return (double) sum / x.length;
+    }
+
+    // ========== Output size tests ==========
+
+    @Test
+    void outputDimensions_withoutCap_isBoundingBox() {
+        assertArrayEquals(new int[]{6000, 4000}, JCodecParallelEncoder.outputDimensions(6000, 4000, 0, 0));
+        assertArrayEquals(new int[]{1281, 721}, JCodecParallelEncoder.outputDimensions(1281, 721, 1920, 1080));
+    }
+
+    @Test
+    void outputDimensions_withCap_scalesBoxToFitAndRoundsToEven() {
+        assertArrayEquals(new int[]{1620, 1080}, JCodecParallelEncoder.outputDimensions(6000, 4000, 1920, 1080));
+        assertArrayEquals(new int[]{1280, 852}, JCodecParallelEncoder.outputDimensions(6000, 4000, 1280, 0));
+        assertArrayEquals(new int[]{1920, 1080}, JCodecParallelEncoder.outputDimensions(3840, 2160, 1920, 1080));
+    }
+
+    // ========== HOLD segment tests ==========
+
+    @Test
+    void holdSegment_encodesOneKeyFrameFollowedBySkipFrames() throws InterruptedException {
+        var spec = new JCodecParallelEncoder.SegmentSpec(3, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 40);
+        var packets = packetsOf(sink -> JCodecParallelEncoder.encodeHoldSegment(
+                EncoderContext.current(), spec, testPicture(WIDTH, HEIGHT, 1), 30, sink));
+
+        assertEquals(40, packets.size());
+        assertEquals(Packet.FrameType.KEY, packets.get(0).getFrameType());
+        for (int i = 1; i < 40; i++) {
+            MP4Packet packet = packets.get(i);
+            assertEquals(Packet.FrameType.INTER, packet.getFrameType());
+            assertEquals(i, packet.getPts());
+            assertTrue(packet.getData().remaining() < 16, "skip frame should be a few bytes");
+        }
+    }
+
+    @Test
+    void holdSegment_skipFramesDecodeToKeyFrame() throws InterruptedException {
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 40);
+        var packets = packetsOf(sink -> JCodecParallelEncoder.encodeHoldSegment(
+                EncoderContext.current(), spec, testPicture(WIDTH, HEIGHT, 2), 30, sink));
+
+        List<byte[]> frames = decodeLuma(packets, WIDTH, HEIGHT);
+        for (int i = 1; i < frames.size(); i++) {
+            assertArrayEquals(frames.get(0), frames.get(i), "frame " + i + " differs from key frame");
+        }
+    }
+
+    @Test
+    void holdSegment_withZeroFrames_isEmpty() throws InterruptedException {
+        var spec = new JCodecParallelEncoder.SegmentSpec(1, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 0);
+        assertTrue(packetsOf(sink -> JCodecParallelEncoder.encodeHoldSegment(
+                EncoderContext.current(), spec, testPicture(WIDTH, HEIGHT, 0), 30, sink)).isEmpty());
+    }
+
+    // ========== Embedding tests ==========
+
+    private static byte[] jpeg(int seed) {
+        var bytes = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(testImage(WIDTH, HEIGHT, seed), "jpg", bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void encode_imageIteratorToStreamingChannel_writesFragmentedMp4AndReportsProgress() throws Exception {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setOutputFormat(OutputFormat.FMP4);
+        List<String> messages = new ArrayList<>();
+        List<long[]> progress = new ArrayList<>();
+        encoder.setProgressListener(new ProgressListener() {
+            @Override
+            public void message(String message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void segmentWritten(int segmentsWritten, int totalSegments, long framesWritten, long totalFrames) {
+                progress.add(new long[]{segmentsWritten, totalSegments, framesWritten, totalFrames});
+            }
+        });
+
+        var source = ImageSource.ofImages(3, WIDTH, HEIGHT,
+                IntStream.range(0, 3).mapToObj(i -> testImage(WIDTH, HEIGHT, i)).iterator());
+        var bytes = new ByteArrayOutputStream();
+        encoder.encode(source, 5, 3, 10, Channels.newChannel(bytes), 2);
+
+        // fade in, 3 holds, 2 dissolves, fade out
+        assertEquals(7, progress.size());
+        assertArrayEquals(new long[]{7, 7, 27, 27}, progress.getLast());
+        assertTrue(messages.contains("Output resolution: %dx%d".formatted(WIDTH, HEIGHT)), messages.toString());
+        byte[] out = bytes.toByteArray();
+        assertEquals("ftyp", new String(out, 4, 4, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void encode_encodedImagesToSeekableChannel_writesMp4(@TempDir Path tempDir) throws Exception {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        Path file = tempDir.resolve("out.mp4");
+        try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            encoder.encode(ImageSource.ofEncodedImages(2, WIDTH, HEIGHT, JCodecParallelEncoderTest::jpeg),
+                    4, 2, 10, channel, 2);
+            assertTrue(channel.isOpen(), "caller's channel is left open");
+        }
+        try (var in = NIOUtils.readableChannel(file.toFile())) {
+            var track = MP4Demuxer.createMP4Demuxer(in).getVideoTrack();
+            assertEquals(2 + 2 * 4 + 2 + 2, track.getMeta().getTotalFrames());
+        }
+    }
+
+    @Test
+    void encode_mp4ToNonSeekableChannel_isRejected() {
+        var encoder = new JCodecParallelEncoder();
+        var source = ImageSource.ofEncodedImages(1, WIDTH, HEIGHT, JCodecParallelEncoderTest::jpeg);
+        assertThrows(IllegalArgumentException.class,
+                () -> encoder.encode(source, 4, 2, 10, Channels.newChannel(new ByteArrayOutputStream()), 1));
+    }
+
+    // ========== Allocation tests ==========
+
+    @Test
+    void dissolveSegment_steadyStateAllocationPerFrame_isBounded() throws InterruptedException {
+        var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled(),
+                "thread allocation accounting not available");
+
+        int width = 320;
+        int height = 240;
+        int frames = 50;
+        Picture a = testPicture(width, height, 1);
+        Picture b = testPicture(width, height, 5);
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1, frames);
+        var ctx = EncoderContext.current();
+
+        // warm up: sizes the context's buffers and gets the hot loop compiled
+        List<MP4Packet> packets = new ArrayList<>(frames);
+        for (int i = 0; i < 3; i++) {
+            JCodecParallelEncoder.encodeTransitionSegment(ctx, spec, Transition.DISSOLVE, a, b, 30, packets::add);
+            packets.clear();
+        }
+
+        long threadId = Thread.currentThread().threadId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        JCodecParallelEncoder.encodeTransitionSegment(ctx, spec, Transition.DISSOLVE, a, b, 30, packets::add);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        long payload = packets.stream().mapToLong(p -> p.getData().remaining()).sum();
+        long perFrame = (allocated - payload) / frames;
+        long jcodecPerFrame = encoderAllocationPerFrame(threadBean, a, frames);
+        // JCodec's H264Encoder allocates its reconstructed picture, slice buffer and macroblock
+        // scratch inside every encode call; that is outside our control. Everything on our side
+        // (formerly a 3 bytes/pixel output buffer, a payload copy buffer and pictures) must be gone;
+        // the quarter byte per pixel of slack covers packet objects and content-dependent encoder work.
+        long budget = jcodecPerFrame + (long) width * height / 4;
+        assertTrue(perFrame < budget,
+                "allocated " + perFrame + " bytes/frame beyond payload, budget " + budget);
+    }
+
+    /**
+     * Baseline: bytes allocated per frame by a bare, warmed-up H264Encoder writing into a preallocated buffer.
+     */
+    private static long encoderAllocationPerFrame(com.sun.management.ThreadMXBean threadBean, Picture pic,
+                                                  int frames) {
+        var encoder = org.jcodec.codecs.h264.H264Encoder.createH264Encoder();
+        ByteBuffer out = ByteBuffer.allocate(pic.getWidth() * pic.getHeight() * 3);
+        for (int i = 0; i < 3 * frames; i++) {
+            out.clear();
+            encoder.encodeFrame(pic, out);
+        }
+        long threadId = Thread.currentThread().threadId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < frames; i++) {
+            out.clear();
+            encoder.encodeFrame(pic, out);
+        }
+        return (threadBean.getThreadAllocatedBytes(threadId) - before) / frames;
+    }
+}
@@ -0,0 +1,124 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for sizing concurrency, in-flight window and prefetch to a memory budget.
+ */
+class MemoryBudgetTest {
+
+    private static final long MB = 1024 * 1024;
+
+    // ========== Plan tests ==========
+
+    @Test
+    void plan_8kOnSmallBudget_reducesWorkersAndPrefetch() {
+        var budget = new MemoryBudget(2048 * MB, 7680, 4320);
+        var plan = budget.plan(16, 4);
+        assertTrue(plan.workers() < 16, plan.toString());
+        assertTrue(plan.workers() >= 1, plan.toString());
+        assertTrue(plan.window() >= 2 * plan.workers(), plan.toString());
+        assertTrue(plan.prefetch() < 4, plan.toString());
+    }
+
+    @Test
+    void plan_1080pOnLargeBudget_keepsWorkersAndGrowsWindowAndPrefetch() {
+        var budget = new MemoryBudget(8192 * MB, 1920, 1080);
+        var plan = budget.plan(16, 2);
+        assertEquals(16, plan.workers());
+        assertEquals(MemoryBudget.MAX_WINDOW_PER_WORKER * 16, plan.window());
+        assertEquals(16, plan.prefetch());
+    }
+
+    @Test
+    void plan_budgetBelowOneWorker_throws() {
+        var budget = new MemoryBudget(100 * MB, 7680, 4320);
+        var ex = assertThrows(IllegalArgumentException.class, () -> budget.plan(4, 2));
+        assertTrue(ex.getMessage().startsWith("Memory budget of 100 MB is too small for 7680x4320 output"),
+                ex.getMessage());
+    }
+
+    // ========== Runtime tests ==========
+
+    @Test
+    void segmentMuxed_smallPackets_growWindow() {
+        var budget = new MemoryBudget(512 * MB, 3840, 2160);
+        int before = budget.window(4, 2, 1000);
+        assertTrue(budget.segmentMuxed(25 * 20_000, 25));
+        int after = budget.window(4, 2, 1000);
+        assertTrue(after > before, before + " -> " + after);
+
+        // only a larger segment mean changes the estimate from now on
+        assertFalse(budget.segmentMuxed(25 * 1_000, 25));
+        assertTrue(budget.segmentMuxed(25 * 400_000, 25));
+        assertTrue(budget.window(4, 2, 1000) < after);
+    }
+
+    @Test
+    void resizeWindow_growsAndShrinksInFlightLimit() throws Exception {
+        try (var scheduler = new SegmentScheduler(Executors.newSingleThreadExecutor(), 1)) {
+            scheduler.awaitSlot();
+            scheduler.resizeWindow(3);
+            scheduler.awaitSlot();
+            scheduler.awaitSlot();
+            assertEquals(3, scheduler.peakInFlight());
+
+            scheduler.resizeWindow(1);
+            assertEquals(1, scheduler.windowSize());
+            scheduler.segmentWritten();
+            scheduler.segmentWritten();
+            scheduler.segmentWritten();
+            scheduler.awaitSlot();
+            Thread blocked = Thread.ofPlatform().start(() -> {
+                try {
+                    scheduler.awaitSlot();
+                } catch (Exception ignored) {
+                }
+            });
+            blocked.join(200);
+            assertTrue(blocked.isAlive(), "window of 1 is full");
+            scheduler.segmentWritten();
+            blocked.join(10_000);
+            assertFalse(blocked.isAlive());
+        }
+    }
+
+    @Test
+    void encode_withBudget_writesAllFramesAndReportsWindow() throws Exception {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setOutputFormat(OutputFormat.FMP4);
+        encoder.setMaxMemory(256 * MB);
+        var messages = new java.util.ArrayList<String>();
+        encoder.setProgressListener(new ProgressListener() {
+            @Override
+            public void message(String message) {
+                messages.add(message);
+            }
+        });
+        var source = ImageSource.ofImages(3, 64, 48, i -> JCodecParallelEncoderTest.testImage(64, 48, i));
+        var bytes = new ByteArrayOutputStream();
+        encoder.encode(source, 5, 3, 10, Channels.newChannel(bytes), 2);
+        assertTrue(bytes.size() > 0);
+        assertTrue(messages.stream().anyMatch(m -> m.startsWith("Memory budget: 256 MB")), messages.toString());
+    }
+
+    // ========== Size parsing tests ==========
+
+    @Test
+    void parseSize_acceptsSuffixesAndPlainMegabytes() {
+        assertEquals(512 * MB, Main.parseSize("512"));
+        assertEquals(512 * MB, Main.parseSize("512m"));
+        assertEquals(2048 * MB, Main.parseSize("2G"));
+        assertEquals(1536 * MB, Main.parseSize("1.5gb"));
+        assertEquals(64 * 1024, Main.parseSize("64k"));
+        assertEquals(-1, Main.parseSize("lots"));
+        assertEquals(-1, Main.parseSize("0"));
+        assertEquals(-1, Main.parseSize("-1g"));
+    }
+}
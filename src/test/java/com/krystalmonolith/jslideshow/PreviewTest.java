@@ -0,0 +1,177 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.model.Picture;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.jcodec.containers.mp4.demuxer.MP4Demuxer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for preview rendering: fewer, longer frames on the same timeline, and decoding from
+ * embedded EXIF thumbnails.
+ */
+class PreviewTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A JPEG of {@code image} whose EXIF APP1 segment carries {@code thumbnail} in IFD1.
+     */
+    static byte[] jpegWithThumbnail(BufferedImage image, BufferedImage thumbnail) throws IOException {
+        byte[] main = jpeg(image);
+        byte[] thumb = jpeg(thumbnail);
+        // header, empty IFD0 pointing at IFD1, IFD1 with the thumbnail's offset and length
+        ByteBuffer tiff = ByteBuffer.allocate(44 + thumb.length);
+        tiff.putShort((short) 0x4D4D).putShort((short) 42).putInt(8);
+        tiff.putShort((short) 0).putInt(14);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(44);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumb.length);
+        tiff.putInt(0).put(thumb);
+
+        ByteBuffer out = ByteBuffer.allocate(main.length + 10 + tiff.capacity());
+        out.putShort((short) 0xFFD8).putShort((short) 0xFFE1).putShort((short) (2 + 6 + tiff.capacity()));
+        out.put("Exif".getBytes()).putShort((short) 0).put(tiff.array());
+        out.put(main, 2, main.length - 2);
+        return out.array();
+    }
+
+    private static Picture picture(int seed) {
+        return JCodecParallelEncoderTest.testPicture(64, 48, seed);
+    }
+
+    // ========== Thumbnail tests ==========
+
+    @Test
+    void exifThumbnail_findsIfd1Jpeg() throws IOException {
+        byte[] thumb = jpeg(JCodecParallelEncoderTest.testImage(40, 30, 1));
+        byte[] file = jpegWithThumbnail(JCodecParallelEncoderTest.testImage(400, 300, 0),
+                JCodecParallelEncoderTest.testImage(40, 30, 1));
+        assertEquals(ByteBuffer.wrap(thumb), ImageIndex.exifThumbnail(ByteBuffer.wrap(file)));
+        assertNull(ImageIndex.exifThumbnail(ByteBuffer.wrap(jpeg(JCodecParallelEncoderTest.testImage(40, 30, 1)))));
+    }
+
+    @Test
+    void decode_usesThumbnailOnlyWhenLargeEnoughWithSameAspect() throws IOException {
+        byte[] file = jpegWithThumbnail(JCodecParallelEncoderTest.testImage(400, 300, 0),
+                JCodecParallelEncoderTest.testImage(160, 120, 1));
+
+        BufferedImage fromThumbnail = ImageScaler.decode(file, "img.jpg", 160, 120, true);
+        assertEquals(160, fromThumbnail.getWidth());
+        assertEquals(120, fromThumbnail.getHeight());
+        // a box the thumbnail cannot fill, or previews off, decode the image itself
+        assertEquals(400, ImageScaler.decode(file, "img.jpg", 320, 240, true).getWidth());
+        assertEquals(200, ImageScaler.decode(file, "img.jpg", 160, 120, false).getWidth());
+
+        byte[] square = jpegWithThumbnail(JCodecParallelEncoderTest.testImage(400, 300, 0),
+                JCodecParallelEncoderTest.testImage(160, 160, 1));
+        assertEquals(200, ImageScaler.decode(square, "img.jpg", 160, 120, true).getWidth());
+    }
+
+    // ========== Frame step tests ==========
+
+    @Test
+    void encodeOneSegment_preview_encodesEveryStepFramesOverTheSameSpan() throws Exception {
+        var dissolve = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1, 10);
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(dissolve, Map.of(0, picture(0), 1, picture(1)), 30, 3, null,
+                packets::add, RunStats.NONE);
+        assertEquals(List.of(0L, 3L, 6L, 9L), packets.stream().map(MP4Packet::getPts).toList());
+        assertEquals(List.of(3L, 3L, 3L, 1L), packets.stream().map(MP4Packet::getDuration).toList());
+        assertTrue(packets.getFirst().isKeyFrame());
+
+        var hold = new JCodecParallelEncoder.SegmentSpec(1, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 40);
+        packets.clear();
+        JCodecParallelEncoder.encodeOneSegment(hold, Map.of(0, picture(0)), 30, 3, null, packets::add,
+                RunStats.NONE);
+        assertEquals(1, packets.size());
+        assertEquals(40, packets.getFirst().getDuration());
+    }
+
+    @Test
+    void fragmentedOutput_countsPacketDurations() throws Exception {
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.FADE_IN, 0, -1, 8);
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, Map.of(0, picture(0)), 30, 3, null, packets::add, RunStats.NONE);
+        try (var out = new FragmentedMp4Output(Channels.newChannel(new ByteArrayOutputStream()), 64, 48, 30)) {
+            out.beginSegment(0);
+            for (MP4Packet packet : packets) {
+                out.writeFrame(packet);
+            }
+            out.endSegment();
+            assertEquals(8, out.framesWritten());
+        }
+    }
+
+    // ========== Run tests ==========
+
+    @Test
+    void encode_preview_keepsTimingWithFewerSmallerFrames() throws Exception {
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = tempDir.resolve("img" + i + ".jpg").toFile();
+            Files.write(files[i].toPath(), jpegWithThumbnail(JCodecParallelEncoderTest.testImage(800, 600, i),
+                    JCodecParallelEncoderTest.testImage(480, 360, i)));
+        }
+        File full = tempDir.resolve("full.mp4").toFile();
+        var encoder = new JCodecParallelEncoder();
+        encoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        encoder.encode(files, 12, 6, 30, full, 2);
+
+        File preview = tempDir.resolve("preview.mp4").toFile();
+        Path report = tempDir.resolve("report.json");
+        var previewEncoder = new JCodecParallelEncoder();
+        previewEncoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        previewEncoder.setPreview(true);
+        previewEncoder.setReport(report);
+        previewEncoder.encode(files, 12, 6, 30, preview, 2);
+
+        var fullMeta = MP4Demuxer.createMP4Demuxer(NIOUtils.readableChannel(full)).getVideoTrack().getMeta();
+        var previewMeta = MP4Demuxer.createMP4Demuxer(NIOUtils.readableChannel(preview)).getVideoTrack().getMeta();
+        assertEquals(fullMeta.getTotalDuration(), previewMeta.getTotalDuration());
+        assertEquals(3 * 12 + 4 * 6, fullMeta.getTotalFrames());
+        // 3 holds of one frame, 4 transitions of 2 frames
+        assertEquals(3 + 4 * 2, previewMeta.getTotalFrames());
+        assertEquals(480, previewMeta.getVideoCodecMeta().getSize().getWidth());
+        assertEquals(360, previewMeta.getVideoCodecMeta().getSize().getHeight());
+
+        String json = Files.readString(report);
+        assertTrue(json.contains("\"frames\": 60"), json);
+        assertTrue(json.contains("\"frameStep\": 3"), json);
+        assertTrue(json.contains("\"encodedFrames\": 11"), json);
+    }
+
+    @Test
+    void encode_previewWithRemoteWorkers_throws() {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        encoder.setPreview(true);
+        encoder.setRemoteWorkers(List.of(new java.net.InetSocketAddress("127.0.0.1", 1)));
+        assertThrows(IllegalArgumentException.class, () -> encoder.encode(
+                ImageSource.ofImages(2, 64, 48, i -> JCodecParallelEncoderTest.testImage(64, 48, i)), 5, 3, 30,
+                Channels.newChannel(new ByteArrayOutputStream()), 1));
+    }
+}
@@ -0,0 +1,189 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.codecs.h264.H264Encoder;
+import org.jcodec.common.model.Picture;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for rate modes (constant QP, target bitrate, per segment type) and PSNR measurement.
+ */
+class RateControlTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAME_RATE = 30;
+
+    @TempDir
+    Path tempDir;
+
+    private static Picture picture(int seed) {
+        return JCodecParallelEncoderTest.testPicture(WIDTH, HEIGHT, seed);
+    }
+
+    /**
+     * Encode a 25-frame dissolve between two test pictures at {@code mode}.
+     */
+    private static List<MP4Packet> dissolve(RateMode mode, RunStats stats) throws InterruptedException {
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.DISSOLVE, 0, 1, 25);
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, Map.of(0, picture(0), 1, picture(1)), FRAME_RATE, mode,
+                packets::add, stats);
+        return packets;
+    }
+
+    private static long bytes(List<MP4Packet> packets) {
+        return packets.stream().mapToLong(p -> p.getData().remaining()).sum();
+    }
+
+    // ========== Rate mode tests ==========
+
+    @Test
+    void defaultMode_matchesJCodecDefaultEncoder() throws Exception {
+        Picture pic = picture(0);
+        var plain = H264Encoder.createH264Encoder();
+        ByteBuffer expected = plain.encodeIDRFrame(pic, ByteBuffer.allocate(WIDTH * HEIGHT * 3));
+
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 1);
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, Map.of(0, pic), FRAME_RATE, null, packets::add, RunStats.NONE);
+        assertEquals(expected, packets.getFirst().getData());
+    }
+
+    @Test
+    void constantQp_lowerQpGivesLargerOutput() throws Exception {
+        long fine = bytes(dissolve(RateMode.constantQp(12), RunStats.NONE));
+        long coarse = bytes(dissolve(RateMode.constantQp(40), RunStats.NONE));
+        assertTrue(fine > 2 * coarse, fine + " vs " + coarse);
+    }
+
+    @Test
+    void targetBitrate_capsSegmentSize() throws Exception {
+        long bitsPerSecond = 600_000;
+        long uncapped = bytes(dissolve(RateMode.constantQp(12), RunStats.NONE));
+        long capped = bytes(dissolve(RateMode.targetBitrate(bitsPerSecond), RunStats.NONE));
+        long budget = bitsPerSecond / 8 * 25 / FRAME_RATE;
+        assertTrue(uncapped > 2 * budget, "test content must need more than the budget: " + uncapped);
+        assertTrue(capped <= budget * 1.25, capped + " bytes for a budget of " + budget);
+    }
+
+    @Test
+    void targetBitrate_sameSegmentEncodesToSameBytes() throws Exception {
+        RateMode mode = RateMode.targetBitrate(800_000);
+        List<MP4Packet> first = dissolve(mode, RunStats.NONE);
+        dissolve(RateMode.constantQp(40), RunStats.NONE);
+        List<MP4Packet> again = dissolve(mode, RunStats.NONE);
+        assertEquals(first.size(), again.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getData(), again.get(i).getData(), "packet " + i);
+        }
+    }
+
+    @Test
+    void constantQp_outOfRange_throws() {
+        assertThrows(IllegalArgumentException.class, () -> RateMode.constantQp(52));
+        assertThrows(IllegalArgumentException.class, () -> RateMode.targetBitrate(0));
+    }
+
+    // ========== Quality tests ==========
+
+    @Test
+    void measure_coarserQpLowersPsnr() throws Exception {
+        var fine = new QualityStats();
+        dissolve(RateMode.constantQp(12), new RunStats(fine));
+        var coarse = new QualityStats();
+        dissolve(RateMode.constantQp(40), new RunStats(coarse));
+
+        var type = JCodecParallelEncoder.SegmentType.DISSOLVE;
+        assertEquals(25, fine.frames(type));
+        assertTrue(fine.meanPsnrY(type) > 40, "psnr " + fine.meanPsnrY(type));
+        assertTrue(coarse.meanPsnrY(type) < fine.meanPsnrY(type) - 5,
+                coarse.meanPsnrY(type) + " vs " + fine.meanPsnrY(type));
+    }
+
+    @Test
+    void psnr_identicalPictures_isLossless() {
+        double[] psnr = QualityStats.psnr(picture(3), picture(3));
+        assertEquals(QualityStats.LOSSLESS_PSNR, psnr[0]);
+        assertEquals(QualityStats.LOSSLESS_PSNR, psnr[1]);
+    }
+
+    @Test
+    void encode_perTypeModesAndPsnr_reportedWithoutChangingOutput() throws Exception {
+        var source = ImageSource.ofImages(3, 64, 48, i -> JCodecParallelEncoderTest.testImage(64, 48, i));
+        var plainBytes = new ByteArrayOutputStream();
+        var plain = new JCodecParallelEncoder();
+        plain.setOutputFormat(OutputFormat.FMP4);
+        plain.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        plain.setHoldRateMode(RateMode.constantQp(20));
+        plain.setTransitionRateMode(RateMode.targetBitrate(200_000));
+        plain.encode(source, 5, 3, 10, Channels.newChannel(plainBytes), 2);
+
+        Path report = tempDir.resolve("report.json");
+        var measuredBytes = new ByteArrayOutputStream();
+        var measured = new JCodecParallelEncoder();
+        measured.setOutputFormat(OutputFormat.FMP4);
+        measured.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        measured.setHoldRateMode(RateMode.constantQp(20));
+        measured.setTransitionRateMode(RateMode.targetBitrate(200_000));
+        measured.setMeasureQuality(true);
+        measured.setReport(report);
+        measured.encode(source, 5, 3, 10, Channels.newChannel(measuredBytes), 2);
+
+        assertArrayEquals(plainBytes.toByteArray(), measuredBytes.toByteArray());
+        String json = Files.readString(report);
+        assertTrue(json.contains("\"hold\": \"qp 20\""), json);
+        assertTrue(json.contains("\"transition\": \"200 kbit/s\""), json);
+        assertTrue(json.contains("\"meanPsnrY\": "), json);
+    }
+
+    @Test
+    void encode_onWorker_usesRequestedRateMode() throws Exception {
+        Path image = tempDir.resolve("img.png");
+        ImageIO.write(JCodecParallelEncoderTest.testImage(64, 48, 0), "png", image.toFile());
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, 3);
+        var request = new SegmentProtocol.Request(spec, 10, 64, 48, RateMode.constantQp(40),
+                SegmentProtocol.ImageRef.of(image), null);
+
+        List<MP4Packet> local = new ArrayList<>();
+        var picture = ImagePrefetcher.load(ImageSource.ofFiles(new File[]{image.toFile()}).read(0), 64, 48,
+                RunStats.NONE);
+        JCodecParallelEncoder.encodeOneSegment(spec, Map.of(0, picture), 10, RateMode.constantQp(40), local::add,
+                RunStats.NONE);
+
+        List<MP4Packet> remote = new ArrayList<>();
+        try (var worker = new SegmentWorkerServer(new InetSocketAddress("127.0.0.1", 0), 1, List.of(tempDir));
+             var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+            encoder.connect();
+            encoder.encode(request, remote::add, RunStats.NONE);
+        }
+        assertEquals(local.getFirst().getData(), remote.getFirst().getData());
+    }
+
+    // ========== Bitrate parsing tests ==========
+
+    @Test
+    void parseBitrate_acceptsSuffixesAndPlainKilobits() {
+        assertEquals(800_000, Main.parseBitrate("800"));
+        assertEquals(800_000, Main.parseBitrate("800k"));
+        assertEquals(2_500_000, Main.parseBitrate("2.5M"));
+        assertEquals(1_000_000_000, Main.parseBitrate("1g"));
+        assertEquals(-1, Main.parseBitrate("fast"));
+        assertEquals(-1, Main.parseBitrate("0"));
+    }
+}
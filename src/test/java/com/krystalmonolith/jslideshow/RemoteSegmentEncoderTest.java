@@ -0,0 +1,326 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.containers.mp4.MP4Packet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for distributed encoding: segment workers, the coordinator's retries, and
+ * whole runs encoded remotely.
+ */
+class RemoteSegmentEncoderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @TempDir
+    Path tempDir;
+
+    private File[] writeImages(int count) throws IOException {
+        File[] files = new File[count];
+        for (int i = 0; i < count; i++) {
+            files[i] = tempDir.resolve("img%02d.jpg".formatted(i)).toFile();
+            ImageIO.write(JCodecParallelEncoderTest.testImage(WIDTH, HEIGHT, i), "jpg", files[i]);
+        }
+        return files;
+    }
+
+    private SegmentWorkerServer startWorker(int slots) throws IOException {
+        return new SegmentWorkerServer(new InetSocketAddress("127.0.0.1", 0), slots, List.of(tempDir));
+    }
+
+    private static SegmentProtocol.Request holdRequest(Path image, int frames) {
+        var spec = new JCodecParallelEncoder.SegmentSpec(0, JCodecParallelEncoder.SegmentType.HOLD, 0, -1, frames);
+        return new SegmentProtocol.Request(spec, 10, WIDTH, HEIGHT, null, SegmentProtocol.ImageRef.of(image), null);
+    }
+
+    /**
+     * A worker that completes the handshake and then hangs up on every request.
+     */
+    private static ServerSocket startFailingWorker(AtomicInteger requests) throws IOException {
+        ServerSocket server = new ServerSocket(0, 50, java.net.InetAddress.getLoopbackAddress());
+        Thread.ofPlatform().daemon().start(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept();
+                     var in = new DataInputStream(socket.getInputStream());
+                     var out = new DataOutputStream(socket.getOutputStream())) {
+                    in.readInt();
+                    in.readInt();
+                    out.writeInt(SegmentProtocol.MAGIC);
+                    out.writeInt(SegmentProtocol.VERSION);
+                    out.writeInt(4);
+                    out.flush();
+                    in.readInt();
+                    requests.incrementAndGet();
+                } catch (IOException e) {
+                    // next connection
+                }
+            }
+        });
+        return server;
+    }
+
+    // ========== Worker tests ==========
+
+    @Test
+    void encode_onWorker_returnsSamePacketsAsLocalEncoder() throws Exception {
+        File[] images = writeImages(1);
+        List<MP4Packet> local = new ArrayList<>();
+        var picture = ImagePrefetcher.load(ImageSource.ofFiles(images).read(0), WIDTH, HEIGHT, RunStats.NONE);
+        JCodecParallelEncoder.encodeHoldSegment(EncoderContext.current(),
+                holdRequest(images[0].toPath(), 5).spec(), picture, 10, local::add);
+
+        List<MP4Packet> remote = new ArrayList<>();
+        try (var worker = startWorker(1);
+             var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+            assertEquals(1, encoder.connect());
+            encoder.encode(holdRequest(images[0].toPath(), 5), remote::add, RunStats.NONE);
+            assertEquals(1, worker.segmentsEncoded());
+        }
+
+        assertEquals(local.size(), remote.size());
+        for (int i = 0; i < local.size(); i++) {
+            assertEquals(local.get(i).getData(), remote.get(i).getData(), "packet " + i);
+            assertEquals(local.get(i).isKeyFrame(), remote.get(i).isKeyFrame());
+        }
+    }
+
+    @Test
+    void encode_workerReportsError_failsWithoutRetry() throws Exception {
+        try (var worker = startWorker(1);
+             var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+            encoder.connect();
+            var ex = assertThrows(IOException.class, () ->
+                    encoder.encode(holdRequest(tempDir.resolve("missing.jpg"), 5), packet -> { }, RunStats.NONE));
+            assertTrue(ex.getMessage().contains("could not encode segment 0"), ex.getMessage());
+            assertEquals(0, encoder.retries());
+        }
+    }
+
+    // ========== Worker safety tests ==========
+
+    /**
+     * Handshake with a worker, send {@code request} as raw bytes and return the error it replies.
+     * Asserts that the worker then hangs up.
+     */
+    private static String sendRaw(InetSocketAddress address, byte[] request) throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort());
+             var in = new DataInputStream(socket.getInputStream());
+             var out = new DataOutputStream(socket.getOutputStream())) {
+            out.writeInt(SegmentProtocol.MAGIC);
+            out.writeInt(SegmentProtocol.VERSION);
+            out.write(request);
+            out.flush();
+            assertEquals(SegmentProtocol.MAGIC, in.readInt());
+            assertEquals(SegmentProtocol.VERSION, in.readInt());
+            in.readInt();
+            assertEquals(SegmentProtocol.ERROR, in.readByte());
+            String message = in.readUTF();
+            assertEquals(-1, in.read(), "connection closed after a malformed request");
+            return message;
+        }
+    }
+
+    /**
+     * A hold request of {@code width} x {@code height} whose image is sent as {@code length}
+     * bytes, followed by no image data.
+     */
+    private static byte[] rawHoldRequest(int width, int height, int length) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeByte(JCodecParallelEncoder.SegmentType.HOLD.ordinal());
+        out.writeInt(0);
+        out.writeInt(-1);
+        out.writeInt(5);
+        out.writeInt(0);
+        out.writeInt(5);
+        out.writeInt(10);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeByte(SegmentProtocol.DEFAULT_RATE);
+        out.writeUTF(Transition.DISSOLVE.name());
+        out.writeByte(SegmentProtocol.BYTES);
+        out.writeInt(length);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void encode_pathOutsideImageRoots_isRefused() throws Exception {
+        File[] images = writeImages(1);
+        Path root = Files.createDirectory(tempDir.resolve("root"));
+        Path link = root.resolve("link.jpg");
+        boolean linked;
+        try {
+            Files.createSymbolicLink(link, images[0].toPath());
+            linked = true;
+        } catch (IOException | UnsupportedOperationException e) {
+            linked = false;
+        }
+        try (var worker = new SegmentWorkerServer(new InetSocketAddress("127.0.0.1", 0), 1, List.of(root));
+             var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+            encoder.connect();
+            List<Path> outside = new ArrayList<>(List.of(images[0].toPath(), root.resolve("../img00.jpg"),
+                    Path.of("/etc/passwd")));
+            if (linked) {
+                outside.add(link);
+            }
+            for (Path path : outside) {
+                var ex = assertThrows(IOException.class, () ->
+                        encoder.encode(holdRequest(path, 5), packet -> { }, RunStats.NONE), path.toString());
+                assertTrue(ex.getMessage().contains("not under an image root"), ex.getMessage());
+            }
+            assertEquals(0, worker.segmentsEncoded());
+        }
+        try (var worker = new SegmentWorkerServer(new InetSocketAddress("127.0.0.1", 0), 1, List.of());
+             var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+            encoder.connect();
+            var ex = assertThrows(IOException.class, () ->
+                    encoder.encode(holdRequest(images[0].toPath(), 5), packet -> { }, RunStats.NONE));
+            assertTrue(ex.getMessage().contains("only accepts images sent as bytes"), ex.getMessage());
+        }
+    }
+
+    @Test
+    void serve_malformedRequests_areAnsweredAndTheWorkerKeepsServing() throws Exception {
+        File[] images = writeImages(1);
+        try (var worker = startWorker(1)) {
+            assertTrue(sendRaw(worker.address(), rawHoldRequest(WIDTH, HEIGHT, -1)).contains("Invalid image length"));
+            assertTrue(sendRaw(worker.address(), rawHoldRequest(WIDTH, HEIGHT, Integer.MAX_VALUE))
+                    .contains("Invalid image length"));
+            assertTrue(sendRaw(worker.address(), rawHoldRequest(0, HEIGHT, 4)).contains("Invalid output size"));
+            assertTrue(sendRaw(worker.address(), rawHoldRequest(WIDTH, 1 << 20, 4)).contains("Invalid output size"));
+
+            try (var encoder = new RemoteSegmentEncoder(List.of(worker.address()))) {
+                encoder.connect();
+                List<MP4Packet> packets = new ArrayList<>();
+                encoder.encode(holdRequest(images[0].toPath(), 5), packets::add, RunStats.NONE);
+                assertFalse(packets.isEmpty());
+            }
+        }
+    }
+
+    // ========== Retry tests ==========
+
+    @Test
+    void encode_workerHangsUp_retriesOnAnotherWorker() throws Exception {
+        File[] images = writeImages(1);
+        AtomicInteger failedRequests = new AtomicInteger();
+        try (var failing = startFailingWorker(failedRequests);
+             var worker = startWorker(1)) {
+            // the failing worker advertises more slots, so it is tried first
+            var failingAddress = new InetSocketAddress("127.0.0.1", failing.getLocalPort());
+            try (var encoder = new RemoteSegmentEncoder(List.of(failingAddress, worker.address()))) {
+                assertEquals(5, encoder.connect());
+                List<MP4Packet> packets = new ArrayList<>();
+                encoder.encode(holdRequest(images[0].toPath(), 5), packets::add, RunStats.NONE);
+
+                assertEquals(5, packets.size());
+                assertEquals(1, failedRequests.get());
+                assertEquals(1, encoder.retries());
+                assertEquals(1, worker.segmentsEncoded());
+            }
+        }
+    }
+
+    @Test
+    void encode_everyAttemptFails_givesUpAfterMaxAttempts() throws Exception {
+        AtomicInteger failedRequests = new AtomicInteger();
+        try (var failing = startFailingWorker(failedRequests);
+             var encoder = new RemoteSegmentEncoder(
+                     List.of(new InetSocketAddress("127.0.0.1", failing.getLocalPort())))) {
+            encoder.connect();
+            var ex = assertThrows(IOException.class, () ->
+                    encoder.encode(holdRequest(tempDir.resolve("a.jpg"), 5), packet -> { }, RunStats.NONE));
+            assertTrue(ex.getMessage().startsWith("Segment 0 failed " + RemoteSegmentEncoder.MAX_ATTEMPTS + " times"),
+                    ex.getMessage());
+            assertEquals(RemoteSegmentEncoder.MAX_ATTEMPTS, failedRequests.get());
+        }
+    }
+
+    @Test
+    void connect_noWorkerReachable_throws() throws Exception {
+        int port;
+        try (var closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        var encoder = new RemoteSegmentEncoder(List.of(new InetSocketAddress("127.0.0.1", port)));
+        var ex = assertThrows(IOException.class, encoder::connect);
+        assertTrue(ex.getMessage().startsWith("No segment worker reachable"), ex.getMessage());
+    }
+
+    // ========== Run tests ==========
+
+    @Test
+    void encode_onTwoWorkers_matchesLocalOutput() throws Exception {
+        File[] images = writeImages(3);
+        var localBytes = new ByteArrayOutputStream();
+        var local = new JCodecParallelEncoder();
+        local.setOutputFormat(OutputFormat.FMP4);
+        local.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+        local.encode(ImageSource.ofFiles(images), 5, 3, 10, Channels.newChannel(localBytes), 2);
+
+        Path report = tempDir.resolve("report.json");
+        var remoteBytes = new ByteArrayOutputStream();
+        try (var first = startWorker(1);
+             var second = startWorker(2)) {
+            var remote = new JCodecParallelEncoder();
+            remote.setOutputFormat(OutputFormat.FMP4);
+            remote.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+            remote.setRemoteWorkers(List.of(first.address(), second.address()));
+            remote.setReport(report);
+            remote.encode(ImageSource.ofFiles(images), 5, 3, 10, Channels.newChannel(remoteBytes), 1);
+            // fade in, 3 holds, 2 dissolves, fade out
+            assertEquals(7, first.segmentsEncoded() + second.segmentsEncoded());
+        }
+
+        assertArrayEquals(localBytes.toByteArray(), remoteBytes.toByteArray());
+        String json = Files.readString(report);
+        assertTrue(json.contains("\"slots\": 3"), json);
+        assertTrue(json.contains("\"retries\": 0"), json);
+    }
+
+    @Test
+    void encode_inMemoryImages_areSentToWorkers() throws Exception {
+        var bytes = new ByteArrayOutputStream();
+        try (var worker = startWorker(2)) {
+            var encoder = new JCodecParallelEncoder();
+            encoder.setOutputFormat(OutputFormat.FMP4);
+            encoder.setProgressListener(JCodecParallelEncoder.NO_PROGRESS);
+            encoder.setRemoteWorkers(List.of(worker.address()));
+            encoder.encode(ImageSource.ofImages(2, WIDTH, HEIGHT, i -> JCodecParallelEncoderTest.testImage(WIDTH, HEIGHT, i)),
+                    5, 3, 10, Channels.newChannel(bytes), 1);
+            assertEquals(5, worker.segmentsEncoded());
+        }
+        assertTrue(bytes.size() > 0);
+    }
+
+    @Test
+    void encode_iteratorSourceOnWorkers_isRejected() {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setOutputFormat(OutputFormat.FMP4);
+        encoder.setRemoteWorkers(List.of(new InetSocketAddress("127.0.0.1", 1)));
+        var source = ImageSource.ofImages(1, WIDTH, HEIGHT,
+                List.of(JCodecParallelEncoderTest.testImage(WIDTH, HEIGHT, 0)).iterator());
+        assertThrows(IllegalArgumentException.class,
+                () -> encoder.encode(source, 5, 3, 10, Channels.newChannel(new ByteArrayOutputStream()), 1));
+    }
+}
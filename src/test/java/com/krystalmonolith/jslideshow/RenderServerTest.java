@@ -0,0 +1,273 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the render server: shared worker pool, job queue and its front ends.
+ */
+class RenderServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeImages(String name, int count) throws IOException {
+        Path dir = Files.createDirectories(tempDir.resolve(name));
+        for (int i = 0; i < count; i++) {
+            ImageIO.write(JCodecParallelEncoderTest.testImage(64, 48, i), "jpg", dir.resolve("img%02d.jpg".formatted(i)).toFile());
+        }
+        return dir;
+    }
+
+    private static RenderServer.JobRequest request(Path input, Path output) {
+        return new RenderServer.JobRequest(input, output, 1.0, 0.5, 10, OutputFormat.MP4, 0, 0, 0);
+    }
+
+    private static void awaitFinished(RenderServer.Job job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!job.state().finished()) {
+            assertTrue(System.nanoTime() < deadline, "job " + job.id() + " did not finish");
+            Thread.sleep(20);
+        }
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!Files.exists(file)) {
+            assertTrue(System.nanoTime() < deadline, file + " was not written");
+            Thread.sleep(20);
+        }
+    }
+
+    // ========== Shared worker pool tests ==========
+
+    @Test
+    void sharedPool_takesTasksFromLanesRoundRobin() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (var pool = new SharedWorkerPool(1)) {
+            var a = pool.newLane();
+            var b = pool.newLane();
+            a.execute(() -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            // the only worker is busy, so everything below is queued before any of it runs
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i <= 3; i++) {
+                String name = "a" + i;
+                a.execute(() -> order.add(name));
+            }
+            for (int i = 1; i <= 2; i++) {
+                String name = "b" + i;
+                b.execute(() -> order.add(name));
+            }
+            release.countDown();
+            a.shutdown();
+            b.shutdown();
+            assertTrue(a.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue(b.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("a1", "b1", "a2", "b2", "a3"), order);
+    }
+
+    @Test
+    void sharedPool_laneShutdownNow_interruptsOnlyThatLane() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (var pool = new SharedWorkerPool(1)) {
+            var cancelled = pool.newLane();
+            var other = pool.newLane();
+            cancelled.execute(() -> {
+                running.countDown();
+                try {
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            });
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            cancelled.execute(() -> fail("queued task of a cancelled lane ran"));
+            assertEquals(1, cancelled.shutdownNow().size());
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            assertTrue(cancelled.awaitTermination(10, TimeUnit.SECONDS));
+
+            CountDownLatch ran = new CountDownLatch(1);
+            other.execute(ran::countDown);
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    // ========== Job tests ==========
+
+    @Test
+    void jobRequest_parse_resolvesPathsAndPresets() {
+        var props = new Properties();
+        props.setProperty("input", "photos");
+        props.setProperty("output", "/tmp/out.m3u8");
+        props.setProperty("format", "HLS");
+        props.setProperty("size", "720p");
+        props.setProperty("duration", "2");
+        var request = RenderServer.JobRequest.parse(props, tempDir);
+        assertEquals(tempDir.resolve("photos"), request.input());
+        assertEquals(Path.of("/tmp/out.m3u8"), request.output());
+        assertEquals(OutputFormat.HLS, request.format());
+        assertEquals(1280, request.maxWidth());
+        assertEquals(60, request.holdFrames());
+    }
+
+    @Test
+    void jobRequest_parse_withoutInput_throws() {
+        var props = new Properties();
+        props.setProperty("output", "out.mp4");
+        var ex = assertThrows(IllegalArgumentException.class, () -> RenderServer.JobRequest.parse(props, tempDir));
+        assertEquals("input is required", ex.getMessage());
+    }
+
+    @Test
+    void submit_rendersJobsOnSharedPoolAndCountsFrames() throws Exception {
+        Path input = writeImages("in", 3);
+        try (var server = new RenderServer(2, 2)) {
+            var first = server.submit(request(input, tempDir.resolve("a.mp4")));
+            var second = server.submit(request(input, tempDir.resolve("b.mp4")));
+            awaitFinished(first);
+            awaitFinished(second);
+
+            assertEquals(RenderServer.State.SUCCEEDED, first.state(), first.error());
+            assertEquals(RenderServer.State.SUCCEEDED, second.state(), second.error());
+            assertTrue(Files.size(tempDir.resolve("a.mp4")) > 0);
+            // 5 fade in + 3 x 10 hold + 2 x 5 dissolve + 5 fade out
+            assertEquals(50L, first.toMap().get("framesWritten"));
+            assertEquals(100L, server.metrics().get("framesWritten"));
+            assertEquals(0, server.metrics().get("queuedJobs"));
+        }
+    }
+
+    @Test
+    void cancel_queuedJob_neverRuns() throws Exception {
+        Path input = writeImages("in", 3);
+        try (var server = new RenderServer(1, 1)) {
+            var running = server.submit(request(input, tempDir.resolve("a.mp4")));
+            var queued = server.submit(request(input, tempDir.resolve("b.mp4")));
+            assertTrue(queued.cancel());
+            assertEquals(RenderServer.State.CANCELLED, queued.state());
+            assertFalse(queued.cancel(), "already finished");
+
+            awaitFinished(running);
+            assertEquals(RenderServer.State.SUCCEEDED, running.state());
+            assertFalse(Files.exists(tempDir.resolve("b.mp4")));
+        }
+    }
+
+    @Test
+    void cancel_runningJob_interruptsItsSegmentsAndRemovesOutput() throws Exception {
+        Path input = Files.createDirectories(tempDir.resolve("large"));
+        for (int i = 0; i < 3; i++) {
+            ImageIO.write(JCodecParallelEncoderTest.testImage(320, 240, i), "jpg", input.resolve("img%02d.jpg".formatted(i)).toFile());
+        }
+        Path output = tempDir.resolve("long.mp4");
+        try (var server = new RenderServer(1, 1)) {
+            var job = server.submit(new RenderServer.JobRequest(input, output, 1.0, 10.0, 30, OutputFormat.MP4, 0, 0, 0));
+            while (job.state() == RenderServer.State.QUEUED) {
+                Thread.sleep(5);
+            }
+            assertTrue(job.cancel());
+            awaitFinished(job);
+            assertEquals(RenderServer.State.CANCELLED, job.state());
+            assertFalse(Files.exists(output));
+            assertEquals(1L, ((java.util.Map<?, ?>) server.metrics().get("jobs")).get("cancelled"));
+        }
+    }
+
+    @Test
+    void submit_withoutImages_fails() throws Exception {
+        Path empty = Files.createDirectories(tempDir.resolve("empty"));
+        try (var server = new RenderServer(1, 1)) {
+            var job = server.submit(request(empty, tempDir.resolve("out.mp4")));
+            awaitFinished(job);
+            assertEquals(RenderServer.State.FAILED, job.state());
+            assertTrue(job.error().contains("No .JPG or .jpg files"), job.error());
+        }
+    }
+
+    // ========== Front end tests ==========
+
+    @Test
+    void httpApi_submitsJobsAndReportsStatusAndMetrics() throws Exception {
+        Path input = writeImages("in", 2);
+        try (var server = new RenderServer(1, 1);
+             var api = new RenderHttpApi(server, new InetSocketAddress("127.0.0.1", 0));
+             var client = HttpClient.newHttpClient()) {
+            String base = "http://127.0.0.1:" + api.address().getPort();
+            var created = client.send(HttpRequest.newBuilder(URI.create(base + "/jobs"))
+                            .POST(HttpRequest.BodyPublishers.ofString("input=" + input + "\noutput=" + tempDir.resolve("out.mp4")
+                                    + "\nduration=1\ntransition=0.5\nframeRate=10\n"))
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(201, created.statusCode(), created.body());
+            assertTrue(created.body().contains("\"id\": 1"), created.body());
+
+            awaitFinished(server.job(1));
+            var status = client.send(HttpRequest.newBuilder(URI.create(base + "/jobs/1")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(status.body().contains("\"state\": \"succeeded\""), status.body());
+
+            var metrics = client.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(metrics.body().contains("\"queuedJobs\": 0"), metrics.body());
+
+            var bad = client.send(HttpRequest.newBuilder(URI.create(base + "/jobs"))
+                            .POST(HttpRequest.BodyPublishers.ofString("output=x.mp4\n")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(400, bad.statusCode());
+            var missing = client.send(HttpRequest.newBuilder(URI.create(base + "/jobs/99")).DELETE().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(404, missing.statusCode());
+        }
+    }
+
+    @Test
+    void spoolWatcher_submitsDroppedJobFilesAndWritesStatus() throws Exception {
+        writeImages("in", 2);
+        Path spool = Files.createDirectories(tempDir.resolve("spool"));
+        // present before the watcher starts
+        Files.writeString(spool.resolve("bad.job"), "input=in\n");
+        try (var server = new RenderServer(1, 1);
+             var watcher = new SpoolWatcher(server, spool, JCodecParallelEncoder.NO_PROGRESS)) {
+            Path temp = spool.resolve("show.tmp");
+            Files.writeString(temp, "input=../in\noutput=show.mp4\nduration=1\ntransition=0.5\nframeRate=10\n");
+            Files.move(temp, spool.resolve("show.job"));
+
+            awaitFile(spool.resolve("show.status.json"));
+            assertTrue(Files.readString(spool.resolve("show.status.json")).contains("\"state\": \"succeeded\""));
+            assertTrue(Files.exists(spool.resolve("show.job.accepted")));
+            assertTrue(Files.size(spool.resolve("show.mp4")) > 0);
+
+            assertTrue(Files.exists(spool.resolve("bad.job.rejected")));
+            assertTrue(Files.readString(spool.resolve("bad.status.json")).contains("output is required"));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RunStats and ProgressReporter.
+ */
+class RunStatsTest {
+
+    // ========== Stage timing tests ==========
+
+    @Test
+    void stop_accumulatesCountAndTimePerStage() throws InterruptedException {
+        var stats = new RunStats();
+        for (int i = 0; i < 3; i++) {
+            long start = stats.start();
+            Thread.sleep(2);
+            stats.stop(RunStats.Stage.ENCODE, start);
+        }
+        assertEquals(3, stats.stageCount(RunStats.Stage.ENCODE));
+        assertTrue(stats.stageNanos(RunStats.Stage.ENCODE) >= 6_000_000);
+        assertEquals(0, stats.stageCount(RunStats.Stage.DECODE));
+    }
+
+    @Test
+    void none_discardsStageTimes() {
+        long start = RunStats.NONE.start();
+        RunStats.NONE.stop(RunStats.Stage.BLEND, start);
+        assertEquals(0, RunStats.NONE.stageCount(RunStats.Stage.BLEND));
+    }
+
+    @Test
+    void queueWait_isChargedOnlyWhenChannelIsFull() throws InterruptedException {
+        var stats = new RunStats();
+        var channel = new SegmentChannel(0, 1, stats);
+        channel.accept(JCodecParallelEncoder.framePacket(ByteBuffer.allocate(1), 0, 30, true));
+        assertEquals(0, stats.stageCount(RunStats.Stage.QUEUE_WAIT));
+
+        Thread consumer = Thread.ofPlatform().start(() -> {
+            try {
+                Thread.sleep(20);
+                channel.receive();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        channel.accept(JCodecParallelEncoder.framePacket(ByteBuffer.allocate(1), 1, 30, false));
+        consumer.join();
+        assertEquals(1, stats.stageCount(RunStats.Stage.QUEUE_WAIT));
+    }
+
+    // ========== Report tests ==========
+
+    @Test
+    void stageReport_listsEveryStageInPipelineOrder() {
+        var report = new RunStats().stageReport();
+        assertEquals(Arrays.stream(RunStats.Stage.values()).map(RunStats.Stage::key).toList(),
+                List.copyOf(report.keySet()));
+    }
+
+    @Test
+    void toJson_rendersNestedValuesAndEscapesStrings() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", "a \"b\"\n");
+        map.put("count", 3L);
+        map.put("rate", 0.5);
+        map.put("none", null);
+        map.put("list", List.of(1, 2));
+        map.put("nested", Map.of("z", 1, "a", true));
+        assertEquals("""
+                {
+                  "name": "a \\"b\\"\\n",
+                  "count": 3,
+                  "rate": 0.500,
+                  "none": null,
+                  "list": [1, 2],
+                  "nested": {
+                    "a": true,
+                    "z": 1
+                  }
+                }
+                """, RunStats.toJson(map));
+    }
+
+    // ========== Progress tests ==========
+
+    @Test
+    void progressReporter_printsFromItsOwnThreadAndFinalLineOnClose() throws InterruptedException {
+        var stats = new RunStats();
+        var bytes = new ByteArrayOutputStream();
+        var out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        try (var progress = new ProgressReporter(stats, 2, 10, 10, out, false)) {
+            stats.segmentDone(false);
+            stats.frameMuxed(100);
+            Thread.sleep(50);
+        }
+        String[] lines = bytes.toString(StandardCharsets.UTF_8).split("\\R");
+        assertTrue(lines.length >= 2, "periodic updates plus the final line");
+        assertTrue(lines[lines.length - 1].contains("1/2 segments encoded"), lines[lines.length - 1]);
+        assertTrue(lines[lines.length - 1].contains("1/10 frames"), lines[lines.length - 1]);
+    }
+
+    @Test
+    void progressReporter_messageClearsTheStatusLineAndRedrawsIt() throws InterruptedException {
+        var stats = new RunStats();
+        var bytes = new ByteArrayOutputStream();
+        var out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        try (var progress = new ProgressReporter(stats, 2, 10, 10, out, true)) {
+            Thread.sleep(50);
+            progress.message("Could not write segment cache entry");
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        int message = text.indexOf("Could not write segment cache entry");
+        assertTrue(message > 0, text);
+        // the message starts a cleared line and the status line follows it
+        assertEquals('\r', text.charAt(message - 1));
+        assertTrue(text.indexOf("Progress:", message) > message, text);
+    }
+}
@@ -0,0 +1,154 @@
+package com.krystalmonolith.jslideshow;
+
+import com.krystalmonolith.jslideshow.JCodecParallelEncoder.SegmentSpec;
+import com.krystalmonolith.jslideshow.JCodecParallelEncoder.SegmentType;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SegmentCache.
+ */
+class SegmentCacheTest {
+
+    private static final List<String> HASHES = List.of("aaaa", "bbbb", "cccc");
+
+    private static List<MP4Packet> packets(int count, int size) {
+        List<MP4Packet> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[size];
+            data[0] = (byte) i;
+            packets.add(JCodecParallelEncoder.framePacket(ByteBuffer.wrap(data), i, 30, i == 0));
+        }
+        return packets;
+    }
+
+    private static void put(SegmentCache cache, String key, List<MP4Packet> packets) {
+        try (SegmentCache.Writer writer = cache.begin(key)) {
+            packets.forEach(writer::accept);
+            writer.commit();
+        }
+    }
+
+    private static List<MP4Packet> get(SegmentCache cache, String key) throws Exception {
+        List<MP4Packet> packets = new ArrayList<>();
+        return cache.get(key, 30, packets::add) ? packets : null;
+    }
+
+    // ========== Key tests ==========
+
+    @Test
+    void key_ignoresSegmentPositionButNotContent() {
+        var hold = new SegmentSpec(3, SegmentType.HOLD, 1, -1, 90);
+        var sameHoldElsewhere = new SegmentSpec(7, SegmentType.HOLD, 1, -1, 90);
+        var otherImage = new SegmentSpec(3, SegmentType.HOLD, 2, -1, 90);
+
+        String key = SegmentCache.key(hold, HASHES, 30, 640, 480, null);
+
+        assertEquals(key, SegmentCache.key(sameHoldElsewhere, HASHES, 30, 640, 480, null));
+        assertNotEquals(key, SegmentCache.key(otherImage, HASHES, 30, 640, 480, null));
+        assertNotEquals(key, SegmentCache.key(hold, HASHES, 25, 640, 480, null));
+        assertNotEquals(key, SegmentCache.key(hold, HASHES, 30, 320, 240, null));
+        assertNotEquals(key, SegmentCache.key(new SegmentSpec(3, SegmentType.HOLD, 1, -1, 45, 45, 90),
+                HASHES, 30, 640, 480, null));
+        assertNotEquals(key, SegmentCache.key(hold, HASHES, 30, 640, 480, RateMode.constantQp(30)));
+        assertNotEquals(SegmentCache.key(hold, HASHES, 30, 640, 480, RateMode.constantQp(30)),
+                SegmentCache.key(hold, HASHES, 30, 640, 480, RateMode.constantQp(31)));
+    }
+
+    // ========== Storage tests ==========
+
+    @Test
+    void putThenGet_roundTripsPackets(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS);
+        put(cache, "k1", packets(5, 100));
+
+        assertTrue(new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS).lookup("k1"));
+        List<MP4Packet> read = get(cache, "k1");
+
+        assertEquals(5, read.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i == 0, read.get(i).isKeyFrame());
+            assertEquals(100, read.get(i).getData().remaining());
+            assertEquals(i, read.get(i).getData().get(0));
+        }
+    }
+
+    @Test
+    void lookup_missingKey_isFalse(@TempDir Path tempDir) throws Exception {
+        assertFalse(new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS).lookup("nope"));
+    }
+
+    @Test
+    void put_beyondLimit_evictsLeastRecentlyUsed(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 2500, JCodecParallelEncoder.NO_PROGRESS);
+        put(cache, "a", packets(1, 1000));
+        put(cache, "b", packets(1, 1000));
+        cache.lookup("a");
+        get(cache, "a");
+
+        put(cache, "c", packets(1, 1000));
+
+        assertTrue(cache.lookup("a"));
+        assertFalse(cache.lookup("b"));
+        assertTrue(cache.lookup("c"));
+        assertTrue(cache.size() <= 2500);
+    }
+
+    @Test
+    void put_beyondLimit_keepsPinnedEntries(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 1500, JCodecParallelEncoder.NO_PROGRESS);
+        put(cache, "a", packets(1, 1000));
+        assertTrue(cache.lookup("a"));
+
+        put(cache, "b", packets(1, 1000));
+
+        assertNotNull(get(cache, "a"));
+    }
+
+    @Test
+    void get_badHeader_isMissAndDropped(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS);
+        put(cache, "a", packets(2, 10));
+        Files.write(tempDir.resolve("a.seg"), new byte[]{1, 2, 3});
+
+        assertTrue(cache.lookup("a"));
+        assertNull(get(cache, "a"));
+        assertFalse(cache.lookup("a"));
+    }
+
+    @Test
+    void get_truncatedEntry_throwsAndDrops(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS);
+        put(cache, "a", packets(3, 100));
+        Path file = tempDir.resolve("a.seg");
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, java.util.Arrays.copyOf(bytes, bytes.length - 50));
+
+        assertTrue(cache.lookup("a"));
+        assertThrows(IOException.class, () -> get(cache, "a"));
+        assertFalse(cache.lookup("a"));
+    }
+
+    @Test
+    void writer_closedWithoutCommit_leavesNoEntry(@TempDir Path tempDir) throws Exception {
+        var cache = new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS);
+        try (SegmentCache.Writer writer = cache.begin("a")) {
+            packets(2, 10).forEach(writer::accept);
+        }
+
+        assertFalse(cache.lookup("a"));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.krystalmonolith.jslideshow;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for SegmentChannel.
+ */
+class SegmentChannelTest {
+
+    @Test
+    void receive_deliversPacketsInOrderThenNull() throws InterruptedException {
+        var channel = new SegmentChannel(4, 8);
+        for (int i = 0; i < 3; i++) {
+            channel.accept(JCodecParallelEncoder.framePacket(ByteBuffer.wrap(new byte[]{(byte) i}), i, 30, i == 0));
+        }
+        channel.close();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, channel.receive().getData().get(0));
+        }
+        assertNull(channel.receive());
+        assertEquals(4, channel.segmentIndex());
+    }
+
+    @Test
+    void accept_whenFull_blocksUntilReceived() throws InterruptedException {
+        var channel = new SegmentChannel(0, 2);
+        Thread producer = Thread.ofPlatform().start(() -> {
+            try {
+                for (int i = 0; i < 5; i++) {
+                    channel.accept(JCodecParallelEncoder.framePacket(ByteBuffer.allocate(1), i, 30, false));
+                }
+                channel.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // the producer stalls once two packets are buffered
+        assertFalse(producer.join(java.time.Duration.ofMillis(200)));
+
+        int received = 0;
+        while (channel.receive() != null) {
+            received++;
+        }
+        assertTrue(producer.join(java.time.Duration.ofSeconds(5)));
+        assertEquals(5, received);
+    }
+}
@@ -0,0 +1,215 @@
+package com.krystalmonolith.jslideshow;
+
+import com.krystalmonolith.jslideshow.JCodecParallelEncoder.SegmentSpec;
+import com.krystalmonolith.jslideshow.JCodecParallelEncoder.SegmentType;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the Transition SPI: the built-in transitions, static frame deduplication and
+ * how a transition is carried into cache keys, cache entries and worker requests.
+ */
+class TransitionTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    /**
+     * A picture whose three planes are filled with {@code luma}, {@code cb} and {@code cr}.
+     */
+    private static Picture solid(int luma, int cb, int cr) {
+        Picture picture = Picture.create(WIDTH, HEIGHT, ColorSpace.YUV420J);
+        Arrays.fill(picture.getPlaneData(0), (byte) luma);
+        Arrays.fill(picture.getPlaneData(1), (byte) cb);
+        Arrays.fill(picture.getPlaneData(2), (byte) cr);
+        return picture;
+    }
+
+    private static byte sample(Picture picture, int plane, int x, int y) {
+        return picture.getPlaneData(plane)[y * picture.getPlaneWidth(plane) + x];
+    }
+
+    /**
+     * A transition that renders nothing and is static on frames 1 to 4.
+     */
+    private static final Transition HOLDS_AFTER_FIRST = new Transition() {
+        @Override
+        public String name() {
+            return "test-holds";
+        }
+
+        @Override
+        public Picture render(Picture from, Picture to, int frame, int frames, Picture dest) {
+            return frame < 5 ? from : to;
+        }
+
+        @Override
+        public boolean isStatic(int frame, int frames) {
+            return frame >= 1 && frame <= 4;
+        }
+    };
+
+    // ========== Lookup tests ==========
+
+    @Test
+    void named_findsBuiltInsOnly() {
+        assertSame(Transition.DISSOLVE, Transition.named("dissolve"));
+        assertSame(Transition.WIPE, Transition.named("wipe"));
+        assertNull(Transition.named("spin"));
+        assertEquals(List.of("dissolve", "wipe"), Transition.available().stream().map(Transition::name).toList());
+    }
+
+    // ========== Render tests ==========
+
+    @Test
+    void dissolve_rendersIntoDestination() {
+        Picture from = solid(10, 0, 0);
+        Picture to = solid(90, 0, 0);
+        Picture dest = YuvBlender.createLike(from);
+        assertSame(dest, Transition.DISSOLVE.render(from, to, 4, 10, dest));
+        assertSame(to, Transition.DISSOLVE.render(from, to, 9, 10, dest));
+        assertSame(to, Transition.DISSOLVE.render(null, to, 9, 10, dest));
+        assertSame(dest, Transition.DISSOLVE.render(from, null, 0, 10, dest));
+    }
+
+    @Test
+    void wipe_showsIncomingImageLeftOfTheEdge() {
+        Picture from = solid(10, 20, 30);
+        Picture to = solid(90, 80, 70);
+        Picture dest = YuvBlender.createLike(from);
+        // half way: weight ONE / 2, edge at column 32, chroma column 16
+        assertSame(dest, Transition.WIPE.render(from, to, 3, 8, dest));
+        for (int y : new int[]{0, HEIGHT - 1}) {
+            assertEquals(90, sample(dest, 0, 31, y));
+            assertEquals(10, sample(dest, 0, 32, y));
+            assertEquals(80, sample(dest, 1, 15, y / 2));
+            assertEquals(20, sample(dest, 1, 16, y / 2));
+            assertEquals(30, sample(dest, 2, 16, y / 2));
+        }
+        assertSame(to, Transition.WIPE.render(from, to, 7, 8, dest));
+    }
+
+    @Test
+    void wipe_fromBlack_fillsTheRightWithBlack() {
+        Picture to = solid(90, 80, 70);
+        Picture dest = YuvBlender.createLike(to);
+        Transition.WIPE.render(null, to, 3, 8, dest);
+        assertEquals(90, sample(dest, 0, 0, 0));
+        assertEquals(YuvBlender.black(0), sample(dest, 0, WIDTH - 1, 0));
+        assertEquals(YuvBlender.black(1), sample(dest, 1, WIDTH / 2 - 1, 0));
+        assertEquals(YuvBlender.black(2), sample(dest, 2, WIDTH / 2 - 1, 0));
+    }
+
+    @Test
+    void isStatic_onlyForRepeatedWeights() {
+        assertFalse(Transition.DISSOLVE.isStatic(0, 20));
+        for (int frame = 1; frame < 20; frame++) {
+            assertFalse(Transition.DISSOLVE.isStatic(frame, 20));
+        }
+        int repeated = 0;
+        for (int frame = 1; frame < 600; frame++) {
+            if (Transition.WIPE.isStatic(frame, 600)) {
+                repeated++;
+            }
+        }
+        assertTrue(repeated > 0);
+    }
+
+    // ========== Encode tests ==========
+
+    @Test
+    void encodeOneSegment_staticFrames_extendThePreviousPacket() throws Exception {
+        var spec = new SegmentSpec(0, SegmentType.DISSOLVE, 0, 1, 8);
+        var images = Map.of(0, solid(10, 0, 0), 1, solid(90, 0, 0));
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, images, 30, 1, null, HOLDS_AFTER_FIRST, packets::add,
+                RunStats.NONE);
+        assertEquals(List.of(0L, 5L, 6L, 7L), packets.stream().map(MP4Packet::getPts).toList());
+        assertEquals(List.of(5L, 1L, 1L, 1L), packets.stream().map(MP4Packet::getDuration).toList());
+        assertTrue(packets.getFirst().isKeyFrame());
+    }
+
+    @Test
+    void encodeOneSegment_splitTransition_rendersFromItsFirstFrame() throws Exception {
+        // the last part of a span split after the static run
+        var spec = new SegmentSpec(1, SegmentType.DISSOLVE, 0, 1, 3, 5, 8);
+        var images = Map.of(0, solid(10, 0, 0), 1, solid(90, 0, 0));
+        List<MP4Packet> packets = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, images, 30, 1, null, HOLDS_AFTER_FIRST, packets::add,
+                RunStats.NONE);
+        assertEquals(3, packets.size());
+        assertTrue(packets.getFirst().isKeyFrame());
+    }
+
+    // ========== Carrying tests ==========
+
+    @Test
+    void cacheKey_changesOnlyForOtherTransitions() {
+        var spec = new SegmentSpec(0, SegmentType.DISSOLVE, 0, 1, 8);
+        List<String> hashes = List.of("aaaa", "bbbb");
+        String key = SegmentCache.key(spec, hashes, 30, WIDTH, HEIGHT, null);
+        assertEquals(key, SegmentCache.key(spec, hashes, 30, WIDTH, HEIGHT, null, Transition.DISSOLVE));
+        assertNotEquals(key, SegmentCache.key(spec, hashes, 30, WIDTH, HEIGHT, null, Transition.WIPE));
+    }
+
+    @Test
+    void cache_roundTripsHeldPackets(@TempDir Path tempDir) throws Exception {
+        var spec = new SegmentSpec(0, SegmentType.DISSOLVE, 0, 1, 8);
+        List<MP4Packet> encoded = new ArrayList<>();
+        JCodecParallelEncoder.encodeOneSegment(spec, Map.of(0, solid(10, 0, 0), 1, solid(90, 0, 0)), 30, 1, null,
+                HOLDS_AFTER_FIRST, encoded::add, RunStats.NONE);
+
+        var cache = new SegmentCache(tempDir, 1 << 20, JCodecParallelEncoder.NO_PROGRESS);
+        try (SegmentCache.Writer writer = cache.begin("held")) {
+            encoded.forEach(writer::accept);
+            writer.commit();
+        }
+        assertTrue(cache.lookup("held"));
+        List<MP4Packet> read = new ArrayList<>();
+        assertTrue(cache.get("held", 30, read::add));
+        assertEquals(encoded.stream().map(MP4Packet::getPts).toList(), read.stream().map(MP4Packet::getPts).toList());
+        assertEquals(encoded.stream().map(MP4Packet::getDuration).toList(),
+                read.stream().map(MP4Packet::getDuration).toList());
+    }
+
+    @Test
+    void remoteRequest_carriesTransitionByName() throws Exception {
+        var spec = new SegmentSpec(2, SegmentType.FADE_OUT, 3, -1, 8);
+        var request = new SegmentProtocol.Request(spec, 30, WIDTH, HEIGHT, null, "wipe",
+                SegmentProtocol.ImageRef.of(new byte[]{1, 2}), null);
+        var bytes = new ByteArrayOutputStream();
+        request.write(new DataOutputStream(bytes));
+        var read = SegmentProtocol.Request.read(new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("wipe", read.transition());
+        assertEquals(spec, read.spec());
+    }
+
+    @Test
+    void transitionFor_usesPerImageOverride() {
+        var encoder = new JCodecParallelEncoder();
+        encoder.setTransition(Transition.WIPE);
+        encoder.setTransition(2, Transition.DISSOLVE);
+        assertSame(Transition.WIPE, encoder.transition(new SegmentSpec(0, SegmentType.FADE_IN, 0, -1, 8)));
+        assertSame(Transition.DISSOLVE, encoder.transition(new SegmentSpec(3, SegmentType.DISSOLVE, 1, 2, 8)));
+        assertSame(Transition.WIPE, encoder.transition(new SegmentSpec(5, SegmentType.DISSOLVE, 2, 3, 8)));
+        assertNull(encoder.transition(new SegmentSpec(1, SegmentType.HOLD, 0, -1, 8)));
+        encoder.setTransition(2, null);
+        assertSame(Transition.WIPE, encoder.transition(new SegmentSpec(3, SegmentType.DISSOLVE, 1, 2, 8)));
+    }
+}
@@ -0,0 +1,133 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.AWTUtil;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for YuvBlender.
+ */
+class YuvBlenderTest {
+
+    private static byte[] randomPlane(Random random, int length) {
+        byte[] plane = new byte[length];
+        random.nextBytes(plane);
+        return plane;
+    }
+
+    // ========== Kernel tests ==========
+
+    @Test
+    void vectorKernel_matchesScalarKernel() {
+        assumeVectorModule();
+        var scalar = new YuvBlender.ScalarPlaneKernel();
+        var vector = new VectorPlaneKernel();
+        var random = new Random(42);
+        // odd length exercises the scalar tail of the vector loop
+        byte[] a = randomPlane(random, 1021);
+        byte[] b = randomPlane(random, 1021);
+
+        for (int weight : new int[]{0, 1, 77, 128, 200, 255, 256}) {
+            byte[] expected = new byte[a.length];
+            byte[] actual = new byte[a.length];
+            scalar.mix(a, b, weight, expected);
+            vector.mix(a, b, weight, actual);
+            assertArrayEquals(expected, actual, "mix, weight " + weight);
+
+            scalar.mixConstant(a, (byte) -128, weight, expected);
+            vector.mixConstant(a, (byte) -128, weight, actual);
+            assertArrayEquals(expected, actual, "mixConstant, weight " + weight);
+        }
+    }
+
+    private static void assumeVectorModule() {
+        assumeTrue(
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent(),
+                "jdk.incubator.vector not available");
+    }
+
+    @Test
+    void selectKernel_vectorOnlyForAtLeast256BitShapes() {
+        assumeVectorModule();
+        assertInstanceOf(YuvBlender.ScalarPlaneKernel.class, YuvBlender.selectKernel(64));
+        assertInstanceOf(YuvBlender.ScalarPlaneKernel.class, YuvBlender.selectKernel(128));
+        assertInstanceOf(VectorPlaneKernel.class, YuvBlender.selectKernel(256));
+        assertInstanceOf(VectorPlaneKernel.class, YuvBlender.selectKernel(512));
+    }
+
+    @Test
+    void scalarKernel_endpointWeightsReturnSources() {
+        var kernel = new YuvBlender.ScalarPlaneKernel();
+        var random = new Random(7);
+        byte[] a = randomPlane(random, 64);
+        byte[] b = randomPlane(random, 64);
+        byte[] dst = new byte[64];
+
+        kernel.mix(a, b, 0, dst);
+        assertArrayEquals(a, dst);
+        kernel.mix(a, b, YuvBlender.ONE, dst);
+        assertArrayEquals(b, dst);
+    }
+
+    // ========== Picture blend tests ==========
+
+    @Test
+    void fadeToBlack_fullWeight_matchesConvertedBlackImage() {
+        Picture image = AWTUtil.fromBufferedImage(
+                JCodecParallelEncoderTest.testImage(32, 16, 3), ColorSpace.YUV420J);
+        Picture black = AWTUtil.fromBufferedImage(
+                new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB), ColorSpace.YUV420J);
+        Picture dst = YuvBlender.createLike(image);
+
+        YuvBlender.fadeToBlack(image, YuvBlender.ONE, dst);
+        for (int p = 0; p < 3; p++) {
+            assertArrayEquals(black.getPlaneData(p), dst.getPlaneData(p), "plane " + p);
+        }
+    }
+
+    @Test
+    void dissolve_midpoint_isWithinOneOfRgbBlend() {
+        BufferedImage rgbA = JCodecParallelEncoderTest.testImage(32, 16, 1);
+        BufferedImage rgbB = JCodecParallelEncoderTest.testImage(32, 16, 4);
+        Picture a = AWTUtil.fromBufferedImage(rgbA, ColorSpace.YUV420J);
+        Picture b = AWTUtil.fromBufferedImage(rgbB, ColorSpace.YUV420J);
+
+        BufferedImage rgbMid = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) {
+                int pa = rgbA.getRGB(x, y);
+                int pb = rgbB.getRGB(x, y);
+                int mid = 0;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    mid |= ((((pa >> shift) & 0xFF) + ((pb >> shift) & 0xFF) + 1) >> 1) << shift;
+                }
+                rgbMid.setRGB(x, y, mid);
+            }
+        }
+        Picture expected = AWTUtil.fromBufferedImage(rgbMid, ColorSpace.YUV420J);
+        Picture dst = YuvBlender.createLike(a);
+        YuvBlender.dissolve(a, b, YuvBlender.ONE / 2, dst);
+
+        for (int p = 0; p < 3; p++) {
+            byte[] e = expected.getPlaneData(p);
+            byte[] d = dst.getPlaneData(p);
+            for (int i = 0; i < e.length; i++) {
+                assertTrue(Math.abs(e[i] - d[i]) <= 2, "plane " + p + " sample " + i + ": " + e[i] + " vs " + d[i]);
+            }
+        }
+    }
+
+    @Test
+    void weight_lastFrameIsOne() {
+        assertEquals(YuvBlender.ONE, YuvBlender.weight(22, 23));
+        assertEquals(YuvBlender.ONE, YuvBlender.weight(0, 1));
+        assertEquals(YuvBlender.ONE / 2, YuvBlender.weight(0, 2));
+    }
+}
@@ -0,0 +1,265 @@
+package com.krystalmonolith.jslideshow;
+
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+import org.jcodec.scale.AWTUtil;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for YuvConverter, checked against letterboxing onto an RGB canvas and converting
+ * with the JFIF matrix, and against the same matrix for JPEGs decoded straight to YCbCr.
+ */
+class YuvConverterTest {
+
+    /**
+     * Random colors, so every channel value and the clipped chroma extremes occur, with a pure
+     * blue and a pure red pixel in the first row.
+     */
+    private static BufferedImage noise(int width, int height, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rgb.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        rgb.setRGB(0, 0, 0x0000FF);
+        rgb.setRGB(1, 0, 0xFF0000);
+        if (type == BufferedImage.TYPE_INT_RGB) {
+            return rgb;
+        }
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        try {
+            g.drawImage(rgb, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        return img;
+    }
+
+    private static void assertSamePlanes(Picture expected, Picture actual, String message) {
+        assertEquals(expected.getWidth(), actual.getWidth(), message);
+        assertEquals(expected.getHeight(), actual.getHeight(), message);
+        for (int p = 0; p < 3; p++) {
+            assertArrayEquals(expected.getPlaneData(p), actual.getPlaneData(p), message + ", plane " + p);
+        }
+    }
+
+    /**
+     * Chroma must equal JCodec's conversion of the letterboxed RGB canvas, whose chroma is the JFIF
+     * matrix; luma must be within one of the JFIF matrix in floating point, as JCodec's luma weights
+     * blue 15/256 rather than 0.114.
+     */
+    private static void assertMatchesCanvas(BufferedImage img, int width, int height, String message) {
+        BufferedImage canvas = ImageScaler.letterbox(img, width, height);
+        Picture expected = AWTUtil.fromBufferedImage(canvas, ColorSpace.YUV420J);
+        Picture actual = YuvConverter.letterbox(img, width, height);
+        assertEquals(expected.getWidth(), actual.getWidth(), message);
+        assertEquals(expected.getHeight(), actual.getHeight(), message);
+        for (int p = 1; p < 3; p++) {
+            assertArrayEquals(expected.getPlaneData(p), actual.getPlaneData(p), message + ", plane " + p);
+        }
+        byte[] luma = actual.getPlaneData(0);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int c = canvas.getRGB(x, y);
+                int reference = (int) Math.round(0.299 * (c >> 16 & 0xFF) + 0.587 * (c >> 8 & 0xFF)
+                        + 0.114 * (c & 0xFF)) - 128;
+                int sample = luma[y * actual.getPlaneWidth(0) + x];
+                if (Math.abs(reference - sample) > 1) {
+                    fail(message + ", luma at " + x + "," + y + ": " + reference + " vs " + sample);
+                }
+            }
+        }
+    }
+
+    /**
+     * A smooth gradient that survives JPEG compression almost unchanged and stays inside the RGB
+     * gamut, so the decoder's YCbCr to RGB conversion does not clip it.
+     */
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = 32 + x * 191 / width;
+                int g = 32 + y * 191 / height;
+                img.setRGB(x, y, r << 16 | g << 8 | 96);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img, String format) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        ImageIO.write(img, format, bytes);
+        return bytes.toByteArray();
+    }
+
+    // ========== Letterbox tests ==========
+
+    @Test
+    void letterbox_matchesCanvasForEveryOffsetParity() {
+        // odd and even image sizes put the image at odd and even offsets
+        for (int[] size : new int[][]{{40, 30}, {41, 30}, {40, 31}, {39, 27}, {64, 48}}) {
+            BufferedImage img = noise(size[0], size[1], BufferedImage.TYPE_INT_RGB, size[0] * 100L + size[1]);
+            assertMatchesCanvas(img, 64, 48, size[0] + "x" + size[1]);
+        }
+    }
+
+    @Test
+    void letterbox_matchesCanvasForEachImageType() {
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_USHORT_565_RGB, BufferedImage.TYPE_BYTE_INDEXED,
+                BufferedImage.TYPE_USHORT_GRAY};
+        for (int type : types) {
+            assertMatchesCanvas(noise(37, 25, type, type), 64, 48, "type " + type);
+        }
+    }
+
+    @Test
+    void letterbox_resizedImage_matchesCanvas() {
+        assertMatchesCanvas(noise(300, 100, BufferedImage.TYPE_3BYTE_BGR, 7), 64, 48, "wide");
+        assertMatchesCanvas(noise(90, 200, BufferedImage.TYPE_INT_RGB, 8), 64, 48, "tall");
+    }
+
+    @Test
+    void letterbox_decodedJpegs_matchCanvas() throws IOException {
+        for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            var bytes = new ByteArrayOutputStream();
+            ImageIO.write(noise(51, 33, type, 3), "jpg", bytes);
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+            assertMatchesCanvas(decoded, 64, 48, "decoded type " + decoded.getType());
+        }
+    }
+
+    @Test
+    void convert_subimageRaster_readsFromItsOrigin() {
+        BufferedImage img = noise(80, 60, BufferedImage.TYPE_3BYTE_BGR, 11);
+        BufferedImage sub = img.getSubimage(7, 5, 41, 29);
+        BufferedImage copy = noise(41, 29, BufferedImage.TYPE_INT_RGB, 0);
+        Graphics2D g = copy.createGraphics();
+        try {
+            g.drawImage(sub, 0, 0, null);
+        } finally {
+            g.dispose();
+        }
+        assertSamePlanes(YuvConverter.centered(copy, 64, 48), YuvConverter.centered(sub, 64, 48), "subimage");
+    }
+
+    @Test
+    void convert_largeImage_matchesInParallelBands() {
+        // large enough for the banded path, with an odd offset from the top
+        assertMatchesCanvas(noise(1001, 601, BufferedImage.TYPE_INT_RGB, 5), 1024, 640, "large");
+    }
+
+    @Test
+    void convert_imageOutsideOutput_throws() {
+        assertThrows(IllegalArgumentException.class,
+                () -> YuvConverter.convert(noise(10, 10, BufferedImage.TYPE_INT_RGB, 0), false, 60, 0, 64, 48));
+    }
+
+    // ========== YCbCr tests ==========
+
+    @Test
+    void isYCbCrJpeg_onlyForColorJpegs() throws IOException {
+        assertTrue(ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(encode(gradient(40, 30), "jpg"))));
+        // EXIF before JFIF, as cameras write it
+        assertTrue(ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(
+                PreviewTest.jpegWithThumbnail(gradient(40, 30), gradient(20, 15)))));
+        BufferedImage gray = noise(40, 30, BufferedImage.TYPE_BYTE_GRAY, 1);
+        assertFalse(ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(encode(gray, "jpg"))));
+        assertFalse(ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(encode(gradient(40, 30), "png"))));
+        assertFalse(ImageIndex.isYCbCrJpeg(ByteBuffer.wrap(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF})));
+    }
+
+    @Test
+    void decode_marksOnlyYCbCrRasters() throws IOException {
+        BufferedImage color = ImageScaler.decode(encode(gradient(80, 60), "jpg"), "color.jpg", 40, 30);
+        assertTrue(ImageScaler.isYCbCr(color));
+        assertEquals(40, color.getWidth());
+        assertEquals(30, color.getHeight());
+        BufferedImage gray = noise(80, 60, BufferedImage.TYPE_BYTE_GRAY, 2);
+        assertFalse(ImageScaler.isYCbCr(ImageScaler.decode(encode(gray, "jpg"), "gray.jpg", 40, 30)));
+        assertFalse(ImageScaler.isYCbCr(ImageScaler.decode(encode(gradient(80, 60), "png"), "color.png", 40, 30)));
+    }
+
+    @Test
+    void centered_ycbcr_matchesJfifMatrixWithExactBorders() throws IOException {
+        byte[] jpeg = encode(gradient(51, 33), "jpg");
+        BufferedImage raw = ImageScaler.decode(jpeg, "img.jpg", 64, 48);
+        BufferedImage rgb = ImageIO.read(new ByteArrayInputStream(jpeg));
+        Picture yuv = YuvConverter.centered(raw, true, 64, 48);
+        int x0 = (64 - 51) / 2;
+        int y0 = (48 - 33) / 2;
+        byte[] luma = yuv.getPlaneData(0);
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                int expected = -128;
+                if (x >= x0 && x < x0 + 51 && y >= y0 && y < y0 + 33) {
+                    int c = rgb.getRGB(x - x0, y - y0);
+                    expected = (int) Math.round(0.299 * (c >> 16 & 0xFF) + 0.587 * (c >> 8 & 0xFF)
+                            + 0.114 * (c & 0xFF)) - 128;
+                }
+                int actual = luma[y * 64 + x];
+                assertTrue(Math.abs(expected - actual) <= (expected == -128 ? 0 : 2),
+                        "luma at " + x + "," + y + ": " + expected + " vs " + actual);
+            }
+        }
+        byte[] cb = yuv.getPlaneData(1);
+        byte[] cr = yuv.getPlaneData(2);
+        for (int y = 0; y < 24; y++) {
+            for (int x = 0; x < 32; x++) {
+                boolean border = 2 * x + 1 < x0 || 2 * x >= x0 + 51 || 2 * y + 1 < y0 || 2 * y >= y0 + 33;
+                if (border) {
+                    assertEquals(0, cb[y * 32 + x], "cb at " + x + "," + y);
+                    assertEquals(0, cr[y * 32 + x], "cr at " + x + "," + y);
+                }
+            }
+        }
+        // inside the image chroma follows the gradient: red rises to the right, green downwards
+        int mid = (y0 / 2 + 8) * 32;
+        assertTrue(cr[mid + x0 / 2 + 20] > cr[mid + x0 / 2 + 2]);
+        assertTrue(cb[mid + x0 / 2 + 20] < cb[mid + x0 / 2 + 2]);
+    }
+
+    @Test
+    void centered_whiteIsFullRangeForEveryInputType() throws IOException {
+        BufferedImage white = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = white.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, 32, 32);
+        } finally {
+            g.dispose();
+        }
+        BufferedImage gray = new BufferedImage(32, 32, BufferedImage.TYPE_BYTE_GRAY);
+        Arrays.fill(((DataBufferByte) gray.getRaster().getDataBuffer()).getData(), (byte) 255);
+        var inputs = new LinkedHashMap<String, BufferedImage>();
+        inputs.put("rgb", white);
+        inputs.put("gray", gray);
+        inputs.put("png", ImageScaler.decode(encode(white, "png"), "white.png", 32, 32));
+        inputs.put("ycbcr jpeg", ImageScaler.decode(encode(white, "jpg"), "white.jpg", 32, 32));
+        assertTrue(ImageScaler.isYCbCr(inputs.get("ycbcr jpeg")));
+        inputs.forEach((name, img) -> {
+            Picture yuv = YuvConverter.centered(img, 32, 32);
+            assertEquals(127, yuv.getPlaneData(0)[16 * 32 + 16], name);
+            assertEquals(0, yuv.getPlaneData(1)[8 * 16 + 8], name);
+        });
+    }
+}